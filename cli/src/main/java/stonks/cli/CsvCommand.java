@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.cli;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import stonks.core.service.journal.JournalRecord;
+
+/**
+ * <p>
+ * Export records as CSV, one row per record. Offers in save files and
+ * snapshots are exported as {@code listed} rows, while journals may also have
+ * {@code updated} and {@code removed} rows with some columns left empty.
+ * </p>
+ */
+public class CsvCommand implements StonksTool.Command {
+	public static final String HEADER = "record,offer_id,offerer_id,product_id,type,total_units,claimed_units,"
+		+ "filled_units,price_per_unit,price_improvement";
+
+	@Override
+	public String getUsage() { return "<input> [output]"; }
+
+	@Override
+	public String getDescription() { return "Export offers or journal records as CSV, to output file or stdout."; }
+
+	@Override
+	public int run(StonksTool.Arguments args, PrintStream out) throws IOException {
+		args.check(1, 2);
+
+		try (var reader = SaveFileReader.open(Path.of(args.get(0)))) {
+			if (args.positional().size() == 1) {
+				// Flushed but not closed, so stdout stays open
+				var writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+				export(reader, writer);
+				writer.flush();
+			} else {
+				try (var writer = Files.newBufferedWriter(Path.of(args.get(1)), StandardCharsets.UTF_8)) {
+					export(reader, writer);
+				}
+			}
+		}
+
+		return StonksTool.EXIT_OK;
+	}
+
+	private static void export(SaveFileReader reader, Writer writer) throws IOException {
+		writer.write(HEADER);
+		writer.write('\n');
+		JournalRecord record;
+
+		while ((record = reader.next()) != null) {
+			switch (record) {
+			case JournalRecord.Listed l -> {
+				var offer = l.offer();
+				writer.write("listed," + offer.getOfferId() + "," + offer.getOffererId() + ","
+					+ quote(offer.getProduct().getProductId()) + "," + offer.getType() + "," + offer.getTotalUnits()
+					+ "," + offer.getClaimedUnits() + "," + offer.getFilledUnits() + ","
+					+ StonksTool.formatPrice(offer.getPricePerUnitTicks(), offer.getScale()) + ","
+					+ StonksTool.formatPrice(offer.getPriceImprovementTicks(), offer.getScale()));
+			}
+			case JournalRecord.Updated u -> writer.write("updated," + u.offerId() + ",,,,," + u.claimedUnits() + ","
+				+ u.filledUnits() + ",," + StonksTool.formatPrice(u.priceImprovement(), u.scale()));
+			case JournalRecord.Removed r -> writer.write("removed," + r.offerId() + ",,,,,,,,");
+			case JournalRecord.Dropped d -> writer.write("removed," + d.offerId() + ",," + quote(d.productId())
+				+ ",,,,,,");
+			}
+
+			writer.write('\n');
+		}
+	}
+
+	private static String quote(String value) {
+		if (value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1) return value;
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+}
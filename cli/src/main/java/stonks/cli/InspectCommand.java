@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import stonks.core.service.journal.JournalRecord;
+
+/**
+ * <p>
+ * Print the header of a file and statistics of offers in each product. For
+ * journals, statistics are taken from listed records, which contains offers as
+ * they were when listed.
+ * </p>
+ */
+public class InspectCommand implements StonksTool.Command {
+	@Override
+	public String getUsage() { return "<file>"; }
+
+	@Override
+	public String getDescription() { return "Print file header, per-product depth and offer statistics."; }
+
+	@Override
+	public int run(StonksTool.Arguments args, PrintStream out) throws IOException {
+		args.check(1, 1);
+		var path = Path.of(args.get(0));
+		var stats = new HashMap<String, ProductStats>();
+		long listed = 0L, updated = 0L, removed = 0L;
+
+		try (var reader = SaveFileReader.open(path)) {
+			JournalRecord record;
+
+			while ((record = reader.next()) != null) {
+				switch (record) {
+				case JournalRecord.Listed l -> {
+					var productId = l.offer().getProduct().getProductId();
+					stats.computeIfAbsent(productId, ProductStats::new).add(l.offer());
+					listed++;
+				}
+				case JournalRecord.Updated u -> updated++;
+				case JournalRecord.Removed r -> removed++;
+				case JournalRecord.Dropped d -> removed++;
+				}
+			}
+
+			var format = reader.getFormat();
+			out.println("File:        " + path);
+			out.println("Format:      " + format + (reader.isCompressed() ? " (compressed)" : ""));
+			out.println("Price scale: " + reader.getScale().decimals() + " decimals");
+			if (reader.getGeneration() != -1L) out.println("Generation:  " + reader.getGeneration());
+			out.println("Records:     " + reader.getRecordsCount());
+			if (!format.isOffersOnly())
+				out.println("             " + listed + " listed, " + updated + " updated, " + removed + " removed");
+			out.println("Products:    " + stats.size());
+			out.println();
+
+			if (!format.isOffersOnly()) out.println("Offers listed in this file, as they were when listed:");
+			printTable(new TreeMap<>(stats), reader, out);
+		}
+
+		return StonksTool.EXIT_OK;
+	}
+
+	private static void printTable(Map<String, ProductStats> stats, SaveFileReader reader, PrintStream out) {
+		var width = "Product".length();
+		for (var id : stats.keySet()) width = Math.max(width, id.length());
+		var format = "%-" + width + "s %8s %10s %12s %8s %10s %12s %10s %8s%n";
+
+		out.printf(format, "Product", "Buy", "Bid depth", "Best bid", "Sell", "Ask depth", "Best ask", "Unclaimed",
+			"Claimed");
+		long buy = 0L, sell = 0L, bidDepth = 0L, askDepth = 0L, unclaimed = 0L, claimed = 0L;
+
+		for (var s : stats.values()) {
+			out.printf(format, s.getProductId(), s.getBuyOffers(), s.getBuyDepth(), price(s.getBestBid(), reader),
+				s.getSellOffers(), s.getSellDepth(), price(s.getBestAsk(), reader), s.getUnclaimedUnits(),
+				s.getFullyClaimedOffers());
+			buy += s.getBuyOffers();
+			sell += s.getSellOffers();
+			bidDepth += s.getBuyDepth();
+			askDepth += s.getSellDepth();
+			unclaimed += s.getUnclaimedUnits();
+			claimed += s.getFullyClaimedOffers();
+		}
+
+		out.printf(format, "(total)", buy, bidDepth, "", sell, askDepth, "", unclaimed, claimed);
+	}
+
+	private static String price(long ticks, SaveFileReader reader) {
+		return ticks == -1L ? "-" : StonksTool.formatPrice(ticks, reader.getScale());
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.cli;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+
+/**
+ * <p>
+ * Offer statistics of a single product. Depth is the number of units that can
+ * still be filled, while unclaimed units are filled units that players did not
+ * claim yet.
+ * </p>
+ */
+public class ProductStats {
+	private final String productId;
+	private long buyOffers = 0L;
+	private long sellOffers = 0L;
+	private long buyDepth = 0L;
+	private long sellDepth = 0L;
+	private long bestBid = -1L;
+	private long bestAsk = -1L;
+	private long unclaimedUnits = 0L;
+	private long fullyClaimedOffers = 0L;
+
+	public ProductStats(String productId) {
+		this.productId = productId;
+	}
+
+	public String getProductId() { return productId; }
+
+	public long getBuyOffers() { return buyOffers; }
+
+	public long getSellOffers() { return sellOffers; }
+
+	public long getBuyDepth() { return buyDepth; }
+
+	public long getSellDepth() { return sellDepth; }
+
+	/**
+	 * <p>
+	 * Get the highest price per unit of buy offers that are not filled.
+	 * </p>
+	 * 
+	 * @return Price in ticks, or {@code -1} if there are no such offers.
+	 */
+	public long getBestBid() { return bestBid; }
+
+	/**
+	 * <p>
+	 * Get the lowest price per unit of sell offers that are not filled.
+	 * </p>
+	 * 
+	 * @return Price in ticks, or {@code -1} if there are no such offers.
+	 */
+	public long getBestAsk() { return bestAsk; }
+
+	public long getUnclaimedUnits() { return unclaimedUnits; }
+
+	/**
+	 * <p>
+	 * Get the number of offers that are filled and fully claimed. These offers
+	 * can be dropped with {@code compact}.
+	 * </p>
+	 * 
+	 * @return Number of offers.
+	 */
+	public long getFullyClaimedOffers() { return fullyClaimedOffers; }
+
+	public void add(Offer offer) {
+		var available = offer.getAvailableUnits();
+		var price = offer.getPricePerUnitTicks();
+
+		if (offer.getType() == OfferType.BUY) {
+			buyOffers++;
+			buyDepth += available;
+			if (available > 0 && price > bestBid) bestBid = price;
+		} else {
+			sellOffers++;
+			sellDepth += available;
+			if (available > 0 && (bestAsk == -1L || price < bestAsk)) bestAsk = price;
+		}
+
+		unclaimedUnits += offer.getAvailableToClaim();
+		if (offer.isFullyClaimed()) fullyClaimedOffers++;
+	}
+}
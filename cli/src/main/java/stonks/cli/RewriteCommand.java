@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import stonks.core.market.Offer;
+import stonks.core.service.journal.Compression;
+import stonks.core.service.journal.JournalRecord;
+import stonks.core.service.journal.OfferSnapshot;
+
+/**
+ * <p>
+ * Rewrite a save file or snapshot as {@link stonks.core.market.OfferFileV2}
+ * snapshot, which is the format that servers write. The journal generation is
+ * kept, so the new file can replace a snapshot next to its journal. When
+ * compacting, offers that are filled and fully claimed are dropped, since
+ * nothing is owed to their owners. Filled offers that still have units to
+ * claim are always kept.
+ * </p>
+ * <p>
+ * Journals can't be rewritten, because updates refer to offers that may be in
+ * other files.
+ * </p>
+ */
+public class RewriteCommand implements StonksTool.Command {
+	private final boolean compact;
+
+	public RewriteCommand(boolean compact) {
+		this.compact = compact;
+	}
+
+	@Override
+	public String getUsage() { return "[--compress[=level]] <input> <output>"; }
+
+	@Override
+	public String getDescription() {
+		return compact
+			? "Rewrite a save file or snapshot without filled and fully claimed offers."
+			: "Rewrite a save file or snapshot in the latest format.";
+	}
+
+	@Override
+	public int run(StonksTool.Arguments args, PrintStream out) throws IOException {
+		args.check(2, 2, "compress");
+		var input = Path.of(args.get(0));
+		var output = Path.of(args.get(1));
+		var compression = Compression.NONE;
+
+		if (args.has("compress")) {
+			var level = args.options().get("compress");
+
+			try {
+				compression = Compression.deflate(level.isEmpty() ? Compression.DEFAULT_LEVEL : Integer.parseInt(level));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid compression level: " + level);
+			}
+		}
+
+		if (Files.exists(output) && Files.isSameFile(input, output))
+			throw new IllegalArgumentException("Output must be different from input");
+
+		try (var reader = SaveFileReader.open(input)) {
+			if (!reader.getFormat().isOffersOnly()) throw new IOException("RewriteCommand: " + reader.getFormat()
+				+ " files contains updates of offers from other files and can't be rewritten on its own");
+
+			var offers = new OfferIterator(reader);
+
+			try {
+				OfferSnapshot.write(output, offers, reader.getScale(), reader.getGeneration(), compression);
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+
+			out.println("Wrote " + offers.written + " offers to " + output
+				+ (compact ? " (dropped " + offers.dropped + " fully claimed offers)" : ""));
+		}
+
+		return StonksTool.EXIT_OK;
+	}
+
+	private class OfferIterator implements Iterator<Offer> {
+		private final SaveFileReader reader;
+		private Offer next = null;
+		private long written = 0L;
+		private long dropped = 0L;
+
+		public OfferIterator(SaveFileReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public boolean hasNext() {
+			try {
+				while (next == null) {
+					var record = reader.next();
+					if (record == null) return false;
+					if (!(record instanceof JournalRecord.Listed listed))
+						throw new IOException("RewriteCommand: Unexpected " + record.getClass().getSimpleName()
+							+ " record in " + reader.getFormat() + " file");
+
+					if (compact && listed.offer().isFilled() && listed.offer().isFullyClaimed()) {
+						dropped++;
+						continue;
+					}
+
+					next = listed.offer();
+				}
+
+				return true;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public Offer next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			var offer = next;
+			next = null;
+			written++;
+			return offer;
+		}
+	}
+}
@@ -0,0 +1,536 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.cli;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferFileV2;
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.product.Product;
+import stonks.core.service.journal.CompressedBlocks;
+import stonks.core.service.journal.JournalFormat;
+import stonks.core.service.journal.JournalRecord;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.segmented.ProductSegmentStore;
+
+/**
+ * <p>
+ * Reads save files, snapshots and journal segments one record at a time, so
+ * files of any size can be read in constant memory. Offers in save files and
+ * snapshots are returned as {@link JournalRecord.Listed} records.
+ * </p>
+ * <p>
+ * Products are created from their IDs, so no product is ever dropped. Only
+ * product IDs and the product dictionary of {@link OfferFileV2} files are kept
+ * in memory. The checksum of {@link OfferFileV2} files is checked after the
+ * last record, since checking it first would need another pass over the file.
+ * </p>
+ */
+public class SaveFileReader implements AutoCloseable {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	public static enum Format {
+		/**
+		 * <p>
+		 * Stream of offers from {@link Offer#serializeV1(Offer, java.io.OutputStream)}.
+		 * </p>
+		 */
+		OFFERS_V1(true),
+		OFFERS_V2(true),
+		/**
+		 * <p>
+		 * Snapshot made of listed records from {@link JournalFormat}.
+		 * </p>
+		 */
+		SNAPSHOT(true),
+		JOURNAL_SEGMENT(false),
+		PRODUCT_BASE(true),
+		PRODUCT_LOG(false);
+
+		private final boolean offersOnly;
+
+		private Format(boolean offersOnly) {
+			this.offersOnly = offersOnly;
+		}
+
+		/**
+		 * <p>
+		 * Check if files in this format only contains offers. Other formats may
+		 * contain updates and removals of offers that were listed in other files.
+		 * </p>
+		 * 
+		 * @return {@code true} if this format only contains offers.
+		 */
+		public boolean isOffersOnly() { return offersOnly; }
+	}
+
+	private final Map<String, Product> products = new HashMap<>();
+	private final Format format;
+	private final boolean compressed;
+	private PriceScale scale = PriceScale.DEFAULT;
+	private long generation = -1L;
+	private long declaredCount = -1L;
+	private long recordsCount = 0L;
+	private boolean ended = false;
+
+	// Stream formats
+	private DataInputStream stream;
+
+	// Version 2
+	private ByteSource source;
+	private Product[] dictionary;
+	private byte[] dictionaryBytes;
+	private ByteBuffer records;
+	private long recordsPosition;
+	private CRC32 crc;
+
+	private SaveFileReader(Format format, boolean compressed) {
+		this.format = format;
+		this.compressed = compressed;
+	}
+
+	/**
+	 * <p>
+	 * Open the file and read its header. The format is detected from the first
+	 * bytes of the file.
+	 * </p>
+	 * 
+	 * @param path The file.
+	 * @return The reader.
+	 * @throws IOException if the file can't be read or the format is unknown.
+	 */
+	public static SaveFileReader open(Path path) throws IOException {
+		var compressed = false;
+		InputStream input = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+
+		try {
+			var magic = peekInt(input);
+
+			if (magic == CompressedBlocks.MAGIC) {
+				compressed = true;
+				input = new BufferedInputStream(CompressedBlocks.newInputStream(input), BUFFER_SIZE);
+				magic = peekInt(input);
+			}
+
+			if (magic == Offer.SERIALIZE_VERSION_2) {
+				input.close();
+				var reader = new SaveFileReader(Format.OFFERS_V2, compressed);
+				reader.source = compressed ? new CompressedSource(path) : new FileSource(path);
+
+				try {
+					reader.openVersion2();
+				} catch (IOException e) {
+					reader.close();
+					throw e;
+				}
+
+				return reader;
+			}
+
+			var data = new DataInputStream(input);
+			var reader = switch (magic) {
+			case Offer.SERIALIZE_VERSION_1, Offer.SERIALIZE_VERSION_NULL -> new SaveFileReader(Format.OFFERS_V1,
+				compressed);
+			case JournalFormat.SNAPSHOT_MAGIC -> new SaveFileReader(Format.SNAPSHOT, compressed);
+			case JournalFormat.SEGMENT_MAGIC -> new SaveFileReader(Format.JOURNAL_SEGMENT, compressed);
+			case ProductSegmentStore.BASE_MAGIC -> new SaveFileReader(Format.PRODUCT_BASE, compressed);
+			case ProductSegmentStore.LOG_MAGIC -> new SaveFileReader(Format.PRODUCT_LOG, compressed);
+			default -> throw new IOException("SaveFileReader: Unknown file format (starts with 0x"
+				+ Integer.toHexString(magic) + ")");
+			};
+
+			reader.stream = data;
+
+			if (reader.format != Format.OFFERS_V1) {
+				var header = JournalFormat.readHeader(data, magic);
+				reader.scale = header.scale();
+				reader.generation = header.generation();
+			}
+
+			return reader;
+		} catch (IOException | RuntimeException e) {
+			input.close();
+			throw e;
+		}
+	}
+
+	private static int peekInt(InputStream input) throws IOException {
+		input.mark(4);
+		var bytes = input.readNBytes(4);
+		input.reset();
+		if (bytes.length < 4) throw new IOException("SaveFileReader: File is too short");
+		return ByteBuffer.wrap(bytes).getInt();
+	}
+
+	public Format getFormat() { return format; }
+
+	public boolean isCompressed() { return compressed; }
+
+	public PriceScale getScale() { return scale; }
+
+	/**
+	 * <p>
+	 * Get the journal generation from the header.
+	 * </p>
+	 * 
+	 * @return The generation, or {@code -1} if the file does not have one.
+	 */
+	public long getGeneration() { return generation; }
+
+	/**
+	 * <p>
+	 * Get the number of records stated in the header.
+	 * </p>
+	 * 
+	 * @return Number of records, or {@code -1} if the format does not store it.
+	 */
+	public long getDeclaredCount() { return declaredCount; }
+
+	/**
+	 * <p>
+	 * Get the number of records that was read so far.
+	 * </p>
+	 * 
+	 * @return Number of records.
+	 */
+	public long getRecordsCount() { return recordsCount; }
+
+	/**
+	 * <p>
+	 * Get the number of distinct products that was seen so far.
+	 * </p>
+	 * 
+	 * @return Number of products.
+	 */
+	public int getProductsCount() { return products.size(); }
+
+	/**
+	 * <p>
+	 * Read the next record.
+	 * </p>
+	 * 
+	 * @return The record, or {@code null} if there are no more records.
+	 * @throws IOException if the file is incomplete or damaged. Records of journal
+	 *                     segments throws
+	 *                     {@link JournalFormat.CorruptRecordException}, which
+	 *                     is expected at the end of the last segment after a
+	 *                     crash.
+	 */
+	public JournalRecord next() throws IOException {
+		if (ended) return null;
+		var record = switch (format) {
+		case OFFERS_V1 -> nextVersion1();
+		case OFFERS_V2 -> nextVersion2();
+		default -> JournalFormat.readRecord(stream, scale, this::productGetter);
+		};
+
+		if (record == null) ended = true;
+		else recordsCount++;
+		return record;
+	}
+
+	private Optional<Product> productGetter(String id) {
+		return Optional.of(products.computeIfAbsent(id, key -> new MemoryProduct(null, key, key, null)));
+	}
+
+	private JournalRecord nextVersion1() throws IOException {
+		int header;
+
+		try {
+			header = stream.readInt();
+		} catch (EOFException e) {
+			throw new IOException("SaveFileReader: Missing end of offers marker");
+		}
+
+		if (header == Offer.SERIALIZE_VERSION_NULL) return null;
+		if (header != Offer.SERIALIZE_VERSION_1)
+			throw new IOException("SaveFileReader: Unknown offer version " + header);
+
+		try {
+			return new JournalRecord.Listed(Offer.deserializeV1(this::productGetter, stream));
+		} catch (EOFException e) {
+			throw new IOException("SaveFileReader: Incomplete offer");
+		} catch (IllegalArgumentException e) {
+			// Unknown offer type
+			throw new IOException("SaveFileReader: Damaged offer", e);
+		}
+	}
+
+	private void openVersion2() throws IOException {
+		var header = ByteBuffer.allocate(OfferFileV2.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		source.readFully(0L, header);
+		var size = source.size();
+
+		scale = new PriceScale(header.getInt(4));
+		generation = header.getLong(8);
+		declaredCount = Integer.toUnsignedLong(header.getInt(16));
+		var dictionaryOffset = header.getLong(24);
+		var crcOffset = size - 4;
+
+		if (dictionaryOffset != OfferFileV2.HEADER_SIZE + declaredCount * OfferFileV2.RECORD_SIZE
+			|| dictionaryOffset + 4 > crcOffset)
+			throw new IOException("SaveFileReader: Incomplete or damaged file");
+		if (crcOffset - dictionaryOffset > Integer.MAX_VALUE)
+			throw new IOException("SaveFileReader: Product dictionary is too large");
+
+		// The dictionary is at the end of the file, but records can't be decoded
+		// without it
+		var dictionaryData = ByteBuffer.allocate((int) (crcOffset - dictionaryOffset));
+		source.readFully(dictionaryOffset, dictionaryData);
+		dictionaryBytes = dictionaryData.array();
+		dictionary = readDictionary(ByteBuffer.wrap(dictionaryBytes).order(ByteOrder.LITTLE_ENDIAN));
+
+		records = ByteBuffer.allocate(OfferFileV2.RECORD_SIZE * 1024).order(ByteOrder.LITTLE_ENDIAN).limit(0);
+		recordsPosition = OfferFileV2.HEADER_SIZE;
+		crc = new CRC32();
+	}
+
+	private Product[] readDictionary(ByteBuffer data) throws IOException {
+		var count = data.getInt(0);
+		if (count < 0 || count > (data.limit() - 4) / 2) throw new IOException("SaveFileReader: Damaged dictionary");
+		var products = new Product[count];
+		var position = 4;
+
+		for (int i = 0; i < count; i++) {
+			if (position + 2 > data.limit()) throw new IOException("SaveFileReader: Damaged dictionary");
+			var length = Short.toUnsignedInt(data.getShort(position));
+			if (position + 2 + length > data.limit()) throw new IOException("SaveFileReader: Damaged dictionary");
+			var productId = new String(data.array(), position + 2, length, StandardCharsets.UTF_8);
+			products[i] = productGetter(productId).get();
+			position += 2 + length;
+		}
+
+		return products;
+	}
+
+	private JournalRecord nextVersion2() throws IOException {
+		if (recordsCount == declaredCount) {
+			crc.update(dictionaryBytes);
+			var expected = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			source.readFully(source.size() - 4, expected);
+			if ((int) crc.getValue() != expected.getInt(0))
+				throw new IOException("SaveFileReader: Checksum mismatch");
+			return null;
+		}
+
+		if (!records.hasRemaining()) {
+			var remaining = (declaredCount - recordsCount) * OfferFileV2.RECORD_SIZE;
+			records.clear().limit((int) Math.min(records.capacity(), remaining));
+			source.readFully(recordsPosition, records);
+			records.flip();
+			recordsPosition += records.limit();
+			crc.update(records.duplicate());
+		}
+
+		var at = records.position();
+		records.position(at + OfferFileV2.RECORD_SIZE);
+		var productIndex = records.getInt(at + 32);
+		if (productIndex < 0 || productIndex >= dictionary.length)
+			throw new IOException("SaveFileReader: Invalid product index " + productIndex);
+
+		var offer = new Offer(
+			new UUID(records.getLong(at), records.getLong(at + 8)),
+			new UUID(records.getLong(at + 16), records.getLong(at + 24)),
+			dictionary[productIndex],
+			records.get(at + 36) == OfferFileV2.TYPE_BUY ? OfferType.BUY : OfferType.SELL,
+			records.getInt(at + 40), records.getInt(at + 44), records.getInt(at + 48),
+			records.getLong(at + 56), scale);
+		offer.setPriceImprovementTicks(records.getLong(at + 64));
+		return new JournalRecord.Listed(offer);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (stream != null) stream.close();
+		if (source != null) source.close();
+	}
+
+	/**
+	 * <p>
+	 * Random access to the uncompressed content of a file.
+	 * </p>
+	 */
+	private static interface ByteSource extends AutoCloseable {
+		public long size();
+
+		/**
+		 * <p>
+		 * Fill the remaining part of the buffer.
+		 * </p>
+		 * 
+		 * @throws EOFException if the source ended before the buffer is filled.
+		 */
+		public void readFully(long position, ByteBuffer buffer) throws IOException;
+
+		@Override
+		public void close() throws IOException;
+	}
+
+	private static class FileSource implements ByteSource {
+		private final FileChannel channel;
+		private final long size;
+
+		public FileSource(Path path) throws IOException {
+			this.channel = FileChannel.open(path, StandardOpenOption.READ);
+			this.size = channel.size();
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+
+		@Override
+		public void readFully(long position, ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				var n = channel.read(buffer, position);
+				if (n < 0) throw new EOFException("SaveFileReader: Unexpected end of file");
+				position += n;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Decompresses one block at a time. Only the location of blocks are kept in
+	 * memory, which is a few kilobytes per gigabyte of data with the default block
+	 * size.
+	 * </p>
+	 */
+	private static class CompressedSource implements ByteSource {
+		private final FileChannel channel;
+		private final List<CompressedBlocks.Block> blocks = new ArrayList<>();
+		private final long size;
+		private int cachedIndex = -1;
+		private byte[] cached;
+
+		public CompressedSource(Path path) throws IOException {
+			this.channel = FileChannel.open(path, StandardOpenOption.READ);
+
+			try {
+				var header = ByteBuffer.allocate(CompressedBlocks.BLOCK_HEADER_SIZE);
+				var fileSize = channel.size();
+				var position = 4L;
+				var uncompressedOffset = 0L;
+
+				while (position < fileSize) {
+					if (position + CompressedBlocks.BLOCK_HEADER_SIZE > fileSize)
+						throw new IOException("SaveFileReader: Incomplete block header");
+					header.clear();
+					while (header.hasRemaining() && channel.read(header, position + header.position()) >= 0);
+					var uncompressedLength = header.getInt(0);
+					var compressedLength = header.getInt(4);
+					if (uncompressedLength < 0 || uncompressedLength > CompressedBlocks.MAX_BLOCK_SIZE
+						|| compressedLength < 0
+						|| position + CompressedBlocks.BLOCK_HEADER_SIZE + compressedLength > fileSize)
+						throw new IOException("SaveFileReader: Incomplete or damaged block");
+
+					blocks.add(new CompressedBlocks.Block(position + CompressedBlocks.BLOCK_HEADER_SIZE,
+						compressedLength, uncompressedOffset, uncompressedLength));
+					position += CompressedBlocks.BLOCK_HEADER_SIZE + compressedLength;
+					uncompressedOffset += uncompressedLength;
+				}
+
+				this.size = uncompressedOffset;
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+
+		@Override
+		public void readFully(long position, ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				if (position >= size) throw new EOFException("SaveFileReader: Unexpected end of file");
+				var index = findBlock(position);
+				var block = blocks.get(index);
+				var data = decompress(index);
+				var offset = (int) (position - block.uncompressedOffset());
+				var length = Math.min(buffer.remaining(), data.length - offset);
+				buffer.put(data, offset, length);
+				position += length;
+			}
+		}
+
+		private int findBlock(long position) {
+			int low = 0, high = blocks.size() - 1;
+
+			while (low < high) {
+				var mid = (low + high + 1) >>> 1;
+				if (blocks.get(mid).uncompressedOffset() <= position) low = mid;
+				else high = mid - 1;
+			}
+
+			return low;
+		}
+
+		private byte[] decompress(int index) throws IOException {
+			if (index == cachedIndex) return cached;
+			var block = blocks.get(index);
+			var compressed = ByteBuffer.allocate(block.compressedLength());
+			while (compressed.hasRemaining()
+				&& channel.read(compressed, block.offset() + compressed.position()) >= 0);
+			compressed.flip();
+
+			// Relative to the compressed data, since the whole file is not in memory
+			cached = CompressedBlocks.decompress(compressed, new CompressedBlocks.Block(0L, block.compressedLength(),
+				block.uncompressedOffset(), block.uncompressedLength()));
+			cachedIndex = index;
+			return cached;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import stonks.core.market.PriceScale;
+
+/**
+ * <p>
+ * Entry point for the offline save file tool. Run with
+ * {@code gradle :cli:run --args="<command> ..."}, or with the scripts from
+ * {@code gradle :cli:installDist}. Each command reads its input one record at
+ * a time, so it can be used on backups that does not fit in memory.
+ * </p>
+ */
+public class StonksTool {
+	public static final int EXIT_OK = 0;
+	public static final int EXIT_FAILED = 1;
+	public static final int EXIT_USAGE = 2;
+
+	private static final Map<String, Command> COMMANDS = new LinkedHashMap<>();
+
+	static {
+		COMMANDS.put("inspect", new InspectCommand());
+		COMMANDS.put("verify", new VerifyCommand());
+		COMMANDS.put("compact", new RewriteCommand(true));
+		COMMANDS.put("convert", new RewriteCommand(false));
+		COMMANDS.put("csv", new CsvCommand());
+	}
+
+	/**
+	 * <p>
+	 * A command of the tool.
+	 * </p>
+	 */
+	public static interface Command {
+		/**
+		 * <p>
+		 * Arguments of the command, for usage message.
+		 * </p>
+		 */
+		public String getUsage();
+
+		public String getDescription();
+
+		/**
+		 * <p>
+		 * Run the command.
+		 * </p>
+		 * 
+		 * @param args The arguments, without command name.
+		 * @param out  The standard output.
+		 * @return The exit code.
+		 * @throws IllegalArgumentException if the arguments are invalid.
+		 */
+		public int run(Arguments args, PrintStream out) throws IOException;
+	}
+
+	/**
+	 * <p>
+	 * Parsed arguments. Options are written as {@code --name} or
+	 * {@code --name=value}, and everything else is positional.
+	 * </p>
+	 */
+	public static record Arguments(List<String> positional, Map<String, String> options) {
+		public static Arguments parse(List<String> args) {
+			var positional = new ArrayList<String>();
+			var options = new HashMap<String, String>();
+
+			for (var arg : args) {
+				if (arg.startsWith("--")) {
+					var split = arg.indexOf('=');
+					if (split == -1) options.put(arg.substring(2), "");
+					else options.put(arg.substring(2, split), arg.substring(split + 1));
+				} else {
+					positional.add(arg);
+				}
+			}
+
+			return new Arguments(positional, options);
+		}
+
+		public boolean has(String option) {
+			return options.containsKey(option);
+		}
+
+		public String get(int index) {
+			if (index >= positional.size()) throw new IllegalArgumentException("Missing argument #" + (index + 1));
+			return positional.get(index);
+		}
+
+		/**
+		 * <p>
+		 * Ensure there are no unknown options and the number of positional arguments
+		 * is in range.
+		 * </p>
+		 */
+		public void check(int minPositional, int maxPositional, String... knownOptions) {
+			if (positional.size() < minPositional) throw new IllegalArgumentException("Missing arguments");
+			if (positional.size() > maxPositional) throw new IllegalArgumentException("Too many arguments");
+
+			for (var option : options.keySet()) {
+				if (!List.of(knownOptions).contains(option))
+					throw new IllegalArgumentException("Unknown option --" + option);
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	public static int run(String[] args, PrintStream out, PrintStream err) {
+		if (args.length == 0 || args[0].equals("help") || args[0].equals("--help")) {
+			printUsage(out);
+			return args.length == 0 ? EXIT_USAGE : EXIT_OK;
+		}
+
+		var command = COMMANDS.get(args[0]);
+
+		if (command == null) {
+			err.println("Unknown command: " + args[0]);
+			printUsage(err);
+			return EXIT_USAGE;
+		}
+
+		try {
+			return command.run(Arguments.parse(List.of(args).subList(1, args.length)), out);
+		} catch (IllegalArgumentException e) {
+			err.println(e.getMessage());
+			err.println("Usage: stonks-tool " + args[0] + " " + command.getUsage());
+			return EXIT_USAGE;
+		} catch (IOException | UncheckedIOException e) {
+			err.println("Error: " + e.getMessage());
+			return EXIT_FAILED;
+		} finally {
+			out.flush();
+		}
+	}
+
+	private static void printUsage(PrintStream out) {
+		out.println("Usage: stonks-tool <command> [options] <arguments>");
+		out.println();
+		out.println("Commands:");
+
+		for (var entry : COMMANDS.entrySet()) {
+			out.println("  " + entry.getKey() + " " + entry.getValue().getUsage());
+			out.println("      " + entry.getValue().getDescription());
+		}
+	}
+
+	/**
+	 * <p>
+	 * Format price without rounding or scientific notation.
+	 * </p>
+	 * 
+	 * @param ticks The price in ticks.
+	 * @param scale The scale of price.
+	 * @return The formatted price.
+	 */
+	public static String formatPrice(long ticks, PriceScale scale) {
+		return BigDecimal.valueOf(ticks, scale.decimals()).toPlainString();
+	}
+}
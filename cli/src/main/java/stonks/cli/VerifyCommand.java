@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+
+import stonks.core.market.Offer;
+import stonks.core.service.journal.JournalFormat;
+import stonks.core.service.journal.JournalRecord;
+
+/**
+ * <p>
+ * Read all records of files and check that offers are valid. Checksums are
+ * checked while reading. Duplicated offer IDs are not detected, since that
+ * would need memory for each offer.
+ * </p>
+ */
+public class VerifyCommand implements StonksTool.Command {
+	private static final int MAX_REPORTED_PROBLEMS = 10;
+
+	@Override
+	public String getUsage() { return "<file>..."; }
+
+	@Override
+	public String getDescription() { return "Check checksums, record framing and offer units of files."; }
+
+	@Override
+	public int run(StonksTool.Arguments args, PrintStream out) throws IOException {
+		args.check(1, Integer.MAX_VALUE);
+		var failed = 0;
+
+		for (var file : args.positional()) {
+			if (!verify(Path.of(file), out)) failed++;
+		}
+
+		if (args.positional().size() > 1) out.println((args.positional().size() - failed) + " passed, " + failed
+			+ " failed");
+		return failed == 0 ? StonksTool.EXIT_OK : StonksTool.EXIT_FAILED;
+	}
+
+	private static boolean verify(Path path, PrintStream out) {
+		var problems = 0L;
+		var records = 0L;
+
+		try (var reader = SaveFileReader.open(path)) {
+			try {
+				JournalRecord record;
+
+				while ((record = reader.next()) != null) {
+					records = reader.getRecordsCount();
+					if (!(record instanceof JournalRecord.Listed listed)) continue;
+					var problem = check(listed.offer());
+					if (problem == null) continue;
+					if (problems < MAX_REPORTED_PROBLEMS) out.println("  record #" + records + " (offer "
+						+ listed.offerId() + "): " + problem);
+					problems++;
+				}
+			} catch (JournalFormat.CorruptRecordException e) {
+				out.println("FAIL " + path + ": " + e.getMessage() + " after " + reader.getRecordsCount()
+					+ " records (expected at the end of the last journal segment after a crash)");
+				return false;
+			} catch (IOException e) {
+				out.println("FAIL " + path + ": " + e.getMessage() + " after " + reader.getRecordsCount() + " records");
+				return false;
+			}
+
+			if (problems > 0) {
+				out.println("FAIL " + path + ": " + problems + " invalid offers in " + records + " records");
+				return false;
+			}
+
+			out.println("OK   " + path + ": " + records + " records, " + reader.getFormat()
+				+ (reader.isCompressed() ? " (compressed)" : ""));
+			return true;
+		} catch (IOException e) {
+			out.println("FAIL " + path + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	private static String check(Offer offer) {
+		if (offer.getTotalUnits() <= 0) return "total units is " + offer.getTotalUnits();
+		if (offer.getFilledUnits() < 0 || offer.getFilledUnits() > offer.getTotalUnits())
+			return "filled units " + offer.getFilledUnits() + " is not in 0.." + offer.getTotalUnits();
+		if (offer.getClaimedUnits() < 0 || offer.getClaimedUnits() > offer.getFilledUnits())
+			return "claimed units " + offer.getClaimedUnits() + " is not in 0.." + offer.getFilledUnits();
+		if (offer.getPricePerUnitTicks() <= 0L) return "price per unit is " + offer.getPricePerUnitTicks();
+		if (offer.getPriceImprovementTicks() < 0L) return "price improvement is " + offer.getPriceImprovementTicks();
+		return null;
+	}
+}
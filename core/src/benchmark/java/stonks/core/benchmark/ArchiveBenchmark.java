@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.service.archive.ArchiveQuery;
+import stonks.core.service.archive.ArchiveRecord;
+import stonks.core.service.archive.FileOfferArchive;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+
+/**
+ * <p>
+ * Measure recording trade history to {@link FileOfferArchive}, and reading it
+ * back with selective queries and with a full scan.
+ * </p>
+ */
+public class ArchiveBenchmark {
+	public static final int RECORDS = 1_000_000;
+	public static final int DAYS = 7;
+	public static final int USERS = 1000;
+	public static final int PRODUCTS = 64;
+	public static final int BATCH = 256;
+
+	private static void delete(Path directory) {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (var path : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void record(Path directory, MemoryProduct[] products) {
+		var rng = new Random(1L);
+		var time = new long[] { 0L };
+		var step = DAYS * FileOfferArchive.DAY_MILLIS / RECORDS;
+
+		try (var archive = new FileOfferArchive(directory, PriceScale.DEFAULT, () -> time[0])) {
+			for (int i = 0; i < RECORDS; i++) {
+				time[0] += step;
+				var offer = new Offer(new UUID(rng.nextLong(), rng.nextLong()), new UUID(0L, rng.nextInt(USERS)),
+					products[rng.nextInt(PRODUCTS)], rng.nextBoolean() ? OfferType.BUY : OfferType.SELL, 64, 64, 64,
+					10_000L + rng.nextInt(500), PriceScale.DEFAULT);
+				if (rng.nextBoolean()) archive.offerFilled(offer, 1 + rng.nextInt(64), 0L);
+				else archive.offerCompleted(offer, ArchiveRecord.Reason.CLAIMED);
+				if ((i + 1) % BATCH == 0) archive.flush();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer().warmups(1).iterations(3);
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		var products = new MemoryProduct[PRODUCTS];
+		for (int i = 0; i < PRODUCTS; i++) products[i] = new MemoryProduct(category, "minecraft:item_" + i, "Item", null);
+
+		try {
+			var directory = Files.createTempDirectory("stonks-archive");
+			var write = timer.measure(() -> {
+				delete(directory);
+				return null;
+			}, $ -> record(directory, products));
+			if (Files.notExists(directory)) record(directory, products);
+			var archive = new FileOfferArchive(directory, PriceScale.DEFAULT);
+			var user = ArchiveQuery.ALL.withOfferer(new UUID(0L, 42L));
+			var productDay = ArchiveQuery.ALL.withProduct("minecraft:item_7")
+				.between(2 * FileOfferArchive.DAY_MILLIS, 3 * FileOfferArchive.DAY_MILLIS);
+			var hour = ArchiveQuery.ALL.between(5 * FileOfferArchive.DAY_MILLIS, 5 * FileOfferArchive.DAY_MILLIS
+				+ 3_600_000L);
+			var counts = new int[4];
+			var userTime = timer.measure(() -> null, $ -> counts[0] = query(archive, user));
+			var productTime = timer.measure(() -> null, $ -> counts[1] = query(archive, productDay));
+			var hourTime = timer.measure(() -> null, $ -> counts[2] = query(archive, hour));
+			var allTime = timer.measure(() -> null, $ -> counts[3] = query(archive, ArchiveQuery.ALL));
+			long size = 0L;
+			try (var files = Files.list(directory)) {
+				for (var file : files.toList()) size += Files.size(file);
+			}
+
+			System.out.println("  " + RECORDS + " records over " + DAYS + " days, " + USERS + " users, " + PRODUCTS
+				+ " products, flush every " + BATCH);
+			System.out.printf("  %-40s %10.1f bytes/record%n", "Archive size", size / (double) RECORDS);
+			BenchmarkTimer.report("Record and write", write, RECORDS);
+			BenchmarkTimer.report("Query user (" + counts[0] + " records)", userTime, counts[0]);
+			BenchmarkTimer.report("Query product, 1 day (" + counts[1] + ")", productTime, counts[1]);
+			BenchmarkTimer.report("Query 1 hour (" + counts[2] + ")", hourTime, counts[2]);
+			BenchmarkTimer.report("Query all (" + counts[3] + ")", allTime, counts[3]);
+			delete(directory);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static int query(FileOfferArchive archive, ArchiveQuery query) {
+		try {
+			return archive.query(query).size();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * A small timing helper. This is not as accurate as a proper benchmarking
+ * harness, but it is good enough for comparing 2 implementations of the same
+ * thing.
+ * </p>
+ */
+public class BenchmarkTimer {
+	private int warmups = 3;
+	private int iterations = 5;
+
+	public BenchmarkTimer warmups(int warmups) {
+		this.warmups = warmups;
+		return this;
+	}
+
+	public BenchmarkTimer iterations(int iterations) {
+		this.iterations = iterations;
+		return this;
+	}
+
+	/**
+	 * <p>
+	 * Measure the average time it takes to run the operation. The setup is not
+	 * included in measured time.
+	 * </p>
+	 * 
+	 * @param <T>       Type of the state that will be passed to operation.
+	 * @param setup     Create a fresh state for each run.
+	 * @param operation The operation to measure.
+	 * @return The average time in milliseconds.
+	 */
+	public <T> double measure(Supplier<T> setup, Consumer<T> operation) {
+		for (int i = 0; i < warmups; i++) operation.accept(setup.get());
+		long total = 0L;
+
+		for (int i = 0; i < iterations; i++) {
+			var state = setup.get();
+			var start = System.nanoTime();
+			operation.accept(state);
+			total += System.nanoTime() - start;
+		}
+
+		return total / (double) iterations / 1_000_000d;
+	}
+
+	public static void report(String label, double millis, int operations) {
+		System.out.printf("  %-40s %10.3f ms %12.1f ns/op%n", label, millis, millis * 1_000_000d / operations);
+	}
+}
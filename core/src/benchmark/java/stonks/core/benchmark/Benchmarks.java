@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Entry point for Stonks Core benchmarks. Run with {@code gradle :core:benchmark}
+ * to run all benchmarks, or {@code -Pbenchmarks=name1,name2} to only run
+ * selected benchmarks.
+ * </p>
+ */
+public class Benchmarks {
+	private static final Map<String, Runnable> BENCHMARKS = new LinkedHashMap<>();
+
+	static {
+		BENCHMARKS.put("orderBook", OrderBookBenchmark::run);
+		BENCHMARKS.put("memoryService", MemoryServiceBenchmark::run);
+		BENCHMARKS.put("shardedService", ShardedServiceBenchmark::run);
+		BENCHMARKS.put("pipeline", PipelineBenchmark::run);
+		BENCHMARKS.put("bulk", BulkBenchmark::run);
+		BENCHMARKS.put("columnar", ColumnarBenchmark::run);
+		BENCHMARKS.put("journal", JournalBenchmark::run);
+		BENCHMARKS.put("snapshot", SnapshotBenchmark::run);
+		BENCHMARKS.put("offerFile", OfferFileBenchmark::run);
+		BENCHMARKS.put("load", LoadBenchmark::run);
+		BENCHMARKS.put("compression", CompressionBenchmark::run);
+		BENCHMARKS.put("segments", SegmentsBenchmark::run);
+		BENCHMARKS.put("lazyLoad", LazyLoadBenchmark::run);
+		BENCHMARKS.put("archive", ArchiveBenchmark::run);
+		BENCHMARKS.put("remote", RemoteBenchmark::run);
+		BENCHMARKS.put("coalescing", CoalescingBenchmark::run);
+		BENCHMARKS.put("subscription", SubscriptionBenchmark::run);
+		BENCHMARKS.put("replication", ReplicationBenchmark::run);
+	}
+
+	public static void main(String[] args) {
+		var selected = args.length > 0 ? args : BENCHMARKS.keySet().toArray(String[]::new);
+
+		for (var name : selected) {
+			var benchmark = BENCHMARKS.get(name.trim());
+
+			if (benchmark == null) {
+				System.err.println("Unknown benchmark: " + name + " (available: " + BENCHMARKS.keySet() + ")");
+				continue;
+			}
+
+			System.out.println("== " + name + " ==");
+			benchmark.run();
+			System.out.println();
+		}
+	}
+}
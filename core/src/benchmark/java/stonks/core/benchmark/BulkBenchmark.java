@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.product.Product;
+import stonks.core.service.StonksService;
+import stonks.core.service.bulk.ListOfferRequest;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.ShardedStonksMemoryService;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * Compare listing offers one by one against listing them in batches with
+ * {@link StonksService#listOffersAsync(List)}.
+ * </p>
+ */
+public class BulkBenchmark {
+	public static final int OFFERS = 50_000;
+	public static final int PRODUCTS = 8;
+	public static final int BATCH_SIZE = 64;
+
+	private static record Fixture(StonksService service, List<ListOfferRequest> requests) {
+	}
+
+	private static Fixture createFixture(StonksService service, List<MemoryCategory> categories) {
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		var products = new ArrayList<Product>();
+
+		for (int i = 0; i < PRODUCTS; i++) {
+			var product = new MemoryProduct(category, "item" + i, "Item " + i, null);
+			category.getModifiableMockProducts().add(product);
+			products.add(product);
+		}
+
+		categories.add(category);
+		var rng = new Random(1L);
+		var requests = new ArrayList<ListOfferRequest>(OFFERS);
+
+		for (int i = 0; i < OFFERS; i++) {
+			var type = rng.nextBoolean() ? OfferType.BUY : OfferType.SELL;
+			var price = 1d + rng.nextInt(100) / 100d;
+			requests.add(ListOfferRequest.of(PriceScale.DEFAULT, new UUID(0L, rng.nextInt(20)),
+				products.get(rng.nextInt(PRODUCTS)), type, 1 + rng.nextInt(64), price));
+		}
+
+		return new Fixture(service, requests);
+	}
+
+	private static void listOneByOne(Fixture fixture) {
+		var futures = new ArrayList<CompletableFuture<?>>(OFFERS);
+		for (var r : fixture.requests()) futures.add(fixture.service()
+			.listOfferRawAsync(r.user(), r.product(), r.type(), r.units(), r.pricePerUnit()));
+		CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+	}
+
+	private static void listInBatches(Fixture fixture) {
+		var futures = new ArrayList<CompletableFuture<?>>(OFFERS / BATCH_SIZE + 1);
+		var requests = fixture.requests();
+		for (int i = 0; i < requests.size(); i += BATCH_SIZE) futures.add(fixture.service()
+			.listOffersAsync(requests.subList(i, Math.min(i + BATCH_SIZE, requests.size()))));
+		CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer();
+		System.out.println("  " + OFFERS + " offers on " + PRODUCTS + " products, batches of " + BATCH_SIZE);
+
+		BenchmarkTimer.report("StonksMemoryService (one by one)", timer.measure(() -> {
+			var service = new StonksMemoryService();
+			return createFixture(service, service.getModifiableCategories());
+		}, BulkBenchmark::listOneByOne), OFFERS);
+		BenchmarkTimer.report("StonksMemoryService (batches)", timer.measure(() -> {
+			var service = new StonksMemoryService();
+			return createFixture(service, service.getModifiableCategories());
+		}, BulkBenchmark::listInBatches), OFFERS);
+
+		BenchmarkTimer.report("ShardedStonksMemoryService (one by one)", timer.measure(() -> {
+			var service = new ShardedStonksMemoryService();
+			return createFixture(service, service.getModifiableCategories());
+		}, fixture -> {
+			listOneByOne(fixture);
+			((ShardedStonksMemoryService) fixture.service()).close();
+		}), OFFERS);
+		BenchmarkTimer.report("ShardedStonksMemoryService (batches)", timer.measure(() -> {
+			var service = new ShardedStonksMemoryService();
+			return createFixture(service, service.getModifiableCategories());
+		}, fixture -> {
+			listInBatches(fixture);
+			((ShardedStonksMemoryService) fixture.service()).close();
+		}), OFFERS);
+	}
+}
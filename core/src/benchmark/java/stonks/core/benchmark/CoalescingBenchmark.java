@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import stonks.core.market.OfferType;
+import stonks.core.service.StonksService;
+import stonks.core.service.bulk.CoalescingStonksService;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+import stonks.core.service.remote.RemoteStonksServer;
+import stonks.core.service.remote.RemoteStonksService;
+
+/**
+ * <p>
+ * Compare single offer lookups through {@link RemoteStonksService} with and
+ * without {@link CoalescingStonksService}, when many players open their offers
+ * in the same server tick.
+ * </p>
+ */
+public class CoalescingBenchmark {
+	public static final int OFFERS = 50_000;
+	public static final int TICKS = 50;
+	public static final int LOOKUPS_PER_TICK = 200;
+
+	private static List<UUID> createOffers(StonksMemoryService service) {
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		var product = new MemoryProduct(category, "minecraft:item", "Item", null);
+		category.getModifiableMockProducts().add(product);
+		service.getModifiableCategories().add(category);
+		var rng = new Random(1L);
+		var offerIds = new ArrayList<UUID>(OFFERS);
+
+		for (int i = 0; i < OFFERS; i++) {
+			offerIds.add(service.listOfferAsync(new UUID(0L, rng.nextInt(1000)), product, OfferType.SELL,
+				1 + rng.nextInt(64), 4d + rng.nextInt(250) / 100d).join().getOfferId());
+		}
+
+		return offerIds;
+	}
+
+	private static void ticks(StonksService service, List<UUID> offerIds) {
+		var rng = new Random(2L);
+		var futures = new ArrayList<CompletableFuture<?>>(LOOKUPS_PER_TICK);
+
+		for (int tick = 0; tick < TICKS; tick++) {
+			for (int i = 0; i < LOOKUPS_PER_TICK; i++)
+				futures.add(service.getOfferAsync(offerIds.get(rng.nextInt(offerIds.size()))));
+
+			// The end of the tick
+			if (service instanceof CoalescingStonksService coalescing) coalescing.flush();
+			CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+			futures.clear();
+		}
+	}
+
+	private static long countRequests(RemoteStonksServer server, StonksService service, List<UUID> offerIds) {
+		var before = server.getRequestsCount();
+		ticks(service, offerIds);
+		return server.getRequestsCount() - before;
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer();
+		var service = new StonksMemoryService();
+		var offerIds = createOffers(service);
+		var lookups = TICKS * LOOKUPS_PER_TICK;
+		System.out.println("  " + TICKS + " ticks with " + LOOKUPS_PER_TICK + " single offer lookups per tick");
+
+		try (var server = new RemoteStonksServer(service)) {
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			var remote = new RemoteStonksService(server.getAddress(), null);
+			remote.connect();
+			var coalescing = new CoalescingStonksService(remote, Duration.ZERO);
+
+			var direct = timer.measure(() -> remote, s -> ticks(s, offerIds));
+			var coalesced = timer.measure(() -> coalescing, s -> ticks(s, offerIds));
+			var directRequests = countRequests(server, remote, offerIds);
+			var coalescedRequests = countRequests(server, coalescing, offerIds);
+
+			BenchmarkTimer.report("Remote", direct, lookups);
+			BenchmarkTimer.report("Coalescing + remote", coalesced, lookups);
+			System.out.printf("  %-40s %10d requests%n", "Remote", directRequests);
+			System.out.printf("  %-40s %10d requests%n", "Coalescing + remote", coalescedRequests);
+			remote.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
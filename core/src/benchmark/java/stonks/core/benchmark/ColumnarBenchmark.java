@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import stonks.core.market.OfferType;
+import stonks.core.service.LocalStonksService;
+import stonks.core.service.columnar.ColumnarStonksService;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * Compare {@link StonksMemoryService} with {@link ColumnarStonksService}: heap
+ * retained per resting offer and the time of common service calls.
+ * </p>
+ */
+public class ColumnarBenchmark {
+	public static final int OFFERS = 200_000;
+	public static final int USERS = 1_000;
+	public static final int PRICE_LEVELS = 500;
+
+	private static record Fixture(LocalStonksService service, MemoryProduct product, List<UUID> ids) {
+	}
+
+	private static Fixture createFixture(Supplier<LocalStonksService> factory, int offers, long seed) {
+		var service = factory.get();
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		var product = new MemoryProduct(category, "item", "Item", null);
+		category.getModifiableMockProducts().add(product);
+
+		var rng = new Random(seed);
+		var users = new UUID[USERS];
+		for (int i = 0; i < USERS; i++) users[i] = new UUID(rng.nextLong(), rng.nextLong());
+		var ids = new ArrayList<UUID>(offers);
+
+		for (int i = 0; i < offers; i++) {
+			// Buy and sell sides do not cross, so all offers stay in the books
+			var type = rng.nextBoolean() ? OfferType.BUY : OfferType.SELL;
+			var price = type == OfferType.BUY
+				? 1d + rng.nextInt(PRICE_LEVELS / 2) / 100d
+				: 1d + (PRICE_LEVELS / 2 + rng.nextInt(PRICE_LEVELS / 2)) / 100d;
+			var offer = service.listOfferAsync(users[rng.nextInt(USERS)], product, type, 1 + rng.nextInt(64), price)
+				.join();
+			ids.add(offer.getOfferId());
+		}
+
+		return new Fixture(service, product, ids);
+	}
+
+	private static long usedHeap() {
+		var runtime = Runtime.getRuntime();
+
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static void reportMemory(String label, Supplier<LocalStonksService> factory) {
+		var before = usedHeap();
+		var fixture = createFixture(factory, OFFERS, 1L);
+		fixture.ids().clear();
+		var after = usedHeap();
+		var perOffer = (after - before) / (double) OFFERS;
+		System.out.printf("  %-40s %10.1f bytes/offer%n", label, perOffer);
+		// Keep the fixture reachable until the measurement is done
+		if (fixture.service() == null) throw new IllegalStateException();
+	}
+
+	private static void reportTimings(String name, Supplier<LocalStonksService> factory) {
+		var timer = new BenchmarkTimer();
+
+		BenchmarkTimer.report(name + ": list", timer.measure(() -> null, $ -> {
+			createFixture(factory, OFFERS, 1L);
+		}), OFFERS);
+
+		BenchmarkTimer.report(name + ": cancel all (random order)", timer.measure(() -> {
+			var fixture = createFixture(factory, OFFERS, 1L);
+			Collections.shuffle(fixture.ids(), new Random(2L));
+			return fixture;
+		}, fixture -> {
+			for (var id : fixture.ids()) fixture.service().cancelOfferAsync(id).join();
+		}), OFFERS);
+
+		BenchmarkTimer.report(name + ": instant sweep + claim all", timer.measure(() -> {
+			return createFixture(factory, OFFERS, 1L);
+		}, fixture -> {
+			fixture.service().instantBuyAsync(fixture.product(), Integer.MAX_VALUE, Double.MAX_VALUE).join();
+			fixture.service().instantSellAsync(fixture.product(), Integer.MAX_VALUE).join();
+			for (var id : fixture.ids()) fixture.service().claimOfferAsync(id).join();
+		}), OFFERS);
+	}
+
+	public static void run() {
+		System.out.println("  " + OFFERS + " resting offers from " + USERS + " users over " + PRICE_LEVELS
+			+ " price levels");
+		reportMemory("memory: retained heap", StonksMemoryService::new);
+		reportMemory("columnar: retained heap", ColumnarStonksService::new);
+		reportTimings("memory", StonksMemoryService::new);
+		reportTimings("columnar", ColumnarStonksService::new);
+	}
+}
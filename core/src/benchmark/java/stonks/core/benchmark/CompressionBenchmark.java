@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import stonks.core.market.OfferType;
+import stonks.core.product.Product;
+import stonks.core.service.journal.Compression;
+import stonks.core.service.journal.FileOfferJournal;
+import stonks.core.service.journal.OfferSnapshot;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * Compare file size, writing time and loading time of snapshots and journal
+ * segments, uncompressed and compressed with {@link Compression}.
+ * </p>
+ */
+public class CompressionBenchmark {
+	public static final int PRODUCTS = 64;
+	public static final int OFFERS = 200_000;
+	public static final int JOURNAL_OFFERS = 100_000;
+	public static final int BATCH = 256;
+
+	private static final List<Compression> SETTINGS = List.of(
+		Compression.NONE,
+		Compression.deflate(1),
+		Compression.deflate(6));
+
+	private static String label(Compression compression) {
+		return compression.enabled() ? "deflate " + compression.level() : "none";
+	}
+
+	private static MemoryProduct[] createProducts(StonksMemoryService service) {
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		var products = new MemoryProduct[PRODUCTS];
+
+		for (int i = 0; i < PRODUCTS; i++) {
+			products[i] = new MemoryProduct(category, "minecraft:item_" + i, "Item " + i, null);
+			category.getModifiableMockProducts().add(products[i]);
+		}
+
+		service.getModifiableCategories().add(category);
+		return products;
+	}
+
+	private static Optional<Product> productGetter(MemoryProduct[] products, String id) {
+		for (var product : products) if (product.getProductId().equals(id)) return Optional.of(product);
+		return Optional.empty();
+	}
+
+	private static void listOffers(StonksMemoryService service, MemoryProduct[] products, int offers, boolean crossing, FileOfferJournal journal) {
+		var rng = new Random(1L);
+
+		for (int i = 0; i < offers; i++) {
+			var type = rng.nextBoolean() ? OfferType.BUY : OfferType.SELL;
+			var price = crossing || type == OfferType.BUY ? 1d + rng.nextInt(100) / 100d : 4d + rng.nextInt(250) / 100d;
+			service.listOfferAsync(new UUID(0L, rng.nextInt(1000)), products[i % PRODUCTS], type, 1 + rng.nextInt(64),
+				price);
+			if (journal != null && (i + 1) % BATCH == 0) journal.flush();
+		}
+	}
+
+	private static void delete(Path directory) {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (var path : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void reportSnapshots(BenchmarkTimer timer, boolean print) throws IOException {
+		var service = new StonksMemoryService();
+		var products = createProducts(service);
+		listOffers(service, products, OFFERS, false, null);
+		var directory = Files.createTempDirectory("stonks-compression");
+		var empty = directory.resolve("journal");
+		if (print) System.out.println("  Snapshot: " + OFFERS + " resting offers on " + PRODUCTS + " products");
+
+		for (var compression : SETTINGS) {
+			var path = directory.resolve("stonks.bin");
+			var write = timer.measure(() -> null, $ -> {
+				try {
+					OfferSnapshot.write(path, service.offersIterator(), service.getPriceScale(), -1L, compression);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			var load = timer.measure(() -> null, $ -> {
+				try {
+					var recovery = OfferSnapshot.recover(path, empty, id -> productGetter(products, id));
+					if (recovery.offers().size() != OFFERS) throw new IllegalStateException();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+
+			if (!print) continue;
+			System.out.printf("  %-40s %10.1f bytes/offer%n", label(compression) + ": file size",
+				Files.size(path) / (double) OFFERS);
+			BenchmarkTimer.report(label(compression) + ": write", write, OFFERS);
+			BenchmarkTimer.report(label(compression) + ": load", load, OFFERS);
+		}
+
+		delete(directory);
+	}
+
+	private static void reportJournal(BenchmarkTimer timer, boolean print) throws IOException {
+		if (print) System.out.println("  Journal: " + JOURNAL_OFFERS + " crossing offers on " + PRODUCTS
+			+ " products, flush every " + BATCH);
+
+		for (var compression : SETTINGS) {
+			var directory = Files.createTempDirectory("stonks-compression");
+			var records = new long[1];
+			var write = timer.measure(() -> null, $ -> {
+				try {
+					for (var gen : FileOfferJournal.listGenerations(directory))
+						Files.delete(FileOfferJournal.segmentPath(directory, gen));
+					var service = new StonksMemoryService();
+					var products = createProducts(service);
+
+					try (var journal = new FileOfferJournal(directory, service.getPriceScale(), 0L,
+						FileOfferJournal.DEFAULT_BUFFER_LIMIT, compression)) {
+						service.setJournal(journal);
+						listOffers(service, products, JOURNAL_OFFERS, true, journal);
+						records[0] = journal.getRecordsCount();
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+
+			var products = createProducts(new StonksMemoryService());
+			var load = timer.measure(() -> null, $ -> {
+				try {
+					OfferSnapshot.recover(directory.resolve("stonks.bin"), directory, id -> productGetter(products, id));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+
+			if (print) {
+				System.out.printf("  %-40s %10.1f bytes/record%n", label(compression) + ": segment size",
+					Files.size(FileOfferJournal.segmentPath(directory, 0L)) / (double) records[0]);
+				BenchmarkTimer.report(label(compression) + ": list and write", write, JOURNAL_OFFERS);
+				BenchmarkTimer.report(label(compression) + ": replay", load, (int) records[0]);
+			}
+
+			delete(directory);
+		}
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer();
+
+		try {
+			// Whichever setting runs first is measured with less optimized code, so all
+			// of them are run once before measuring
+			reportSnapshots(timer, false);
+			reportJournal(timer, false);
+			reportSnapshots(timer, true);
+			reportJournal(timer, true);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
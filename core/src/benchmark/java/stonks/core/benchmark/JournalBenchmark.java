@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import stonks.core.market.OfferType;
+import stonks.core.product.Product;
+import stonks.core.service.journal.FileOfferJournal;
+import stonks.core.service.journal.OfferSnapshot;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * Measure the cost of recording changes to {@link FileOfferJournal} and the
+ * time it takes to recover offers from snapshot and journal.
+ * </p>
+ */
+public class JournalBenchmark {
+	public static final int PRODUCTS = 8;
+	public static final int OFFERS = 100_000;
+	public static final int SYNC_OFFERS = 2_000;
+	public static final int BATCH = 256;
+	public static final int RECOVERY_OFFERS = 200_000;
+
+	private static record Fixture(StonksMemoryService service, MemoryProduct[] products, Path directory, FileOfferJournal journal) {
+	}
+
+	private static Fixture createFixture(boolean journaled) {
+		var service = new StonksMemoryService();
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		var products = new MemoryProduct[PRODUCTS];
+
+		for (int i = 0; i < PRODUCTS; i++) {
+			products[i] = new MemoryProduct(category, "item" + i, "Item " + i, null);
+			category.getModifiableMockProducts().add(products[i]);
+		}
+
+		service.getModifiableCategories().add(category);
+		if (!journaled) return new Fixture(service, products, null, null);
+
+		try {
+			var directory = Files.createTempDirectory("stonks-journal");
+			var journal = new FileOfferJournal(directory, service.getPriceScale(), 0L);
+			service.setJournal(journal);
+			return new Fixture(service, products, directory, journal);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void dispose(Fixture fixture) {
+		if (fixture.directory() == null) return;
+
+		try {
+			fixture.journal().close();
+
+			try (Stream<Path> files = Files.walk(fixture.directory())) {
+				for (var path : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void listOffers(Fixture fixture, int offers, int syncEvery) {
+		var rng = new Random(1L);
+
+		for (int i = 0; i < offers; i++) {
+			// Crossing offers, so most listings also record fills of resting offers
+			var type = rng.nextBoolean() ? OfferType.BUY : OfferType.SELL;
+			var price = 1d + rng.nextInt(100) / 100d;
+			fixture.service().listOfferAsync(new UUID(0L, rng.nextInt(100)), fixture.products()[i % PRODUCTS],
+				type, 1 + rng.nextInt(64), price);
+
+			if (fixture.journal() != null && (i + 1) % syncEvery == 0) {
+				if (syncEvery == 1) fixture.journal().sync();
+				else fixture.journal().flush();
+			}
+		}
+
+		if (fixture.journal() != null) fixture.journal().sync();
+	}
+
+	private static Optional<Product> productGetter(MemoryProduct[] products, String id) {
+		for (var product : products) if (product.getProductId().equals(id)) return Optional.of(product);
+		return Optional.empty();
+	}
+
+	private static void reportRecovery(BenchmarkTimer timer, boolean snapshot) {
+		var fixture = createFixture(true);
+		var rng = new Random(2L);
+
+		for (int i = 0; i < RECOVERY_OFFERS; i++) {
+			// Buy and sell sides do not cross, so all offers stay in the books
+			var type = rng.nextBoolean() ? OfferType.BUY : OfferType.SELL;
+			var price = type == OfferType.BUY ? 1d + rng.nextInt(250) / 100d : 4d + rng.nextInt(250) / 100d;
+			fixture.service().listOfferAsync(new UUID(0L, rng.nextInt(1000)), fixture.products()[i % PRODUCTS],
+				type, 1 + rng.nextInt(64), price);
+		}
+
+		var snapshotPath = fixture.directory().resolve("stonks.bin");
+
+		try {
+			if (snapshot) {
+				var generation = fixture.journal().rotate();
+				OfferSnapshot.write(snapshotPath, fixture.service().offersIterator(),
+					fixture.service().getPriceScale(), generation);
+				fixture.journal().awaitFlushed();
+				FileOfferJournal.deleteSegmentsUpTo(fixture.directory(), generation);
+			} else {
+				fixture.journal().sync();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		BenchmarkTimer.report(snapshot ? "recover: snapshot" : "recover: journal replay", timer.measure(() -> null,
+			$ -> {
+				try {
+					var recovery = OfferSnapshot.recover(snapshotPath, fixture.directory(),
+						id -> productGetter(fixture.products(), id));
+					if (recovery.offers().size() != RECOVERY_OFFERS) throw new IllegalStateException(
+						"Recovered " + recovery.offers().size() + " offers");
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}), RECOVERY_OFFERS);
+
+		dispose(fixture);
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer();
+		System.out.println("  " + OFFERS + " crossing offers on " + PRODUCTS + " products");
+
+		BenchmarkTimer.report("list: no journal", timer.measure(() -> createFixture(false), fixture -> {
+			listOffers(fixture, OFFERS, BATCH);
+		}), OFFERS);
+
+		BenchmarkTimer.report("list: journal, flush every " + BATCH, timer.measure(() -> createFixture(true), fixture -> {
+			listOffers(fixture, OFFERS, BATCH);
+			dispose(fixture);
+		}), OFFERS);
+
+		BenchmarkTimer.report("list: journal, sync every offer", timer.measure(() -> createFixture(true), fixture -> {
+			listOffers(fixture, SYNC_OFFERS, 1);
+			dispose(fixture);
+		}), SYNC_OFFERS);
+
+		System.out.println("  " + RECOVERY_OFFERS + " resting offers on " + PRODUCTS + " products");
+		reportRecovery(timer, true);
+		reportRecovery(timer, false);
+	}
+}
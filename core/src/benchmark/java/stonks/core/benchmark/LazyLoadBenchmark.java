@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import stonks.core.market.OfferType;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.segmented.SegmentedStonksService;
+
+/**
+ * <p>
+ * Compare startup time and memory of {@link SegmentedStonksService} when all
+ * products are loaded up front and when products are loaded on demand.
+ * </p>
+ */
+public class LazyLoadBenchmark {
+	public static final int PRODUCTS = 2000;
+	public static final int OFFERS = 200_000;
+
+	private static MemoryCategory category;
+	private static MemoryProduct[] products;
+
+	private static void createProducts() {
+		category = new MemoryCategory("benchmark", "Benchmark");
+		products = new MemoryProduct[PRODUCTS];
+
+		for (int i = 0; i < PRODUCTS; i++) {
+			products[i] = new MemoryProduct(category, "minecraft:item_" + i, "Item " + i, null);
+			category.getModifiableMockProducts().add(products[i]);
+		}
+	}
+
+	private static SegmentedStonksService open(Path directory, boolean lazy) {
+		var service = new SegmentedStonksService(directory);
+		service.getModifiableCategories().add(category);
+		service.setLazyLoading(lazy);
+		service.loadServiceData();
+		return service;
+	}
+
+	private static void close(SegmentedStonksService service) {
+		try {
+			service.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static double retainedMegabytes(boolean lazy, Path directory) {
+		var runtime = Runtime.getRuntime();
+		System.gc();
+		var before = runtime.totalMemory() - runtime.freeMemory();
+		var service = open(directory, lazy);
+		System.gc();
+		var after = runtime.totalMemory() - runtime.freeMemory();
+		close(service);
+		return (after - before) / 1048576d;
+	}
+
+	private static void delete(Path directory) {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (var path : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer();
+		var rng = new Random(1L);
+		createProducts();
+
+		try {
+			var directory = Files.createTempDirectory("stonks-lazy");
+			var writer = open(directory, false);
+
+			for (int i = 0; i < OFFERS; i++) {
+				var type = rng.nextBoolean() ? OfferType.BUY : OfferType.SELL;
+				var price = type == OfferType.BUY ? 1d + rng.nextInt(100) / 100d : 4d + rng.nextInt(250) / 100d;
+				writer.listOfferAsync(new UUID(0L, rng.nextInt(1000)), products[rng.nextInt(PRODUCTS)], type,
+					1 + rng.nextInt(64), price);
+			}
+
+			writer.saveServiceData();
+			close(writer);
+			System.out.println("  " + OFFERS + " offers on " + PRODUCTS + " products");
+
+			var eager = timer.measure(() -> null, $ -> close(open(directory, false)));
+			var lazy = timer.measure(() -> null, $ -> close(open(directory, true)));
+			var firstUse = timer.measure(() -> open(directory, true), service -> {
+				service.queryMarketOverviewAsync(products[0]).join();
+				close(service);
+			});
+			var user = timer.measure(() -> open(directory, true), service -> {
+				service.getOffersFromUserAsync(new UUID(0L, 0L)).join();
+				close(service);
+			});
+
+			BenchmarkTimer.report("Eager: loadServiceData()", eager, OFFERS);
+			BenchmarkTimer.report("Lazy: loadServiceData()", lazy, OFFERS);
+			BenchmarkTimer.report("Lazy: first overview of a product", firstUse, OFFERS / PRODUCTS);
+			BenchmarkTimer.report("Lazy: first offers of a user", user, OFFERS / 1000);
+			System.out.printf("  %-40s %10.1f MB%n", "Eager: retained heap", retainedMegabytes(false, directory));
+			System.out.printf("  %-40s %10.1f MB%n", "Lazy: retained heap", retainedMegabytes(true, directory));
+			delete(directory);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Function;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.product.Product;
+import stonks.core.service.journal.OfferSnapshot;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * Measure startup time: recovering offers from the snapshot file and inserting
+ * them to {@link StonksMemoryService}, one by one or in bulk.
+ * </p>
+ */
+public class LoadBenchmark {
+	public static final int OFFERS = 1_000_000;
+	public static final int PRODUCTS = 200;
+
+	// insertOffer() and insertOffers() are meant for subclasses that load offers
+	private static class LoadingService extends StonksMemoryService {
+		public void insertOne(Collection<Offer> offers) {
+			for (var offer : offers) insertOffer(offer);
+		}
+
+		public void insertAll(Collection<Offer> offers) {
+			insertOffers(offers);
+		}
+	}
+
+	private static List<Product> createProducts() {
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		var products = new ArrayList<Product>();
+		for (int i = 0; i < PRODUCTS; i++) products.add(new MemoryProduct(category, "minecraft:item_" + i, "Item", null));
+		return products;
+	}
+
+	private static List<Offer> createOffers(List<Product> products) {
+		var rng = new Random(1L);
+		var offers = new ArrayList<Offer>(OFFERS);
+
+		for (int i = 0; i < OFFERS; i++) {
+			// Buy and sell sides do not cross, like offers that was saved from the books
+			var type = rng.nextBoolean() ? OfferType.BUY : OfferType.SELL;
+			var price = (type == OfferType.BUY ? 10_000L : 50_000L) + rng.nextInt(500) * 10L;
+			offers.add(new Offer(new UUID(rng.nextLong(), rng.nextLong()), new UUID(0L, rng.nextInt(1000)),
+				products.get(rng.nextInt(PRODUCTS)), type, 64, 0, rng.nextInt(64), price, PriceScale.DEFAULT));
+		}
+
+		return offers;
+	}
+
+	private static void writeV1(Path path, List<Offer> offers) {
+		try (var stream = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)) {
+			for (var offer : offers) Offer.serializeV1(offer, stream);
+			Offer.serializeV1(null, stream);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static Collection<Offer> recover(Path snapshot, Path journal, Function<String, Optional<Product>> productGetter) {
+		try {
+			var offers = OfferSnapshot.recover(snapshot, journal, productGetter).offers();
+			if (offers.size() != OFFERS) throw new IllegalStateException();
+			return offers;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer().warmups(1).iterations(3);
+		var products = createProducts();
+		var productsIndex = new HashMap<String, Product>();
+		for (var product : products) productsIndex.put(product.getProductId(), product);
+		Function<String, Optional<Product>> productGetter = id -> Optional.ofNullable(productsIndex.get(id));
+
+		try {
+			var v1 = Files.createTempFile("stonks-v1", ".bin");
+			var v2 = Files.createTempFile("stonks-v2", ".bin");
+			var journal = Files.createTempDirectory("stonks-journal");
+			var offers = createOffers(products);
+			writeV1(v1, offers);
+			OfferSnapshot.write(v2, offers.iterator(), PriceScale.DEFAULT, -1L);
+			offers = null;
+			System.out.println("  " + OFFERS + " offers on " + PRODUCTS + " products");
+
+			BenchmarkTimer.report("V1: recover", timer.measure(() -> null, $ -> recover(v1, journal, productGetter)),
+				OFFERS);
+			BenchmarkTimer.report("V2: recover", timer.measure(() -> null, $ -> recover(v2, journal, productGetter)),
+				OFFERS);
+			BenchmarkTimer.report("V2: recover + insertOffer()", timer.measure(() -> null, $ -> {
+				new LoadingService().insertOne(recover(v2, journal, productGetter));
+			}), OFFERS);
+			BenchmarkTimer.report("V2: recover + insertOffers()", timer.measure(() -> null, $ -> {
+				new LoadingService().insertAll(recover(v2, journal, productGetter));
+			}), OFFERS);
+
+			Files.delete(v1);
+			Files.delete(v2);
+			Files.delete(journal);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * Benchmark {@link StonksMemoryService} service calls, with all offers placed
+ * on a single product.
+ * </p>
+ */
+public class MemoryServiceBenchmark {
+	public static final int OFFERS = 50_000;
+	public static final int USERS = 20;
+	public static final int PRICE_LEVELS = 500;
+	public static final int OVERVIEW_QUERIES = 10_000;
+
+	public static record Fixture(StonksMemoryService service, MemoryProduct product, List<Offer> offers) {
+	}
+
+	private static record Cancellation(Fixture fixture, List<UUID> ids) {
+	}
+
+	public static Fixture createFixture(int offers, int users, int levels, long seed) {
+		var service = new StonksMemoryService();
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		var product = new MemoryProduct(category, "item", "Item", null);
+		category.getModifiableMockProducts().add(product);
+		service.getModifiableCategories().add(category);
+
+		var rng = new Random(seed);
+		var list = new ArrayList<Offer>(offers);
+
+		for (int i = 0; i < offers; i++) {
+			var type = rng.nextBoolean() ? OfferType.BUY : OfferType.SELL;
+			var price = type == OfferType.BUY
+				? 1d + rng.nextInt(levels / 2) / 100d
+				: 1d + (levels / 2 + rng.nextInt(levels / 2)) / 100d;
+			var user = new UUID(0L, rng.nextInt(users));
+			list.add(service.listOfferAsync(user, product, type, 1 + rng.nextInt(64), price).join());
+		}
+
+		return new Fixture(service, product, list);
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer();
+		System.out.println("  " + OFFERS + " offers from " + USERS + " users over " + PRICE_LEVELS + " price levels");
+
+		BenchmarkTimer.report("list", timer.measure(() -> null, $ -> {
+			createFixture(OFFERS, USERS, PRICE_LEVELS, 1L);
+		}), OFFERS);
+
+		BenchmarkTimer.report("cancel all (random order)", timer.measure(() -> {
+			var fixture = createFixture(OFFERS, USERS, PRICE_LEVELS, 1L);
+			var ids = new ArrayList<>(fixture.offers().stream().map(Offer::getOfferId).toList());
+			Collections.shuffle(ids, new Random(2L));
+			return new Cancellation(fixture, ids);
+		}, state -> {
+			for (var id : state.ids()) state.fixture().service().cancelOfferAsync(id).join();
+		}), OFFERS);
+
+		BenchmarkTimer.report("overview query (1 trade per 100 queries)", timer.measure(() -> {
+			return createFixture(OFFERS, USERS, PRICE_LEVELS, 1L);
+		}, fixture -> {
+			for (int i = 0; i < OVERVIEW_QUERIES; i++) {
+				if (i % 100 == 0) fixture.service().instantBuyAsync(fixture.product(), 1, Double.MAX_VALUE).join();
+				fixture.service().queryMarketOverviewAsync(fixture.product()).join();
+			}
+		}), OVERVIEW_QUERIES);
+
+		BenchmarkTimer.report("instant sweep + claim all", timer.measure(() -> {
+			return createFixture(OFFERS, USERS, PRICE_LEVELS, 1L);
+		}, fixture -> {
+			fixture.service().instantBuyAsync(fixture.product(), Integer.MAX_VALUE, Double.MAX_VALUE).join();
+			fixture.service().instantSellAsync(fixture.product(), Integer.MAX_VALUE).join();
+			for (var offer : fixture.offers()) fixture.service().claimOfferAsync(offer.getOfferId()).join();
+		}), OFFERS);
+	}
+}
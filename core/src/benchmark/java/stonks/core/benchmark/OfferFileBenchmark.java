@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferFileV2;
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.product.Product;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+
+/**
+ * <p>
+ * Compare file size, writing and reading time of offers in version 1 format
+ * ({@link Offer#serializeV1(Offer, java.io.OutputStream)}) and version 2
+ * format ({@link OfferFileV2}).
+ * </p>
+ */
+public class OfferFileBenchmark {
+	public static final int OFFERS = 200_000;
+	public static final int PRODUCTS = 200;
+
+	private static List<Product> createProducts() {
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		var products = new ArrayList<Product>();
+		for (int i = 0; i < PRODUCTS; i++) products.add(new MemoryProduct(category, "minecraft:item_" + i, "Item", null));
+		return products;
+	}
+
+	private static List<Offer> createOffers(List<Product> products) {
+		var rng = new Random(1L);
+		var offers = new ArrayList<Offer>(OFFERS);
+
+		for (int i = 0; i < OFFERS; i++) {
+			offers.add(new Offer(new UUID(rng.nextLong(), rng.nextLong()), new UUID(0L, rng.nextInt(1000)),
+				products.get(rng.nextInt(PRODUCTS)), rng.nextBoolean() ? OfferType.BUY : OfferType.SELL,
+				64, 0, rng.nextInt(64), 10_000L + rng.nextInt(100_000), PriceScale.DEFAULT));
+		}
+
+		return offers;
+	}
+
+	// Same as the product getter that services used before they indexed products
+	private static Optional<Product> linearGetter(List<Product> products, String id) {
+		return products.stream().filter(v -> v.getProductId().equals(id)).findFirst();
+	}
+
+	private static void writeV1(Path path, List<Offer> offers) {
+		try (var stream = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)) {
+			for (var offer : offers) Offer.serializeV1(offer, stream);
+			Offer.serializeV1(null, stream);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static int readV1(Path path, List<Product> products) {
+		try (var stream = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+			var count = 0;
+			while (Offer.deserialize(id -> linearGetter(products, id), stream) != null) count++;
+			return count;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void writeV2(Path path, List<Offer> offers) {
+		try (var channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			OfferFileV2.write(channel, offers.iterator(), PriceScale.DEFAULT, -1L);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static int readV2(Path path, List<Product> products) {
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			var buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+			buffer.flip();
+			return OfferFileV2.read(buffer, id -> linearGetter(products, id)).offers().size();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer();
+		var products = createProducts();
+		var offers = createOffers(products);
+
+		try {
+			var v1 = Files.createTempFile("stonks-v1", ".bin");
+			var v2 = Files.createTempFile("stonks-v2", ".bin");
+			writeV1(v1, offers);
+			writeV2(v2, offers);
+			System.out.println("  " + OFFERS + " offers on " + PRODUCTS + " products");
+			System.out.printf("  %-40s %10.1f bytes/offer%n", "V1: file size", Files.size(v1) / (double) OFFERS);
+			System.out.printf("  %-40s %10.1f bytes/offer%n", "V2: file size", Files.size(v2) / (double) OFFERS);
+
+			BenchmarkTimer.report("V1: write", timer.measure(() -> null, $ -> writeV1(v1, offers)), OFFERS);
+			BenchmarkTimer.report("V2: write", timer.measure(() -> null, $ -> writeV2(v2, offers)), OFFERS);
+			BenchmarkTimer.report("V1: read", timer.measure(() -> null, $ -> {
+				if (readV1(v1, products) != OFFERS) throw new IllegalStateException();
+			}), OFFERS);
+			BenchmarkTimer.report("V2: read", timer.measure(() -> null, $ -> {
+				if (readV2(v2, products) != OFFERS) throw new IllegalStateException();
+			}), OFFERS);
+
+			Files.delete(v1);
+			Files.delete(v2);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import stonks.core.exec.InstantOfferExecutor;
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.OrderBook;
+import stonks.core.product.Product;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+
+/**
+ * <p>
+ * Compare {@link OrderBook} against the sorted {@link ArrayList} books that
+ * were used by {@code StonksMemoryService} before.
+ * </p>
+ */
+public class OrderBookBenchmark {
+	public static final int OFFERS = 50_000;
+	public static final int PRICE_LEVELS = 500;
+	public static final int CANCELS = 2_000;
+
+	private static final Product PRODUCT = new MemoryProduct(new MemoryCategory("benchmark", "Benchmark"), "item",
+		"Item", null);
+
+	/**
+	 * <p>
+	 * Sorted list book, as implemented by {@code StonksMemoryService} before
+	 * switching to {@link OrderBook}.
+	 * </p>
+	 */
+	private static class ListBook {
+		final List<Offer> offers = new ArrayList<>();
+
+		void insert(Offer offer) {
+			var searchResult = Collections.binarySearch(offers, offer,
+				(a, b) -> offer.getType().getPriceComparator().compare(a.getPricePerUnitTicks(), b.getPricePerUnitTicks()));
+			offers.add(searchResult >= 0 ? searchResult : (-searchResult - 1), offer);
+		}
+
+		void cancel(Offer offer) {
+			offers.removeIf(v -> v.getOfferId().equals(offer.getOfferId()));
+		}
+	}
+
+	public static List<Offer> createOffers(OfferType type, int count, int levels, long seed) {
+		var rng = new Random(seed);
+		var list = new ArrayList<Offer>(count);
+
+		for (int i = 0; i < count; i++) {
+			var price = 1d + rng.nextInt(levels) / 100d;
+			var units = 1 + rng.nextInt(64);
+			list.add(new Offer(new UUID(seed, i), new UUID(0L, rng.nextInt(100)), PRODUCT, type, units, 0, 0, price));
+		}
+
+		return list;
+	}
+
+	private static List<Offer> copyOf(List<Offer> offers) {
+		return offers.stream().map(Offer::createCopy).toList();
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer();
+		var offers = createOffers(OfferType.SELL, OFFERS, PRICE_LEVELS, 1L);
+		var toCancel = new ArrayList<>(offers.subList(0, CANCELS));
+		Collections.shuffle(toCancel, new Random(2L));
+		System.out.println("  " + OFFERS + " sell offers over " + PRICE_LEVELS + " price levels, " + CANCELS
+			+ " cancellations");
+
+		// Insert
+		BenchmarkTimer.report("insert (ArrayList)", timer.measure(() -> copyOf(offers), list -> {
+			var book = new ListBook();
+			for (var offer : list) book.insert(offer);
+		}), OFFERS);
+		BenchmarkTimer.report("insert (OrderBook)", timer.measure(() -> copyOf(offers), list -> {
+			var book = new OrderBook(OfferType.SELL);
+			for (var offer : list) book.insert(offer);
+		}), OFFERS);
+
+		// Cancel random offers
+		BenchmarkTimer.report("cancel (ArrayList)", timer.measure(() -> {
+			var book = new ListBook();
+			for (var offer : offers) book.insert(offer);
+			return book;
+		}, book -> {
+			for (var offer : toCancel) book.cancel(offer);
+		}), toCancel.size());
+		BenchmarkTimer.report("cancel (OrderBook)", timer.measure(() -> {
+			var book = new OrderBook(OfferType.SELL);
+			for (var offer : offers) book.insert(offer);
+			return book;
+		}, book -> {
+			for (var offer : toCancel) book.remove(offer);
+		}), toCancel.size());
+
+		// Sweep the entire book with instant buy
+		BenchmarkTimer.report("instant buy sweep (ArrayList)", timer.measure(() -> {
+			var book = new ListBook();
+			for (var offer : copyOf(offers)) book.insert(offer);
+			return book;
+		}, book -> {
+			new InstantOfferExecutor(Double.MAX_VALUE, Integer.MAX_VALUE)
+				.executeInstantBuy(book.offers.iterator(), null);
+		}), OFFERS);
+		BenchmarkTimer.report("instant buy sweep (OrderBook)", timer.measure(() -> {
+			var book = new OrderBook(OfferType.SELL);
+			for (var offer : copyOf(offers)) book.insert(offer);
+			return book;
+		}, book -> {
+			new InstantOfferExecutor(Double.MAX_VALUE, Integer.MAX_VALUE).executeInstantBuy(book, null);
+		}), OFFERS);
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import stonks.core.market.OfferType;
+import stonks.core.service.StonksService;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+import stonks.core.service.remote.RemoteStonksServer;
+import stonks.core.service.remote.RemoteStonksService;
+
+/**
+ * <p>
+ * Compare {@link RemoteStonksService} over loopback, with both worker models of
+ * {@link RemoteStonksServer}, with calling {@link StonksMemoryService}
+ * directly, when waiting for each response before sending the next request and
+ * when sending all requests up front.
+ * </p>
+ */
+public class RemoteBenchmark {
+	public static final int PRODUCTS = 64;
+	public static final int RESTING_OFFERS = 50_000;
+	public static final int REQUESTS = 10_000;
+
+	private static StonksMemoryService createService() {
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		var service = new StonksMemoryService();
+		service.getModifiableCategories().add(category);
+
+		for (int i = 0; i < PRODUCTS; i++)
+			category.getModifiableMockProducts().add(new MemoryProduct(category, "minecraft:item_" + i, "Item " + i,
+				null));
+
+		var rng = new Random(1L);
+		var products = category.getProducts();
+
+		for (int i = 0; i < RESTING_OFFERS; i++) {
+			var type = rng.nextBoolean() ? OfferType.BUY : OfferType.SELL;
+			var price = type == OfferType.BUY ? 1d + rng.nextInt(100) / 100d : 4d + rng.nextInt(250) / 100d;
+			service.listOfferAsync(new UUID(0L, rng.nextInt(1000)), products.get(rng.nextInt(PRODUCTS)), type,
+				1 + rng.nextInt(64), price);
+		}
+
+		return service;
+	}
+
+	private static void sequential(StonksService service, boolean list) {
+		var products = service.queryAllCategoriesAsync().join().get(0).getProducts();
+		var rng = new Random(2L);
+
+		for (int i = 0; i < REQUESTS; i++) {
+			var product = products.get(rng.nextInt(PRODUCTS));
+			if (list) service.listOfferAsync(new UUID(1L, i), product, OfferType.BUY, 1, 0.5d).join();
+			else service.queryMarketOverviewAsync(product).join();
+		}
+	}
+
+	private static void pipelined(StonksService service, boolean list) {
+		var products = service.queryAllCategoriesAsync().join().get(0).getProducts();
+		var rng = new Random(2L);
+		var futures = new ArrayList<CompletableFuture<?>>(REQUESTS);
+
+		for (int i = 0; i < REQUESTS; i++) {
+			var product = products.get(rng.nextInt(PRODUCTS));
+			if (list) futures.add(service.listOfferAsync(new UUID(1L, i), product, OfferType.BUY, 1, 0.5d));
+			else futures.add(service.queryMarketOverviewAsync(product));
+		}
+
+		CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer();
+		var service = createService();
+		System.out.println("  " + RESTING_OFFERS + " resting offers on " + PRODUCTS + " products, " + REQUESTS
+			+ " requests per run");
+
+		// Direct calls are made on this thread, which is fine because the server
+		// thread is idle between runs
+		BenchmarkTimer.report("Direct: overview", timer.measure(() -> service, s -> sequential(s, false)), REQUESTS);
+		BenchmarkTimer.report("Direct: list offer", timer.measure(() -> service, s -> sequential(s, true)), REQUESTS);
+
+		for (var workers : RemoteStonksServer.WorkerModel.values()) {
+			try (var server = new RemoteStonksServer(service)) {
+				server.setWorkerModel(workers);
+				server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+				var remote = new RemoteStonksService(server.getAddress(), null);
+				remote.connect();
+
+				var label = workers == RemoteStonksServer.WorkerModel.EVENT_LOOP ? " (event loop)" : "";
+				BenchmarkTimer.report("Remote sequential: overview" + label,
+					timer.measure(() -> remote, s -> sequential(s, false)), REQUESTS);
+				BenchmarkTimer.report("Remote pipelined: overview" + label,
+					timer.measure(() -> remote, s -> pipelined(s, false)), REQUESTS);
+				BenchmarkTimer.report("Remote sequential: list offer" + label,
+					timer.measure(() -> remote, s -> sequential(s, true)), REQUESTS);
+				BenchmarkTimer.report("Remote pipelined: list offer" + label,
+					timer.measure(() -> remote, s -> pipelined(s, true)), REQUESTS);
+				remote.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
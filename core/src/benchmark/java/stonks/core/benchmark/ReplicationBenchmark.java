@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import stonks.core.market.OfferType;
+import stonks.core.product.Product;
+import stonks.core.service.StonksService;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+import stonks.core.service.remote.RemoteStonksServer;
+import stonks.core.service.remote.RemoteStonksService;
+import stonks.core.service.replication.ReplicaStonksService;
+import stonks.core.service.replication.ReplicationLog;
+
+/**
+ * <p>
+ * Compare reading market overviews and offers of users from
+ * {@link RemoteStonksService} and from {@link ReplicaStonksService}, and
+ * measure how long it takes for trades to reach the replica.
+ * </p>
+ */
+public class ReplicationBenchmark {
+	public static final int PRODUCTS = 20;
+	public static final int OFFERS_PER_PRODUCT = 500;
+	public static final int USERS = 1000;
+	public static final int READS = 10_000;
+	public static final int READS_PER_TICK = 200;
+	public static final int TICKS = 100;
+	public static final int TRADES_PER_TICK = 20;
+
+	private static List<Product> createMarket(StonksMemoryService service) {
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		service.getModifiableCategories().add(category);
+		var rng = new Random(1L);
+		var products = new ArrayList<Product>(PRODUCTS);
+
+		for (int i = 0; i < PRODUCTS; i++) {
+			var product = new MemoryProduct(category, "minecraft:item_" + i, "Item " + i, null);
+			category.getModifiableMockProducts().add(product);
+			products.add(product);
+
+			for (int j = 0; j < OFFERS_PER_PRODUCT; j++) {
+				var buy = rng.nextBoolean();
+				service.listOfferAsync(new UUID(0L, rng.nextInt(USERS)), product, buy ? OfferType.BUY : OfferType.SELL,
+					1 + rng.nextInt(64), buy ? 3d - rng.nextInt(100) / 100d : 4d + rng.nextInt(100) / 100d);
+			}
+		}
+
+		return products;
+	}
+
+	private static void trade(StonksService trader, List<Product> products, Random rng) {
+		var futures = new ArrayList<CompletableFuture<?>>(TRADES_PER_TICK);
+
+		for (int i = 0; i < TRADES_PER_TICK; i++) {
+			var product = products.get(rng.nextInt(products.size()));
+			var buy = rng.nextBoolean();
+			var units = 1 + rng.nextInt(16);
+
+			if (rng.nextBoolean()) futures.add(trader.listOfferAsync(new UUID(0L, rng.nextInt(USERS)), product,
+				buy ? OfferType.BUY : OfferType.SELL, units,
+				buy ? 3d - rng.nextInt(100) / 100d : 4d + rng.nextInt(100) / 100d));
+			else futures.add(trader.instantOfferAsync(product, buy ? OfferType.BUY : OfferType.SELL, units, 1e9d));
+		}
+
+		CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+	}
+
+	private static void read(StonksService viewer, List<Product> products) {
+		var rng = new Random(2L);
+		var futures = new ArrayList<CompletableFuture<?>>(READS_PER_TICK);
+
+		// Half of reads are overview menus, the other half are offer menus
+		for (int i = 0; i < READS; i++) {
+			if (rng.nextBoolean()) futures.add(viewer.queryMarketOverviewAsync(products.get(rng.nextInt(PRODUCTS))));
+			else futures.add(viewer.getOffersFromUserAsync(new UUID(0L, rng.nextInt(USERS))));
+
+			if (futures.size() == READS_PER_TICK) {
+				CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+				futures.clear();
+			}
+		}
+
+		CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+	}
+
+	private static void connect(ReplicaStonksService replica) {
+		try {
+			replica.connect();
+			while (replica.getAppliedSequence() < 0L) Thread.onSpinWait();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer();
+		var service = new StonksMemoryService();
+		var products = createMarket(service);
+		var log = new ReplicationLog(service, service.getJournal());
+		service.setJournal(log);
+		System.out.println("  " + READS + " reads on " + PRODUCTS + " products with " + OFFERS_PER_PRODUCT
+			+ " offers each, " + TICKS + " ticks with " + TRADES_PER_TICK + " trades per tick");
+
+		try (var server = new RemoteStonksServer(service)) {
+			server.setReplicationLog(log);
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			var remote = new RemoteStonksService(server.getAddress(), null);
+			remote.connect();
+			var remoteProducts = remote.queryAllCategoriesAsync().join().get(0).getProducts();
+
+			var snapshot = timer.measure(() -> new ReplicaStonksService(new RemoteStonksService(server.getAddress(), null)),
+				v -> {
+					connect(v);
+					v.close();
+				});
+			var replica = new ReplicaStonksService(new RemoteStonksService(server.getAddress(), null));
+			connect(replica);
+			while (!replica.isServingLocally()) Thread.onSpinWait();
+			var replicaProducts = replica.queryAllCategoriesAsync().join().get(0).getProducts();
+
+			var remoteReads = timer.measure(() -> remote, v -> read(v, remoteProducts));
+			var replicaReads = timer.measure(() -> replica, v -> read(v, replicaProducts));
+
+			// Time from trades being executed to the replica applying them
+			var rng = new Random(3L);
+			var totalDelay = 0L;
+			var maxDelay = 0L;
+
+			for (int tick = 0; tick < TICKS; tick++) {
+				trade(remote, remoteProducts, rng);
+				var executed = System.nanoTime();
+				var sequence = remote.queryReplicationSequenceAsync().join();
+				while (replica.getAppliedSequence() < sequence) Thread.onSpinWait();
+				var delay = System.nanoTime() - executed;
+				totalDelay += delay;
+				maxDelay = Math.max(maxDelay, delay);
+			}
+
+			BenchmarkTimer.report("Remote reads", remoteReads, READS);
+			BenchmarkTimer.report("Replica reads", replicaReads, READS);
+			System.out.printf("  %-40s %10.3f ms, %d offers%n", "Connect and receive snapshot", snapshot,
+				service.getOffersInPriorityOrder().size());
+			System.out.printf("  %-40s %10.1f us average, %.1f us max%n", "Replication delay",
+				totalDelay / (double) TICKS / 1000d, maxDelay / 1000d);
+			System.out.printf("  %-40s %10d local, %d forwarded%n", "Replica reads", replica.getLocalReadsCount(),
+				replica.getForwardedReadsCount());
+			System.out.printf("  %-40s %10d ms reported lag%n", "Replica", replica.getReplicationLag().toMillis());
+			replica.close();
+			remote.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
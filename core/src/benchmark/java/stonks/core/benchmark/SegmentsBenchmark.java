@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import stonks.core.market.OfferType;
+import stonks.core.service.journal.OfferSnapshot;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+import stonks.core.service.segmented.SegmentedStonksService;
+
+/**
+ * <p>
+ * Compare saving a few changes on a large market by writing a full snapshot and
+ * by appending the changes to {@link SegmentedStonksService} segments.
+ * </p>
+ */
+public class SegmentsBenchmark {
+	public static final int PRODUCTS = 64;
+	public static final int OFFERS = 200_000;
+	public static final int CHANGES = 1000;
+
+	private static MemoryProduct[] createProducts(StonksMemoryService service) {
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		var products = new MemoryProduct[PRODUCTS];
+
+		for (int i = 0; i < PRODUCTS; i++) {
+			products[i] = new MemoryProduct(category, "minecraft:item_" + i, "Item " + i, null);
+			category.getModifiableMockProducts().add(products[i]);
+		}
+
+		service.getModifiableCategories().add(category);
+		return products;
+	}
+
+	private static void listOffer(StonksMemoryService service, MemoryProduct[] products, Random rng) {
+		var type = rng.nextBoolean() ? OfferType.BUY : OfferType.SELL;
+		var price = type == OfferType.BUY ? 1d + rng.nextInt(100) / 100d : 4d + rng.nextInt(250) / 100d;
+		service.listOfferAsync(new UUID(0L, rng.nextInt(1000)), products[rng.nextInt(PRODUCTS)], type,
+			1 + rng.nextInt(64), price);
+	}
+
+	/**
+	 * <p>
+	 * Cancel some resting offers and list the same number of new offers, so the
+	 * number of offers stays the same between runs.
+	 * </p>
+	 */
+	private static void change(StonksMemoryService service, MemoryProduct[] products, Random rng) {
+		var ids = new ArrayList<UUID>(OFFERS);
+		service.offersIterator().forEachRemaining(offer -> ids.add(offer.getOfferId()));
+		var cancelled = new ArrayList<UUID>(CHANGES / 2);
+		for (int i = 0; i < CHANGES / 2; i++) cancelled.add(ids.get(rng.nextInt(ids.size())));
+		service.cancelOffersAsync(cancelled.stream().distinct().toList());
+		for (int i = 0; i < CHANGES / 2; i++) listOffer(service, products, rng);
+	}
+
+	private static void delete(Path directory) {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (var path : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer();
+		var rng = new Random(1L);
+
+		try {
+			var directory = Files.createTempDirectory("stonks-segments");
+			System.out.println("  " + OFFERS + " resting offers on " + PRODUCTS + " products, " + CHANGES
+				+ " changes per save");
+
+			var memory = new StonksMemoryService();
+			var memoryProducts = createProducts(memory);
+			for (int i = 0; i < OFFERS; i++) listOffer(memory, memoryProducts, rng);
+			var snapshot = directory.resolve("stonks.bin");
+			var snapshotSave = timer.measure(() -> {
+				change(memory, memoryProducts, rng);
+				return null;
+			}, $ -> {
+				try {
+					OfferSnapshot.write(snapshot, memory.offersIterator(), memory.getPriceScale(), -1L);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+
+			try (var segmented = new SegmentedStonksService(directory.resolve("segments"))) {
+				var products = createProducts(segmented);
+				segmented.loadServiceData();
+				for (int i = 0; i < OFFERS; i++) listOffer(segmented, products, rng);
+				segmented.saveServiceData();
+
+				var segmentedSave = timer.measure(() -> {
+					change(segmented, products, rng);
+					return null;
+				}, $ -> segmented.saveServiceData());
+
+				// Compact every product that was changed on each save
+				segmented.getStore().setCompactionMinRecords(1);
+				segmented.getStore().setCompactionRatio(0d);
+				var compactions = segmented.getStore().getCompactionsCount();
+				var compactingSave = timer.measure(() -> {
+					change(segmented, products, rng);
+					return null;
+				}, $ -> segmented.saveServiceData());
+				compactions = segmented.getStore().getCompactionsCount() - compactions;
+
+				BenchmarkTimer.report("Snapshot: write", snapshotSave, CHANGES);
+				BenchmarkTimer.report("Segments: append", segmentedSave, CHANGES);
+				BenchmarkTimer.report("Segments: append + compact", compactingSave, CHANGES);
+				System.out.printf("  %-40s %10d%n", "Compactions", compactions);
+			}
+
+			delete(directory);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.product.Product;
+import stonks.core.service.StonksService;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.ShardedStonksMemoryService;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * Multiple clients listing crossing offers at the same time, each client on
+ * its own product. Compares {@link StonksMemoryService} behind a single lock
+ * against {@link ShardedStonksMemoryService}.
+ * </p>
+ */
+public class ShardedServiceBenchmark {
+	public static final int CLIENTS = 8;
+	public static final int OFFERS_PER_CLIENT = 25_000;
+	public static final int PRICE_LEVELS = 50;
+	public static final int JOIN_EVERY = 256;
+
+	private static record Fixture(StonksService service, List<Product> products) {
+	}
+
+	private static Fixture createFixture(StonksService service, List<MemoryCategory> categories) {
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		var products = new ArrayList<Product>();
+
+		for (int i = 0; i < CLIENTS; i++) {
+			var product = new MemoryProduct(category, "item" + i, "Item " + i, null);
+			category.getModifiableMockProducts().add(product);
+			products.add(product);
+		}
+
+		categories.add(category);
+		return new Fixture(service, products);
+	}
+
+	private static void runClients(StonksService service, List<Product> products) {
+		var threads = new ArrayList<Thread>();
+
+		for (int i = 0; i < CLIENTS; i++) {
+			var product = products.get(i);
+			var seed = i;
+
+			threads.add(Thread.ofPlatform().start(() -> {
+				var rng = new Random(seed);
+				CompletableFuture<Offer> last = null;
+
+				for (int j = 0; j < OFFERS_PER_CLIENT; j++) {
+					var type = rng.nextBoolean() ? OfferType.BUY : OfferType.SELL;
+					var price = 1d + rng.nextInt(PRICE_LEVELS) / 100d;
+					var user = new UUID(seed, rng.nextInt(20));
+					last = service.listOfferAsync(user, product, type, 1 + rng.nextInt(64), price);
+					if (j % JOIN_EVERY == 0) last.join();
+				}
+
+				last.join();
+			}));
+		}
+
+		for (var thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Memory service that can only be accessed by one thread at a time, which is
+	 * what you have to do to share {@link StonksMemoryService} between threads.
+	 * </p>
+	 */
+	private static class LockedMemoryService extends StonksMemoryService {
+		@Override
+		public synchronized CompletableFuture<Offer> listOfferRawAsync(UUID user, Product product, OfferType type, int units, long pricePerUnit) {
+			return super.listOfferRawAsync(user, product, type, units, pricePerUnit);
+		}
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer();
+		var total = CLIENTS * OFFERS_PER_CLIENT;
+		System.out.println("  " + CLIENTS + " clients on " + CLIENTS + " products, " + OFFERS_PER_CLIENT
+			+ " crossing offers each, " + Runtime.getRuntime().availableProcessors() + " CPUs");
+
+		BenchmarkTimer.report("list (locked StonksMemoryService)", timer.measure(() -> {
+			var service = new LockedMemoryService();
+			return createFixture(service, service.getModifiableCategories());
+		}, fixture -> runClients(fixture.service(), fixture.products())), total);
+
+		BenchmarkTimer.report("list (ShardedStonksMemoryService)", timer.measure(() -> {
+			var service = new ShardedStonksMemoryService();
+			return createFixture(service, service.getModifiableCategories());
+		}, fixture -> {
+			runClients(fixture.service(), fixture.products());
+			((ShardedStonksMemoryService) fixture.service()).close();
+		}), total);
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import stonks.core.market.OfferType;
+import stonks.core.service.journal.OfferSnapshot;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * Measure how long the thread that owns {@link StonksMemoryService} is blocked
+ * by saving: writing the snapshot directly from {@code offersIterator()}, or
+ * capturing a copy-on-write snapshot and writing it on a virtual thread.
+ * </p>
+ */
+public class SnapshotBenchmark {
+	public static final int PRODUCTS = 8;
+	public static final int OFFERS = 200_000;
+	public static final int TRADES = 20_000;
+	public static final int CAPTURES = 100;
+
+	private static record Fixture(StonksMemoryService service, MemoryProduct[] products, Path file) {
+	}
+
+	private static Fixture createFixture() {
+		var service = new StonksMemoryService();
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		var products = new MemoryProduct[PRODUCTS];
+
+		for (int i = 0; i < PRODUCTS; i++) {
+			products[i] = new MemoryProduct(category, "item" + i, "Item " + i, null);
+			category.getModifiableMockProducts().add(products[i]);
+		}
+
+		var rng = new Random(1L);
+
+		for (int i = 0; i < OFFERS; i++) {
+			// Buy and sell sides do not cross, so all offers stay in the books
+			var type = rng.nextBoolean() ? OfferType.BUY : OfferType.SELL;
+			var price = type == OfferType.BUY ? 1d + rng.nextInt(250) / 100d : 4d + rng.nextInt(250) / 100d;
+			service.listOfferAsync(new UUID(0L, rng.nextInt(1000)), products[i % PRODUCTS], type, 1 + rng.nextInt(64),
+				price);
+		}
+
+		try {
+			var file = Files.createTempFile("stonks-snapshot", ".bin");
+			return new Fixture(service, products, file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void trade(Fixture fixture, Random rng) {
+		// Instant orders fill resting offers, which makes the service copy them
+		var product = fixture.products()[rng.nextInt(PRODUCTS)];
+		if (rng.nextBoolean()) fixture.service().instantBuyAsync(product, 1 + rng.nextInt(8), 1000d);
+		else fixture.service().instantSellAsync(product, 1 + rng.nextInt(8));
+	}
+
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer();
+		System.out.println("  " + OFFERS + " resting offers on " + PRODUCTS + " products, " + TRADES
+			+ " instant orders while saving");
+
+		BenchmarkTimer.report("blocked: write from offersIterator()", timer.measure(SnapshotBenchmark::createFixture,
+			fixture -> {
+				try {
+					OfferSnapshot.write(fixture.file(), fixture.service().offersIterator(),
+						fixture.service().getPriceScale(), -1L);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+
+				delete(fixture.file());
+			}), OFFERS);
+
+		// Capturing is too fast to be measured once per fixture
+		var captureFixture = createFixture();
+		BenchmarkTimer.report("blocked: captureSnapshot() x" + CAPTURES, timer.measure(() -> captureFixture,
+			fixture -> {
+				for (int i = 0; i < CAPTURES; i++) fixture.service().captureSnapshot().close();
+			}), CAPTURES * OFFERS);
+		delete(captureFixture.file());
+
+		BenchmarkTimer.report("trade: no save", timer.measure(SnapshotBenchmark::createFixture, fixture -> {
+			var rng = new Random(2L);
+			for (int i = 0; i < TRADES; i++) trade(fixture, rng);
+		}), TRADES);
+
+		BenchmarkTimer.report("trade + background save, total", timer.measure(SnapshotBenchmark::createFixture,
+			fixture -> {
+				var snapshot = fixture.service().captureSnapshot();
+				var save = CompletableFuture.runAsync(() -> {
+					try (snapshot) {
+						OfferSnapshot.write(fixture.file(), snapshot.iterator(), snapshot.getScale(), -1L);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}, task -> Thread.ofVirtual().start(task));
+
+				var rng = new Random(2L);
+				for (int i = 0; i < TRADES; i++) trade(fixture, rng);
+				save.join();
+				delete(fixture.file());
+			}), TRADES);
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import stonks.core.market.OfferType;
+import stonks.core.product.Product;
+import stonks.core.service.StonksService;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+import stonks.core.service.remote.RemoteStonksServer;
+import stonks.core.service.remote.RemoteStonksService;
+import stonks.core.service.subscription.Subscription;
+
+/**
+ * <p>
+ * Compare keeping market overviews of open menus fresh by querying them every
+ * tick, and by subscribing to overview updates, through
+ * {@link RemoteStonksService}.
+ * </p>
+ */
+public class SubscriptionBenchmark {
+	public static final int PRODUCTS = 20;
+	public static final int OFFERS_PER_PRODUCT = 500;
+	public static final int MENUS = 200;
+	public static final int TICKS = 100;
+	public static final int TRADES_PER_TICK = 20;
+
+	private static List<Product> createMarket(StonksMemoryService service) {
+		var category = new MemoryCategory("benchmark", "Benchmark");
+		service.getModifiableCategories().add(category);
+		var rng = new Random(1L);
+		var products = new ArrayList<Product>(PRODUCTS);
+
+		for (int i = 0; i < PRODUCTS; i++) {
+			var product = new MemoryProduct(category, "minecraft:item_" + i, "Item " + i, null);
+			category.getModifiableMockProducts().add(product);
+			products.add(product);
+
+			for (int j = 0; j < OFFERS_PER_PRODUCT; j++) {
+				var buy = rng.nextBoolean();
+				service.listOfferAsync(new UUID(0L, rng.nextInt(1000)), product, buy ? OfferType.BUY : OfferType.SELL,
+					1 + rng.nextInt(64), buy ? 3d - rng.nextInt(100) / 100d : 4d + rng.nextInt(100) / 100d);
+			}
+		}
+
+		return products;
+	}
+
+	private static void trade(StonksService trader, List<Product> products, Random rng) {
+		var futures = new ArrayList<CompletableFuture<?>>(TRADES_PER_TICK);
+
+		for (int i = 0; i < TRADES_PER_TICK; i++) {
+			var product = products.get(rng.nextInt(products.size()));
+			var buy = rng.nextBoolean();
+			var units = 1 + rng.nextInt(16);
+
+			// Half of trades are new offers, the other half take from the top levels
+			if (rng.nextBoolean()) futures.add(trader.listOfferAsync(new UUID(1L, rng.nextInt(1000)), product,
+				buy ? OfferType.BUY : OfferType.SELL, units,
+				buy ? 3d - rng.nextInt(100) / 100d : 4d + rng.nextInt(100) / 100d));
+			else futures.add(trader.instantOfferAsync(product, buy ? OfferType.BUY : OfferType.SELL, units, 1e9d));
+		}
+
+		CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+	}
+
+	private static void poll(StonksService trader, StonksService viewer, List<Product> products) {
+		var rng = new Random(2L);
+		var futures = new ArrayList<CompletableFuture<?>>(MENUS);
+
+		for (int tick = 0; tick < TICKS; tick++) {
+			trade(trader, products, rng);
+			for (int i = 0; i < MENUS; i++) futures.add(viewer.queryMarketOverviewAsync(products.get(i % PRODUCTS)));
+			CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+			futures.clear();
+		}
+	}
+
+	private static void push(StonksService trader, StonksService viewer, List<Product> products) {
+		var rng = new Random(2L);
+		for (int tick = 0; tick < TICKS; tick++) trade(trader, products, rng);
+		// Updates are sent before the response on the same connection
+		viewer.getOffersAsync(List.of()).join();
+	}
+
+	public static void run() {
+		var timer = new BenchmarkTimer();
+		var service = new StonksMemoryService();
+		var products = createMarket(service);
+		System.out.println("  " + TICKS + " ticks with " + TRADES_PER_TICK + " trades per tick, " + MENUS + " open menus on "
+			+ PRODUCTS + " products");
+
+		try (var server = new RemoteStonksServer(service)) {
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			var trader = new RemoteStonksService(server.getAddress(), null);
+			var viewer = new RemoteStonksService(server.getAddress(), null);
+			trader.connect();
+			viewer.connect();
+			var remoteProducts = viewer.queryAllCategoriesAsync().join().get(0).getProducts();
+			var traderProducts = trader.queryAllCategoriesAsync().join().get(0).getProducts();
+
+			var polling = timer.measure(() -> viewer, v -> poll(trader, v, traderProducts));
+			var before = server.getRequestsCount();
+			poll(trader, viewer, traderProducts);
+			var pollingRequests = server.getRequestsCount() - before;
+
+			var updates = new AtomicLong();
+			var levels = new AtomicLong();
+			var subscriptions = new ArrayList<Subscription>(MENUS);
+
+			for (int i = 0; i < MENUS; i++) {
+				subscriptions.add(viewer.subscribeToOverviewUpdates(remoteProducts.get(i % PRODUCTS), update -> {
+					updates.incrementAndGet();
+					levels.addAndGet(update.getChangedLevelsCount());
+				}));
+			}
+
+			var pushing = timer.measure(() -> viewer, v -> push(trader, v, traderProducts));
+			before = server.getRequestsCount();
+			updates.set(0L);
+			levels.set(0L);
+			push(trader, viewer, traderProducts);
+			var pushingRequests = server.getRequestsCount() - before;
+			subscriptions.forEach(Subscription::close);
+
+			BenchmarkTimer.report("Query every tick", polling, TICKS);
+			BenchmarkTimer.report("Subscription", pushing, TICKS);
+			System.out.printf("  %-40s %10d requests%n", "Query every tick", pollingRequests);
+			System.out.printf("  %-40s %10d requests%n", "Subscription", pushingRequests);
+			System.out.printf("  %-40s %10d updates, %.2f changed levels per update%n", "Subscription",
+				updates.get(), levels.get() / (double) Math.max(updates.get(), 1L));
+			trader.close();
+			viewer.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -25,14 +25,25 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.function.Supplier;
 
+/**
+ * <p>
+ * Cache of a value that is fetched asynchronously. All methods are
+ * synchronized on the cache, because fetched and pushed values may arrive on
+ * other threads than the one that reads the cache.
+ * </p>
+ */
 public class FutureCache<T> {
+	public static final long DEFAULT_CACHE_TIME = 5000L;
+
 	private Supplier<CompletableFuture<T>> invoker;
 	private long lastFetch = -1;
+	private long lastAccess = System.currentTimeMillis();
+	private long revision = 0L;
 	private CompletableFuture<T> fetchingTask = null;
 	private T result = null;
 
 	// Options
-	private long maxCacheTime = 5000L;
+	private long maxCacheTime = DEFAULT_CACHE_TIME;
 
 	public FutureCache(Supplier<CompletableFuture<T>> invoker, T defaultResult) {
 		this.invoker = invoker;
@@ -46,13 +57,14 @@ public class FutureCache<T> {
 	/**
 	 * <p>
 	 * Configure the cache time, which is the minimum amount of time the object is
-	 * allowed to stay in this cache. Default cache time is 5000 milliseconds.
+	 * allowed to stay in this cache. Default cache time is
+	 * {@value #DEFAULT_CACHE_TIME} milliseconds.
 	 * </p>
 	 * 
 	 * @param maxCacheTime The maximum cache time.
 	 * @return The cache.
 	 */
-	public FutureCache<T> withMaxCacheTime(long maxCacheTime) {
+	public synchronized FutureCache<T> withMaxCacheTime(long maxCacheTime) {
 		this.maxCacheTime = maxCacheTime;
 		return this;
 	}
@@ -65,7 +77,8 @@ public class FutureCache<T> {
 	 * 
 	 * @return The state.
 	 */
-	public boolean shouldFetch() {
+	public synchronized boolean shouldFetch() {
+		lastAccess = System.currentTimeMillis();
 		return fetchingTask != null || lastFetch == -1L || (System.currentTimeMillis() - lastFetch > maxCacheTime);
 	}
 
@@ -77,12 +90,15 @@ public class FutureCache<T> {
 	 * 
 	 * @return The fetch task.
 	 */
-	public CompletableFuture<T> forceFetch() {
+	public synchronized CompletableFuture<T> forceFetch() {
 		if (fetchingTask != null) return fetchingTask;
 		return fetchingTask = invoker.get().handle((r, t) -> {
-			lastFetch = System.currentTimeMillis();
-			result = r;
-			fetchingTask = null;
+			synchronized (this) {
+				lastFetch = System.currentTimeMillis();
+				result = r;
+				revision++;
+				fetchingTask = null;
+			}
 
 			if (t != null) throw new CompletionException(t);
 			return r;
@@ -97,7 +113,7 @@ public class FutureCache<T> {
 	 * 
 	 * @return The future.
 	 */
-	public CompletableFuture<T> get() {
+	public synchronized CompletableFuture<T> get() {
 		if (fetchingTask != null && fetchingTask.isDone()) {
 			if (!fetchingTask.isCompletedExceptionally()) try {
 				result = fetchingTask.get();
@@ -125,8 +141,44 @@ public class FutureCache<T> {
 	 * 
 	 * @return The cached value.
 	 */
-	public T getNow() {
+	public synchronized T getNow() {
 		if (shouldFetch()) forceFetch();
 		return result;
 	}
+
+	/**
+	 * <p>
+	 * Replace the cached value with a newer value, usually from a subscription.
+	 * The value stays in this cache for the configured cache time, just like
+	 * fetched values.
+	 * </p>
+	 * 
+	 * @param value The new value.
+	 */
+	public synchronized void push(T value) {
+		lastFetch = System.currentTimeMillis();
+		result = value;
+		revision++;
+	}
+
+	/**
+	 * <p>
+	 * Get the revision of the cached value, which increases every time the value
+	 * is fetched or pushed. Users that keep the value can compare revisions to
+	 * see if their value is outdated.
+	 * </p>
+	 * 
+	 * @return The revision.
+	 */
+	public synchronized long getRevision() { return revision; }
+
+	/**
+	 * <p>
+	 * Get the last time this cache was used, with {@link #get()},
+	 * {@link #getNow()} or {@link #shouldFetch()}.
+	 * </p>
+	 * 
+	 * @return The time in milliseconds.
+	 */
+	public synchronized long getLastAccessTime() { return lastAccess; }
 }
@@ -27,21 +27,48 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.WeakHashMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import stonks.core.market.Offer;
 import stonks.core.market.ProductMarketOverview;
 import stonks.core.product.Category;
 import stonks.core.product.Product;
 import stonks.core.service.StonksService;
+import stonks.core.service.subscription.OffersUpdate;
+import stonks.core.service.subscription.OverviewUpdate;
+import stonks.core.service.subscription.SequencedUpdate;
+import stonks.core.service.subscription.Subscription;
 
+/**
+ * <p>
+ * Cache for frontends. If the service supports subscriptions (see
+ * {@link StonksService#isSubscriptionSupported()}), overviews and offers are
+ * kept fresh by updates from the service, so they are only requested once.
+ * A subscription is closed on the first update or {@link #tick()} after the
+ * cached value was not used for {@value #SUBSCRIPTION_IDLE_TIME}
+ * milliseconds, and the cache goes back to requesting the value when it is
+ * expired, until it is used again.
+ * </p>
+ * <p>
+ * The cache must be used from one thread, like the server thread. Updates
+ * may be received on other threads, so they are applied while holding the
+ * lock of the {@link FutureCache} that they update.
+ * </p>
+ */
 public class StonksCache {
+	public static final long SUBSCRIPTION_IDLE_TIME = 60_000L;
+	private static final long SWEEP_INTERVAL = 1000L;
+
 	private StonksService service;
 	private CompletableFuture<List<Category>> categories;
 	private Map<String, Category> categoryIdMap = null;
 
 	// Expiring cache
-	private Map<UUID, FutureCache<List<Offer>>> offers = new WeakHashMap<>();
-	private Map<Product, FutureCache<ProductMarketOverview>> overviews = new WeakHashMap<>();
+	private Map<UUID, Entry<List<Offer>, OffersUpdate>> offers = new WeakHashMap<>();
+	private Map<Product, Entry<ProductMarketOverview, OverviewUpdate>> overviews = new WeakHashMap<>();
+	private long lastSweep = System.currentTimeMillis();
 
 	public StonksCache(StonksService service) {
 		this.service = service;
@@ -66,15 +93,121 @@ public class StonksCache {
 
 	public FutureCache<List<Offer>> getOffers(UUID offerer) {
 		var cachedList = offers.get(offerer);
-		if (cachedList == null)
-			offers.put(offerer, cachedList = new FutureCache<>(() -> getService().getOffersFromUserAsync(offerer)));
-		return cachedList;
+		if (cachedList == null) offers.put(offerer, cachedList = new Entry<>(
+			new FutureCache<>(() -> getService().getOffersFromUserAsync(offerer)), OffersUpdate::applyTo));
+		cachedList.subscribe(consumer -> service.subscribeToOffersUpdates(offerer, consumer));
+		return cachedList.cache;
 	}
 
 	public FutureCache<ProductMarketOverview> getOverview(Product product) {
 		var cachedOverview = overviews.get(product);
-		if (cachedOverview == null) overviews.put(product,
-			cachedOverview = new FutureCache<>(() -> getService().queryMarketOverviewAsync(product)));
-		return cachedOverview;
+		if (cachedOverview == null) overviews.put(product, cachedOverview = new Entry<>(
+			new FutureCache<>(() -> getService().queryMarketOverviewAsync(product)), OverviewUpdate::applyTo));
+		cachedOverview.subscribe(consumer -> service.subscribeToOverviewUpdates(product, consumer));
+		return cachedOverview.cache;
+	}
+
+	/**
+	 * <p>
+	 * Close subscriptions of values that were not used for
+	 * {@value #SUBSCRIPTION_IDLE_TIME} milliseconds, so products and users
+	 * without updates do not keep their subscription forever. Should be called
+	 * once per server tick, on the thread that uses the cache.
+	 * </p>
+	 */
+	public void tick() {
+		var now = System.currentTimeMillis();
+		if (now - lastSweep < SWEEP_INTERVAL) return;
+		lastSweep = now;
+		for (var entry : offers.values()) entry.unsubscribeIfIdle();
+		for (var entry : overviews.values()) entry.unsubscribeIfIdle();
+	}
+
+	/**
+	 * <p>
+	 * A cached value that may be kept fresh by a subscription. Updates are applied
+	 * to the latest received value, not the cached value, because the cached value
+	 * may be fetched at a different time.
+	 * </p>
+	 */
+	private class Entry<T, U extends SequencedUpdate> implements Consumer<U> {
+		private final FutureCache<T> cache;
+		private final BiFunction<U, T, T> apply;
+		// Guarded by cache
+		private Subscription subscription = null;
+		private boolean subscribing = false;
+		private boolean unsupported = false;
+		private T state = null;
+		private long sequence = 0L;
+
+		public Entry(FutureCache<T> cache, BiFunction<U, T, T> apply) {
+			this.cache = cache;
+			this.apply = apply;
+		}
+
+		public void subscribe(Function<Consumer<U>, Subscription> subscriber) {
+			synchronized (cache) {
+				if (unsupported || subscribing || !service.isSubscriptionSupported()) return;
+				subscribing = true;
+			}
+
+			// The service is never called while holding the lock, because updates may be
+			// delivered while the service holds its own lock
+			try {
+				var created = subscriber.apply(this);
+
+				synchronized (cache) {
+					subscription = created;
+				}
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+
+				synchronized (cache) {
+					unsupported = true;
+					subscribing = false;
+				}
+			}
+		}
+
+		@Override
+		public void accept(U update) {
+			if (unsubscribeIfIdle()) return;
+			Subscription current;
+
+			synchronized (cache) {
+				// Closed while the update was delivered
+				if (!subscribing) return;
+
+				if (update.snapshot() || (state != null && update.sequence() == sequence + 1)) {
+					// Pushed values never expire, until the subscription is closed
+					if (state == null) cache.withMaxCacheTime(Long.MAX_VALUE);
+					state = apply.apply(update, state);
+					sequence = update.sequence();
+					cache.push(state);
+					return;
+				}
+
+				current = subscription;
+			}
+
+			if (current != null) current.resync();
+		}
+
+		public boolean unsubscribeIfIdle() {
+			Subscription current;
+
+			synchronized (cache) {
+				if (System.currentTimeMillis() - cache.getLastAccessTime() <= SUBSCRIPTION_IDLE_TIME) return false;
+				current = subscription;
+				if (current == null) return true;
+				subscription = null;
+				state = null;
+				cache.withMaxCacheTime(FutureCache.DEFAULT_CACHE_TIME);
+				subscribing = false;
+			}
+
+			current.close();
+			return true;
+		}
 	}
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.exec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.OrderBook;
+import stonks.core.market.PriceLevel;
+import stonks.core.market.PriceScale;
+
+/**
+ * <p>
+ * A periodic batch auction (also known as call market) for a single product.
+ * Instant offers are collected until {@link #clear(OrderBook, OrderBook,
+ * Consumer)} is called, then all instant offers and crossing offers from both
+ * books are executed at a single uniform price.
+ * </p>
+ * <p>
+ * The clearing price is the price that maximizes the number of units traded.
+ * If there are multiple prices with the same volume, the price with smallest
+ * imbalance between demand and supply is used, and if there are still multiple
+ * prices, the price moves toward the side with excess volume. Instant offers
+ * are filled before offers from the books, and offers from the books are
+ * filled in price-time priority. Offers that are filled at a better price than
+ * their own price per unit receive the difference as price improvement (see
+ * {@link Offer#getPriceImprovementTicks()}).
+ * </p>
+ */
+public class BatchAuction {
+	/**
+	 * <p>
+	 * Result of a clearing.
+	 * </p>
+	 * 
+	 * @param pricePerUnit Clearing price in ticks, or {@code -1} if nothing was
+	 *                     traded.
+	 * @param units        Number of units traded.
+	 * @param filledOffers Number of offers from the books that were fully
+	 *                     filled.
+	 * @param scale        The price scale.
+	 */
+	public static record ClearingResult(long pricePerUnit, long units, int filledOffers, PriceScale scale) {
+		public boolean isTraded() { return units > 0; }
+
+		public double getPricePerUnit() { return scale.toDouble(pricePerUnit); }
+	}
+
+	private static class InstantOrder {
+		private final int units;
+		private final long balance;
+		private final Consumer<InstantOfferExecuteResult> callback;
+		private int filled = 0;
+
+		public InstantOrder(int units, long balance, Consumer<InstantOfferExecuteResult> callback) {
+			this.units = units;
+			this.balance = balance;
+			this.callback = callback;
+		}
+
+		public int demandAt(long price) {
+			return Math.min(units, PriceScale.affordableUnits(balance, price));
+		}
+	}
+
+	private final PriceScale scale;
+	private final List<InstantOrder> instantBuys = new ArrayList<>();
+	private final List<InstantOrder> instantSells = new ArrayList<>();
+
+	public BatchAuction(PriceScale scale) {
+		this.scale = scale;
+	}
+
+	public PriceScale getScale() { return scale; }
+
+	/**
+	 * <p>
+	 * Get the number of instant offers waiting for the next clearing.
+	 * </p>
+	 * 
+	 * @return Number of pending instant offers.
+	 */
+	public int getPendingInstantOffers() { return instantBuys.size() + instantSells.size(); }
+
+	/**
+	 * <p>
+	 * Add an instant offer to the next clearing.
+	 * </p>
+	 * 
+	 * @param type     Offer type.
+	 * @param units    How much units to buy or sell.
+	 * @param balance  Balance in ticks (only applies for instant buy offers).
+	 * @param callback The callback that will receives the execution result when
+	 *                 the auction is cleared.
+	 */
+	public void addInstantOffer(OfferType type, int units, long balance, Consumer<InstantOfferExecuteResult> callback) {
+		(type == OfferType.BUY ? instantBuys : instantSells).add(new InstantOrder(units, balance, callback));
+	}
+
+	/**
+	 * <p>
+	 * Clear the auction. All pending instant offers will receive their results,
+	 * including instant offers that was not filled.
+	 * </p>
+	 * 
+	 * @param buyOffers            The buy offers book.
+	 * @param sellOffers           The sell offers book.
+	 * @param filledOffersConsumer A consumer that receives all fully filled
+	 *                             offers from the books after the auction is
+	 *                             cleared. Can be {@code null}.
+	 * @return The clearing result.
+	 */
+	public ClearingResult clear(OrderBook buyOffers, OrderBook sellOffers, Consumer<Offer> filledOffersConsumer) {
+		var buyLevels = new ArrayList<>(buyOffers.getLevels()); // Highest first
+		var sellLevels = new ArrayList<>(sellOffers.getLevels()); // Lowest first
+		long instantSellUnits = 0L;
+		for (var order : instantSells) instantSellUnits += order.units;
+		long bookBuyUnits = 0L;
+		for (var level : buyLevels) bookBuyUnits += level.getTotalAvailableUnits();
+
+		// Find clearing price by walking through all level prices from lowest to
+		// highest
+		long bestPrice = -1L, bestVolume = 0L, bestImbalance = Long.MAX_VALUE;
+		int buyIndex = buyLevels.size() - 1, sellIndex = 0;
+		long supply = instantSellUnits, bookDemand = bookBuyUnits;
+
+		while (buyIndex >= 0 || sellIndex < sellLevels.size()) {
+			var price = Math.min(
+				buyIndex >= 0 ? buyLevels.get(buyIndex).getPricePerUnitTicks() : Long.MAX_VALUE,
+				sellIndex < sellLevels.size() ? sellLevels.get(sellIndex).getPricePerUnitTicks() : Long.MAX_VALUE);
+
+			// Supply: sells at or below the price
+			while (sellIndex < sellLevels.size() && sellLevels.get(sellIndex).getPricePerUnitTicks() <= price)
+				supply += sellLevels.get(sellIndex++).getTotalAvailableUnits();
+
+			var demand = bookDemand;
+			for (var order : instantBuys) demand += order.demandAt(price);
+
+			var volume = Math.min(demand, supply);
+			var imbalance = Math.abs(demand - supply);
+
+			if (volume > 0 && (volume > bestVolume
+				|| (volume == bestVolume && imbalance < bestImbalance)
+				|| (volume == bestVolume && imbalance == bestImbalance && demand > supply))) {
+				bestPrice = price;
+				bestVolume = volume;
+				bestImbalance = imbalance;
+			}
+
+			// Demand: buys at or above the price, so buys at this price are removed
+			// before moving to next price
+			while (buyIndex >= 0 && buyLevels.get(buyIndex).getPricePerUnitTicks() <= price)
+				bookDemand -= buyLevels.get(buyIndex--).getTotalAvailableUnits();
+		}
+
+		var filledOffers = new ArrayList<Offer>();
+
+		if (bestVolume > 0) {
+			var remaining = bestVolume;
+
+			for (var order : instantBuys) {
+				order.filled = (int) Math.min(order.demandAt(bestPrice), remaining);
+				remaining -= order.filled;
+			}
+
+			fillBook(buyOffers, OfferType.BUY, bestPrice, remaining, filledOffers);
+			remaining = bestVolume;
+
+			for (var order : instantSells) {
+				order.filled = (int) Math.min(order.units, remaining);
+				remaining -= order.filled;
+			}
+
+			fillBook(sellOffers, OfferType.SELL, bestPrice, remaining, filledOffers);
+		}
+
+		var price = bestPrice;
+		if (filledOffersConsumer != null) for (var offer : filledOffers) filledOffersConsumer.accept(offer);
+
+		for (var order : instantBuys) order.callback.accept(new InstantOfferExecuteResult(
+			order.units - order.filled,
+			order.balance - (order.filled > 0 ? PriceScale.multiply(price, order.filled) : 0L),
+			scale));
+		for (var order : instantSells) order.callback.accept(new InstantOfferExecuteResult(
+			order.units - order.filled,
+			order.balance + (order.filled > 0 ? PriceScale.multiply(price, order.filled) : 0L),
+			scale));
+
+		instantBuys.clear();
+		instantSells.clear();
+		return new ClearingResult(price, bestVolume, filledOffers.size(), scale);
+	}
+
+	private void fillBook(OrderBook book, OfferType type, long price, long units, List<Offer> filledOffers) {
+		while (units > 0) {
+			PriceLevel level = book.getBestLevel();
+			var offer = level.peek();
+			var toFill = (int) Math.min(offer.getAvailableUnits(), units);
+			var difference = type == OfferType.BUY
+				? level.getPricePerUnitTicks() - price
+				: price - level.getPricePerUnitTicks();
+
+			book.fillBest(toFill, PriceScale.multiply(difference, toFill));
+			units -= toFill;
+			if (offer.isFilled()) filledOffers.add(offer);
+		}
+	}
+}
@@ -21,5 +21,25 @@
  */
 package stonks.core.exec;
 
-public record InstantOfferExecuteResult(int units, double balance) {
+import stonks.core.market.PriceScale;
+
+/**
+ * <p>
+ * The result of instant offer.
+ * </p>
+ * 
+ * @param units        Number of units that are not moved.
+ * @param balanceTicks The balance in ticks. For instant buy, this is the
+ *                     remaining balance. For instant sell, this is the amount
+ *                     of money collected.
+ * @param scale        The scale of balance.
+ */
+public record InstantOfferExecuteResult(int units, long balanceTicks, PriceScale scale) {
+	public InstantOfferExecuteResult(int units, double balance) {
+		this(units, PriceScale.DEFAULT.toTicks(balance), PriceScale.DEFAULT);
+	}
+
+	public double balance() {
+		return scale.toDouble(balanceTicks);
+	}
 }
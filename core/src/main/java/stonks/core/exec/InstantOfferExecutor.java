@@ -25,24 +25,53 @@ import java.util.Iterator;
 import java.util.function.Consumer;
 
 import stonks.core.market.Offer;
-
+import stonks.core.market.OrderBook;
+import stonks.core.market.PriceScale;
+
+/**
+ * <p>
+ * Execute instant offers by filling offers from the opposite side of the
+ * market. The balance is stored as ticks, so it is exact and no rounding is
+ * involved when filling offers.
+ * </p>
+ */
 public class InstantOfferExecutor {
-	private double currentBalance;
+	private PriceScale scale;
+	private long currentBalance;
 	private int currentUnits;
 
-	public InstantOfferExecutor(double currentBalance, int currentUnits) {
-		this.currentBalance = currentBalance;
+	public InstantOfferExecutor(PriceScale scale, long currentBalanceTicks, int currentUnits) {
+		this.scale = scale;
+		this.currentBalance = currentBalanceTicks;
 		this.currentUnits = currentUnits;
 	}
 
-	public double getCurrentBalance() { return currentBalance; }
+	public InstantOfferExecutor(double currentBalance, int currentUnits) {
+		this(PriceScale.DEFAULT, PriceScale.DEFAULT.toTicks(currentBalance), currentUnits);
+	}
+
+	public PriceScale getScale() { return scale; }
+
+	public double getCurrentBalance() { return scale.toDouble(currentBalance); }
+
+	public void setCurrentBalance(double currentBalance) { this.currentBalance = scale.toTicks(currentBalance); }
+
+	public long getCurrentBalanceTicks() { return currentBalance; }
 
-	public void setCurrentBalance(double currentBalance) { this.currentBalance = currentBalance; }
+	public void setCurrentBalanceTicks(long currentBalance) { this.currentBalance = currentBalance; }
 
 	public int getCurrentUnits() { return currentUnits; }
 
 	public void setCurrentUnits(int currentUnits) { this.currentUnits = currentUnits; }
 
+	public InstantOfferExecuteResult toResult() {
+		return new InstantOfferExecuteResult(currentUnits, currentBalance, scale);
+	}
+
+	private long priceOf(Offer offer) {
+		return scale.rescale(offer.getPricePerUnitTicks(), offer.getScale());
+	}
+
 	/**
 	 * <p>
 	 * Execute instant buy.
@@ -58,11 +87,12 @@ public class InstantOfferExecutor {
 	public InstantOfferExecutor executeInstantBuy(Iterator<Offer> sellOffersIterator, Consumer<Offer> filledOffersConsumer) {
 		while (sellOffersIterator.hasNext()) {
 			var offer = sellOffersIterator.next();
-			var canBuyUnits = (int) Math.floor(getCurrentBalance() / offer.getPricePerUnit());
+			var price = priceOf(offer);
+			var canBuyUnits = PriceScale.affordableUnits(currentBalance, price);
 			var availableUnits = offer.getAvailableUnits();
 			var toBuy = Math.min(Math.min(availableUnits, canBuyUnits), currentUnits);
 
-			currentBalance -= toBuy * offer.getPricePerUnit();
+			currentBalance -= PriceScale.multiply(price, toBuy);
 			currentUnits -= toBuy;
 			offer.fillOffer(toBuy);
 
@@ -75,6 +105,53 @@ public class InstantOfferExecutor {
 		return this;
 	}
 
+	/**
+	 * <p>
+	 * Execute instant buy against an order book. The offers will be filled from the
+	 * best price level, and fully filled offers will be removed from the book.
+	 * </p>
+	 * 
+	 * @param sellOffers           The sell offers book.
+	 * @param filledOffersConsumer A consumer that listens for filled offers. Can be
+	 *                             {@code null}.
+	 * @return This executor for chaining.
+	 */
+	public InstantOfferExecutor executeInstantBuy(OrderBook sellOffers, Consumer<Offer> filledOffersConsumer) {
+		return executeInstantBuy(sellOffers, Long.MAX_VALUE, filledOffersConsumer);
+	}
+
+	/**
+	 * <p>
+	 * Execute instant buy against an order book, only filling offers with price
+	 * per unit lower than or equals to the limit price.
+	 * </p>
+	 * 
+	 * @param sellOffers           The sell offers book.
+	 * @param limitPrice           The maximum price per unit in ticks.
+	 * @param filledOffersConsumer A consumer that listens for filled offers. Can be
+	 *                             {@code null}.
+	 * @return This executor for chaining.
+	 */
+	public InstantOfferExecutor executeInstantBuy(OrderBook sellOffers, long limitPrice, Consumer<Offer> filledOffersConsumer) {
+		Offer offer;
+
+		while ((offer = sellOffers.peek()) != null) {
+			var price = priceOf(offer);
+			if (price > limitPrice) return this;
+			var canBuyUnits = PriceScale.affordableUnits(currentBalance, price);
+			var toBuy = Math.min(Math.min(offer.getAvailableUnits(), canBuyUnits), currentUnits);
+
+			currentBalance -= PriceScale.multiply(price, toBuy);
+			currentUnits -= toBuy;
+			sellOffers.fillBest(toBuy);
+
+			if (!offer.isFilled()) return this;
+			if (filledOffersConsumer != null) filledOffersConsumer.accept(offer);
+		}
+
+		return this;
+	}
+
 	/**
 	 * <p>
 	 * Execute instant sell.
@@ -93,7 +170,7 @@ public class InstantOfferExecutor {
 			var availableUnits = offer.getAvailableUnits();
 			var toSell = Math.min(availableUnits, currentUnits);
 
-			currentBalance += toSell * offer.getPricePerUnit();
+			currentBalance = Math.addExact(currentBalance, PriceScale.multiply(priceOf(offer), toSell));
 			currentUnits -= toSell;
 			offer.fillOffer(toSell);
 
@@ -105,4 +182,50 @@ public class InstantOfferExecutor {
 
 		return this;
 	}
+
+	/**
+	 * <p>
+	 * Execute instant sell against an order book. The offers will be filled from
+	 * the best price level, and fully filled offers will be removed from the book.
+	 * </p>
+	 * 
+	 * @param buyOffers            The buy offers book.
+	 * @param filledOffersConsumer A consumer that listens for filled offers. Can be
+	 *                             {@code null}.
+	 * @return This executor for chaining.
+	 */
+	public InstantOfferExecutor executeInstantSell(OrderBook buyOffers, Consumer<Offer> filledOffersConsumer) {
+		return executeInstantSell(buyOffers, Long.MIN_VALUE, filledOffersConsumer);
+	}
+
+	/**
+	 * <p>
+	 * Execute instant sell against an order book, only filling offers with price
+	 * per unit higher than or equals to the limit price.
+	 * </p>
+	 * 
+	 * @param buyOffers            The buy offers book.
+	 * @param limitPrice           The minimum price per unit in ticks.
+	 * @param filledOffersConsumer A consumer that listens for filled offers. Can be
+	 *                             {@code null}.
+	 * @return This executor for chaining.
+	 */
+	public InstantOfferExecutor executeInstantSell(OrderBook buyOffers, long limitPrice, Consumer<Offer> filledOffersConsumer) {
+		Offer offer;
+
+		while ((offer = buyOffers.peek()) != null) {
+			var price = priceOf(offer);
+			if (price < limitPrice) return this;
+			var toSell = Math.min(offer.getAvailableUnits(), currentUnits);
+
+			currentBalance = Math.addExact(currentBalance, PriceScale.multiply(price, toSell));
+			currentUnits -= toSell;
+			buyOffers.fillBest(toSell);
+
+			if (!offer.isFilled()) return this;
+			if (filledOffersConsumer != null) filledOffersConsumer.accept(offer);
+		}
+
+		return this;
+	}
 }
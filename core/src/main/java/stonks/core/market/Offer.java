@@ -42,9 +42,19 @@ public class Offer {
 	private int totalUnits;
 	private int claimedUnits;
 	private int filledUnits;
-	private double pricePerUnit;
-
-	public Offer(UUID offerId, UUID offerer, Product product, OfferType type, int totalUnits, int claimedUnits, int filledUnits, double pricePerUnit) {
+	private long pricePerUnit;
+	private PriceScale scale;
+	private long priceImprovement = 0L;
+
+	/**
+	 * <p>
+	 * Create a new offer with price in ticks.
+	 * </p>
+	 * 
+	 * @param pricePerUnit Price per unit in ticks.
+	 * @param scale        The scale of price.
+	 */
+	public Offer(UUID offerId, UUID offerer, Product product, OfferType type, int totalUnits, int claimedUnits, int filledUnits, long pricePerUnit, PriceScale scale) {
 		this.offerId = offerId;
 		this.offerer = offerer;
 		this.product = product;
@@ -53,10 +63,40 @@ public class Offer {
 		this.claimedUnits = claimedUnits;
 		this.filledUnits = filledUnits;
 		this.pricePerUnit = pricePerUnit;
+		this.scale = scale;
+	}
+
+	/**
+	 * <p>
+	 * Create a new offer with price in {@link PriceScale#DEFAULT} scale.
+	 * </p>
+	 */
+	public Offer(UUID offerId, UUID offerer, Product product, OfferType type, int totalUnits, int claimedUnits, int filledUnits, double pricePerUnit) {
+		this(offerId, offerer, product, type, totalUnits, claimedUnits, filledUnits,
+			PriceScale.DEFAULT.toTicks(pricePerUnit), PriceScale.DEFAULT);
 	}
 
 	public Offer createCopy() {
-		return new Offer(offerId, offerer, product, type, totalUnits, claimedUnits, filledUnits, pricePerUnit);
+		var copy = new Offer(offerId, offerer, product, type, totalUnits, claimedUnits, filledUnits, pricePerUnit,
+			scale);
+		copy.priceImprovement = priceImprovement;
+		return copy;
+	}
+
+	/**
+	 * <p>
+	 * Create a copy of this offer with price converted to another scale.
+	 * </p>
+	 * 
+	 * @param scale The new scale.
+	 * @return The copy of this offer, or this offer if the scale is the same.
+	 */
+	public Offer withScale(PriceScale scale) {
+		if (this.scale.equals(scale)) return this;
+		var copy = new Offer(offerId, offerer, product, type, totalUnits, claimedUnits, filledUnits,
+			scale.rescale(pricePerUnit, this.scale), scale);
+		copy.priceImprovement = scale.rescale(priceImprovement, this.scale);
+		return copy;
 	}
 
 	public UUID getOfferId() { return offerId; }
@@ -67,7 +107,43 @@ public class Offer {
 
 	public OfferType getType() { return type; }
 
-	public double getPricePerUnit() { return pricePerUnit; }
+	public double getPricePerUnit() { return scale.toDouble(pricePerUnit); }
+
+	/**
+	 * <p>
+	 * Get the price per unit in ticks. Use {@link #getScale()} to convert ticks to
+	 * currency value.
+	 * </p>
+	 * 
+	 * @return Price per unit in ticks.
+	 */
+	public long getPricePerUnitTicks() { return pricePerUnit; }
+
+	public PriceScale getScale() { return scale; }
+
+	/**
+	 * <p>
+	 * Get the unclaimed price improvement in ticks. An offer can be filled at a
+	 * price that is better than its own price per unit, like when a new offer
+	 * crosses the opposite side of the market, or when the offer is filled in a
+	 * batch auction. The price improvement is the total difference between the
+	 * offer's price and the actual price: it is the refund for buy offers and the
+	 * extra earnings for sell offers.
+	 * </p>
+	 * <p>
+	 * Services reset the price improvement when the offer is claimed, which means
+	 * the offer returned from {@code claimOffersAsync()} or
+	 * {@code cancelOffersAsync()} contains the amount that should be given to the
+	 * offerer.
+	 * </p>
+	 * 
+	 * @return The price improvement in ticks.
+	 */
+	public long getPriceImprovementTicks() { return priceImprovement; }
+
+	public void setPriceImprovementTicks(long priceImprovement) { this.priceImprovement = priceImprovement; }
+
+	public double getPriceImprovement() { return scale.toDouble(priceImprovement); }
 
 	public int getTotalUnits() { return totalUnits; }
 
@@ -107,6 +183,13 @@ public class Offer {
 
 	public static final int SERIALIZE_VERSION_NULL = 0;
 	public static final int SERIALIZE_VERSION_1 = 1;
+	/**
+	 * <p>
+	 * Version 2 is a file format for many offers instead of a per-offer format.
+	 * See {@link OfferFileV2}.
+	 * </p>
+	 */
+	public static final int SERIALIZE_VERSION_2 = 2;
 
 	public static void serializeV1(Offer offer, OutputStream stream) throws IOException {
 		var data = new DataOutputStream(stream);
@@ -137,6 +220,20 @@ public class Offer {
 	public static Offer deserializeV1(Function<String, Optional<Product>> productGetter, InputStream stream, boolean readHeader) throws IOException {
 		var data = new DataInputStream(stream);
 		if (readHeader && data.readInt() != SERIALIZE_VERSION_1) return null;
+		return deserializeV1(productGetter, data);
+	}
+
+	/**
+	 * <p>
+	 * Read the body of version 1 offer, without the header. Use this when reading
+	 * many offers from the same input, so no wrapper is created for each offer.
+	 * </p>
+	 * 
+	 * @param productGetter Function to get product from its ID.
+	 * @param data          The input.
+	 * @return The offer, or {@code null} if the product does not exists.
+	 */
+	public static Offer deserializeV1(Function<String, Optional<Product>> productGetter, DataInput data) throws IOException {
 		var offerId = readUUID(data);
 		var offerer = readUUID(data);
 		var productId = data.readUTF();
@@ -167,7 +264,7 @@ public class Offer {
 	public String toString() {
 		return "Offer["
 			+ "id=" + offerId + " by " + offerer + ", "
-			+ "x" + totalUnits + " " + product + " @ " + pricePerUnit + "/ea, "
+			+ "x" + totalUnits + " " + product + " @ " + getPricePerUnit() + "/ea, "
 			+ "filled=" + filledUnits + ", "
 			+ "claimed=" + claimedUnits + "]";
 	}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.market;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+import stonks.core.product.Product;
+
+/**
+ * <p>
+ * Offers file format version 2. Unlike {@link Offer#serializeV1(Offer,
+ * java.io.OutputStream)}, which writes product ID and offer type as strings for
+ * each offer, version 2 stores each product ID once in a dictionary, and each
+ * offer is a fixed-width record that can be decoded directly from a
+ * {@link ByteBuffer} (including memory-mapped buffers).
+ * </p>
+ * <p>
+ * The file starts with {@link Offer#SERIALIZE_VERSION_2} as big-endian
+ * {@code int}, so it can be told apart from version 1 files. Everything after
+ * that is little-endian:
+ * </p>
+ * <ul>
+ * <li>Header ({@value #HEADER_SIZE} bytes): version, {@code u32} price decimals,
+ * {@code s64} journal generation, {@code u32} number of records, {@code u32}
+ * reserved, {@code u64} offset of product dictionary.</li>
+ * <li>Records ({@value #RECORD_SIZE} bytes each): offer ID and offerer ID (2
+ * {@code u64} each, most significant bits first), {@code u32} product index,
+ * {@code u8} type ({@code 0} for buy, {@code 1} for sell), 3 reserved bytes,
+ * {@code u32} total units, claimed units and filled units, 4 reserved bytes,
+ * {@code s64} price per unit in ticks and {@code s64} price improvement in
+ * ticks.</li>
+ * <li>Product dictionary: {@code u32} number of products, then each product ID
+ * as {@code u16} length and UTF-8 bytes.</li>
+ * <li>{@code u32} CRC32 of records and product dictionary.</li>
+ * </ul>
+ * <p>
+ * The dictionary is placed after the records, so offers can be written in a
+ * single pass without knowing all products in advance.
+ * </p>
+ */
+public final class OfferFileV2 {
+	public static final int HEADER_SIZE = 32;
+	public static final int RECORD_SIZE = 72;
+	public static final byte TYPE_BUY = 0;
+	public static final byte TYPE_SELL = 1;
+
+	private static final int BUFFER_SIZE = RECORD_SIZE * 1024;
+	private static final int PARALLEL_CHUNK = 8192;
+
+	private OfferFileV2() {}
+
+	/**
+	 * <p>
+	 * Contents of version 2 file.
+	 * </p>
+	 * 
+	 * @param scale         The price scale of all offers.
+	 * @param generation    The journal generation stored in header.
+	 * @param offers        Decoded offers, in the order they were written.
+	 * @param droppedOffers Number of offers that was dropped because their
+	 *                      products does not exists anymore.
+	 */
+	public static record Contents(PriceScale scale, long generation, List<Offer> offers, int droppedOffers) {
+	}
+
+	/**
+	 * <p>
+	 * Check if the buffer starts with version 2 header. The position of buffer is
+	 * not changed.
+	 * </p>
+	 * 
+	 * @param buffer The buffer.
+	 * @return {@code true} if this is version 2 file.
+	 */
+	public static boolean isVersion2(ByteBuffer buffer) {
+		if (buffer.remaining() < 4) return false;
+		return buffer.duplicate().order(ByteOrder.BIG_ENDIAN).getInt(buffer.position()) == Offer.SERIALIZE_VERSION_2;
+	}
+
+	/**
+	 * <p>
+	 * Write offers to the channel, starting at the current position of the
+	 * channel.
+	 * </p>
+	 * 
+	 * @param channel    The channel.
+	 * @param offers     The offers to write.
+	 * @param scale      The price scale. Offers with different scale are
+	 *                   converted.
+	 * @param generation The journal generation to store in header.
+	 * @return Number of written offers.
+	 */
+	public static int write(FileChannel channel, Iterator<Offer> offers, PriceScale scale, long generation) throws IOException {
+		var start = channel.position();
+		var buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		var crc = new CRC32();
+		var products = new HashMap<String, Integer>();
+		var dictionary = new ArrayList<String>();
+		var count = 0;
+
+		// Header is written after everything else
+		channel.position(start + HEADER_SIZE);
+
+		while (offers.hasNext()) {
+			var offer = offers.next().withScale(scale);
+			if (buffer.remaining() < RECORD_SIZE) drain(channel, buffer, crc);
+			var productId = offer.getProduct().getProductId();
+			var productIndex = products.computeIfAbsent(productId, id -> {
+				dictionary.add(id);
+				return dictionary.size() - 1;
+			});
+
+			buffer.putLong(offer.getOfferId().getMostSignificantBits());
+			buffer.putLong(offer.getOfferId().getLeastSignificantBits());
+			buffer.putLong(offer.getOffererId().getMostSignificantBits());
+			buffer.putLong(offer.getOffererId().getLeastSignificantBits());
+			buffer.putInt(productIndex);
+			buffer.put(offer.getType() == OfferType.BUY ? TYPE_BUY : TYPE_SELL);
+			buffer.put((byte) 0).put((byte) 0).put((byte) 0);
+			buffer.putInt(offer.getTotalUnits());
+			buffer.putInt(offer.getClaimedUnits());
+			buffer.putInt(offer.getFilledUnits());
+			buffer.putInt(0);
+			buffer.putLong(offer.getPricePerUnitTicks());
+			buffer.putLong(offer.getPriceImprovementTicks());
+			count++;
+		}
+
+		drain(channel, buffer, crc);
+		var dictionaryOffset = channel.position() - start;
+		buffer.putInt(dictionary.size());
+
+		for (var productId : dictionary) {
+			var bytes = productId.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > 0xFFFF) throw new IOException("OfferFileV2: Product ID is too long: " + productId);
+			if (buffer.remaining() < 2 + bytes.length) drain(channel, buffer, crc);
+			buffer.putShort((short) bytes.length);
+			buffer.put(bytes);
+		}
+
+		drain(channel, buffer, crc);
+		buffer.putInt((int) crc.getValue());
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		var end = channel.position();
+
+		buffer.clear();
+		buffer.order(ByteOrder.BIG_ENDIAN).putInt(Offer.SERIALIZE_VERSION_2).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(scale.decimals());
+		buffer.putLong(generation);
+		buffer.putInt(count);
+		buffer.putInt(0);
+		buffer.putLong(dictionaryOffset);
+		buffer.flip();
+		var position = start;
+		while (buffer.hasRemaining()) position += channel.write(buffer, position);
+
+		channel.position(end);
+		return count;
+	}
+
+	private static void drain(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+		buffer.flip();
+		crc.update(buffer.duplicate());
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * <p>
+	 * Read all offers from the buffer. The buffer must contain exactly one
+	 * version 2 file, from its position to its limit.
+	 * </p>
+	 * <p>
+	 * Large files are decoded in parallel on the common {@link java.util.concurrent.ForkJoinPool}.
+	 * The buffer must not be modified until this method returns.
+	 * </p>
+	 * 
+	 * @param buffer        The buffer.
+	 * @param productGetter Function to get product from its ID. Only called once
+	 *                      per product, on the calling thread.
+	 * @return The contents.
+	 * @throws IOException if the file is incomplete or damaged.
+	 */
+	public static Contents read(ByteBuffer buffer, Function<String, Optional<Product>> productGetter) throws IOException {
+		if (!isVersion2(buffer)) throw new IOException("OfferFileV2: Not a version 2 file");
+		var data = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if (data.limit() < HEADER_SIZE + 8) throw new IOException("OfferFileV2: Incomplete file");
+
+		var scale = new PriceScale(data.getInt(4));
+		var generation = data.getLong(8);
+		var count = data.getInt(16);
+		var dictionaryOffset = data.getLong(24);
+		var crcOffset = data.limit() - 4;
+
+		if (count < 0 || dictionaryOffset != HEADER_SIZE + (long) count * RECORD_SIZE
+			|| dictionaryOffset + 4 > crcOffset)
+			throw new IOException("OfferFileV2: Incomplete or damaged file");
+
+		var crc = new CRC32();
+		crc.update(data.slice(HEADER_SIZE, crcOffset - HEADER_SIZE));
+		if ((int) crc.getValue() != data.getInt(crcOffset)) throw new IOException("OfferFileV2: Checksum mismatch");
+
+		var products = readDictionary(data, (int) dictionaryOffset, crcOffset, productGetter);
+		var decoded = new Offer[count];
+		var chunks = (count + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+
+		// Records have fixed width, so chunks of records can be decoded on different
+		// threads without scanning the file first
+		try {
+			IntStream.range(0, chunks).parallel().forEach(chunk -> {
+				// Each thread needs its own buffer, because buffers are not thread safe
+				var view = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+				var end = Math.min(count, (chunk + 1) * PARALLEL_CHUNK);
+				for (int i = chunk * PARALLEL_CHUNK; i < end; i++) decoded[i] = decodeRecord(view, i, products, scale);
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		var offers = new ArrayList<Offer>(count);
+		for (var offer : decoded) if (offer != null) offers.add(offer);
+		return new Contents(scale, generation, offers, count - offers.size());
+	}
+
+	private static Offer decodeRecord(ByteBuffer data, int index, Product[] products, PriceScale scale) {
+		var at = HEADER_SIZE + index * RECORD_SIZE;
+		var productIndex = data.getInt(at + 32);
+		if (productIndex < 0 || productIndex >= products.length)
+			throw new UncheckedIOException(new IOException("OfferFileV2: Invalid product index " + productIndex));
+		var product = products[productIndex];
+		if (product == null) return null;
+
+		var offer = new Offer(
+			new UUID(data.getLong(at), data.getLong(at + 8)),
+			new UUID(data.getLong(at + 16), data.getLong(at + 24)),
+			product,
+			data.get(at + 36) == TYPE_BUY ? OfferType.BUY : OfferType.SELL,
+			data.getInt(at + 40), data.getInt(at + 44), data.getInt(at + 48),
+			data.getLong(at + 56), scale);
+		offer.setPriceImprovementTicks(data.getLong(at + 64));
+		return offer;
+	}
+
+	private static Product[] readDictionary(ByteBuffer data, int offset, int end, Function<String, Optional<Product>> productGetter) throws IOException {
+		var count = data.getInt(offset);
+		if (count < 0 || count > (end - offset - 4) / 2) throw new IOException("OfferFileV2: Damaged dictionary");
+		var products = new Product[count];
+		var position = offset + 4;
+		Map<String, Product> resolved = new HashMap<>();
+
+		for (int i = 0; i < count; i++) {
+			if (position + 2 > end) throw new IOException("OfferFileV2: Damaged dictionary");
+			var length = Short.toUnsignedInt(data.getShort(position));
+			if (position + 2 + length > end) throw new IOException("OfferFileV2: Damaged dictionary");
+			var bytes = new byte[length];
+			data.get(position + 2, bytes);
+			position += 2 + length;
+
+			var productId = new String(bytes, StandardCharsets.UTF_8);
+			products[i] = resolved.computeIfAbsent(productId, id -> productGetter.apply(id).orElse(null));
+		}
+
+		return products;
+	}
+}
@@ -24,14 +24,31 @@ package stonks.core.market;
 import java.util.Comparator;
 
 public enum OfferType {
-	BUY((a, b) -> Double.compare(b, a)),
-	SELL((a, b) -> Double.compare(a, b));
+	BUY((a, b) -> Long.compare(b, a), (a, b) -> Double.compare(b, a)),
+	SELL((a, b) -> Long.compare(a, b), (a, b) -> Double.compare(a, b));
 
+	private PriceComparator priceComparator;
 	private Comparator<Double> offerPriceComparator;
 
-	private OfferType(Comparator<Double> offerPriceComparator) {
+	private OfferType(PriceComparator priceComparator, Comparator<Double> offerPriceComparator) {
+		this.priceComparator = priceComparator;
 		this.offerPriceComparator = offerPriceComparator;
 	}
 
+	/**
+	 * <p>
+	 * Get the comparator for prices in ticks. The comparator sorts prices from
+	 * best to worst (highest first for buy offers, lowest first for sell offers).
+	 * </p>
+	 * 
+	 * @return The price comparator.
+	 */
+	public PriceComparator getPriceComparator() { return priceComparator; }
+
+	/**
+	 * @deprecated use {@link #getPriceComparator()}, which compares prices in
+	 *             ticks without boxing.
+	 */
+	@Deprecated
 	public Comparator<Double> getOfferPriceComparator() { return offerPriceComparator; }
 }
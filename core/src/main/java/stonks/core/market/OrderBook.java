@@ -0,0 +1,459 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.market;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * One side of the market for a single product. The order book keeps offers
+ * grouped into {@link PriceLevel}s, which are sorted from best price to worst
+ * price (highest first for {@link OfferType#BUY}, lowest first for
+ * {@link OfferType#SELL}). Offers within the same price level are filled in
+ * the order they were inserted.
+ * </p>
+ * <p>
+ * Inserting an offer takes {@code O(log L)}, where {@code L} is the number of
+ * distinct price levels. Removing the best offer or removing an offer by its
+ * {@link PriceLevel.Node} takes constant time.
+ * </p>
+ * <p>
+ * The book also maintains the overview of top price levels. The overview is
+ * only rebuilt when one of the top levels was changed since the last time it
+ * was requested, and each rebuild increases the overview version.
+ * </p>
+ */
+public class OrderBook implements Iterable<Offer> {
+	public static final int DEFAULT_OVERVIEW_DEPTH = 5;
+
+	private final OfferType type;
+	private final PriceScale scale;
+	private final PriceComparator comparator;
+	private final TreeMap<Long, PriceLevel> levels;
+	private final int overviewDepth;
+	private int size = 0;
+	private OverviewOffersList overview = null;
+	private long overviewVersion = 0L;
+	private Listener listener = null;
+
+	public OrderBook(OfferType type, PriceScale scale, int overviewDepth) {
+		this.type = type;
+		this.scale = scale;
+		this.comparator = type.getPriceComparator();
+		this.levels = new TreeMap<>((a, b) -> comparator.compare(a, b));
+		this.overviewDepth = overviewDepth;
+	}
+
+	public OrderBook(OfferType type, PriceScale scale) {
+		this(type, scale, DEFAULT_OVERVIEW_DEPTH);
+	}
+
+	public OrderBook(OfferType type) {
+		this(type, PriceScale.DEFAULT);
+	}
+
+	public OfferType getType() { return type; }
+
+	/**
+	 * <p>
+	 * Get the price scale. All offers in this book must have the same scale.
+	 * </p>
+	 * 
+	 * @return The price scale.
+	 */
+	public PriceScale getScale() { return scale; }
+
+	/**
+	 * <p>
+	 * Get the total number of offers in this book.
+	 * </p>
+	 * 
+	 * @return Number of offers.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() { return size == 0; }
+
+	/**
+	 * <p>
+	 * Listener for fills of offers inside the book, including partial fills.
+	 * Services can use this to record changes of offers inside the book.
+	 * </p>
+	 */
+	public static interface Listener {
+		/**
+		 * <p>
+		 * Called before the offer is changed by the fill.
+		 * </p>
+		 * 
+		 * @param offer The offer that is about to be filled.
+		 */
+		default void beforeFill(Offer offer) {}
+
+		/**
+		 * <p>
+		 * Called after the offer was filled. If the offer is fully filled, it is
+		 * already removed from the book.
+		 * </p>
+		 * 
+		 * @param offer The filled offer.
+		 */
+		default void afterFill(Offer offer) {}
+	}
+
+	/**
+	 * <p>
+	 * Set the listener that will be called when an offer in this book is filled
+	 * with {@link #fillBest(int, long)}.
+	 * </p>
+	 * 
+	 * @param listener The listener, or {@code null} to remove.
+	 */
+	public void setListener(Listener listener) { this.listener = listener; }
+
+	/**
+	 * <p>
+	 * Get all price levels in this book, sorted from best price to worst price.
+	 * </p>
+	 * 
+	 * @return An unmodifiable view of price levels.
+	 */
+	public Collection<PriceLevel> getLevels() { return Collections.unmodifiableCollection(levels.values()); }
+
+	/**
+	 * <p>
+	 * Get the price level with best price.
+	 * </p>
+	 * 
+	 * @return The best price level, or {@code null} if this book is empty.
+	 */
+	public PriceLevel getBestLevel() {
+		var entry = levels.firstEntry();
+		return entry != null ? entry.getValue() : null;
+	}
+
+	/**
+	 * <p>
+	 * Get the offer that will be filled next.
+	 * </p>
+	 * 
+	 * @return The best offer, or {@code null} if this book is empty.
+	 */
+	public Offer peek() {
+		var level = getBestLevel();
+		return level != null ? level.peek() : null;
+	}
+
+	/**
+	 * <p>
+	 * Remove the offer that will be filled next.
+	 * </p>
+	 * 
+	 * @return The removed offer, or {@code null} if this book is empty.
+	 */
+	public Offer poll() {
+		var level = getBestLevel();
+		if (level == null) return null;
+		var node = level.head();
+		unlink(node);
+		return node.offer;
+	}
+
+	/**
+	 * <p>
+	 * Fill the offer that will be filled next. If the offer is fully filled, it
+	 * will be removed from this book. Offers inside this book must be filled with
+	 * this method, so the book can keep track of total available units in each
+	 * price level.
+	 * </p>
+	 * 
+	 * @param units Number of units to fill.
+	 * @return The offer that was filled, or {@code null} if this book is empty.
+	 */
+	public Offer fillBest(int units) {
+		return fillBest(units, 0L);
+	}
+
+	/**
+	 * <p>
+	 * Fill the offer that will be filled next and add price improvement to it.
+	 * </p>
+	 * 
+	 * @param units       Number of units to fill. Nothing is changed if this is
+	 *                    {@code 0}.
+	 * @param improvement Price improvement in ticks to add to the offer.
+	 * @return The offer that was filled, or {@code null} if this book is empty.
+	 * @see #fillBest(int)
+	 */
+	public Offer fillBest(int units, long improvement) {
+		var level = getBestLevel();
+		if (level == null) return null;
+		var node = level.head();
+		// The listener would record a change that does not change anything
+		if (units == 0) return node.offer;
+		if (listener != null) listener.beforeFill(node.offer);
+		node.offer.fillOffer(units);
+		if (improvement != 0L) node.offer.setPriceImprovementTicks(Math.addExact(node.offer
+			.getPriceImprovementTicks(), improvement));
+		level.update(node);
+		if (node.offer.isFilled()) unlink(node);
+		else touched(level.getPricePerUnitTicks());
+		if (listener != null) listener.afterFill(node.offer);
+		return node.offer;
+	}
+
+	/**
+	 * <p>
+	 * Insert the offer to the back of its price level.
+	 * </p>
+	 * 
+	 * @param offer The offer to insert. The offer type and price scale must
+	 *              matches with this book.
+	 * @return The handle to offer's position in this book, which can be used to
+	 *         remove the offer later.
+	 */
+	public PriceLevel.Node insert(Offer offer) {
+		checkOffer(offer);
+		var level = levels.computeIfAbsent(offer.getPricePerUnitTicks(), price -> new PriceLevel(this, price));
+		size++;
+		touched(level.getPricePerUnitTicks());
+		return level.append(offer);
+	}
+
+	/**
+	 * <p>
+	 * Insert many offers at once, usually when loading saved offers. The offers
+	 * are sorted by price once, so each price level is only looked up once instead
+	 * of once per offer. Offers with the same price are inserted in the given
+	 * order.
+	 * </p>
+	 * 
+	 * @param offers The offers to insert.
+	 * @return Handles of inserted offers, sorted by price.
+	 * @see #insert(Offer)
+	 */
+	public List<PriceLevel.Node> insertAll(Collection<Offer> offers) {
+		var sorted = offers.toArray(Offer[]::new);
+		for (var offer : sorted) checkOffer(offer);
+		// Stable sort, which keeps the time priority within each price
+		Arrays.sort(sorted, (a, b) -> Long.compare(a.getPricePerUnitTicks(), b.getPricePerUnitTicks()));
+		var nodes = new ArrayList<PriceLevel.Node>(sorted.length);
+		PriceLevel level = null;
+
+		for (var offer : sorted) {
+			if (level == null || level.getPricePerUnitTicks() != offer.getPricePerUnitTicks()) {
+				level = levels.computeIfAbsent(offer.getPricePerUnitTicks(), price -> new PriceLevel(this, price));
+				touched(level.getPricePerUnitTicks());
+			}
+
+			nodes.add(level.append(offer));
+		}
+
+		size += sorted.length;
+		return nodes;
+	}
+
+	private void checkOffer(Offer offer) {
+		if (offer.getType() != type) throw new IllegalArgumentException("OrderBook: Expected " + type
+			+ " offer, but " + offer.getType() + " was given");
+		if (!offer.getScale().equals(scale)) throw new IllegalArgumentException("OrderBook: Expected " + scale
+			+ " for offer price, but " + offer.getScale() + " was given");
+	}
+
+	/**
+	 * <p>
+	 * Remove the offer from this book. This have to search for the offer inside
+	 * its price level, so you should use {@link #remove(PriceLevel.Node)} if you
+	 * have the handle.
+	 * </p>
+	 * 
+	 * @param offer The offer to remove.
+	 * @return {@code true} if the offer was in this book.
+	 */
+	public boolean remove(Offer offer) {
+		var level = levels.get(offer.getPricePerUnitTicks());
+		if (level == null) return false;
+		var node = level.find(offer);
+		if (node == null) return false;
+		unlink(node);
+		return true;
+	}
+
+	/**
+	 * <p>
+	 * Remove the offer from this book with the handle obtained from
+	 * {@link #insert(Offer)}.
+	 * </p>
+	 * 
+	 * @param node The handle.
+	 * @return {@code true} if the offer was in this book, {@code false} if the
+	 *         offer was already removed (filled or cancelled, for example).
+	 */
+	public boolean remove(PriceLevel.Node node) {
+		if (node.level == null || node.level.book != this) return false;
+		unlink(node);
+		return true;
+	}
+
+	/**
+	 * <p>
+	 * Update the book after the offer of the node was changed outside of this
+	 * book, like when applying changes replicated from another service. The offer
+	 * keeps its position, and it is removed from the book if it is filled.
+	 * </p>
+	 * 
+	 * @param node The handle.
+	 * @return {@code false} if the offer is not in this book.
+	 */
+	public boolean update(PriceLevel.Node node) {
+		if (node.level == null || node.level.book != this) return false;
+		var level = node.level;
+		level.update(node);
+		if (node.offer.isFilled()) unlink(node);
+		else touched(level.getPricePerUnitTicks());
+		return true;
+	}
+
+	private void unlink(PriceLevel.Node node) {
+		var level = node.level;
+		level.unlink(node);
+		size--;
+		touched(level.getPricePerUnitTicks());
+		if (level.isEmpty()) levels.remove(level.getPricePerUnitTicks());
+	}
+
+	public void clear() {
+		for (var level : levels.values()) level.clear();
+		levels.clear();
+		size = 0;
+		invalidateOverview();
+	}
+
+	/**
+	 * <p>
+	 * Get the overview of top price levels. The returned list is cached until one
+	 * of the top levels is changed.
+	 * </p>
+	 * 
+	 * @return The overview.
+	 */
+	public OverviewOffersList getOverview() {
+		if (overview != null) return overview;
+		var entries = new ArrayList<OverviewOffer>(overviewDepth);
+
+		for (var level : levels.values()) {
+			if (entries.size() >= overviewDepth) break;
+			entries.add(level.toOverviewOffer());
+		}
+
+		return overview = new OverviewOffersList(type, entries);
+	}
+
+	/**
+	 * <p>
+	 * Get the overview version. The version increases every time the overview of
+	 * top levels is changed, so you can compare versions to see if the overview
+	 * returned from {@link #getOverview()} is outdated.
+	 * </p>
+	 * 
+	 * @return The overview version.
+	 */
+	public long getOverviewVersion() { return overviewVersion; }
+
+	public int getOverviewDepth() { return overviewDepth; }
+
+	private void touched(long pricePerUnit) {
+		if (overview == null) return;
+		var entries = overview.getEntries();
+
+		if (entries.size() < overviewDepth
+			|| comparator.compare(pricePerUnit, entries.get(entries.size() - 1).pricePerUnitTicks()) <= 0) {
+			invalidateOverview();
+		}
+	}
+
+	private void invalidateOverview() {
+		if (overview == null) return;
+		overview = null;
+		overviewVersion++;
+	}
+
+	/**
+	 * <p>
+	 * Iterate through all offers, from best price to worst price. The returned
+	 * iterator supports {@link Iterator#remove()}.
+	 * </p>
+	 */
+	@Override
+	public Iterator<Offer> iterator() {
+		return new Iterator<>() {
+			private Long lastPrice = null;
+			private boolean exhausted = false;
+			private PriceLevel.Node next = null;
+			private PriceLevel.Node current = null;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null && !exhausted) {
+					var entry = lastPrice == null ? levels.firstEntry() : levels.higherEntry(lastPrice);
+
+					if (entry == null) exhausted = true;
+					else {
+						lastPrice = entry.getKey();
+						next = entry.getValue().head();
+					}
+				}
+
+				return next != null;
+			}
+
+			@Override
+			public Offer next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				current = next;
+				next = next.next;
+				return current.offer;
+			}
+
+			@Override
+			public void remove() {
+				if (current == null) throw new IllegalStateException();
+				unlink(current);
+				current = null;
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "OrderBook[" + type + ", " + levels.size() + " levels, " + size + " offers]";
+	}
+}
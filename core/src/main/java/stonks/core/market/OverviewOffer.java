@@ -21,5 +21,22 @@
  */
 package stonks.core.market;
 
-public record OverviewOffer(int offers, int totalAvailableUnits, double pricePerUnit) {
+/**
+ * <p>
+ * An aggregated price level in market overview.
+ * </p>
+ * 
+ * @param offers              Number of offers in this price level.
+ * @param totalAvailableUnits Total units that are available to be filled.
+ * @param pricePerUnitTicks   Price per unit in ticks.
+ * @param scale               The scale of price.
+ */
+public record OverviewOffer(int offers, int totalAvailableUnits, long pricePerUnitTicks, PriceScale scale) {
+	public OverviewOffer(int offers, int totalAvailableUnits, double pricePerUnit) {
+		this(offers, totalAvailableUnits, PriceScale.DEFAULT.toTicks(pricePerUnit), PriceScale.DEFAULT);
+	}
+
+	public double pricePerUnit() {
+		return scale.toDouble(pricePerUnitTicks);
+	}
 }
@@ -33,7 +33,7 @@ public class OverviewOffersList {
 		this.type = type;
 		this.entries = entries;
 
-		entries.sort((a, b) -> type.getOfferPriceComparator().compare(a.pricePerUnit(), b.pricePerUnit()));
+		entries.sort((a, b) -> type.getPriceComparator().compare(a.pricePerUnitTicks(), b.pricePerUnitTicks()));
 	}
 
 	public OfferType getType() { return type; }
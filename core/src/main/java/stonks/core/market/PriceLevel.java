@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.market;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * A single price level inside {@link OrderBook}. All offers in a price level
+ * have the same price per unit and they are stored in FIFO order, which means
+ * the offer that was listed first will be filled first.
+ * </p>
+ * <p>
+ * Offers are stored in an intrusive doubly-linked list, so adding to the back
+ * and removing from the front of the level takes constant time.
+ * </p>
+ */
+public class PriceLevel implements Iterable<Offer> {
+	/**
+	 * <p>
+	 * A handle to the offer's position inside the book. Holding this handle allows
+	 * you to remove the offer from {@link OrderBook} in constant time with
+	 * {@link OrderBook#remove(Node)}.
+	 * </p>
+	 */
+	public static final class Node {
+		final Offer offer;
+		PriceLevel level;
+		Node prev, next;
+		int units;
+
+		Node(Offer offer) {
+			this.offer = offer;
+		}
+
+		public Offer getOffer() { return offer; }
+
+		/**
+		 * <p>
+		 * Get the price level that is currently holding this node.
+		 * </p>
+		 * 
+		 * @return The price level, or {@code null} if the offer was removed from
+		 *         the book.
+		 */
+		public PriceLevel getLevel() { return level; }
+
+		public boolean isLinked() { return level != null; }
+	}
+
+	final OrderBook book;
+	private final long pricePerUnit;
+	private Node head, tail;
+	private int size;
+	private long totalAvailableUnits;
+
+	PriceLevel(OrderBook book, long pricePerUnit) {
+		this.book = book;
+		this.pricePerUnit = pricePerUnit;
+	}
+
+	public double getPricePerUnit() { return book.getScale().toDouble(pricePerUnit); }
+
+	public long getPricePerUnitTicks() { return pricePerUnit; }
+
+	/**
+	 * <p>
+	 * Get the number of offers in this level.
+	 * </p>
+	 * 
+	 * @return Number of offers.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() { return size == 0; }
+
+	/**
+	 * <p>
+	 * Get the total number of units that are still available to be filled in this
+	 * level. This value is maintained as offers are added, filled and removed, so
+	 * it does not have to walk through all offers.
+	 * </p>
+	 * 
+	 * @return Total available units.
+	 */
+	public long getTotalAvailableUnits() { return totalAvailableUnits; }
+
+	/**
+	 * <p>
+	 * Create the overview entry for this level.
+	 * </p>
+	 * 
+	 * @return The overview entry.
+	 */
+	public OverviewOffer toOverviewOffer() {
+		return new OverviewOffer(size, (int) Math.min(totalAvailableUnits, Integer.MAX_VALUE), pricePerUnit,
+			book.getScale());
+	}
+
+	/**
+	 * <p>
+	 * Get the oldest offer in this level, which is the next offer to be filled.
+	 * </p>
+	 * 
+	 * @return The oldest offer, or {@code null} if this level is empty.
+	 */
+	public Offer peek() {
+		return head != null ? head.offer : null;
+	}
+
+	Node append(Offer offer) {
+		var node = new Node(offer);
+		node.level = this;
+		node.prev = tail;
+		if (tail != null) tail.next = node;
+		else head = node;
+		tail = node;
+		size++;
+		node.units = offer.getAvailableUnits();
+		totalAvailableUnits += node.units;
+		return node;
+	}
+
+	/**
+	 * <p>
+	 * Synchronize the available units of the node's offer with the total units of
+	 * this level. Must be called after filling the offer.
+	 * </p>
+	 */
+	void update(Node node) {
+		var units = node.offer.getAvailableUnits();
+		totalAvailableUnits += units - node.units;
+		node.units = units;
+	}
+
+	void unlink(Node node) {
+		if (node.prev != null) node.prev.next = node.next;
+		else head = node.next;
+		if (node.next != null) node.next.prev = node.prev;
+		else tail = node.prev;
+		node.prev = node.next = null;
+		node.level = null;
+		size--;
+		totalAvailableUnits -= node.units;
+	}
+
+	Node head() {
+		return head;
+	}
+
+	Node find(Offer offer) {
+		for (var node = head; node != null; node = node.next) if (node.offer == offer) return node;
+		return null;
+	}
+
+	void clear() {
+		for (var node = head; node != null;) {
+			var next = node.next;
+			node.prev = node.next = null;
+			node.level = null;
+			node = next;
+		}
+
+		head = tail = null;
+		size = 0;
+		totalAvailableUnits = 0;
+	}
+
+	@Override
+	public Iterator<Offer> iterator() {
+		return new Iterator<>() {
+			private Node next = head;
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Offer next() {
+				if (next == null) throw new NoSuchElementException();
+				var offer = next.offer;
+				next = next.next;
+				return offer;
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "PriceLevel[" + getPricePerUnit() + "/ea, " + size + " offers, " + totalAvailableUnits + " units]";
+	}
+}
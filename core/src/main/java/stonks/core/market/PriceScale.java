@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.market;
+
+/**
+ * <p>
+ * Fixed-point scale for prices and balances. Prices are stored as number of
+ * ticks (a.k.a raw value), where 1 unit of currency equals to
+ * {@code 10^decimals} ticks. For example, with 2 decimal points, {@code $1.25}
+ * is stored as {@code 125} ticks.
+ * </p>
+ * <p>
+ * Storing prices as ticks allows us to compare and multiply prices exactly,
+ * without rounding errors from floating point numbers. This is the same as the
+ * raw value used by {@code Economy} in Stonks for Fabric.
+ * </p>
+ * 
+ * @param decimals Number of decimal points, from 0 to 18.
+ */
+public record PriceScale(int decimals) {
+	private static final long[] POWERS_OF_TEN = new long[19];
+
+	static {
+		POWERS_OF_TEN[0] = 1L;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10L;
+	}
+
+	public static final int DEFAULT_DECIMALS = 4;
+	public static final PriceScale DEFAULT = new PriceScale(DEFAULT_DECIMALS);
+
+	public PriceScale {
+		if (decimals < 0 || decimals >= POWERS_OF_TEN.length)
+			throw new IllegalArgumentException("PriceScale: Decimal points must be from 0 to "
+				+ (POWERS_OF_TEN.length - 1) + " (given " + decimals + ")");
+	}
+
+	/**
+	 * <p>
+	 * Get the number of ticks for 1 unit of currency.
+	 * </p>
+	 * 
+	 * @return Number of ticks.
+	 */
+	public long ticksPerUnit() {
+		return POWERS_OF_TEN[decimals];
+	}
+
+	/**
+	 * <p>
+	 * Convert the value to ticks, rounding to nearest tick. Values that are too
+	 * large will be clamped to {@link Long#MAX_VALUE} or {@link Long#MIN_VALUE}.
+	 * </p>
+	 * 
+	 * @param value The value.
+	 * @return Number of ticks.
+	 */
+	public long toTicks(double value) {
+		return Math.round(value * ticksPerUnit());
+	}
+
+	public double toDouble(long ticks) {
+		return ticks / (double) ticksPerUnit();
+	}
+
+	/**
+	 * <p>
+	 * Convert ticks from another scale to this scale. Converting to a scale with
+	 * fewer decimal points will round towards zero.
+	 * </p>
+	 * 
+	 * @param ticks Number of ticks in source scale.
+	 * @param from  The source scale.
+	 * @return Number of ticks in this scale.
+	 */
+	public long rescale(long ticks, PriceScale from) {
+		if (from.decimals == decimals) return ticks;
+		if (from.decimals > decimals) return ticks / POWERS_OF_TEN[from.decimals - decimals];
+		return Math.multiplyExact(ticks, POWERS_OF_TEN[decimals - from.decimals]);
+	}
+
+	/**
+	 * <p>
+	 * Calculate the total price for given number of units.
+	 * </p>
+	 * 
+	 * @param pricePerUnit Price per unit in ticks.
+	 * @param units        Number of units.
+	 * @return Total price in ticks.
+	 * @throws ArithmeticException if the total price overflows.
+	 */
+	public static long multiply(long pricePerUnit, int units) {
+		return Math.multiplyExact(pricePerUnit, (long) units);
+	}
+
+	/**
+	 * <p>
+	 * Calculate the maximum number of units that can be bought with given balance.
+	 * </p>
+	 * 
+	 * @param balance      Balance in ticks.
+	 * @param pricePerUnit Price per unit in ticks.
+	 * @return Number of units, capped at {@link Integer#MAX_VALUE}.
+	 */
+	public static int affordableUnits(long balance, long pricePerUnit) {
+		if (balance <= 0L) return 0;
+		if (pricePerUnit <= 0L) return Integer.MAX_VALUE;
+		return (int) Math.min(balance / pricePerUnit, Integer.MAX_VALUE);
+	}
+}
@@ -23,15 +23,28 @@ package stonks.core.market;
 
 import stonks.core.product.Product;
 
+/**
+ * <p>
+ * The overview of a product's market, which includes top offers for both buy
+ * and sell sides. The overview is an immutable snapshot, so services may cache
+ * and share the same overview object between multiple callers.
+ * </p>
+ */
 public class ProductMarketOverview {
-	private Product product;
-	private OverviewOffersList buyOffers;
-	private OverviewOffersList sellOffers;
+	private final Product product;
+	private final OverviewOffersList buyOffers;
+	private final OverviewOffersList sellOffers;
+	private final long version;
 
-	public ProductMarketOverview(Product product, OverviewOffersList buyOffers, OverviewOffersList sellOffers) {
+	public ProductMarketOverview(Product product, OverviewOffersList buyOffers, OverviewOffersList sellOffers, long version) {
 		this.product = product;
 		this.buyOffers = buyOffers;
 		this.sellOffers = sellOffers;
+		this.version = version;
+	}
+
+	public ProductMarketOverview(Product product, OverviewOffersList buyOffers, OverviewOffersList sellOffers) {
+		this(product, buyOffers, sellOffers, 0L);
 	}
 
 	public Product getProduct() { return product; }
@@ -39,4 +52,16 @@ public class ProductMarketOverview {
 	public OverviewOffersList getBuyOffers() { return buyOffers; }
 
 	public OverviewOffersList getSellOffers() { return sellOffers; }
+
+	/**
+	 * <p>
+	 * Get the version of this overview. The version increases every time the
+	 * market overview of the product is changed, which means 2 overviews of the
+	 * same product with the same version have the same content. Services that does
+	 * not track versions will always return {@code 0}.
+	 * </p>
+	 * 
+	 * @return The overview version.
+	 */
+	public long getVersion() { return version; }
 }
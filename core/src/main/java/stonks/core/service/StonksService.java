@@ -36,9 +36,17 @@ import nahara.common.tasks.Task;
 import stonks.core.exec.InstantOfferExecuteResult;
 import stonks.core.market.Offer;
 import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
 import stonks.core.market.ProductMarketOverview;
 import stonks.core.product.Category;
 import stonks.core.product.Product;
+import stonks.core.service.bulk.BulkResult;
+import stonks.core.service.bulk.InstantOfferRequest;
+import stonks.core.service.bulk.ListOfferRequest;
+import stonks.core.service.subscription.OffersUpdate;
+import stonks.core.service.subscription.OverviewUpdate;
+import stonks.core.service.subscription.SequencedUpdate;
+import stonks.core.service.subscription.Subscription;
 
 public interface StonksService {
 	/**
@@ -61,6 +69,18 @@ public interface StonksService {
 		return task;
 	}
 
+	/**
+	 * <p>
+	 * Get the price scale of this service. Raw prices and balances (the
+	 * {@code long} values in methods like
+	 * {@link #listOfferRawAsync(UUID, Product, OfferType, int, long)}) are number
+	 * of ticks in this scale.
+	 * </p>
+	 * 
+	 * @return The price scale.
+	 */
+	default PriceScale getPriceScale() { return PriceScale.DEFAULT; }
+
 	/**
 	 * <p>
 	 * Obtain all categories defined in this service.
@@ -263,6 +283,25 @@ public interface StonksService {
 	 */
 	public CompletableFuture<Offer> listOfferAsync(UUID user, Product product, OfferType type, int units, double pricePerUnit);
 
+	/**
+	 * <p>
+	 * List a new offer, with raw price per unit. The raw price is the number of
+	 * ticks in {@link #getPriceScale()}. Services should override this method and
+	 * make {@link #listOfferAsync(UUID, Product, OfferType, int, double)} converts
+	 * the price to ticks instead.
+	 * </p>
+	 * 
+	 * @param user         User's unique ID.
+	 * @param product      Product to list.
+	 * @param type         Offer type.
+	 * @param units        How much units to offer.
+	 * @param pricePerUnit Raw price for each unit.
+	 * @return A new offer info.
+	 */
+	default CompletableFuture<Offer> listOfferRawAsync(UUID user, Product product, OfferType type, int units, long pricePerUnit) {
+		return listOfferAsync(user, product, type, units, getPriceScale().toDouble(pricePerUnit));
+	}
+
 	/**
 	 * <p>
 	 * Execute instant offer.
@@ -296,6 +335,60 @@ public interface StonksService {
 	 */
 	public CompletableFuture<InstantOfferExecuteResult> instantOfferAsync(Product product, OfferType type, int units, double balance);
 
+	/**
+	 * <p>
+	 * Execute instant offer, with raw balance. The raw balance is the number of
+	 * ticks in {@link #getPriceScale()}.
+	 * </p>
+	 * 
+	 * @param product Product to execute offer.
+	 * @param type    Offer type.
+	 * @param units   How much units you want to buy or sell.
+	 * @param balance Raw balance (only applies for instant buy offers).
+	 * @return Total number of units moved and amount of money received or spent.
+	 * @see #instantOfferAsync(Product, OfferType, int, double)
+	 */
+	default CompletableFuture<InstantOfferExecuteResult> instantOfferRawAsync(Product product, OfferType type, int units, long balance) {
+		return instantOfferAsync(product, type, units, getPriceScale().toDouble(balance));
+	}
+
+	/**
+	 * <p>
+	 * List multiple offers in a single call. Each request succeeds or fails on its
+	 * own, and the results are in the same order as the requests. Services should
+	 * override this method to process the whole batch at once. The default
+	 * implementation calls
+	 * {@link #listOfferRawAsync(UUID, Product, OfferType, int, long)} for each
+	 * request.
+	 * </p>
+	 * 
+	 * @param requests The list offer requests.
+	 * @return Results for each request.
+	 */
+	default CompletableFuture<List<BulkResult<Offer>>> listOffersAsync(List<ListOfferRequest> requests) {
+		return BulkResult.collect(requests.stream()
+			.map(r -> listOfferRawAsync(r.user(), r.product(), r.type(), r.units(), r.pricePerUnit()))
+			.toList());
+	}
+
+	/**
+	 * <p>
+	 * Execute multiple instant offers in a single call. The offers are executed in
+	 * the same order as the requests. Each request succeeds or fails on its own.
+	 * The default implementation calls
+	 * {@link #instantOfferRawAsync(Product, OfferType, int, long)} for each
+	 * request.
+	 * </p>
+	 * 
+	 * @param requests The instant offer requests.
+	 * @return Results for each request.
+	 */
+	default CompletableFuture<List<BulkResult<InstantOfferExecuteResult>>> instantOffersAsync(List<InstantOfferRequest> requests) {
+		return BulkResult.collect(requests.stream()
+			.map(r -> instantOfferRawAsync(r.product(), r.type(), r.units(), r.balance()))
+			.toList());
+	}
+
 	@Deprecated(forRemoval = true)
 	default Task<InstantOfferExecuteResult> instantBuy(Product product, int units, double balance) {
 		return instantOffer(product, OfferType.BUY, units, balance);
@@ -323,4 +416,56 @@ public interface StonksService {
 	 * @param offer The events consumer.
 	 */
 	public void subscribeToOfferFilledEvents(Consumer<Offer> consumer);
+
+	/**
+	 * <p>
+	 * Check whether this service supports
+	 * {@link #subscribeToOverviewUpdates(Product, Consumer)} and
+	 * {@link #subscribeToOffersUpdates(UUID, Consumer)}. Callers should poll
+	 * {@link #queryMarketOverviewAsync(Product)} and
+	 * {@link #getOffersFromUserAsync(UUID)} if subscriptions are not supported.
+	 * </p>
+	 * 
+	 * @return {@code true} if subscriptions are supported.
+	 */
+	default boolean isSubscriptionSupported() { return false; }
+
+	/**
+	 * <p>
+	 * Subscribe to the market overview of a product. The consumer receives a
+	 * snapshot of the overview first, then an update with changed price levels
+	 * every time the overview is changed. See {@link SequencedUpdate} for how to
+	 * detect missed updates.
+	 * </p>
+	 * <p>
+	 * Local services send updates on the thread that changed the market, while
+	 * remote services send updates on their own threads, so consumers must not
+	 * block.
+	 * </p>
+	 * 
+	 * @param product  The product.
+	 * @param consumer The updates consumer.
+	 * @return The subscription.
+	 * @throws UnsupportedOperationException if subscriptions are not supported.
+	 */
+	default Subscription subscribeToOverviewUpdates(Product product, Consumer<OverviewUpdate> consumer) {
+		throw new UnsupportedOperationException("StonksService: Subscriptions are not supported");
+	}
+
+	/**
+	 * <p>
+	 * Subscribe to offers made by user. The consumer receives a snapshot of all
+	 * offers of the user first, then an update with changed and removed offers
+	 * every time the offers are changed. Updates are sent on the same threads as
+	 * {@link #subscribeToOverviewUpdates(Product, Consumer)}.
+	 * </p>
+	 * 
+	 * @param user     The user's unique ID.
+	 * @param consumer The updates consumer.
+	 * @return The subscription.
+	 * @throws UnsupportedOperationException if subscriptions are not supported.
+	 */
+	default Subscription subscribeToOffersUpdates(UUID user, Consumer<OffersUpdate> consumer) {
+		throw new UnsupportedOperationException("StonksService: Subscriptions are not supported");
+	}
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.archive;
+
+import java.util.UUID;
+
+/**
+ * <p>
+ * Filter for reading trade history from {@link FileOfferArchive}.
+ * </p>
+ * 
+ * @param offererId  Only include records of this user, or {@code null} for all
+ *                   users.
+ * @param productId  Only include records of this product, or {@code null} for
+ *                   all products.
+ * @param fromMillis Start of time range, inclusive.
+ * @param toMillis   End of time range, exclusive.
+ */
+public record ArchiveQuery(UUID offererId, String productId, long fromMillis, long toMillis) {
+	public static final ArchiveQuery ALL = new ArchiveQuery(null, null, Long.MIN_VALUE, Long.MAX_VALUE);
+
+	public ArchiveQuery withOfferer(UUID offererId) {
+		return new ArchiveQuery(offererId, productId, fromMillis, toMillis);
+	}
+
+	public ArchiveQuery withProduct(String productId) {
+		return new ArchiveQuery(offererId, productId, fromMillis, toMillis);
+	}
+
+	public ArchiveQuery between(long fromMillis, long toMillis) {
+		return new ArchiveQuery(offererId, productId, fromMillis, toMillis);
+	}
+
+	public boolean matches(ArchiveRecord record) {
+		return (offererId == null || offererId.equals(record.offererId()))
+			&& (productId == null || productId.equals(record.productId()))
+			&& record.timestamp() >= fromMillis && record.timestamp() < toMillis;
+	}
+}
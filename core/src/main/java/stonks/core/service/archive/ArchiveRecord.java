@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.archive;
+
+import java.util.UUID;
+
+import stonks.core.market.OfferType;
+
+/**
+ * <p>
+ * A record in the trade history. Products are stored as IDs, so records can be
+ * read even when the product was removed from the configuration.
+ * </p>
+ */
+public sealed interface ArchiveRecord {
+	public static enum Reason {
+		CLAIMED,
+		CANCELLED;
+	}
+
+	/**
+	 * <p>
+	 * Get the time when this record was created, in milliseconds since epoch.
+	 * </p>
+	 * 
+	 * @return The timestamp.
+	 */
+	public long timestamp();
+
+	public UUID offerId();
+
+	public UUID offererId();
+
+	public String productId();
+
+	/**
+	 * <p>
+	 * The offer was filled.
+	 * </p>
+	 * 
+	 * @param units             Number of filled units.
+	 * @param pricePerUnitTicks Price per unit of the offer.
+	 * @param improvementTicks  Price improvement added by this fill.
+	 */
+	public static record Fill(long timestamp, UUID offerId, UUID offererId, String productId, OfferType type, int units, long pricePerUnitTicks, long improvementTicks) implements ArchiveRecord {
+	}
+
+	/**
+	 * <p>
+	 * The offer was fully claimed or cancelled, and removed from the service.
+	 * </p>
+	 */
+	public static record Completed(long timestamp, Reason reason, UUID offerId, UUID offererId, String productId, OfferType type, int totalUnits, int claimedUnits, int filledUnits, long pricePerUnitTicks, long priceImprovementTicks) implements ArchiveRecord {
+	}
+}
@@ -0,0 +1,721 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.service.journal.JournalFormat;
+
+/**
+ * <p>
+ * Append-only trade history, partitioned by day (UTC). Each partition is a data
+ * file ({@code <yyyy-MM-dd>.arc}) of blocks, and an index file
+ * ({@code <yyyy-MM-dd>.idx}) with one entry per block. An entry holds the time
+ * range, users and products of its block, so queries only read the blocks that
+ * may contain matching records.
+ * </p>
+ * <p>
+ * Records are collected on the thread that owns the service, and
+ * {@link #flush()} hands them to the writer thread, which writes them as one
+ * block per partition. Data blocks are forced to disk before their index
+ * entries are written, and the index is rebuilt from the data file if it is
+ * behind, so the index never points to missing data. Writing errors are
+ * reported by the next call to {@link #flush()} or {@link #sync()} as
+ * {@link UncheckedIOException}.
+ * </p>
+ */
+public class FileOfferArchive implements OfferArchive, AutoCloseable {
+	public static final int DATA_MAGIC = 0x53415243; // SARC
+	public static final int INDEX_MAGIC = 0x53414958; // SAIX
+	public static final String DATA_SUFFIX = ".arc";
+	public static final String INDEX_SUFFIX = ".idx";
+	public static final int MAX_BLOCK_LENGTH = 1 << 26;
+	public static final long DAY_MILLIS = 86_400_000L;
+
+	private static final int HEADER_LENGTH = 20;
+	private static final int RECORD_FILL = 1;
+	private static final int RECORD_COMPLETED = 2;
+	// Bytes after the product ID of each record type
+	private static final int FILL_TAIL_LENGTH = 21;
+	private static final int COMPLETED_TAIL_LENGTH = 30;
+
+	private final Path directory;
+	private final PriceScale scale;
+	private final LongSupplier clock;
+	private final ExecutorService writer;
+	private List<ArchiveRecord> pending = new ArrayList<>();
+	private CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+	private volatile IOException error = null;
+	private long recordsCount = 0L;
+
+	// Writer thread only
+	private final TreeMap<Long, Partition> partitions = new TreeMap<>();
+
+	private static class Partition {
+		private final FileChannel data;
+		private final FileChannel index;
+		private long dataEnd;
+
+		public Partition(FileChannel data, FileChannel index, long dataEnd) {
+			this.data = data;
+			this.index = index;
+			this.dataEnd = dataEnd;
+		}
+	}
+
+	private static record IndexEntry(long offset, int length, long minTime, long maxTime, Set<UUID> users, Set<String> products) {
+	}
+
+	public FileOfferArchive(Path directory, PriceScale scale, LongSupplier clock) {
+		this.directory = directory;
+		this.scale = scale;
+		this.clock = clock;
+		this.writer = Executors.newSingleThreadExecutor(Thread.ofPlatform()
+			.name("Stonks Archive Writer")
+			.daemon()
+			.factory());
+	}
+
+	public FileOfferArchive(Path directory, PriceScale scale) {
+		this(directory, scale, System::currentTimeMillis);
+	}
+
+	public Path getDirectory() { return directory; }
+
+	public PriceScale getPriceScale() { return scale; }
+
+	/**
+	 * <p>
+	 * Get the number of records that was recorded since the archive was created.
+	 * </p>
+	 * 
+	 * @return Number of records.
+	 */
+	public long getRecordsCount() { return recordsCount; }
+
+	public static Path dataPath(Path directory, LocalDate day) {
+		return directory.resolve(day + DATA_SUFFIX);
+	}
+
+	public static Path indexPath(Path directory, LocalDate day) {
+		return directory.resolve(day + INDEX_SUFFIX);
+	}
+
+	/**
+	 * <p>
+	 * List days that have a data file in the archive, from oldest to newest.
+	 * </p>
+	 * 
+	 * @param directory The archive directory.
+	 * @return Sorted days.
+	 */
+	public static List<LocalDate> listPartitions(Path directory) throws IOException {
+		if (Files.notExists(directory)) return List.of();
+
+		try (Stream<Path> files = Files.list(directory)) {
+			return files
+				.map(p -> p.getFileName().toString())
+				.filter(name -> name.endsWith(DATA_SUFFIX))
+				.map(name -> parseDay(name.substring(0, name.length() - DATA_SUFFIX.length())))
+				.filter(day -> day != null)
+				.sorted()
+				.toList();
+		}
+	}
+
+	private static LocalDate parseDay(String name) {
+		try {
+			return LocalDate.parse(name);
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public void offerFilled(Offer offer, int units, long improvementTicks) {
+		pending.add(new ArchiveRecord.Fill(clock.getAsLong(), offer.getOfferId(), offer.getOffererId(),
+			offer.getProduct().getProductId(), offer.getType(), units,
+			scale.rescale(offer.getPricePerUnitTicks(), offer.getScale()),
+			scale.rescale(improvementTicks, offer.getScale())));
+		recordsCount++;
+	}
+
+	@Override
+	public void offerCompleted(Offer offer, ArchiveRecord.Reason reason) {
+		offer = offer.withScale(scale);
+		pending.add(new ArchiveRecord.Completed(clock.getAsLong(), reason, offer.getOfferId(), offer.getOffererId(),
+			offer.getProduct().getProductId(), offer.getType(), offer.getTotalUnits(), offer.getClaimedUnits(),
+			offer.getFilledUnits(), offer.getPricePerUnitTicks(), offer.getPriceImprovementTicks()));
+		recordsCount++;
+	}
+
+	/**
+	 * <p>
+	 * Submit recorded records to the writer thread. This method does not wait for
+	 * the records to be written.
+	 * </p>
+	 */
+	@Override
+	public void flush() {
+		throwIfFailed();
+		if (pending.isEmpty()) return;
+		var records = pending;
+		pending = new ArrayList<>();
+
+		lastWrite = lastWrite.thenRunAsync(() -> {
+			if (error != null) return;
+
+			try {
+				write(records);
+			} catch (IOException e) {
+				error = e;
+			}
+		}, writer);
+	}
+
+	/**
+	 * <p>
+	 * Flush and wait until all records are written to disk.
+	 * </p>
+	 */
+	public void sync() {
+		flush();
+		lastWrite.join();
+		throwIfFailed();
+	}
+
+	private void throwIfFailed() {
+		if (error != null) throw new UncheckedIOException("FileOfferArchive: Unable to write archive", error);
+	}
+
+	private void write(List<ArchiveRecord> records) throws IOException {
+		var days = new LinkedHashMap<Long, List<ArchiveRecord>>();
+		for (var record : records)
+			days.computeIfAbsent(Math.floorDiv(record.timestamp(), DAY_MILLIS), $ -> new ArrayList<>()).add(record);
+
+		for (var entry : days.entrySet()) {
+			var partition = openPartition(entry.getKey());
+			var recordsOfDay = entry.getValue();
+
+			// Very large batches are split, so each block can be read into memory
+			for (int start = 0; start < recordsOfDay.size();) {
+				var bytes = new ByteArrayOutputStream();
+				var data = new DataOutputStream(bytes);
+				var end = start;
+
+				while (end < recordsOfDay.size() && bytes.size() < MAX_BLOCK_LENGTH / 2)
+					writeRecord(data, recordsOfDay.get(end++));
+
+				appendBlock(partition, recordsOfDay.subList(start, end), bytes.toByteArray());
+				start = end;
+			}
+		}
+
+		// Records arrive in time order, so older partitions will not be written again
+		while (partitions.size() > 1) close(partitions.pollFirstEntry().getValue());
+	}
+
+	private void appendBlock(Partition partition, List<ArchiveRecord> records, byte[] payload) throws IOException {
+		var crc = new CRC32();
+		crc.update(payload);
+		var block = ByteBuffer.allocate(12 + payload.length);
+		block.putInt(payload.length).putInt((int) crc.getValue()).putInt(records.size()).put(payload).flip();
+		var offset = partition.dataEnd;
+		while (block.hasRemaining()) partition.data.write(block, partition.dataEnd + block.position());
+		partition.data.force(false);
+		partition.dataEnd += block.limit();
+
+		var entry = createEntry(offset, block.limit(), records);
+		var bytes = new ByteArrayOutputStream();
+		writeEntry(new DataOutputStream(bytes), entry);
+		writeFully(partition.index, ByteBuffer.wrap(bytes.toByteArray()));
+	}
+
+	private static IndexEntry createEntry(long offset, int length, List<ArchiveRecord> records) {
+		var minTime = Long.MAX_VALUE;
+		var maxTime = Long.MIN_VALUE;
+		var users = new LinkedHashSet<UUID>();
+		var products = new LinkedHashSet<String>();
+
+		for (var record : records) {
+			minTime = Math.min(minTime, record.timestamp());
+			maxTime = Math.max(maxTime, record.timestamp());
+			users.add(record.offererId());
+			products.add(record.productId());
+		}
+
+		return new IndexEntry(offset, length, minTime, maxTime, users, products);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) channel.write(buffer);
+	}
+
+	private Partition openPartition(long epochDay) throws IOException {
+		var partition = partitions.get(epochDay);
+		if (partition != null) return partition;
+		var day = LocalDate.ofEpochDay(epochDay);
+		Files.createDirectories(directory);
+		var data = FileChannel.open(dataPath(directory, day), StandardOpenOption.CREATE, StandardOpenOption.READ,
+			StandardOpenOption.WRITE);
+		var index = FileChannel.open(indexPath(directory, day), StandardOpenOption.CREATE, StandardOpenOption.READ,
+			StandardOpenOption.WRITE);
+
+		try {
+			if (data.size() < HEADER_LENGTH) {
+				data.truncate(0L);
+				writeHeader(data, DATA_MAGIC, epochDay);
+				data.force(false);
+			}
+
+			var read = readIndex(index, data.size(), null);
+
+			if (read.bytes() < HEADER_LENGTH) {
+				index.truncate(0L);
+				writeHeader(index, INDEX_MAGIC, epochDay);
+			} else if (read.bytes() != index.size()) {
+				// Cut off entries that are incomplete or point past the end of data
+				index.truncate(read.bytes());
+			}
+
+			partition = new Partition(data, index.position(index.size()), read.dataEnd());
+			recoverBlocks(partition);
+			partitions.put(epochDay, partition);
+			return partition;
+		} catch (IOException | RuntimeException e) {
+			data.close();
+			index.close();
+			throw e;
+		}
+	}
+
+	private void writeHeader(FileChannel channel, int magic, long epochDay) throws IOException {
+		var bytes = new ByteArrayOutputStream(HEADER_LENGTH);
+		JournalFormat.writeHeader(new DataOutputStream(bytes), magic, scale, epochDay);
+		channel.position(0L);
+		writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()));
+	}
+
+	/**
+	 * <p>
+	 * Index blocks that was written after the last index entry (when the index
+	 * entry was not written before a crash), and cut off the incomplete block at
+	 * the end of data file.
+	 * </p>
+	 */
+	private void recoverBlocks(Partition partition) throws IOException {
+		var size = partition.data.size();
+		var headerScale = readHeaderScale(partition.data);
+
+		while (partition.dataEnd < size) {
+			var block = readBlock(partition.data, partition.dataEnd, size);
+
+			if (block == null) {
+				partition.data.truncate(partition.dataEnd);
+				partition.data.force(false);
+				return;
+			}
+
+			var records = decodeBlock(block, headerScale, ArchiveQuery.ALL);
+			var length = 8 + block.capacity();
+			var bytes = new ByteArrayOutputStream();
+			writeEntry(new DataOutputStream(bytes), createEntry(partition.dataEnd, length, records));
+			writeFully(partition.index, ByteBuffer.wrap(bytes.toByteArray()));
+			partition.dataEnd += length;
+		}
+	}
+
+	private static PriceScale readHeaderScale(FileChannel data) throws IOException {
+		var header = ByteBuffer.allocate(HEADER_LENGTH);
+		while (header.hasRemaining() && data.read(header, header.position()) >= 0);
+		if (header.hasRemaining()) throw new EOFException("FileOfferArchive: Incomplete header");
+		return JournalFormat.readHeader(new DataInputStream(new ByteArrayInputStream(header.array())), DATA_MAGIC)
+			.scale();
+	}
+
+	/**
+	 * <p>
+	 * Read the payload of the block at given offset, or {@code null} if the block
+	 * is incomplete or damaged. The buffer starts at the records count.
+	 * </p>
+	 */
+	private static ByteBuffer readBlock(FileChannel data, long offset, long size) throws IOException {
+		if (offset + 12 > size) return null;
+		var head = ByteBuffer.allocate(8);
+		while (head.hasRemaining()) data.read(head, offset + head.position());
+		var length = head.getInt(0);
+		var crc = head.getInt(4);
+		if (length < 0 || length > MAX_BLOCK_LENGTH || offset + 12 + length > size) return null;
+		var block = ByteBuffer.allocate(4 + length);
+		while (block.hasRemaining()) data.read(block, offset + 8 + block.position());
+		var check = new CRC32();
+		check.update(block.array(), 4, length);
+		return (int) check.getValue() == crc ? block : null;
+	}
+
+	private static record BlockRef(long offset, int length) {
+	}
+
+	/**
+	 * @param blocks  Blocks that may contain records matching the query.
+	 * @param bytes   Length of valid entries, including the header, or {@code 0}
+	 *                if the header is not valid.
+	 * @param dataEnd End of the last indexed block.
+	 */
+	private static record IndexRead(List<BlockRef> blocks, long bytes, long dataEnd) {
+	}
+
+	/**
+	 * <p>
+	 * Read the index and find blocks that may contain matching records. Users and
+	 * products are compared while reading, so entries are never fully decoded.
+	 * </p>
+	 */
+	private static IndexRead readIndex(FileChannel index, long dataSize, ArchiveQuery query) throws IOException {
+		var blocks = new ArrayList<BlockRef>();
+		var size = index.size();
+		if (size < HEADER_LENGTH) return new IndexRead(blocks, 0L, HEADER_LENGTH);
+		if (size > Integer.MAX_VALUE) throw new IOException("FileOfferArchive: Index is too large");
+		var buffer = ByteBuffer.allocate((int) size);
+		while (buffer.hasRemaining() && index.read(buffer, buffer.position()) >= 0);
+		buffer.flip();
+
+		try {
+			JournalFormat.readHeader(new DataInputStream(new ByteArrayInputStream(buffer.array(), 0, HEADER_LENGTH)),
+				INDEX_MAGIC);
+		} catch (IOException e) {
+			return new IndexRead(blocks, 0L, HEADER_LENGTH);
+		}
+
+		var product = query != null && query.productId() != null ? modifiedUtf(query.productId()) : null;
+		var user = query != null ? query.offererId() : null;
+		var dataEnd = (long) HEADER_LENGTH;
+		var bytes = HEADER_LENGTH;
+		buffer.position(HEADER_LENGTH);
+
+		try {
+			while (buffer.hasRemaining()) {
+				var offset = buffer.getLong();
+				var length = buffer.getInt();
+				var minTime = buffer.getLong();
+				var maxTime = buffer.getLong();
+				var matches = query == null || (maxTime >= query.fromMillis() && minTime < query.toMillis());
+				var usersCount = buffer.getInt();
+				var userFound = user == null;
+
+				if (usersCount < 0) break;
+
+				for (int i = 0; i < usersCount && !userFound; i++) {
+					var position = buffer.position() + i * 16;
+					userFound = buffer.getLong(position) == user.getMostSignificantBits()
+						&& buffer.getLong(position + 8) == user.getLeastSignificantBits();
+				}
+
+				buffer.position(Math.addExact(buffer.position(), usersCount * 16));
+				var productsCount = buffer.getInt();
+				var productFound = product == null;
+
+				for (int i = 0; i < productsCount; i++) {
+					var productLength = Short.toUnsignedInt(buffer.getShort());
+					var position = buffer.position();
+					buffer.position(position + productLength);
+					if (!productFound) productFound = Arrays.equals(buffer.array(), position, position + productLength,
+						product, 0, product.length);
+				}
+
+				// Entries are written after their blocks, so only the last entries can point
+				// to missing data, after the data file was cut off
+				if (offset + length > dataSize) break;
+				if (matches && userFound && productFound) blocks.add(new BlockRef(offset, length));
+				bytes = buffer.position();
+				dataEnd = offset + length;
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException | ArithmeticException e) {
+			// Incomplete entry at the end
+		}
+
+		return new IndexRead(blocks, bytes, dataEnd);
+	}
+
+	private static byte[] modifiedUtf(String value) throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		new DataOutputStream(bytes).writeUTF(value);
+		return Arrays.copyOfRange(bytes.toByteArray(), 2, bytes.size());
+	}
+
+	private static void writeEntry(DataOutputStream out, IndexEntry entry) throws IOException {
+		out.writeLong(entry.offset());
+		out.writeInt(entry.length());
+		out.writeLong(entry.minTime());
+		out.writeLong(entry.maxTime());
+		out.writeInt(entry.users().size());
+
+		for (var user : entry.users()) {
+			out.writeLong(user.getMostSignificantBits());
+			out.writeLong(user.getLeastSignificantBits());
+		}
+
+		out.writeInt(entry.products().size());
+		for (var product : entry.products()) out.writeUTF(product);
+	}
+
+	private static void writeRecord(DataOutputStream out, ArchiveRecord record) throws IOException {
+		switch (record) {
+		case ArchiveRecord.Fill fill -> {
+			out.writeByte(RECORD_FILL);
+			writeCommon(out, fill);
+			out.writeByte(fill.type().ordinal());
+			out.writeInt(fill.units());
+			out.writeLong(fill.pricePerUnitTicks());
+			out.writeLong(fill.improvementTicks());
+		}
+		case ArchiveRecord.Completed completed -> {
+			out.writeByte(RECORD_COMPLETED);
+			writeCommon(out, completed);
+			out.writeByte(completed.reason().ordinal());
+			out.writeByte(completed.type().ordinal());
+			out.writeInt(completed.totalUnits());
+			out.writeInt(completed.claimedUnits());
+			out.writeInt(completed.filledUnits());
+			out.writeLong(completed.pricePerUnitTicks());
+			out.writeLong(completed.priceImprovementTicks());
+		}
+		}
+	}
+
+	private static void writeCommon(DataOutputStream out, ArchiveRecord record) throws IOException {
+		out.writeLong(record.timestamp());
+		out.writeLong(record.offerId().getMostSignificantBits());
+		out.writeLong(record.offerId().getLeastSignificantBits());
+		out.writeLong(record.offererId().getMostSignificantBits());
+		out.writeLong(record.offererId().getLeastSignificantBits());
+		out.writeUTF(record.productId());
+	}
+
+	/**
+	 * <p>
+	 * Decode records in the block that match the query. Records that don't match
+	 * are skipped before they are decoded.
+	 * </p>
+	 */
+	private List<ArchiveRecord> decodeBlock(ByteBuffer block, PriceScale fileScale, ArchiveQuery query) throws IOException {
+		var count = block.getInt(0);
+		var records = new ArrayList<ArchiveRecord>();
+		var user = query.offererId();
+		var product = query.productId() != null ? modifiedUtf(query.productId()) : null;
+		block.position(4);
+
+		try {
+			for (int i = 0; i < count; i++) {
+				var kind = block.get();
+				var timestamp = block.getLong();
+				var offerMsb = block.getLong();
+				var offerLsb = block.getLong();
+				var offererMsb = block.getLong();
+				var offererLsb = block.getLong();
+				var productPosition = block.position();
+				var productLength = Short.toUnsignedInt(block.getShort());
+				block.position(productPosition + 2 + productLength);
+				var matches = timestamp >= query.fromMillis() && timestamp < query.toMillis()
+					&& (user == null || (user.getMostSignificantBits() == offererMsb
+						&& user.getLeastSignificantBits() == offererLsb))
+					&& (product == null || Arrays.equals(block.array(), productPosition + 2,
+						productPosition + 2 + productLength, product, 0, product.length));
+
+				if (!matches) {
+					block.position(block.position() + switch (kind) {
+					case RECORD_FILL -> FILL_TAIL_LENGTH;
+					case RECORD_COMPLETED -> COMPLETED_TAIL_LENGTH;
+					default -> throw new IOException("FileOfferArchive: Unknown record type " + kind);
+					});
+					continue;
+				}
+
+				var productId = new DataInputStream(new ByteArrayInputStream(block.array(), productPosition,
+					2 + productLength)).readUTF();
+				var offerId = new UUID(offerMsb, offerLsb);
+				var offererId = new UUID(offererMsb, offererLsb);
+
+				switch (kind) {
+				case RECORD_FILL -> {
+					var type = OfferType.values()[block.get()];
+					var units = block.getInt();
+					var price = scale.rescale(block.getLong(), fileScale);
+					var improvement = scale.rescale(block.getLong(), fileScale);
+					records.add(new ArchiveRecord.Fill(timestamp, offerId, offererId, productId, type, units, price,
+						improvement));
+				}
+				case RECORD_COMPLETED -> {
+					var reason = ArchiveRecord.Reason.values()[block.get()];
+					var type = OfferType.values()[block.get()];
+					var total = block.getInt();
+					var claimed = block.getInt();
+					var filled = block.getInt();
+					var price = scale.rescale(block.getLong(), fileScale);
+					var improvement = scale.rescale(block.getLong(), fileScale);
+					records.add(new ArchiveRecord.Completed(timestamp, reason, offerId, offererId, productId, type,
+						total, claimed, filled, price, improvement));
+				}
+				default -> throw new IOException("FileOfferArchive: Unknown record type " + kind);
+				}
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new JournalFormat.CorruptRecordException("FileOfferArchive: Block ends in the middle of a record");
+		}
+
+		return records;
+	}
+
+	/**
+	 * <p>
+	 * Read records that match the query from the archive on disk, sorted by their
+	 * timestamps. Only partitions in the time range are opened, and only blocks
+	 * that may contain matching records are read, according to the index. Records
+	 * that are not written yet are not included. This method can be called from
+	 * any thread.
+	 * </p>
+	 * 
+	 * @param query The query.
+	 * @return Matching records.
+	 */
+	public List<ArchiveRecord> query(ArchiveQuery query) throws IOException {
+		var fromDay = query.fromMillis() == Long.MIN_VALUE ? Long.MIN_VALUE
+			: Math.floorDiv(query.fromMillis(), DAY_MILLIS);
+		var toDay = query.toMillis() == Long.MAX_VALUE ? Long.MAX_VALUE
+			: Math.floorDiv(query.toMillis() - 1, DAY_MILLIS);
+		var results = new ArrayList<ArchiveRecord>();
+
+		for (var day : listPartitions(directory)) {
+			if (day.toEpochDay() < fromDay || day.toEpochDay() > toDay) continue;
+			var indexFile = indexPath(directory, day);
+			if (Files.notExists(indexFile)) continue;
+
+			try (var data = FileChannel.open(dataPath(directory, day), StandardOpenOption.READ);
+				var index = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+				var size = data.size();
+				var fileScale = readHeaderScale(data);
+
+				for (var ref : readIndex(index, size, query).blocks()) {
+					var block = readBlock(data, ref.offset(), size);
+					if (block == null) throw new JournalFormat.CorruptRecordException("FileOfferArchive: Damaged "
+						+ "block at " + ref.offset() + " in " + dataPath(directory, day));
+					results.addAll(decodeBlock(block, fileScale, query));
+				}
+			}
+		}
+
+		results.sort(Comparator.comparingLong(ArchiveRecord::timestamp));
+		return results;
+	}
+
+	/**
+	 * <p>
+	 * Flush, then read records that match the query after all flushed records are
+	 * written. Must be called from the thread that owns the service. The query is
+	 * executed on the common {@link java.util.concurrent.ForkJoinPool}.
+	 * </p>
+	 * 
+	 * @param query The query.
+	 * @return Matching records.
+	 * @see #query(ArchiveQuery)
+	 */
+	public CompletableFuture<List<ArchiveRecord>> queryAsync(ArchiveQuery query) {
+		try {
+			flush();
+		} catch (Throwable t) {
+			return CompletableFuture.failedFuture(t);
+		}
+
+		return lastWrite.thenApplyAsync($ -> {
+			try {
+				return query(query);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	private static void close(Partition partition) throws IOException {
+		try (partition.data; partition.index) {
+			partition.index.force(false);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Sync all records and close all files.
+	 * </p>
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			sync();
+		} finally {
+			lastWrite.handle(($, e) -> null).thenRunAsync(() -> {
+				for (var partition : partitions.values()) {
+					try {
+						close(partition);
+					} catch (IOException e) {
+						if (error == null) error = e;
+					}
+				}
+
+				partitions.clear();
+			}, writer).join();
+			writer.shutdown();
+		}
+
+		throwIfFailed();
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.archive;
+
+import stonks.core.market.Offer;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * A hook for recording trade history of {@link StonksMemoryService}: fills of
+ * offers, and offers that left the service because they were fully claimed or
+ * cancelled. Unlike {@link stonks.core.service.journal.OfferJournal}, the
+ * archive is never replayed into the service, so it can grow without slowing
+ * down startup.
+ * </p>
+ * <p>
+ * Implementations may buffer records in memory, but they must write all
+ * buffered records when {@link #flush()} is called.
+ * </p>
+ */
+public interface OfferArchive {
+	public static final OfferArchive NONE = new OfferArchive() {
+		@Override
+		public void offerFilled(Offer offer, int units, long improvementTicks) {}
+
+		@Override
+		public void offerCompleted(Offer offer, ArchiveRecord.Reason reason) {}
+	};
+
+	/**
+	 * <p>
+	 * Called after the offer was filled, including partial fills and offers that
+	 * was filled right after they are listed.
+	 * </p>
+	 * 
+	 * @param offer            The filled offer.
+	 * @param units            Number of units filled.
+	 * @param improvementTicks Price improvement added by this fill.
+	 */
+	public void offerFilled(Offer offer, int units, long improvementTicks);
+
+	/**
+	 * <p>
+	 * Called after the offer was removed from the service.
+	 * </p>
+	 * 
+	 * @param offer  The offer, in the state right before it was removed.
+	 * @param reason Why the offer was removed.
+	 */
+	public void offerCompleted(Offer offer, ArchiveRecord.Reason reason);
+
+	default void flush() {}
+}
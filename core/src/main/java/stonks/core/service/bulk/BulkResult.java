@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.bulk;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * <p>
+ * Result of a single item in bulk operation. Each item in bulk operation
+ * succeeds or fails on its own, so one bad request will not fail the entire
+ * batch.
+ * </p>
+ * 
+ * @param <T>    Type of result.
+ * @param result The result, or {@code null} if the item failed.
+ * @param error  The error, or {@code null} if the item succeeded.
+ */
+public record BulkResult<T>(T result, Throwable error) {
+	public static <T> BulkResult<T> success(T result) {
+		return new BulkResult<>(result, null);
+	}
+
+	public static <T> BulkResult<T> failure(Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null) error = error.getCause();
+		return new BulkResult<>(null, error);
+	}
+
+	public boolean isSuccess() { return error == null; }
+
+	/**
+	 * <p>
+	 * Wait for all futures and collect their results, in the same order.
+	 * </p>
+	 * 
+	 * @param <T>     Type of result.
+	 * @param futures The futures.
+	 * @return A future that completes when all futures are completed. This
+	 *         future never completes exceptionally.
+	 */
+	public static <T> CompletableFuture<List<BulkResult<T>>> collect(List<CompletableFuture<T>> futures) {
+		var handled = futures.stream()
+			.map(future -> future.handle((result, error) -> error != null
+				? BulkResult.<T>failure(error)
+				: BulkResult.success(result)))
+			.toList();
+
+		return CompletableFuture.allOf(handled.toArray(CompletableFuture[]::new))
+			.thenApply($ -> handled.stream().map(CompletableFuture::join).toList());
+	}
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.bulk;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import stonks.core.exec.InstantOfferExecuteResult;
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.market.ProductMarketOverview;
+import stonks.core.product.Category;
+import stonks.core.product.Product;
+import stonks.core.service.StonksService;
+import stonks.core.service.subscription.OffersUpdate;
+import stonks.core.service.subscription.OverviewUpdate;
+import stonks.core.service.subscription.Subscription;
+
+/**
+ * <p>
+ * Service that combines calls to {@link #getOffersAsync(Collection)},
+ * {@link #claimOffersAsync(Collection)} and
+ * {@link #cancelOffersAsync(Collection)} into batches, which are sent to the
+ * underlying service as one call per batch. Results are split back to each
+ * call, so callers of {@link #getOfferAsync(UUID)} and friends get the same
+ * results as before. This is useful for services where each call is costly,
+ * like {@link stonks.core.service.remote.RemoteStonksService}. Other calls are
+ * passed to the underlying service right away.
+ * </p>
+ * <p>
+ * A batch is sent when {@link #flush()} is called (once per server tick, for
+ * example), when it has {@link #getMaxBatchSize()} offer IDs, or when the
+ * batching window has passed since the first call of the batch. With a
+ * non-zero window, batches may be sent from another thread, so the underlying
+ * service must be thread-safe.
+ * </p>
+ * <p>
+ * Calls of one kind are only batched together until a call of another kind is
+ * made, which sends the pending batch first. This keeps calls made from one
+ * thread in order (a get after a cancel sees the cancelled offer), but calls
+ * that alternate between kinds are not coalesced.
+ * </p>
+ * <p>
+ * An offer can only be claimed or cancelled once in each batch. Calls to claim
+ * or cancel an offer that is already in the pending batch send the pending
+ * batch first, then are sent on their own, so calls are made in the same
+ * order and each caller still receives the offer as it was after its own
+ * call.
+ * </p>
+ */
+public class CoalescingStonksService implements StonksService {
+	public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+	private final StonksService underlying;
+	private final Duration window;
+	private final int maxBatchSize;
+	private final Executor delayedExecutor;
+	private final AtomicLong calls = new AtomicLong(0L);
+	private final AtomicLong batches = new AtomicLong(0L);
+	// The batcher of the last call, which may still have a pending batch
+	private final AtomicReference<Batcher> lastBatcher = new AtomicReference<>();
+	private final Batcher getBatcher;
+	private final Batcher claimBatcher;
+	private final Batcher cancelBatcher;
+
+	/**
+	 * <p>
+	 * Create a new coalescing service.
+	 * </p>
+	 * 
+	 * @param underlying   The underlying service.
+	 * @param window       The time to wait for more calls after the first call of
+	 *                     a batch, or {@link Duration#ZERO} to only send batches on
+	 *                     {@link #flush()} or when they are full.
+	 * @param maxBatchSize Maximum number of offer IDs in a batch.
+	 */
+	public CoalescingStonksService(StonksService underlying, Duration window, int maxBatchSize) {
+		if (maxBatchSize < 1) throw new IllegalArgumentException("CoalescingStonksService: maxBatchSize must be positive");
+		this.underlying = underlying;
+		this.window = window;
+		this.maxBatchSize = maxBatchSize;
+		this.delayedExecutor = window.isZero()
+			? null
+			: CompletableFuture.delayedExecutor(window.toNanos(), TimeUnit.NANOSECONDS);
+		this.getBatcher = new Batcher(underlying::getOffersAsync, false);
+		this.claimBatcher = new Batcher(underlying::claimOffersAsync, true);
+		this.cancelBatcher = new Batcher(underlying::cancelOffersAsync, true);
+	}
+
+	public CoalescingStonksService(StonksService underlying, Duration window) {
+		this(underlying, window, DEFAULT_MAX_BATCH_SIZE);
+	}
+
+	public StonksService getUnderlying() { return underlying; }
+
+	public Duration getWindow() { return window; }
+
+	public int getMaxBatchSize() { return maxBatchSize; }
+
+	/**
+	 * <p>
+	 * Get the number of calls to get, claim or cancel offers made to this service.
+	 * </p>
+	 * 
+	 * @return Number of calls.
+	 */
+	public long getCallsCount() { return calls.get(); }
+
+	/**
+	 * <p>
+	 * Get the number of calls to get, claim or cancel offers made to the
+	 * underlying service.
+	 * </p>
+	 * 
+	 * @return Number of calls.
+	 */
+	public long getBatchesCount() { return batches.get(); }
+
+	/**
+	 * <p>
+	 * Send all pending batches to the underlying service.
+	 * </p>
+	 */
+	public void flush() {
+		getBatcher.flush();
+		claimBatcher.flush();
+		cancelBatcher.flush();
+	}
+
+	@Override
+	public PriceScale getPriceScale() { return underlying.getPriceScale(); }
+
+	@Override
+	public CompletableFuture<List<Category>> queryAllCategoriesAsync() {
+		return underlying.queryAllCategoriesAsync();
+	}
+
+	@Override
+	public CompletableFuture<ProductMarketOverview> queryMarketOverviewAsync(Product product) {
+		return underlying.queryMarketOverviewAsync(product);
+	}
+
+	@Override
+	public CompletableFuture<List<Offer>> getOffersFromUserAsync(UUID user) {
+		return underlying.getOffersFromUserAsync(user);
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> getOffersAsync(Collection<UUID> offerIds) {
+		return getBatcher.submit(offerIds);
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> claimOffersAsync(Collection<UUID> offerIds) {
+		return claimBatcher.submit(offerIds);
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> cancelOffersAsync(Collection<UUID> offerIds) {
+		return cancelBatcher.submit(offerIds);
+	}
+
+	@Override
+	public CompletableFuture<Offer> listOfferAsync(UUID user, Product product, OfferType type, int units, double pricePerUnit) {
+		return underlying.listOfferAsync(user, product, type, units, pricePerUnit);
+	}
+
+	@Override
+	public CompletableFuture<Offer> listOfferRawAsync(UUID user, Product product, OfferType type, int units, long pricePerUnit) {
+		return underlying.listOfferRawAsync(user, product, type, units, pricePerUnit);
+	}
+
+	@Override
+	public CompletableFuture<InstantOfferExecuteResult> instantOfferAsync(Product product, OfferType type, int units, double balance) {
+		return underlying.instantOfferAsync(product, type, units, balance);
+	}
+
+	@Override
+	public CompletableFuture<InstantOfferExecuteResult> instantOfferRawAsync(Product product, OfferType type, int units, long balance) {
+		return underlying.instantOfferRawAsync(product, type, units, balance);
+	}
+
+	@Override
+	public CompletableFuture<List<BulkResult<Offer>>> listOffersAsync(List<ListOfferRequest> requests) {
+		return underlying.listOffersAsync(requests);
+	}
+
+	@Override
+	public CompletableFuture<List<BulkResult<InstantOfferExecuteResult>>> instantOffersAsync(List<InstantOfferRequest> requests) {
+		return underlying.instantOffersAsync(requests);
+	}
+
+	@Override
+	public void subscribeToOfferFilledEvents(Consumer<Offer> consumer) {
+		underlying.subscribeToOfferFilledEvents(consumer);
+	}
+
+	@Override
+	public boolean isSubscriptionSupported() { return underlying.isSubscriptionSupported(); }
+
+	@Override
+	public Subscription subscribeToOverviewUpdates(Product product, Consumer<OverviewUpdate> consumer) {
+		return underlying.subscribeToOverviewUpdates(product, consumer);
+	}
+
+	@Override
+	public Subscription subscribeToOffersUpdates(UUID user, Consumer<OffersUpdate> consumer) {
+		return underlying.subscribeToOffersUpdates(user, consumer);
+	}
+
+	private static record Waiter(Collection<UUID> offerIds, CompletableFuture<Map<UUID, Offer>> future) {
+		public void complete(Map<UUID, Offer> results) {
+			var offers = new HashMap<UUID, Offer>();
+
+			for (var offerId : offerIds) {
+				var offer = results.get(offerId);
+				if (offer != null) offers.put(offerId, offer);
+			}
+
+			future.complete(offers);
+		}
+	}
+
+	private class Batcher {
+		private final Function<Collection<UUID>, CompletableFuture<Map<UUID, Offer>>> call;
+		private final boolean exclusive;
+		// Held while sending, so batches are sent in the order they were taken
+		private final Object sendLock = new Object();
+		private HashSet<UUID> offerIds = new HashSet<>();
+		private List<Waiter> waiters = new ArrayList<>();
+		private boolean scheduled = false;
+
+		public Batcher(Function<Collection<UUID>, CompletableFuture<Map<UUID, Offer>>> call, boolean exclusive) {
+			this.call = call;
+			this.exclusive = exclusive;
+		}
+
+		public CompletableFuture<Map<UUID, Offer>> submit(Collection<UUID> ids) {
+			calls.incrementAndGet();
+			var waiter = new Waiter(List.copyOf(ids), new CompletableFuture<>());
+			boolean duplicated, full;
+
+			// Calls of another kind made before this one are sent first
+			var previous = lastBatcher.getAndSet(this);
+			if (previous != null && previous != this) previous.flush();
+
+			synchronized (this) {
+				duplicated = exclusive && waiter.offerIds().stream().anyMatch(offerIds::contains);
+				full = false;
+
+				if (!duplicated) {
+					offerIds.addAll(waiter.offerIds());
+					waiters.add(waiter);
+					full = offerIds.size() >= maxBatchSize;
+
+					if (!full && !scheduled && delayedExecutor != null) {
+						scheduled = true;
+						delayedExecutor.execute(this::flush);
+					}
+				}
+			}
+
+			// The underlying service is never called while holding the lock of the batch
+			if (duplicated) {
+				synchronized (sendLock) {
+					// The earlier call for the same offer must be made first
+					flush();
+					return send(waiter.offerIds());
+				}
+			}
+
+			if (full) flush();
+			return waiter.future();
+		}
+
+		private CompletableFuture<Map<UUID, Offer>> send(Collection<UUID> ids) {
+			batches.incrementAndGet();
+
+			try {
+				return call.apply(ids);
+			} catch (Throwable e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}
+
+		public void flush() {
+			HashSet<UUID> batchIds;
+			List<Waiter> batchWaiters;
+
+			synchronized (sendLock) {
+				synchronized (this) {
+					scheduled = false;
+					if (waiters.isEmpty()) return;
+					batchIds = offerIds;
+					batchWaiters = waiters;
+					offerIds = new HashSet<>();
+					waiters = new ArrayList<>();
+				}
+
+				send(batchIds).whenComplete((results, error) -> {
+					for (var waiter : batchWaiters) {
+						if (error != null) waiter.future().completeExceptionally(error);
+						else waiter.complete(results);
+					}
+				});
+			}
+		}
+	}
+}
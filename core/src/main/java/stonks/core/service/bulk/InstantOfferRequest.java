@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.bulk;
+
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.product.Product;
+
+/**
+ * <p>
+ * A request to execute an instant offer, used in
+ * {@link stonks.core.service.StonksService#instantOffersAsync(java.util.List)}.
+ * </p>
+ * 
+ * @param product Product to execute offer.
+ * @param type    Offer type.
+ * @param units   How much units you want to buy or sell.
+ * @param balance Raw balance (only applies for instant buy offers), which is
+ *                the number of ticks in service's price scale.
+ */
+public record InstantOfferRequest(Product product, OfferType type, int units, long balance) {
+	public static InstantOfferRequest of(PriceScale scale, Product product, OfferType type, int units, double balance) {
+		return new InstantOfferRequest(product, type, units, scale.toTicks(balance));
+	}
+}
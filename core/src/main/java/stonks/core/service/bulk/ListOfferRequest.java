@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.bulk;
+
+import java.util.UUID;
+
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.product.Product;
+
+/**
+ * <p>
+ * A request to list a new offer, used in
+ * {@link stonks.core.service.StonksService#listOffersAsync(java.util.List)}.
+ * </p>
+ * 
+ * @param user         User's unique ID.
+ * @param product      Product to list.
+ * @param type         Offer type.
+ * @param units        How much units to offer.
+ * @param pricePerUnit Raw price for each unit, which is the number of ticks in
+ *                     service's price scale.
+ */
+public record ListOfferRequest(UUID user, Product product, OfferType type, int units, long pricePerUnit) {
+	public static ListOfferRequest of(PriceScale scale, UUID user, Product product, OfferType type, int units, double pricePerUnit) {
+		return new ListOfferRequest(user, product, type, units, scale.toTicks(pricePerUnit));
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.columnar;
+
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+import stonks.core.market.OfferType;
+import stonks.core.market.OrderBook;
+import stonks.core.market.OverviewOffer;
+import stonks.core.market.OverviewOffersList;
+import stonks.core.market.PriceComparator;
+
+/**
+ * <p>
+ * One side of the market for a single product, with offers stored in
+ * {@link OfferStore}. This is the columnar version of {@link OrderBook}: offers
+ * are grouped into price levels, and offers within the same level are linked
+ * together through {@code bookPrev} and {@code bookNext} columns of the store,
+ * so the book only allocates objects for price levels.
+ * </p>
+ */
+public class ColumnarOrderBook {
+	private static class Level {
+		private final long pricePerUnit;
+		private int head = OfferStore.NIL, tail = OfferStore.NIL;
+		private int size = 0;
+		private long totalAvailableUnits = 0L;
+
+		public Level(long pricePerUnit) {
+			this.pricePerUnit = pricePerUnit;
+		}
+	}
+
+	private final OfferStore store;
+	private final OfferType type;
+	private final PriceComparator comparator;
+	private final TreeMap<Long, Level> levels;
+	private final int overviewDepth;
+	private int size = 0;
+	private OverviewOffersList overview = null;
+	private long overviewVersion = 0L;
+
+	public ColumnarOrderBook(OfferStore store, OfferType type, int overviewDepth) {
+		this.store = store;
+		this.type = type;
+		this.comparator = type.getPriceComparator();
+		this.levels = new TreeMap<>((a, b) -> comparator.compare(a, b));
+		this.overviewDepth = overviewDepth;
+	}
+
+	public ColumnarOrderBook(OfferStore store, OfferType type) {
+		this(store, type, OrderBook.DEFAULT_OVERVIEW_DEPTH);
+	}
+
+	public OfferType getType() { return type; }
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() { return size == 0; }
+
+	/**
+	 * <p>
+	 * Get the slot of the offer that will be filled next.
+	 * </p>
+	 * 
+	 * @return The slot, or {@link OfferStore#NIL} if this book is empty.
+	 */
+	public int peek() {
+		var entry = levels.firstEntry();
+		return entry != null ? entry.getValue().head : OfferStore.NIL;
+	}
+
+	/**
+	 * <p>
+	 * Append the offer to the back of its price level.
+	 * </p>
+	 * 
+	 * @param slot The slot of the offer.
+	 */
+	public void insert(int slot) {
+		if (store.getType(slot) != type) throw new IllegalArgumentException("ColumnarOrderBook: Expected " + type
+			+ " offer, but " + store.getType(slot) + " was given");
+		var level = levels.computeIfAbsent(store.pricePerUnit[slot], Level::new);
+		store.bookPrev[slot] = level.tail;
+		store.bookNext[slot] = OfferStore.NIL;
+		if (level.tail != OfferStore.NIL) store.bookNext[level.tail] = slot;
+		else level.head = slot;
+		level.tail = slot;
+		level.size++;
+		level.totalAvailableUnits += store.getAvailableUnits(slot);
+		size++;
+		touched(level.pricePerUnit);
+	}
+
+	/**
+	 * <p>
+	 * Remove the offer from this book.
+	 * </p>
+	 * 
+	 * @param slot The slot of the offer.
+	 * @return {@code true} if the offer was in this book.
+	 */
+	public boolean remove(int slot) {
+		var level = levels.get(store.pricePerUnit[slot]);
+		if (level == null) return false;
+		if (store.bookPrev[slot] == OfferStore.NIL && level.head != slot) return false;
+		unlink(level, slot);
+		return true;
+	}
+
+	/**
+	 * <p>
+	 * Fill the offer that will be filled next, removing it from this book if it is
+	 * fully filled.
+	 * </p>
+	 * 
+	 * @param units       Number of units to fill.
+	 * @param improvement Price improvement in ticks to add to the offer.
+	 * @return The slot of filled offer.
+	 */
+	public int fillBest(int units, long improvement) {
+		var level = levels.firstEntry().getValue();
+		var slot = level.head;
+		store.fill(slot, units, improvement);
+		level.totalAvailableUnits -= units;
+		if (store.isFilled(slot)) unlink(level, slot);
+		else touched(level.pricePerUnit);
+		return slot;
+	}
+
+	private void unlink(Level level, int slot) {
+		var prev = store.bookPrev[slot];
+		var next = store.bookNext[slot];
+		if (prev != OfferStore.NIL) store.bookNext[prev] = next;
+		else level.head = next;
+		if (next != OfferStore.NIL) store.bookPrev[next] = prev;
+		else level.tail = prev;
+		store.bookPrev[slot] = store.bookNext[slot] = OfferStore.NIL;
+		level.size--;
+		level.totalAvailableUnits -= store.getAvailableUnits(slot);
+		size--;
+		touched(level.pricePerUnit);
+		if (level.size == 0) levels.remove(level.pricePerUnit);
+	}
+
+	public void clear() {
+		levels.clear();
+		size = 0;
+		invalidateOverview();
+	}
+
+	/**
+	 * <p>
+	 * Get the overview of top price levels. The returned list is cached until one
+	 * of the top levels is changed.
+	 * </p>
+	 * 
+	 * @return The overview.
+	 */
+	public OverviewOffersList getOverview() {
+		if (overview != null) return overview;
+		var entries = new ArrayList<OverviewOffer>(overviewDepth);
+
+		for (var level : levels.values()) {
+			if (entries.size() >= overviewDepth) break;
+			entries.add(new OverviewOffer(level.size, (int) Math.min(level.totalAvailableUnits, Integer.MAX_VALUE),
+				level.pricePerUnit, store.getScale()));
+		}
+
+		return overview = new OverviewOffersList(type, entries);
+	}
+
+	public long getOverviewVersion() { return overviewVersion; }
+
+	private void touched(long pricePerUnit) {
+		if (overview == null) return;
+		var entries = overview.getEntries();
+
+		if (entries.size() < overviewDepth
+			|| comparator.compare(pricePerUnit, entries.get(entries.size() - 1).pricePerUnitTicks()) <= 0) {
+			invalidateOverview();
+		}
+	}
+
+	private void invalidateOverview() {
+		if (overview == null) return;
+		overview = null;
+		overviewVersion++;
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnarOrderBook[" + type + ", " + levels.size() + " levels, " + size + " offers]";
+	}
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.columnar;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import stonks.core.exec.InstantOfferExecuteResult;
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.market.ProductMarketOverview;
+import stonks.core.product.Category;
+import stonks.core.product.Product;
+import stonks.core.service.Emittable;
+import stonks.core.service.LocalStonksService;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * An in-memory service that behaves like {@link StonksMemoryService}, but
+ * stores offers in {@link OfferStore} instead of keeping an {@link Offer} object
+ * (and its UUIDs, book node and index entries) for each offer. Resting offers
+ * only take up a few primitive array elements, which reduces heap usage and GC
+ * work when there are a lot of offers.
+ * </p>
+ * <p>
+ * Offers returned from this service and offers passed to filled event
+ * consumers are snapshots, so they are never modified by this service. Use
+ * {@link #getStore()} and {@link OfferView} to read offers without creating
+ * snapshots.
+ * </p>
+ * <p>
+ * This service does not support batch auction mode.
+ * </p>
+ */
+public class ColumnarStonksService implements LocalStonksService {
+	private static class ProductEntry {
+		private final Product product;
+		private final ColumnarOrderBook buyOffers;
+		private final ColumnarOrderBook sellOffers;
+		private ProductMarketOverview overview = null;
+
+		public ProductEntry(Product product, OfferStore store) {
+			this.product = product;
+			this.buyOffers = new ColumnarOrderBook(store, OfferType.BUY);
+			this.sellOffers = new ColumnarOrderBook(store, OfferType.SELL);
+		}
+
+		public ColumnarOrderBook getBook(OfferType type) {
+			return type == OfferType.BUY ? buyOffers : sellOffers;
+		}
+
+		public ProductMarketOverview getOverview() {
+			var version = buyOffers.getOverviewVersion() + sellOffers.getOverviewVersion();
+			var buyOverview = buyOffers.getOverview();
+			var sellOverview = sellOffers.getOverview();
+
+			if (overview == null
+				|| overview.getBuyOffers() != buyOverview
+				|| overview.getSellOffers() != sellOverview) {
+				overview = new ProductMarketOverview(product, buyOverview, sellOverview, version);
+			}
+
+			return overview;
+		}
+	}
+
+	private final PriceScale scale;
+	private final OfferStore store;
+	private List<MemoryCategory> categories = new ArrayList<>();
+	private List<ProductEntry> entries = new ArrayList<>();
+	private Emittable<Offer> offerFilledEvents = new Emittable<>();
+
+	public ColumnarStonksService(PriceScale scale, int initialCapacity) {
+		this.scale = scale;
+		this.store = new OfferStore(scale, initialCapacity);
+	}
+
+	public ColumnarStonksService(PriceScale scale) {
+		this(scale, OfferStore.DEFAULT_CAPACITY);
+	}
+
+	public ColumnarStonksService() {
+		this(PriceScale.DEFAULT);
+	}
+
+	@Override
+	public PriceScale getPriceScale() { return scale; }
+
+	public List<MemoryCategory> getModifiableCategories() { return categories; }
+
+	/**
+	 * <p>
+	 * Get the offers store. The store must not be modified directly.
+	 * </p>
+	 * 
+	 * @return The offers store.
+	 */
+	public OfferStore getStore() { return store; }
+
+	/**
+	 * <p>
+	 * Iterate through snapshots of all offers.
+	 * </p>
+	 * 
+	 * @return The iterator.
+	 */
+	public Iterator<Offer> offersIterator() {
+		return new Iterator<>() {
+			private int slot = advance(0);
+
+			private int advance(int from) {
+				while (from < store.getHighWater() && !store.isLive(from)) from++;
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return slot < store.getHighWater();
+			}
+
+			@Override
+			public Offer next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				var offer = store.toOffer(slot);
+				slot = advance(slot + 1);
+				return offer;
+			}
+		};
+	}
+
+	private ProductEntry getProductEntry(Product product) {
+		if (product == null) throw new IllegalArgumentException("ColumnarStonksService: Product is null");
+		var ordinal = store.getProductOrdinal(product);
+		while (entries.size() <= ordinal) entries.add(new ProductEntry(store.getProduct(entries.size()), store));
+		return entries.get(ordinal);
+	}
+
+	@Override
+	public CompletableFuture<List<Category>> queryAllCategoriesAsync() {
+		return CompletableFuture.completedFuture(Collections.unmodifiableList(categories));
+	}
+
+	@Override
+	public CompletableFuture<ProductMarketOverview> queryMarketOverviewAsync(Product product) {
+		try {
+			return CompletableFuture.completedFuture(getProductEntry(product).getOverview());
+		} catch (Throwable t) {
+			return CompletableFuture.failedFuture(t);
+		}
+	}
+
+	@Override
+	public CompletableFuture<List<Offer>> getOffersFromUserAsync(UUID offerer) {
+		var offers = new ArrayList<Offer>();
+		for (int slot = store.firstOfUser(offerer); slot != OfferStore.NIL; slot = store.nextOfUser(slot))
+			offers.add(store.toOffer(slot));
+		return CompletableFuture.completedFuture(offers);
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> getOffersAsync(Collection<UUID> offerIds) {
+		var offers = new HashMap<UUID, Offer>();
+
+		for (var offerId : offerIds) {
+			var slot = store.findSlot(offerId);
+			if (slot != OfferStore.NIL) offers.put(offerId, store.toOffer(slot));
+		}
+
+		return CompletableFuture.completedFuture(offers);
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> claimOffersAsync(Collection<UUID> offerIds) {
+		var offers = new HashMap<UUID, Offer>();
+
+		for (var offerId : offerIds) {
+			var slot = store.findSlot(offerId);
+			if (slot == OfferStore.NIL) continue;
+
+			var snapshot = store.toOffer(slot);
+			snapshot.claimOffer();
+			offers.put(offerId, snapshot);
+			store.claim(slot);
+			if (store.isFullyClaimed(slot)) store.remove(slot);
+		}
+
+		return CompletableFuture.completedFuture(offers);
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> cancelOffersAsync(Collection<UUID> offerIds) {
+		var offers = new HashMap<UUID, Offer>();
+
+		for (var offerId : offerIds) {
+			var slot = store.findSlot(offerId);
+			if (slot == OfferStore.NIL) continue;
+
+			offers.put(offerId, store.toOffer(slot));
+			if (!store.isFilled(slot)) entries.get(store.getProductOrdinalAt(slot))
+				.getBook(store.getType(slot))
+				.remove(slot);
+			store.remove(slot);
+		}
+
+		return CompletableFuture.completedFuture(offers);
+	}
+
+	@Override
+	public CompletableFuture<Offer> listOfferAsync(UUID user, Product product, OfferType type, int units, double pricePerUnit) {
+		return listOfferRawAsync(user, product, type, units, scale.toTicks(pricePerUnit));
+	}
+
+	@Override
+	public CompletableFuture<Offer> listOfferRawAsync(UUID user, Product product, OfferType type, int units, long pricePerUnit) {
+		try {
+			var productEntry = getProductEntry(product);
+			var slot = store.add(UUID.randomUUID(), user, product, type, units, 0, 0, pricePerUnit, 0L);
+			matchOffer(productEntry, slot);
+
+			if (!store.isFilled(slot)) productEntry.getBook(type).insert(slot);
+			var snapshot = store.toOffer(slot);
+			if (snapshot.isFilled()) offerFilledEvents.emit(snapshot);
+			return CompletableFuture.completedFuture(snapshot);
+		} catch (Throwable t) {
+			return CompletableFuture.failedFuture(t);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Match the newly listed offer against the opposite side of the market, the
+	 * same way as {@code StonksMemoryService#matchOffer(Offer)}.
+	 * </p>
+	 */
+	private void matchOffer(ProductEntry productEntry, int slot) {
+		var type = store.getType(slot);
+		var opposite = productEntry.getBook(type == OfferType.BUY ? OfferType.SELL : OfferType.BUY);
+		var comparator = opposite.getType().getPriceComparator();
+		var limit = store.getPricePerUnitTicks(slot);
+		var units = store.getAvailableUnits(slot);
+		var filled = 0;
+		var improvement = 0L;
+
+		while (units > 0 && !opposite.isEmpty()) {
+			var best = opposite.peek();
+			var price = store.getPricePerUnitTicks(best);
+			// Stop when the opposite offer is worse than our price
+			if (comparator.compare(price, limit) > 0) break;
+			var toFill = Math.min(units, store.getAvailableUnits(best));
+
+			opposite.fillBest(toFill, 0L);
+			if (store.isFilled(best)) offerFilledEvents.emit(store.toOffer(best));
+			units -= toFill;
+			filled += toFill;
+			improvement += PriceScale.multiply(Math.abs(limit - price), toFill);
+		}
+
+		if (filled > 0) store.fill(slot, filled, improvement);
+	}
+
+	@Override
+	public CompletableFuture<InstantOfferExecuteResult> instantOfferAsync(Product product, OfferType type, int units, double balance) {
+		return instantOfferRawAsync(product, type, units, scale.toTicks(balance));
+	}
+
+	@Override
+	public CompletableFuture<InstantOfferExecuteResult> instantOfferRawAsync(Product product, OfferType type, int units, long balance) {
+		try {
+			var productEntry = getProductEntry(product);
+
+			switch (type) {
+			case BUY: {
+				var book = productEntry.sellOffers;
+
+				while (units > 0 && !book.isEmpty()) {
+					var best = book.peek();
+					var price = store.getPricePerUnitTicks(best);
+					var toBuy = Math.min(Math.min(store.getAvailableUnits(best), units),
+						PriceScale.affordableUnits(balance, price));
+					if (toBuy <= 0) break;
+
+					balance -= PriceScale.multiply(price, toBuy);
+					units -= toBuy;
+					book.fillBest(toBuy, 0L);
+					if (store.isFilled(best)) offerFilledEvents.emit(store.toOffer(best));
+				}
+
+				break;
+			}
+			case SELL: {
+				var book = productEntry.buyOffers;
+
+				while (units > 0 && !book.isEmpty()) {
+					var best = book.peek();
+					var toSell = Math.min(store.getAvailableUnits(best), units);
+
+					balance = Math.addExact(balance, PriceScale.multiply(store.getPricePerUnitTicks(best), toSell));
+					units -= toSell;
+					book.fillBest(toSell, 0L);
+					if (store.isFilled(best)) offerFilledEvents.emit(store.toOffer(best));
+				}
+
+				break;
+			}
+			}
+
+			return CompletableFuture.completedFuture(new InstantOfferExecuteResult(units, balance, scale));
+		} catch (Throwable t) {
+			return CompletableFuture.failedFuture(t);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Insert the offer to this service without matching. This is meant for
+	 * loading offers from saved data.
+	 * </p>
+	 * 
+	 * @param offer The offer to insert. The offer is copied into the store.
+	 */
+	protected void insertOffer(Offer offer) {
+		var productEntry = getProductEntry(offer.getProduct());
+		var slot = store.add(offer);
+		if (!store.isFilled(slot)) productEntry.getBook(store.getType(slot)).insert(slot);
+	}
+
+	@Override
+	public void saveServiceData() {}
+
+	@Override
+	public void loadServiceData() {
+		store.clear();
+		for (var productEntry : entries) {
+			productEntry.buyOffers.clear();
+			productEntry.sellOffers.clear();
+		}
+	}
+
+	@Override
+	public void subscribeToOfferFilledEvents(Consumer<Offer> consumer) {
+		offerFilledEvents.listen(consumer);
+	}
+}
@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.columnar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.product.Product;
+
+/**
+ * <p>
+ * Offers storage with struct-of-arrays layout. Each offer occupies a slot, and
+ * each field of the offer is stored in its own primitive array (a column), so
+ * storing an offer does not allocate any object. UUIDs are stored as 2 longs,
+ * products are stored as ordinals and offer types are stored as bytes.
+ * </p>
+ * <p>
+ * The store also maintains the index from offer ID to slot (an open addressing
+ * table that only stores slot numbers) and the list of offers from each user
+ * (an intrusive linked list through {@code userPrev} and {@code userNext}
+ * columns). The {@code bookPrev} and {@code bookNext} columns are reserved for
+ * {@link ColumnarOrderBook}.
+ * </p>
+ * <p>
+ * Slots are reused after offers are removed, so a slot number is only valid
+ * while the offer is in the store. Use {@link OfferView} to read offers, or
+ * {@link #toOffer(int)} to create a snapshot.
+ * </p>
+ */
+public class OfferStore {
+	public static final int NIL = -1;
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private static final byte TYPE_BUY = 0;
+	private static final byte TYPE_SELL = 1;
+
+	private final PriceScale scale;
+	private final List<Product> products = new ArrayList<>();
+	private final Map<Product, Integer> productOrdinals = new HashMap<>();
+
+	// Columns
+	long[] idMost, idLeast, offererMost, offererLeast;
+	int[] product;
+	byte[] type;
+	int[] totalUnits, claimedUnits, filledUnits;
+	long[] pricePerUnit, priceImprovement;
+	int[] bookPrev, bookNext;
+	int[] userPrev, userNext;
+
+	private int capacity;
+	private int size = 0;
+	private int highWater = 0;
+	private int freeHead = NIL;
+
+	// Offer ID -> slot + 1 (0 means empty)
+	private int[] idTable;
+	private final UUIDIntMap userHeads = new UUIDIntMap();
+
+	public OfferStore(PriceScale scale, int initialCapacity) {
+		this.scale = scale;
+		this.capacity = Math.max(initialCapacity, 16);
+		allocateColumns(capacity);
+		this.idTable = new int[tableSizeFor(capacity)];
+	}
+
+	public OfferStore(PriceScale scale) {
+		this(scale, DEFAULT_CAPACITY);
+	}
+
+	public PriceScale getScale() { return scale; }
+
+	/**
+	 * <p>
+	 * Get the number of offers in this store.
+	 * </p>
+	 * 
+	 * @return Number of offers.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * <p>
+	 * Get the number of slots allocated for each column.
+	 * </p>
+	 * 
+	 * @return The capacity.
+	 */
+	public int getCapacity() { return capacity; }
+
+	/**
+	 * <p>
+	 * Estimate the number of bytes used by columns and indexes, excluding array
+	 * headers and products.
+	 * </p>
+	 * 
+	 * @return The estimated size in bytes.
+	 */
+	public long estimateMemoryUsage() {
+		long perSlot = 6 * Long.BYTES + 8 * Integer.BYTES + 1;
+		return perSlot * capacity + (long) idTable.length * Integer.BYTES + userHeads.estimateMemoryUsage();
+	}
+
+	// Products
+	/**
+	 * <p>
+	 * Get the ordinal of the product, assigning a new ordinal if the product was
+	 * never stored before.
+	 * </p>
+	 * 
+	 * @param product The product.
+	 * @return The product ordinal.
+	 */
+	public int getProductOrdinal(Product product) {
+		var ordinal = productOrdinals.get(product);
+		if (ordinal != null) return ordinal;
+		ordinal = products.size();
+		products.add(product);
+		productOrdinals.put(product, ordinal);
+		return ordinal;
+	}
+
+	public Product getProduct(int ordinal) { return products.get(ordinal); }
+
+	public int getProductsCount() { return products.size(); }
+
+	// Allocation
+	private void allocateColumns(int capacity) {
+		idMost = new long[capacity];
+		idLeast = new long[capacity];
+		offererMost = new long[capacity];
+		offererLeast = new long[capacity];
+		product = new int[capacity];
+		type = new byte[capacity];
+		totalUnits = new int[capacity];
+		claimedUnits = new int[capacity];
+		filledUnits = new int[capacity];
+		pricePerUnit = new long[capacity];
+		priceImprovement = new long[capacity];
+		bookPrev = new int[capacity];
+		bookNext = new int[capacity];
+		userPrev = new int[capacity];
+		userNext = new int[capacity];
+	}
+
+	private void grow() {
+		var newCapacity = capacity + (capacity >> 1);
+		idMost = Arrays.copyOf(idMost, newCapacity);
+		idLeast = Arrays.copyOf(idLeast, newCapacity);
+		offererMost = Arrays.copyOf(offererMost, newCapacity);
+		offererLeast = Arrays.copyOf(offererLeast, newCapacity);
+		product = Arrays.copyOf(product, newCapacity);
+		type = Arrays.copyOf(type, newCapacity);
+		totalUnits = Arrays.copyOf(totalUnits, newCapacity);
+		claimedUnits = Arrays.copyOf(claimedUnits, newCapacity);
+		filledUnits = Arrays.copyOf(filledUnits, newCapacity);
+		pricePerUnit = Arrays.copyOf(pricePerUnit, newCapacity);
+		priceImprovement = Arrays.copyOf(priceImprovement, newCapacity);
+		bookPrev = Arrays.copyOf(bookPrev, newCapacity);
+		bookNext = Arrays.copyOf(bookNext, newCapacity);
+		userPrev = Arrays.copyOf(userPrev, newCapacity);
+		userNext = Arrays.copyOf(userNext, newCapacity);
+		capacity = newCapacity;
+		if (capacity * 2 > idTable.length) rehash(tableSizeFor(capacity));
+	}
+
+	/**
+	 * <p>
+	 * Add a new offer to this store. The price must be in the scale of this store.
+	 * </p>
+	 * 
+	 * @return The slot of the new offer.
+	 */
+	public int add(UUID offerId, UUID offerer, Product product, OfferType type, int totalUnits, int claimedUnits, int filledUnits, long pricePerUnit, long priceImprovement) {
+		if (findSlot(offerId.getMostSignificantBits(), offerId.getLeastSignificantBits()) != NIL)
+			throw new IllegalArgumentException("OfferStore: Offer " + offerId + " already exists");
+
+		int slot;
+
+		if (freeHead != NIL) {
+			slot = freeHead;
+			freeHead = bookNext[slot];
+		} else {
+			if (highWater == capacity) grow();
+			slot = highWater++;
+		}
+
+		idMost[slot] = offerId.getMostSignificantBits();
+		idLeast[slot] = offerId.getLeastSignificantBits();
+		offererMost[slot] = offerer.getMostSignificantBits();
+		offererLeast[slot] = offerer.getLeastSignificantBits();
+		this.product[slot] = getProductOrdinal(product);
+		this.type[slot] = type == OfferType.BUY ? TYPE_BUY : TYPE_SELL;
+		this.totalUnits[slot] = totalUnits;
+		this.claimedUnits[slot] = claimedUnits;
+		this.filledUnits[slot] = filledUnits;
+		this.pricePerUnit[slot] = pricePerUnit;
+		this.priceImprovement[slot] = priceImprovement;
+		bookPrev[slot] = bookNext[slot] = NIL;
+
+		indexId(slot);
+		linkUser(slot);
+		size++;
+		return slot;
+	}
+
+	/**
+	 * <p>
+	 * Add a copy of the offer to this store. The price will be converted to the
+	 * scale of this store.
+	 * </p>
+	 * 
+	 * @param offer The offer.
+	 * @return The slot of the new offer.
+	 */
+	public int add(Offer offer) {
+		offer = offer.withScale(scale);
+		return add(offer.getOfferId(), offer.getOffererId(), offer.getProduct(), offer.getType(),
+			offer.getTotalUnits(), offer.getClaimedUnits(), offer.getFilledUnits(), offer.getPricePerUnitTicks(),
+			offer.getPriceImprovementTicks());
+	}
+
+	/**
+	 * <p>
+	 * Remove the offer from this store. The offer must be unlinked from its order
+	 * book before removing.
+	 * </p>
+	 * 
+	 * @param slot The slot of the offer.
+	 */
+	public void remove(int slot) {
+		unindexId(slot);
+		unlinkUser(slot);
+		bookPrev[slot] = NIL;
+		bookNext[slot] = freeHead;
+		freeHead = slot;
+		size--;
+	}
+
+	/**
+	 * <p>
+	 * Remove all offers.
+	 * </p>
+	 */
+	public void clear() {
+		Arrays.fill(idTable, 0);
+		userHeads.clear();
+		size = 0;
+		highWater = 0;
+		freeHead = NIL;
+	}
+
+	// Offer ID index
+	private static int tableSizeFor(int capacity) {
+		return Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1;
+	}
+
+	private static int hash(long most, long least) {
+		var h = most ^ least;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	/**
+	 * <p>
+	 * Find the slot of the offer.
+	 * </p>
+	 * 
+	 * @return The slot, or {@link #NIL} if the offer is not in this store.
+	 */
+	public int findSlot(long idMost, long idLeast) {
+		var mask = idTable.length - 1;
+
+		for (int i = hash(idMost, idLeast) & mask;; i = (i + 1) & mask) {
+			var entry = idTable[i];
+			if (entry == 0) return NIL;
+			var slot = entry - 1;
+			if (this.idMost[slot] == idMost && this.idLeast[slot] == idLeast) return slot;
+		}
+	}
+
+	public int findSlot(UUID offerId) {
+		return findSlot(offerId.getMostSignificantBits(), offerId.getLeastSignificantBits());
+	}
+
+	private void indexId(int slot) {
+		var mask = idTable.length - 1;
+		var i = hash(idMost[slot], idLeast[slot]) & mask;
+		while (idTable[i] != 0) i = (i + 1) & mask;
+		idTable[i] = slot + 1;
+	}
+
+	private void unindexId(int slot) {
+		var mask = idTable.length - 1;
+		var i = hash(idMost[slot], idLeast[slot]) & mask;
+		while (idTable[i] != slot + 1) i = (i + 1) & mask;
+
+		// Backward shift deletion, so we don't need tombstones
+		for (int j = (i + 1) & mask; idTable[j] != 0; j = (j + 1) & mask) {
+			var other = idTable[j] - 1;
+			var home = hash(idMost[other], idLeast[other]) & mask;
+
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				idTable[i] = idTable[j];
+				i = j;
+			}
+		}
+
+		idTable[i] = 0;
+	}
+
+	private void rehash(int tableSize) {
+		var old = idTable;
+		idTable = new int[tableSize];
+		for (var entry : old) if (entry != 0) indexId(entry - 1);
+	}
+
+	// Users index
+	// The head's userPrev is the tail of the list
+	private void linkUser(int slot) {
+		var head = userHeads.get(offererMost[slot], offererLeast[slot], NIL);
+		userNext[slot] = NIL;
+
+		if (head == NIL) {
+			userHeads.put(offererMost[slot], offererLeast[slot], slot);
+			userPrev[slot] = slot;
+			return;
+		}
+
+		var tail = userPrev[head];
+		userNext[tail] = slot;
+		userPrev[slot] = tail;
+		userPrev[head] = slot;
+	}
+
+	private void unlinkUser(int slot) {
+		var most = offererMost[slot];
+		var least = offererLeast[slot];
+		var head = userHeads.get(most, least, NIL);
+		var next = userNext[slot];
+
+		if (slot == head) {
+			if (next == NIL) userHeads.remove(most, least);
+			else {
+				userHeads.put(most, least, next);
+				userPrev[next] = userPrev[head];
+			}
+		} else {
+			var prev = userPrev[slot];
+			userNext[prev] = next;
+			if (next != NIL) userPrev[next] = prev;
+			else userPrev[head] = prev;
+		}
+
+		userPrev[slot] = userNext[slot] = NIL;
+	}
+
+	/**
+	 * <p>
+	 * Get the first offer from the user.
+	 * </p>
+	 * 
+	 * @return The slot, or {@link #NIL} if the user does not have any offer.
+	 */
+	public int firstOfUser(UUID user) {
+		return userHeads.get(user.getMostSignificantBits(), user.getLeastSignificantBits(), NIL);
+	}
+
+	public int nextOfUser(int slot) {
+		return userNext[slot];
+	}
+
+	// Accessors
+	public UUID getOfferId(int slot) { return new UUID(idMost[slot], idLeast[slot]); }
+
+	public UUID getOffererId(int slot) { return new UUID(offererMost[slot], offererLeast[slot]); }
+
+	public int getProductOrdinalAt(int slot) { return product[slot]; }
+
+	public OfferType getType(int slot) { return type[slot] == TYPE_BUY ? OfferType.BUY : OfferType.SELL; }
+
+	public int getTotalUnits(int slot) { return totalUnits[slot]; }
+
+	public int getClaimedUnits(int slot) { return claimedUnits[slot]; }
+
+	public int getFilledUnits(int slot) { return filledUnits[slot]; }
+
+	public int getAvailableUnits(int slot) { return totalUnits[slot] - filledUnits[slot]; }
+
+	public long getPricePerUnitTicks(int slot) { return pricePerUnit[slot]; }
+
+	public long getPriceImprovementTicks(int slot) { return priceImprovement[slot]; }
+
+	/**
+	 * <p>
+	 * Fill the offer. The offer must be removed from its order book by the caller
+	 * if it is fully filled.
+	 * </p>
+	 * 
+	 * @param slot        The slot of the offer.
+	 * @param units       Number of units to fill.
+	 * @param improvement Price improvement in ticks to add to the offer.
+	 */
+	public void fill(int slot, int units, long improvement) {
+		filledUnits[slot] += units;
+		priceImprovement[slot] = Math.addExact(priceImprovement[slot], improvement);
+	}
+
+	/**
+	 * <p>
+	 * Claim all filled units and reset the price improvement.
+	 * </p>
+	 * 
+	 * @param slot The slot of the offer.
+	 */
+	public void claim(int slot) {
+		claimedUnits[slot] = filledUnits[slot];
+		priceImprovement[slot] = 0L;
+	}
+
+	public boolean isFilled(int slot) { return filledUnits[slot] == totalUnits[slot]; }
+
+	public boolean isFullyClaimed(int slot) { return claimedUnits[slot] == totalUnits[slot]; }
+
+	/**
+	 * <p>
+	 * Create a snapshot of the offer. The snapshot is not connected to this store,
+	 * so modifying it does not change the stored offer.
+	 * </p>
+	 * 
+	 * @param slot The slot of the offer.
+	 * @return The snapshot.
+	 */
+	public Offer toOffer(int slot) {
+		var offer = new Offer(getOfferId(slot), getOffererId(slot), products.get(product[slot]), getType(slot),
+			totalUnits[slot], claimedUnits[slot], filledUnits[slot], pricePerUnit[slot], scale);
+		offer.setPriceImprovementTicks(priceImprovement[slot]);
+		return offer;
+	}
+
+	/**
+	 * <p>
+	 * Create a view of the offer.
+	 * </p>
+	 * 
+	 * @param slot The slot of the offer.
+	 * @return The view.
+	 */
+	public OfferView view(int slot) {
+		var view = new OfferView(this);
+		view.moveTo(slot);
+		return view;
+	}
+
+	/**
+	 * <p>
+	 * Visit all offers in this store with a single reusable view. The view must not
+	 * be kept after the visitor returns, and the store must not be modified while
+	 * visiting.
+	 * </p>
+	 * 
+	 * @param visitor The visitor.
+	 */
+	public void forEach(Consumer<OfferView> visitor) {
+		var view = new OfferView(this);
+
+		for (int slot = 0; slot < highWater; slot++) {
+			if (!isLive(slot)) continue;
+			view.moveTo(slot);
+			visitor.accept(view);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Check if the slot is holding an offer.
+	 * </p>
+	 */
+	public boolean isLive(int slot) {
+		return slot >= 0 && slot < highWater && findSlot(idMost[slot], idLeast[slot]) == slot;
+	}
+
+	int getHighWater() { return highWater; }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.columnar;
+
+import java.util.UUID;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.product.Product;
+
+/**
+ * <p>
+ * A lightweight, read-only view of an offer inside {@link OfferStore}. The view
+ * reads directly from the columns, so it always reflects the current state of
+ * the offer. Once the offer is removed from the store, the view becomes invalid
+ * (see {@link #isValid()}), because the slot may be reused by another offer.
+ * </p>
+ * <p>
+ * Views are cheap to create, and {@link OfferStore#forEach(java.util.function.Consumer)}
+ * reuses a single view for all offers. Use {@link #toOffer()} if you need to
+ * keep the offer.
+ * </p>
+ */
+public class OfferView {
+	private final OfferStore store;
+	private int slot = OfferStore.NIL;
+	private long idMost, idLeast;
+
+	OfferView(OfferStore store) {
+		this.store = store;
+	}
+
+	void moveTo(int slot) {
+		this.slot = slot;
+		this.idMost = store.idMost[slot];
+		this.idLeast = store.idLeast[slot];
+	}
+
+	public int getSlot() { return slot; }
+
+	/**
+	 * <p>
+	 * Check if this view is still pointing to the same offer.
+	 * </p>
+	 * 
+	 * @return {@code true} if the offer is still in the store.
+	 */
+	public boolean isValid() { return slot != OfferStore.NIL && store.findSlot(idMost, idLeast) == slot; }
+
+	public long getOfferIdMost() { return idMost; }
+
+	public long getOfferIdLeast() { return idLeast; }
+
+	public UUID getOfferId() { return new UUID(idMost, idLeast); }
+
+	public UUID getOffererId() { return store.getOffererId(slot); }
+
+	public Product getProduct() { return store.getProduct(store.getProductOrdinalAt(slot)); }
+
+	public OfferType getType() { return store.getType(slot); }
+
+	public int getTotalUnits() { return store.getTotalUnits(slot); }
+
+	public int getClaimedUnits() { return store.getClaimedUnits(slot); }
+
+	public int getFilledUnits() { return store.getFilledUnits(slot); }
+
+	public int getAvailableUnits() { return store.getAvailableUnits(slot); }
+
+	public long getPricePerUnitTicks() { return store.getPricePerUnitTicks(slot); }
+
+	public long getPriceImprovementTicks() { return store.getPriceImprovementTicks(slot); }
+
+	public PriceScale getScale() { return store.getScale(); }
+
+	public double getPricePerUnit() { return store.getScale().toDouble(getPricePerUnitTicks()); }
+
+	public boolean isFilled() { return store.isFilled(slot); }
+
+	/**
+	 * <p>
+	 * Create a snapshot of the offer.
+	 * </p>
+	 * 
+	 * @return The snapshot.
+	 */
+	public Offer toOffer() {
+		return store.toOffer(slot);
+	}
+
+	@Override
+	public String toString() {
+		return "OfferView[slot=" + slot + ", id=" + getOfferId() + "]";
+	}
+}
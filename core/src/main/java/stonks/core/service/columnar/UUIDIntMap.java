@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.columnar;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * An open addressing hash map from UUID (stored as 2 longs) to int, without
+ * boxing keys or values.
+ * </p>
+ */
+class UUIDIntMap {
+	private long[] most, least;
+	private int[] values;
+	private boolean[] used;
+	private int size = 0;
+
+	public UUIDIntMap() {
+		allocate(16);
+	}
+
+	private void allocate(int tableSize) {
+		most = new long[tableSize];
+		least = new long[tableSize];
+		values = new int[tableSize];
+		used = new boolean[tableSize];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long estimateMemoryUsage() {
+		return (long) used.length * (2 * Long.BYTES + Integer.BYTES + 1);
+	}
+
+	private static int hash(long most, long least) {
+		var h = most * 0x9e3779b97f4a7c15L ^ least;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	private int indexOf(long most, long least) {
+		var mask = used.length - 1;
+
+		for (int i = hash(most, least) & mask;; i = (i + 1) & mask) {
+			if (!used[i]) return -1;
+			if (this.most[i] == most && this.least[i] == least) return i;
+		}
+	}
+
+	public int get(long most, long least, int defaultValue) {
+		var i = indexOf(most, least);
+		return i != -1 ? values[i] : defaultValue;
+	}
+
+	public void put(long most, long least, int value) {
+		var mask = used.length - 1;
+		var i = hash(most, least) & mask;
+
+		while (used[i]) {
+			if (this.most[i] == most && this.least[i] == least) {
+				values[i] = value;
+				return;
+			}
+
+			i = (i + 1) & mask;
+		}
+
+		used[i] = true;
+		this.most[i] = most;
+		this.least[i] = least;
+		values[i] = value;
+		if (++size * 2 > used.length) resize(used.length * 2);
+	}
+
+	public void remove(long most, long least) {
+		var i = indexOf(most, least);
+		if (i == -1) return;
+		var mask = used.length - 1;
+
+		// Backward shift deletion
+		for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+			var home = hash(this.most[j], this.least[j]) & mask;
+
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				this.most[i] = this.most[j];
+				this.least[i] = this.least[j];
+				values[i] = values[j];
+				i = j;
+			}
+		}
+
+		used[i] = false;
+		size--;
+	}
+
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	private void resize(int tableSize) {
+		var oldMost = most;
+		var oldLeast = least;
+		var oldValues = values;
+		var oldUsed = used;
+		allocate(tableSize);
+		size = 0;
+		for (int i = 0; i < oldUsed.length; i++) if (oldUsed[i]) put(oldMost[i], oldLeast[i], oldValues[i]);
+	}
+}
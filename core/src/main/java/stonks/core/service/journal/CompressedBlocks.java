@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.journal;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Block-compressed file layout, used for snapshots and journal segments when
+ * {@link Compression} is enabled. The file starts with {@code int}
+ * {@link #MAGIC}, followed by blocks until the end of file. Each block is
+ * {@code int} uncompressed length, {@code int} compressed length, then the
+ * block compressed with {@link Deflater} (zlib format, which includes a
+ * checksum of the uncompressed data). All numbers are big-endian.
+ * </p>
+ * <p>
+ * Blocks are compressed independently, so a reader can list the blocks by
+ * reading their headers only, then decompress them in parallel
+ * ({@link #decompressAll(ByteBuffer)}) or decompress just the block that holds
+ * a given position ({@link #decompress(ByteBuffer, Block)}). Journal segments
+ * are written one block per write, so a partially written block at the end of
+ * a segment is detected like a partially written record.
+ * </p>
+ */
+public final class CompressedBlocks {
+	public static final int MAGIC = 0x53424C4B; // SBLK
+	public static final int BLOCK_HEADER_SIZE = 8;
+	public static final int MAX_BLOCK_SIZE = 1 << 26;
+
+	private CompressedBlocks() {}
+
+	/**
+	 * <p>
+	 * Location of a block.
+	 * </p>
+	 * 
+	 * @param offset             Offset of block data (after block header) in
+	 *                           the file.
+	 * @param compressedLength   Length of block data.
+	 * @param uncompressedOffset Offset of the first uncompressed byte of this
+	 *                           block in the uncompressed data.
+	 * @param uncompressedLength Length of uncompressed data.
+	 */
+	public static record Block(long offset, int compressedLength, long uncompressedOffset, int uncompressedLength) {
+	}
+
+	/**
+	 * <p>
+	 * Check if the buffer starts with {@link #MAGIC}. The position of buffer is
+	 * not changed.
+	 * </p>
+	 * 
+	 * @param buffer The buffer.
+	 * @return {@code true} if this is a block-compressed file.
+	 */
+	public static boolean isCompressed(ByteBuffer buffer) {
+		if (buffer.remaining() < 4) return false;
+		return buffer.duplicate().order(ByteOrder.BIG_ENDIAN).getInt(buffer.position()) == MAGIC;
+	}
+
+	/**
+	 * <p>
+	 * Compresses blocks. Not thread-safe, since the output buffer is reused.
+	 * </p>
+	 */
+	public static class Encoder implements AutoCloseable {
+		private final Deflater deflater;
+		private byte[] output = new byte[8192];
+
+		public Encoder(int level) {
+			this.deflater = new Deflater(level);
+		}
+
+		/**
+		 * <p>
+		 * Compress the data into a block, including block header.
+		 * </p>
+		 * 
+		 * @param data   The data.
+		 * @param offset Offset of the data.
+		 * @param length Length of the data.
+		 * @return The block. The buffer is only valid until the next call.
+		 */
+		public ByteBuffer encode(byte[] data, int offset, int length) {
+			if (length > MAX_BLOCK_SIZE) throw new IllegalArgumentException("CompressedBlocks: Block is too large");
+			deflater.reset();
+			deflater.setInput(data, offset, length);
+			deflater.finish();
+			var size = BLOCK_HEADER_SIZE;
+
+			while (!deflater.finished()) {
+				if (size == output.length) output = Arrays.copyOf(output, output.length * 2);
+				size += deflater.deflate(output, size, output.length - size);
+			}
+
+			var block = ByteBuffer.wrap(output, 0, size);
+			block.putInt(0, length);
+			block.putInt(4, size - BLOCK_HEADER_SIZE);
+			return block;
+		}
+
+		@Override
+		public void close() {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Compress the source file into the target file.
+	 * </p>
+	 * 
+	 * @param source      The uncompressed file.
+	 * @param target      The target file, which will be replaced.
+	 * @param compression The compression settings.
+	 */
+	public static void compress(Path source, Path target, Compression compression) throws IOException {
+		try (var in = FileChannel.open(source, StandardOpenOption.READ);
+			var out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+			var encoder = new Encoder(compression.level())) {
+			var magic = ByteBuffer.allocate(4).putInt(0, MAGIC);
+			while (magic.hasRemaining()) out.write(magic);
+			var input = new byte[compression.blockSize()];
+
+			while (true) {
+				var buffer = ByteBuffer.wrap(input);
+				while (buffer.hasRemaining() && in.read(buffer) >= 0);
+				if (buffer.position() == 0) break;
+				var block = encoder.encode(input, 0, buffer.position());
+				while (block.hasRemaining()) out.write(block);
+				if (buffer.hasRemaining()) break;
+			}
+
+			out.force(true);
+		}
+	}
+
+	/**
+	 * <p>
+	 * List all blocks by reading their headers.
+	 * </p>
+	 * 
+	 * @param file The whole file.
+	 * @return All blocks, in file order.
+	 * @throws IOException if the file is not block-compressed or the last block is
+	 *                     incomplete.
+	 */
+	public static List<Block> listBlocks(ByteBuffer file) throws IOException {
+		if (!isCompressed(file)) throw new IOException("CompressedBlocks: Not a block-compressed file");
+		var data = file.slice();
+		var blocks = new ArrayList<Block>();
+		var position = 4L;
+		var uncompressedOffset = 0L;
+
+		while (position < data.limit()) {
+			if (position + BLOCK_HEADER_SIZE > data.limit())
+				throw new IOException("CompressedBlocks: Incomplete block header");
+			var uncompressedLength = data.getInt((int) position);
+			var compressedLength = data.getInt((int) position + 4);
+			if (uncompressedLength < 0 || uncompressedLength > MAX_BLOCK_SIZE || compressedLength < 0
+				|| position + BLOCK_HEADER_SIZE + compressedLength > data.limit())
+				throw new IOException("CompressedBlocks: Incomplete or damaged block");
+
+			blocks.add(new Block(position + BLOCK_HEADER_SIZE, compressedLength, uncompressedOffset,
+				uncompressedLength));
+			position += BLOCK_HEADER_SIZE + compressedLength;
+			uncompressedOffset += uncompressedLength;
+		}
+
+		return blocks;
+	}
+
+	/**
+	 * <p>
+	 * Decompress a single block.
+	 * </p>
+	 * 
+	 * @param file  The whole file.
+	 * @param block The block from {@link #listBlocks(ByteBuffer)}.
+	 * @return The uncompressed block.
+	 * @throws IOException if the block is damaged.
+	 */
+	public static byte[] decompress(ByteBuffer file, Block block) throws IOException {
+		var output = new byte[block.uncompressedLength()];
+		inflate(file.slice(), block, output, 0);
+		return output;
+	}
+
+	/**
+	 * <p>
+	 * Decompress all blocks in parallel on the common
+	 * {@link java.util.concurrent.ForkJoinPool}.
+	 * </p>
+	 * 
+	 * @param file The whole file.
+	 * @return The uncompressed data.
+	 * @throws IOException if the file is damaged or the uncompressed data is too
+	 *                     large to fit in a single buffer.
+	 */
+	public static ByteBuffer decompressAll(ByteBuffer file) throws IOException {
+		var blocks = listBlocks(file);
+		var total = blocks.stream().mapToLong(Block::uncompressedLength).sum();
+		if (total > Integer.MAX_VALUE - 8) throw new IOException("CompressedBlocks: Uncompressed data is too large");
+		var output = new byte[(int) total];
+		var data = file.slice();
+
+		try {
+			IntStream.range(0, blocks.size()).parallel().forEach(i -> {
+				var block = blocks.get(i);
+
+				try {
+					inflate(data.duplicate(), block, output, (int) block.uncompressedOffset());
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		return ByteBuffer.wrap(output);
+	}
+
+	private static void inflate(ByteBuffer data, Block block, byte[] output, int offset) throws IOException {
+		var inflater = new Inflater();
+
+		try {
+			inflater.setInput(data.slice((int) block.offset(), block.compressedLength()));
+			var length = 0;
+
+			while (length < block.uncompressedLength() && !inflater.finished()) {
+				var n = inflater.inflate(output, offset + length, block.uncompressedLength() - length);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+				length += n;
+			}
+
+			if (length != block.uncompressedLength() || !inflater.finished())
+				throw new IOException("CompressedBlocks: Damaged block");
+		} catch (DataFormatException e) {
+			throw new IOException("CompressedBlocks: Damaged block", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Create a stream that decompresses blocks one by one. The stream must start
+	 * with {@link #MAGIC}. An incomplete or damaged block throws
+	 * {@link JournalFormat.CorruptRecordException}, while the end of stream right
+	 * after a block is the end of data.
+	 * </p>
+	 * 
+	 * @param stream The compressed stream.
+	 * @return The uncompressed stream.
+	 */
+	public static InputStream newInputStream(InputStream stream) throws IOException {
+		var data = new DataInputStream(stream);
+		if (data.readInt() != MAGIC) throw new IOException("CompressedBlocks: Not a block-compressed file");
+		return new BlockInputStream(data);
+	}
+
+	private static class BlockInputStream extends InputStream {
+		private final DataInputStream data;
+		private byte[] block = new byte[0];
+		private int position = 0;
+		private boolean ended = false;
+
+		public BlockInputStream(DataInputStream data) {
+			this.data = data;
+		}
+
+		private boolean nextBlock() throws IOException {
+			while (position >= block.length) {
+				if (ended) return false;
+				int uncompressedLength;
+
+				try {
+					uncompressedLength = data.readInt();
+				} catch (EOFException e) {
+					ended = true;
+					return false;
+				}
+
+				int compressedLength;
+
+				try {
+					compressedLength = data.readInt();
+				} catch (EOFException e) {
+					throw new JournalFormat.CorruptRecordException("CompressedBlocks: Incomplete block header");
+				}
+
+				if (uncompressedLength < 0 || uncompressedLength > MAX_BLOCK_SIZE || compressedLength < 0
+					|| compressedLength > MAX_BLOCK_SIZE * 2)
+					throw new JournalFormat.CorruptRecordException("CompressedBlocks: Damaged block header");
+
+				var compressed = data.readNBytes(compressedLength);
+				if (compressed.length != compressedLength)
+					throw new JournalFormat.CorruptRecordException("CompressedBlocks: Incomplete block");
+
+				block = new byte[uncompressedLength];
+				position = 0;
+
+				try {
+					inflate(ByteBuffer.wrap(compressed), new Block(0L, compressedLength, 0L, uncompressedLength), block,
+						0);
+				} catch (IOException e) {
+					throw new JournalFormat.CorruptRecordException(e.getMessage());
+				}
+			}
+
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!nextBlock()) return -1;
+			return block[position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			if (!nextBlock()) return -1;
+			var n = Math.min(len, block.length - position);
+			System.arraycopy(block, position, b, off, n);
+			position += n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return block.length - position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			data.close();
+		}
+	}
+}
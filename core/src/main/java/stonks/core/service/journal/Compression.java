@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.journal;
+
+import java.util.zip.Deflater;
+
+/**
+ * <p>
+ * Compression settings for snapshots and journal segments. Compressed files use
+ * the layout from {@link CompressedBlocks}.
+ * </p>
+ * 
+ * @param enabled   Whether the files should be compressed.
+ * @param level     The {@link Deflater} level, from {@code 0} to {@code 9}.
+ * @param blockSize Number of uncompressed bytes in each block of snapshots.
+ *                  Journal segments use one block per write instead.
+ */
+public record Compression(boolean enabled, int level, int blockSize) {
+	public static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+	public static final Compression NONE = new Compression(false, DEFAULT_LEVEL, DEFAULT_BLOCK_SIZE);
+
+	public Compression {
+		if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+			throw new IllegalArgumentException("Compression: Invalid level " + level);
+		if (blockSize <= 0 || blockSize > CompressedBlocks.MAX_BLOCK_SIZE)
+			throw new IllegalArgumentException("Compression: Invalid block size " + blockSize);
+	}
+
+	public static Compression deflate(int level) {
+		return new Compression(true, level, DEFAULT_BLOCK_SIZE);
+	}
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.stream.Stream;
+
+import stonks.core.market.Offer;
+import stonks.core.market.PriceScale;
+
+/**
+ * <p>
+ * Append-only journal stored as segment files inside a directory. Each segment
+ * is named after its generation ({@code <generation>.journal}), and a new
+ * segment is started by {@link #rotate()}, usually right before writing a
+ * snapshot that covers all previous segments.
+ * </p>
+ * <p>
+ * Changes are encoded into an in-memory buffer on the caller thread, so
+ * recording a change never waits for the disk. {@link #flush()} hands the
+ * buffer over to the writer thread, which writes all pending buffers and calls
+ * {@link FileChannel#force(boolean)} once for all of them (group commit).
+ * {@link #rotate()} is handed over the same way, so the writer thread forces
+ * the finished segment and creates the next one in order with the buffers. The
+ * caller should flush once per batch of changes (once per server tick, for
+ * example), which means a crash loses at most the changes from the last batch
+ * and the batches that are still being written.
+ * </p>
+ * <p>
+ * When {@link Compression} is enabled, buffers that are written together are
+ * compressed into one block of {@link CompressedBlocks} on the writer thread,
+ * so compression never slows down the caller.
+ * </p>
+ * <p>
+ * Writing errors are reported by the next call to {@link #flush()},
+ * {@link #sync()}, {@link #awaitFlushed()} or {@link #rotate()} as
+ * {@link UncheckedIOException}.
+ * </p>
+ */
+public class FileOfferJournal implements OfferJournal, AutoCloseable {
+	public static final String SEGMENT_SUFFIX = ".journal";
+	public static final int DEFAULT_BUFFER_LIMIT = 1 << 20;
+
+	private final Path directory;
+	private final PriceScale scale;
+	private final int bufferLimit;
+	private final Compression compression;
+	private final CompressedBlocks.Encoder encoder;
+	private final JournalFormat.RecordWriter recordWriter = new JournalFormat.RecordWriter();
+	private ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+	private DataOutputStream bufferData = new DataOutputStream(buffer);
+
+	// Guarded by lock
+	private final Object lock = new Object();
+	// null finishes the current segment and starts the next one
+	private final List<byte[]> pending = new ArrayList<>();
+	private long submittedBatches = 0L;
+	private long durableBatches = 0L;
+	private long forces = 0L;
+	private IOException error = null;
+	private boolean closed = false;
+
+	private FileChannel channel;
+	private long channelGeneration;
+	private long generation;
+	private long segmentSize = 0L;
+	private long records = 0L;
+	private final Thread writerThread;
+
+	/**
+	 * <p>
+	 * Open the journal and start a new segment.
+	 * </p>
+	 * 
+	 * @param directory   The journal directory, which will be created if it does
+	 *                    not exists.
+	 * @param scale       The price scale of offers that will be recorded.
+	 * @param generation  The generation of the new segment. Must be higher than
+	 *                    generations of existing segments.
+	 * @param bufferLimit Flush automatically when the buffer grows beyond this
+	 *                    number of bytes.
+	 * @param compression The compression settings for new segments. When enabled,
+	 *                    each write to the segment is compressed into a block on
+	 *                    the writer thread.
+	 */
+	public FileOfferJournal(Path directory, PriceScale scale, long generation, int bufferLimit, Compression compression) throws IOException {
+		this.directory = directory;
+		this.scale = scale;
+		this.bufferLimit = bufferLimit;
+		this.compression = compression;
+		this.encoder = compression.enabled() ? new CompressedBlocks.Encoder(compression.level()) : null;
+		Files.createDirectories(directory);
+		openSegment(generation);
+		this.generation = generation;
+
+		this.writerThread = new Thread(this::writerLoop, "Stonks Journal Writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	public FileOfferJournal(Path directory, PriceScale scale, long generation, int bufferLimit) throws IOException {
+		this(directory, scale, generation, bufferLimit, Compression.NONE);
+	}
+
+	public FileOfferJournal(Path directory, PriceScale scale, long generation) throws IOException {
+		this(directory, scale, generation, DEFAULT_BUFFER_LIMIT);
+	}
+
+	public Path getDirectory() { return directory; }
+
+	public Compression getCompression() { return compression; }
+
+	public long getGeneration() { return generation; }
+
+	/**
+	 * <p>
+	 * Get the size of records in current segment, including changes that are not
+	 * written yet. When compression is enabled, this is the size before
+	 * compression.
+	 * </p>
+	 * 
+	 * @return The size in bytes.
+	 */
+	public long getSegmentSize() { return segmentSize + buffer.size(); }
+
+	/**
+	 * <p>
+	 * Get the number of changes recorded since the journal was opened.
+	 * </p>
+	 * 
+	 * @return Number of records.
+	 */
+	public long getRecordsCount() { return records; }
+
+	/**
+	 * <p>
+	 * Get the number of times the writer thread forced the data to disk. Each
+	 * force may cover multiple flushes.
+	 * </p>
+	 * 
+	 * @return Number of forces.
+	 */
+	public long getForcesCount() {
+		synchronized (lock) {
+			return forces;
+		}
+	}
+
+	public static Path segmentPath(Path directory, long generation) {
+		return directory.resolve(generation + SEGMENT_SUFFIX);
+	}
+
+	/**
+	 * <p>
+	 * List generations of all segments in the directory, from oldest to newest.
+	 * </p>
+	 * 
+	 * @param directory The journal directory.
+	 * @return Sorted generations.
+	 */
+	public static long[] listGenerations(Path directory) throws IOException {
+		if (Files.notExists(directory)) return new long[0];
+
+		try (Stream<Path> files = Files.list(directory)) {
+			return files
+				.map(p -> p.getFileName().toString())
+				.filter(name -> name.endsWith(SEGMENT_SUFFIX))
+				.map(name -> name.substring(0, name.length() - SEGMENT_SUFFIX.length()))
+				.mapToLong(name -> parseGeneration(name).orElse(-1L))
+				.filter(gen -> gen >= 0L)
+				.sorted()
+				.toArray();
+		}
+	}
+
+	private static OptionalLong parseGeneration(String name) {
+		try {
+			return OptionalLong.of(Long.parseLong(name));
+		} catch (NumberFormatException e) {
+			return OptionalLong.empty();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Delete all segments with generation lower than or equals to the given
+	 * generation. Used after writing a snapshot that covers these segments.
+	 * </p>
+	 * 
+	 * @param directory  The journal directory.
+	 * @param generation The last covered generation.
+	 */
+	public static void deleteSegmentsUpTo(Path directory, long generation) throws IOException {
+		for (var gen : listGenerations(directory)) {
+			if (gen > generation) break;
+			Files.deleteIfExists(segmentPath(directory, gen));
+		}
+	}
+
+	private void openSegment(long generation) throws IOException {
+		var path = segmentPath(directory, generation);
+		channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		channelGeneration = generation;
+
+		var header = new ByteArrayOutputStream(32);
+		var headerData = new DataOutputStream(header);
+		JournalFormat.writeHeader(headerData, JournalFormat.SEGMENT_MAGIC, scale, generation);
+
+		if (compression.enabled()) {
+			var magic = ByteBuffer.allocate(4).putInt(0, CompressedBlocks.MAGIC);
+			while (magic.hasRemaining()) channel.write(magic);
+			var block = encoder.encode(header.toByteArray(), 0, header.size());
+			while (block.hasRemaining()) channel.write(block);
+		} else {
+			var bytes = ByteBuffer.wrap(header.toByteArray());
+			while (bytes.hasRemaining()) channel.write(bytes);
+		}
+
+		channel.force(true);
+	}
+
+	@Override
+	public void offerListed(Offer offer) {
+		try {
+			recordWriter.writeListed(bufferData, offer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		recorded();
+	}
+
+	@Override
+	public void offerUpdated(Offer offer) {
+		try {
+			recordWriter.writeUpdated(bufferData, offer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		recorded();
+	}
+
+	@Override
+	public void offerRemoved(Offer offer) {
+		try {
+			recordWriter.writeRemoved(bufferData, offer.getOfferId());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		recorded();
+	}
+
+	private void recorded() {
+		records++;
+		if (buffer.size() >= bufferLimit) flush();
+	}
+
+	/**
+	 * <p>
+	 * Submit buffered changes to the writer thread. This method does not wait for
+	 * the changes to be written.
+	 * </p>
+	 */
+	@Override
+	public void flush() {
+		synchronized (lock) {
+			throwIfFailed();
+			if (buffer.size() == 0) return;
+			if (closed) throw new IllegalStateException("FileOfferJournal: Journal is closed");
+			pending.add(buffer.toByteArray());
+			segmentSize += buffer.size();
+			submittedBatches++;
+			lock.notifyAll();
+		}
+
+		buffer.reset();
+	}
+
+	/**
+	 * <p>
+	 * Flush and wait until all changes are written to disk.
+	 * </p>
+	 */
+	public void sync() {
+		flush();
+		awaitFlushed();
+	}
+
+	/**
+	 * <p>
+	 * Wait until all changes and segments submitted by {@link #flush()} and
+	 * {@link #rotate()} are written to disk. Unlike {@link #sync()}, this method
+	 * does not touch the buffer, so it can be called from any thread.
+	 * </p>
+	 */
+	public void awaitFlushed() {
+		synchronized (lock) {
+			var target = submittedBatches;
+
+			while (durableBatches < target && error == null) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("FileOfferJournal: Interrupted while syncing", e);
+				}
+			}
+
+			throwIfFailed();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Flush, then start a new segment. Changes recorded after this method returns
+	 * are written to the new segment. After this method returns, a snapshot of the
+	 * current state covers all changes in segments up to the returned generation.
+	 * </p>
+	 * <p>
+	 * This method does not wait for the disk. The writer thread forces the
+	 * finished segment and creates the new one; use {@link #awaitFlushed()} to
+	 * wait for that.
+	 * </p>
+	 * 
+	 * @return The generation of the segment that was finished.
+	 */
+	public long rotate() {
+		flush();
+
+		synchronized (lock) {
+			throwIfFailed();
+			if (closed) throw new IllegalStateException("FileOfferJournal: Journal is closed");
+			pending.add(null);
+			submittedBatches++;
+			segmentSize = 0L;
+			lock.notifyAll();
+			return generation++;
+		}
+	}
+
+	private void throwIfFailed() {
+		if (error != null) throw new UncheckedIOException("FileOfferJournal: Unable to write journal", error);
+	}
+
+	private void writerLoop() {
+		var batches = new ArrayList<byte[]>();
+
+		while (true) {
+			long target;
+
+			synchronized (lock) {
+				while (pending.isEmpty() && !closed) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+
+				if (pending.isEmpty() && closed) return;
+				batches.addAll(pending);
+				pending.clear();
+				target = submittedBatches;
+			}
+
+			IOException failure = null;
+
+			try {
+				var from = 0;
+
+				for (int i = 0; i <= batches.size(); i++) {
+					if (i < batches.size() && batches.get(i) != null) continue;
+					writeBatches(batches.subList(from, i));
+
+					if (i < batches.size()) {
+						channel.close();
+						openSegment(channelGeneration + 1);
+					}
+
+					from = i + 1;
+				}
+			} catch (IOException e) {
+				failure = e;
+			}
+
+			batches.clear();
+
+			synchronized (lock) {
+				if (failure != null) error = failure;
+				else {
+					durableBatches = target;
+					forces++;
+				}
+
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private void writeBatches(List<byte[]> batches) throws IOException {
+		if (batches.isEmpty()) return;
+		if (compression.enabled()) writeBlocks(batches);
+		else for (var batch : batches) {
+			var bytes = ByteBuffer.wrap(batch);
+			while (bytes.hasRemaining()) channel.write(bytes);
+		}
+
+		channel.force(false);
+	}
+
+	private void writeBlocks(List<byte[]> batches) throws IOException {
+		// Batches from one group commit are compressed together, up to the block size
+		// limit
+		var from = 0;
+
+		while (from < batches.size()) {
+			var to = from + 1;
+			var length = batches.get(from).length;
+
+			while (to < batches.size() && length + batches.get(to).length <= CompressedBlocks.MAX_BLOCK_SIZE)
+				length += batches.get(to++).length;
+
+			var data = to - from == 1 ? batches.get(from) : new byte[length];
+
+			if (to - from > 1) {
+				var offset = 0;
+
+				for (int i = from; i < to; i++) {
+					System.arraycopy(batches.get(i), 0, data, offset, batches.get(i).length);
+					offset += batches.get(i).length;
+				}
+			}
+
+			var block = encoder.encode(data, 0, length);
+			while (block.hasRemaining()) channel.write(block);
+			from = to;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Sync all changes and close the current segment.
+	 * </p>
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			sync();
+		} finally {
+			synchronized (lock) {
+				closed = true;
+				lock.notifyAll();
+			}
+
+			try {
+				writerThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			channel.close();
+			if (encoder != null) encoder.close();
+		}
+	}
+}
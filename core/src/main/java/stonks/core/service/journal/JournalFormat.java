@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.product.Product;
+
+/**
+ * <p>
+ * Binary layout of journal segments and snapshots. All numbers are big-endian,
+ * like {@link Offer#serializeV1(Offer, java.io.OutputStream)}.
+ * </p>
+ * <p>
+ * Journal segment starts with a header ({@code int} {@link #SEGMENT_MAGIC},
+ * {@code int} version, {@code int} price decimals, {@code long} generation),
+ * followed by records until the end of file. Older snapshots (before
+ * snapshots were written in {@link stonks.core.market.OfferFileV2} format)
+ * start with a header ({@code int} {@link #SNAPSHOT_MAGIC}, {@code int} version,
+ * {@code int} price decimals, {@code long} covered generation), followed by
+ * listed records and a {@code 0} terminator.
+ * </p>
+ * <p>
+ * Each record is framed as {@code int} body length, the body, then {@code int}
+ * CRC32 of the body, so a partially written record at the end of a segment can
+ * be detected. The body starts with a kind byte:
+ * </p>
+ * <ul>
+ * <li>{@code 1} (listed): offer ID, offerer ID, product ID ({@code UTF}), type
+ * byte ({@code 0} for buy, {@code 1} for sell), total units, claimed units,
+ * filled units, price per unit in ticks and price improvement in ticks.</li>
+ * <li>{@code 2} (updated): offer ID, filled units, claimed units and price
+ * improvement in ticks.</li>
+ * <li>{@code 3} (removed): offer ID.</li>
+ * </ul>
+ * <p>
+ * UUIDs are stored as 2 {@code long}s, units as {@code int}s.
+ * </p>
+ */
+public final class JournalFormat {
+	public static final int SEGMENT_MAGIC = 0x534A4E4C; // SJNL
+	public static final int SNAPSHOT_MAGIC = 0x53534E50; // SSNP
+	public static final int VERSION = 1;
+	public static final int MAX_RECORD_LENGTH = 1 << 16;
+
+	private static final byte KIND_LISTED = 1;
+	private static final byte KIND_UPDATED = 2;
+	private static final byte KIND_REMOVED = 3;
+
+	private JournalFormat() {}
+
+	/**
+	 * <p>
+	 * Thrown when a record can't be read because it was not fully written or it
+	 * was damaged.
+	 * </p>
+	 */
+	public static class CorruptRecordException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public CorruptRecordException(String message) {
+			super(message);
+		}
+	}
+
+	public static void writeHeader(DataOutput out, int magic, PriceScale scale, long generation) throws IOException {
+		out.writeInt(magic);
+		out.writeInt(VERSION);
+		out.writeInt(scale.decimals());
+		out.writeLong(generation);
+	}
+
+	/**
+	 * <p>
+	 * Read the header.
+	 * </p>
+	 * 
+	 * @param in    The input.
+	 * @param magic The expected magic number.
+	 * @return The header.
+	 * @throws IOException if the header does not match.
+	 */
+	public static Header readHeader(DataInput in, int magic) throws IOException {
+		if (in.readInt() != magic) throw new IOException("JournalFormat: Invalid magic number");
+		var version = in.readInt();
+		if (version != VERSION) throw new IOException("JournalFormat: Unsupported version " + version);
+		return new Header(new PriceScale(in.readInt()), in.readLong());
+	}
+
+	public static record Header(PriceScale scale, long generation) {
+	}
+
+	/**
+	 * <p>
+	 * Encodes records. Not thread-safe, since the body buffer is reused.
+	 * </p>
+	 */
+	public static class RecordWriter {
+		private static class Body extends ByteArrayOutputStream {
+			public byte[] buffer() {
+				return buf;
+			}
+		}
+
+		private final Body body = new Body();
+		private final DataOutputStream data = new DataOutputStream(body);
+		private final CRC32 crc = new CRC32();
+
+		public void writeListed(DataOutput out, Offer offer) throws IOException {
+			body.reset();
+			data.writeByte(KIND_LISTED);
+			writeUUID(data, offer.getOfferId());
+			writeUUID(data, offer.getOffererId());
+			data.writeUTF(offer.getProduct().getProductId());
+			data.writeByte(offer.getType() == OfferType.BUY ? 0 : 1);
+			data.writeInt(offer.getTotalUnits());
+			data.writeInt(offer.getClaimedUnits());
+			data.writeInt(offer.getFilledUnits());
+			data.writeLong(offer.getPricePerUnitTicks());
+			data.writeLong(offer.getPriceImprovementTicks());
+			frame(out);
+		}
+
+		public void writeUpdated(DataOutput out, Offer offer) throws IOException {
+			body.reset();
+			data.writeByte(KIND_UPDATED);
+			writeUUID(data, offer.getOfferId());
+			data.writeInt(offer.getFilledUnits());
+			data.writeInt(offer.getClaimedUnits());
+			data.writeLong(offer.getPriceImprovementTicks());
+			frame(out);
+		}
+
+		public void writeRemoved(DataOutput out, UUID offerId) throws IOException {
+			body.reset();
+			data.writeByte(KIND_REMOVED);
+			writeUUID(data, offerId);
+			frame(out);
+		}
+
+		private void frame(DataOutput out) throws IOException {
+			crc.reset();
+			crc.update(body.buffer(), 0, body.size());
+			out.writeInt(body.size());
+			out.write(body.buffer(), 0, body.size());
+			out.writeInt((int) crc.getValue());
+		}
+	}
+
+	/**
+	 * <p>
+	 * Read the next record.
+	 * </p>
+	 * 
+	 * @param in            The input.
+	 * @param scale         The price scale from header.
+	 * @param productGetter Function to get product from its ID.
+	 * @return The record, or {@code null} if there are no more records.
+	 * @throws CorruptRecordException if the record is incomplete or damaged.
+	 */
+	public static JournalRecord readRecord(DataInputStream in, PriceScale scale, Function<String, Optional<Product>> productGetter) throws IOException {
+		int length;
+
+		try {
+			length = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+
+		if (length == 0) return null;
+		if (length < 0 || length > MAX_RECORD_LENGTH)
+			throw new CorruptRecordException("JournalFormat: Invalid record length " + length);
+
+		var body = in.readNBytes(length);
+		if (body.length != length) throw new CorruptRecordException("JournalFormat: Incomplete record");
+		int expectedCrc;
+
+		try {
+			expectedCrc = in.readInt();
+		} catch (EOFException e) {
+			throw new CorruptRecordException("JournalFormat: Incomplete record");
+		}
+
+		var crc = new CRC32();
+		crc.update(body);
+		if ((int) crc.getValue() != expectedCrc) throw new CorruptRecordException("JournalFormat: Checksum mismatch");
+
+		var data = new DataInputStream(new ByteArrayInputStream(body));
+		var kind = data.readByte();
+
+		switch (kind) {
+		case KIND_LISTED: {
+			var offerId = readUUID(data);
+			var offerer = readUUID(data);
+			var productId = data.readUTF();
+			var type = data.readByte() == 0 ? OfferType.BUY : OfferType.SELL;
+			var totalUnits = data.readInt();
+			var claimedUnits = data.readInt();
+			var filledUnits = data.readInt();
+			var pricePerUnit = data.readLong();
+			var priceImprovement = data.readLong();
+			var product = productGetter.apply(productId);
+			if (product.isEmpty()) return new JournalRecord.Dropped(offerId, productId);
+
+			var offer = new Offer(offerId, offerer, product.get(), type, totalUnits, claimedUnits, filledUnits,
+				pricePerUnit, scale);
+			offer.setPriceImprovementTicks(priceImprovement);
+			return new JournalRecord.Listed(offer);
+		}
+		case KIND_UPDATED:
+			return new JournalRecord.Updated(readUUID(data), data.readInt(), data.readInt(), data.readLong(), scale);
+		case KIND_REMOVED:
+			return new JournalRecord.Removed(readUUID(data));
+		default:
+			throw new CorruptRecordException("JournalFormat: Unknown record kind " + kind);
+		}
+	}
+
+	private static void writeUUID(DataOutput out, UUID uuid) throws IOException {
+		out.writeLong(uuid.getMostSignificantBits());
+		out.writeLong(uuid.getLeastSignificantBits());
+	}
+
+	private static UUID readUUID(DataInput in) throws IOException {
+		return new UUID(in.readLong(), in.readLong());
+	}
+}
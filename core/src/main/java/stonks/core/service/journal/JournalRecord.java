@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.journal;
+
+import java.util.UUID;
+
+import stonks.core.market.Offer;
+import stonks.core.market.PriceScale;
+
+/**
+ * <p>
+ * A record that was read from journal or snapshot. See {@link JournalFormat}
+ * for the binary layout.
+ * </p>
+ */
+public sealed interface JournalRecord {
+	public UUID offerId();
+
+	public static record Listed(Offer offer) implements JournalRecord {
+		@Override
+		public UUID offerId() {
+			return offer.getOfferId();
+		}
+	}
+
+	/**
+	 * @param priceImprovement Price improvement in ticks.
+	 * @param scale            The scale of price improvement.
+	 */
+	public static record Updated(UUID offerId, int filledUnits, int claimedUnits, long priceImprovement, PriceScale scale) implements JournalRecord {
+		/**
+		 * <p>
+		 * Apply this record to the offer.
+		 * </p>
+		 * 
+		 * @param offer The offer with the same ID.
+		 */
+		public void applyTo(Offer offer) {
+			offer.setFilledUnits(filledUnits);
+			offer.setClaimedUnits(claimedUnits);
+			offer.setPriceImprovementTicks(offer.getScale().rescale(priceImprovement, scale));
+		}
+	}
+
+	public static record Removed(UUID offerId) implements JournalRecord {
+	}
+
+	/**
+	 * <p>
+	 * A listed offer with product that does not exists anymore. These offers are
+	 * treated as removed.
+	 * </p>
+	 */
+	public static record Dropped(UUID offerId, String productId) implements JournalRecord {
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.journal;
+
+import stonks.core.market.Offer;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * A hook for recording changes of offers in {@link StonksMemoryService}. Each
+ * change carries the full state that was changed, not the operation that
+ * caused it, so replaying the same change twice gives the same result.
+ * </p>
+ * <p>
+ * Implementations may buffer changes in memory, but they must write all
+ * buffered changes when {@link #flush()} is called.
+ * </p>
+ */
+public interface OfferJournal {
+	public static final OfferJournal NONE = new OfferJournal() {
+		@Override
+		public void offerListed(Offer offer) {}
+
+		@Override
+		public void offerUpdated(Offer offer) {}
+
+		@Override
+		public void offerRemoved(Offer offer) {}
+	};
+
+	/**
+	 * <p>
+	 * Called after a new offer was placed, including offers that was filled
+	 * right away.
+	 * </p>
+	 * 
+	 * @param offer The new offer.
+	 */
+	public void offerListed(Offer offer);
+
+	/**
+	 * <p>
+	 * Called after filled units, claimed units or price improvement of the offer
+	 * was changed.
+	 * </p>
+	 * 
+	 * @param offer The offer.
+	 */
+	public void offerUpdated(Offer offer);
+
+	/**
+	 * <p>
+	 * Called after the offer was removed, either by cancelling or by claiming all
+	 * units.
+	 * </p>
+	 * 
+	 * @param offer The removed offer.
+	 */
+	public void offerRemoved(Offer offer);
+
+	default void flush() {}
+}
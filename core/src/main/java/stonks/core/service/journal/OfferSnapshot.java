@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.journal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferFileV2;
+import stonks.core.market.PriceScale;
+import stonks.core.product.Product;
+
+/**
+ * <p>
+ * Write snapshots of all offers and recover offers from the latest snapshot and
+ * journal segments that was written after it. Snapshots are written to a
+ * temporary file first, then moved to the target path, so a crash while writing
+ * never damages the previous snapshot.
+ * </p>
+ * <p>
+ * Snapshots are written in {@link OfferFileV2} format, with the covered journal
+ * generation stored in its header. The snapshot file may also be a save file in
+ * the old format, which is a stream of offers serialized with
+ * {@link Offer#serializeV1(Offer, java.io.OutputStream)}, or a snapshot made of
+ * listed records from {@link JournalFormat}. Old save files does not cover any
+ * journal segment.
+ * </p>
+ * <p>
+ * Snapshots and journal segments may be compressed with
+ * {@link CompressedBlocks}. Compressed and uncompressed files can be mixed, so
+ * compression can be turned on or off at any time.
+ * </p>
+ */
+public final class OfferSnapshot {
+	private OfferSnapshot() {}
+
+	/**
+	 * <p>
+	 * Result of recovery.
+	 * </p>
+	 * 
+	 * @param offers          Recovered offers, in the order they were listed.
+	 * @param generation      The last generation that was recovered, or
+	 *                        {@code -1} if there was no journal segment.
+	 * @param snapshotOffers  Number of offers loaded from the snapshot.
+	 * @param replayedRecords Number of records replayed from the journal.
+	 * @param damagedSegments Number of segments that ended with damaged or
+	 *                        incomplete record.
+	 */
+	public static record Recovery(Collection<Offer> offers, long generation, int snapshotOffers, long replayedRecords, int damagedSegments) {
+	}
+
+	/**
+	 * <p>
+	 * Write a snapshot.
+	 * </p>
+	 * 
+	 * @param path       The snapshot file.
+	 * @param offers     All offers.
+	 * @param scale      The price scale of offers.
+	 * @param generation The last journal generation that is covered by this
+	 *                   snapshot, or {@code -1} if there is no journal.
+	 */
+	public static void write(Path path, Iterator<Offer> offers, PriceScale scale, long generation) throws IOException {
+		write(path, offers, scale, generation, Compression.NONE);
+	}
+
+	/**
+	 * <p>
+	 * Write a snapshot, optionally compressed with {@link CompressedBlocks}.
+	 * </p>
+	 * 
+	 * @param path        The snapshot file.
+	 * @param offers      All offers.
+	 * @param scale       The price scale of offers.
+	 * @param generation  The last journal generation that is covered by this
+	 *                    snapshot, or {@code -1} if there is no journal.
+	 * @param compression The compression settings.
+	 */
+	public static void write(Path path, Iterator<Offer> offers, PriceScale scale, long generation, Compression compression) throws IOException {
+		var temp = path.resolveSibling(path.getFileName() + ".tmp");
+		var uncompressed = compression.enabled() ? path.resolveSibling(path.getFileName() + ".tmp.raw") : temp;
+
+		try (var channel = FileChannel.open(uncompressed, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING)) {
+			OfferFileV2.write(channel, offers, scale, generation);
+			if (!compression.enabled()) channel.force(true);
+		}
+
+		if (compression.enabled()) {
+			// OfferFileV2 writes its header last, so it can't be compressed while writing
+			CompressedBlocks.compress(uncompressed, temp, compression);
+			Files.delete(uncompressed);
+		}
+
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * <p>
+	 * Recover offers from the snapshot and journal segments.
+	 * </p>
+	 * 
+	 * @param snapshotPath     The snapshot file. Can be missing.
+	 * @param journalDirectory The journal directory. Can be missing.
+	 * @param productGetter    Function to get product from its ID. Offers with
+	 *                         unknown products are dropped.
+	 * @return The recovery result.
+	 */
+	public static Recovery recover(Path snapshotPath, Path journalDirectory, Function<String, Optional<Product>> productGetter) throws IOException {
+		var offers = new LinkedHashMap<UUID, Offer>();
+		var covered = -1L;
+
+		if (Files.exists(snapshotPath)) covered = readSnapshot(snapshotPath, productGetter, offers);
+
+		var snapshotOffers = offers.size();
+		var generation = covered;
+		var replayed = 0L;
+		var damaged = 0;
+
+		for (var gen : FileOfferJournal.listGenerations(journalDirectory)) {
+			if (gen <= covered) continue;
+			generation = gen;
+
+			try (var data = openSegment(FileOfferJournal.segmentPath(journalDirectory, gen))) {
+				JournalFormat.Header header;
+
+				try {
+					header = JournalFormat.readHeader(data, JournalFormat.SEGMENT_MAGIC);
+				} catch (IOException e) {
+					// Crashed right after creating the segment
+					damaged++;
+					continue;
+				}
+
+				try {
+					JournalRecord record;
+
+					while ((record = JournalFormat.readRecord(data, header.scale(), productGetter)) != null) {
+						apply(record, offers);
+						replayed++;
+					}
+				} catch (JournalFormat.CorruptRecordException e) {
+					damaged++;
+				}
+			}
+		}
+
+		return new Recovery(offers.values(), generation, snapshotOffers, replayed, damaged);
+	}
+
+	private static DataInputStream openSegment(Path path) throws IOException {
+		var stream = new BufferedInputStream(Files.newInputStream(path), 1 << 16);
+
+		try {
+			stream.mark(4);
+			var magic = new DataInputStream(stream).readInt();
+			stream.reset();
+			if (magic == CompressedBlocks.MAGIC) return new DataInputStream(CompressedBlocks.newInputStream(stream));
+		} catch (EOFException e) {
+			stream.reset();
+		}
+
+		return new DataInputStream(stream);
+	}
+
+	private static long readSnapshot(Path path, Function<String, Optional<Product>> productGetter, LinkedHashMap<UUID, Offer> offers) throws IOException {
+		byte[] magic;
+
+		try (var stream = Files.newInputStream(path)) {
+			magic = stream.readNBytes(4);
+		}
+
+		if (magic.length < 4) return -1L;
+
+		var compressed = CompressedBlocks.isCompressed(ByteBuffer.wrap(magic));
+
+		if (compressed || OfferFileV2.isVersion2(ByteBuffer.wrap(magic))) {
+			// Read into heap instead of mapping, because mapped files can't be replaced
+			// on some platforms until the mapping is garbage collected
+			ByteBuffer buffer;
+
+			try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				var size = channel.size();
+				if (size > Integer.MAX_VALUE) throw new IOException("OfferSnapshot: Snapshot is too large");
+				buffer = ByteBuffer.allocate((int) size);
+				while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+				buffer.flip();
+			}
+
+			if (compressed) buffer = CompressedBlocks.decompressAll(buffer);
+			if (!OfferFileV2.isVersion2(buffer))
+				return readStreamSnapshot(new ByteArrayInputStream(buffer.array()), productGetter, offers);
+
+			var contents = OfferFileV2.read(buffer, productGetter);
+			for (var offer : contents.offers()) offers.put(offer.getOfferId(), offer);
+			return contents.generation();
+		}
+
+		try (var stream = new BufferedInputStream(Files.newInputStream(path), 1 << 20)) {
+			return readStreamSnapshot(stream, productGetter, offers);
+		}
+	}
+
+	private static long readStreamSnapshot(InputStream stream, Function<String, Optional<Product>> productGetter, LinkedHashMap<UUID, Offer> offers) throws IOException {
+		var data = new DataInputStream(stream);
+		data.mark(4);
+		var magic = data.readInt();
+		data.reset();
+
+		if (magic != JournalFormat.SNAPSHOT_MAGIC) {
+			// Old save file
+			while (true) {
+				var header = data.readInt();
+				if (header == Offer.SERIALIZE_VERSION_NULL) break;
+				if (header != Offer.SERIALIZE_VERSION_1) throw new IOException("OfferSnapshot: Unknown offer version "
+					+ header);
+				var offer = Offer.deserializeV1(productGetter, data);
+				if (offer != null) offers.put(offer.getOfferId(), offer);
+			}
+
+			return -1L;
+		}
+
+		var header = JournalFormat.readHeader(data, JournalFormat.SNAPSHOT_MAGIC);
+		JournalRecord record;
+		while ((record = JournalFormat.readRecord(data, header.scale(), productGetter)) != null) apply(record, offers);
+		return header.generation();
+	}
+
+	/**
+	 * <p>
+	 * Apply a record to recovered offers.
+	 * </p>
+	 * 
+	 * @param record The record.
+	 * @param offers Recovered offers, which will be updated.
+	 */
+	public static void apply(JournalRecord record, Map<UUID, Offer> offers) {
+		switch (record) {
+		case JournalRecord.Listed listed -> {
+			var existing = offers.get(listed.offerId());
+
+			if (existing != null) {
+				// Only happens if segments overlap with the snapshot. Keep the listing order
+				var offer = listed.offer();
+				existing.setFilledUnits(offer.getFilledUnits());
+				existing.setClaimedUnits(offer.getClaimedUnits());
+				existing.setPriceImprovementTicks(existing.getScale().rescale(offer.getPriceImprovementTicks(),
+					offer.getScale()));
+			} else {
+				offers.put(listed.offerId(), listed.offer());
+			}
+		}
+		case JournalRecord.Updated updated -> {
+			var offer = offers.get(updated.offerId());
+			if (offer != null) updated.applyTo(offer);
+		}
+		case JournalRecord.Removed removed -> offers.remove(removed.offerId());
+		case JournalRecord.Dropped dropped -> offers.remove(dropped.offerId());
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.memory;
+
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import stonks.core.market.Offer;
+import stonks.core.market.PriceScale;
+
+/**
+ * <p>
+ * Point-in-time view of all offers in {@link StonksMemoryService}, obtained
+ * from {@link StonksMemoryService#captureSnapshot()}. Capturing only copies
+ * references to offers. After that, the service copies each offer right before
+ * changing it for the first time (copy-on-write), so offers in this snapshot
+ * always have the state they had when the snapshot was captured.
+ * </p>
+ * <p>
+ * The snapshot can be iterated from any thread while the service keeps
+ * trading. Each offer from the iterator is a copy that does not change. Close
+ * the snapshot when it is no longer needed, so the service stops copying
+ * offers.
+ * </p>
+ */
+public class MemorySnapshot implements Iterable<Offer>, AutoCloseable {
+	private final Offer[] offers;
+	private final PriceScale scale;
+	private final Map<UUID, Offer> preImages = new ConcurrentHashMap<>();
+	private volatile boolean closed = false;
+
+	MemorySnapshot(Offer[] offers, PriceScale scale) {
+		this.offers = offers;
+		this.scale = scale;
+	}
+
+	public PriceScale getScale() { return scale; }
+
+	public int size() {
+		return offers.length;
+	}
+
+	public boolean isClosed() { return closed; }
+
+	/**
+	 * <p>
+	 * Get the number of offers that was copied because they were changed after
+	 * the snapshot was captured.
+	 * </p>
+	 * 
+	 * @return Number of copied offers.
+	 */
+	public int getPreservedCount() { return preImages.size(); }
+
+	/**
+	 * <p>
+	 * Called by the service before changing the offer. Must be called on the
+	 * thread that changes offers.
+	 * </p>
+	 * 
+	 * @param offer The offer that is about to be changed.
+	 */
+	void preserve(Offer offer) {
+		if (preImages.containsKey(offer.getOfferId())) return;
+		preImages.put(offer.getOfferId(), offer.createCopy());
+		// The copy must be visible before the offer is changed. Pairs with the fence
+		// in read()
+		VarHandle.fullFence();
+	}
+
+	private Offer read(Offer offer) {
+		var preImage = preImages.get(offer.getOfferId());
+		if (preImage != null) return preImage;
+		var copy = offer.createCopy();
+		VarHandle.fullFence();
+		// If any field we just copied was changed, the service had preserved the
+		// offer before changing it
+		preImage = preImages.get(offer.getOfferId());
+		return preImage != null ? preImage : copy;
+	}
+
+	@Override
+	public Iterator<Offer> iterator() {
+		return new Iterator<>() {
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < offers.length;
+			}
+
+			@Override
+			public Offer next() {
+				if (index >= offers.length) throw new NoSuchElementException();
+				return read(offers[index++]);
+			}
+		};
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+	}
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.memory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import stonks.core.exec.InstantOfferExecuteResult;
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.market.ProductMarketOverview;
+import stonks.core.product.Category;
+import stonks.core.product.Product;
+import stonks.core.service.LocalStonksService;
+import stonks.core.service.bulk.BulkResult;
+import stonks.core.service.bulk.InstantOfferRequest;
+import stonks.core.service.bulk.ListOfferRequest;
+
+/**
+ * <p>
+ * A thread-safe memory service. Products are distributed to a fixed number of
+ * shards, and each shard owns a {@link StonksMemoryService} that is only
+ * accessed from the shard's own thread. This means trades on products from
+ * different shards can be executed in parallel, while all trades on the same
+ * product are still executed one by one.
+ * </p>
+ * <p>
+ * The offers index (offer ID to shard) and the users index (user ID to offer
+ * IDs) are shared between all shards, so they are stored in concurrent maps.
+ * All returned futures are completed on shard threads, and offer filled events
+ * are also emitted from shard threads, so consumers must switch to their own
+ * thread if they are not thread-safe.
+ * </p>
+ */
+public class ShardedStonksMemoryService implements LocalStonksService, AutoCloseable {
+	private static class Shard {
+		private final StonksMemoryService service;
+		private final ExecutorService executor;
+
+		public Shard(int index, PriceScale scale) {
+			this.service = new StonksMemoryService(scale);
+			this.executor = Executors.newSingleThreadExecutor(runnable -> {
+				var thread = new Thread(runnable, "Stonks Shard #" + index);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+			return CompletableFuture.supplyAsync(task, executor).thenCompose(Function.identity());
+		}
+	}
+
+	private final PriceScale scale;
+	private final Shard[] shards;
+	private List<MemoryCategory> categories = new CopyOnWriteArrayList<>();
+	private Map<UUID, Shard> offers = new ConcurrentHashMap<>();
+	private Map<UUID, Set<UUID>> userOffers = new ConcurrentHashMap<>();
+	private List<Consumer<Offer>> offerFilledConsumers = new CopyOnWriteArrayList<>();
+
+	public ShardedStonksMemoryService(PriceScale scale, int shardsCount) {
+		if (shardsCount <= 0) throw new IllegalArgumentException("ShardedStonksMemoryService: Shards count must be "
+			+ "positive, but " + shardsCount + " was given");
+		this.scale = scale;
+		this.shards = new Shard[shardsCount];
+
+		for (int i = 0; i < shardsCount; i++) {
+			var shard = shards[i] = new Shard(i, scale);
+			shard.service.subscribeToOfferFilledEvents(this::emitOfferFilled);
+		}
+	}
+
+	public ShardedStonksMemoryService(PriceScale scale) {
+		this(scale, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ShardedStonksMemoryService() {
+		this(PriceScale.DEFAULT);
+	}
+
+	@Override
+	public PriceScale getPriceScale() { return scale; }
+
+	public int getShardsCount() { return shards.length; }
+
+	public List<MemoryCategory> getModifiableCategories() { return categories; }
+
+	private Shard getShard(Product product) {
+		return shards[Math.floorMod(product.getProductId().hashCode(), shards.length)];
+	}
+
+	private void emitOfferFilled(Offer offer) {
+		var copy = offer.createCopy();
+
+		for (var consumer : offerFilledConsumers) {
+			try {
+				consumer.accept(copy);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void indexOffer(Offer offer, Shard shard) {
+		offers.put(offer.getOfferId(), shard);
+		userOffers.compute(offer.getOffererId(), (user, ids) -> {
+			if (ids == null) ids = ConcurrentHashMap.newKeySet();
+			ids.add(offer.getOfferId());
+			return ids;
+		});
+	}
+
+	private void unindexOffer(Offer offer) {
+		offers.remove(offer.getOfferId());
+		userOffers.computeIfPresent(offer.getOffererId(), (user, ids) -> {
+			ids.remove(offer.getOfferId());
+			return ids.isEmpty() ? null : ids;
+		});
+	}
+
+	/**
+	 * <p>
+	 * Group offer IDs by their shards, run the task on each shard and merge all
+	 * results into a single map.
+	 * </p>
+	 */
+	private CompletableFuture<Map<UUID, Offer>> forEachShard(Collection<UUID> offerIds, Function<Shard, Function<Collection<UUID>, CompletableFuture<Map<UUID, Offer>>>> task) {
+		Map<Shard, List<UUID>> groups = new HashMap<>();
+
+		for (var offerId : offerIds) {
+			var shard = offers.get(offerId);
+			if (shard != null) groups.computeIfAbsent(shard, $ -> new ArrayList<>()).add(offerId);
+		}
+
+		if (groups.isEmpty()) return CompletableFuture.completedFuture(Collections.emptyMap());
+
+		var futures = groups.entrySet().stream()
+			.map(e -> e.getKey().submit(() -> task.apply(e.getKey()).apply(e.getValue())))
+			.toList();
+
+		return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply($ -> {
+			Map<UUID, Offer> result = new HashMap<>();
+			for (var future : futures) result.putAll(future.join());
+			return result;
+		});
+	}
+
+	@Override
+	public CompletableFuture<List<Category>> queryAllCategoriesAsync() {
+		return CompletableFuture.completedFuture(Collections.unmodifiableList(categories));
+	}
+
+	@Override
+	public CompletableFuture<ProductMarketOverview> queryMarketOverviewAsync(Product product) {
+		var shard = getShard(product);
+		return shard.submit(() -> shard.service.queryMarketOverviewAsync(product));
+	}
+
+	@Override
+	public CompletableFuture<List<Offer>> getOffersFromUserAsync(UUID offerer) {
+		var ids = userOffers.get(offerer);
+		if (ids == null) return CompletableFuture.completedFuture(Collections.emptyList());
+		return getOffersAsync(List.copyOf(ids)).thenApply(map -> List.copyOf(map.values()));
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> getOffersAsync(Collection<UUID> offerIds) {
+		return forEachShard(offerIds, shard -> ids -> shard.service.getOffersAsync(ids));
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> claimOffersAsync(Collection<UUID> offerIds) {
+		return forEachShard(offerIds, shard -> ids -> shard.service.claimOffersAsync(ids).thenApply(claimed -> {
+			for (var offer : claimed.values()) if (offer.isFullyClaimed()) unindexOffer(offer);
+			return claimed;
+		}));
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> cancelOffersAsync(Collection<UUID> offerIds) {
+		return forEachShard(offerIds, shard -> ids -> shard.service.cancelOffersAsync(ids).thenApply(cancelled -> {
+			for (var offer : cancelled.values()) unindexOffer(offer);
+			return cancelled;
+		}));
+	}
+
+	@Override
+	public CompletableFuture<Offer> listOfferAsync(UUID user, Product product, OfferType type, int units, double pricePerUnit) {
+		return listOfferRawAsync(user, product, type, units, scale.toTicks(pricePerUnit));
+	}
+
+	@Override
+	public CompletableFuture<Offer> listOfferRawAsync(UUID user, Product product, OfferType type, int units, long pricePerUnit) {
+		var shard = getShard(product);
+		return shard.submit(() -> shard.service.listOfferRawAsync(user, product, type, units, pricePerUnit)
+			.thenApply(offer -> {
+				indexOffer(offer, shard);
+				return offer.createCopy();
+			}));
+	}
+
+	@Override
+	public CompletableFuture<InstantOfferExecuteResult> instantOfferAsync(Product product, OfferType type, int units, double balance) {
+		return instantOfferRawAsync(product, type, units, scale.toTicks(balance));
+	}
+
+	@Override
+	public CompletableFuture<InstantOfferExecuteResult> instantOfferRawAsync(Product product, OfferType type, int units, long balance) {
+		var shard = getShard(product);
+		return shard.submit(() -> shard.service.instantOfferRawAsync(product, type, units, balance));
+	}
+
+	@Override
+	public CompletableFuture<List<BulkResult<Offer>>> listOffersAsync(List<ListOfferRequest> requests) {
+		return forEachShard(requests, ListOfferRequest::product, shard -> items -> shard.service
+			.listOffersAsync(items)
+			.thenApply(results -> results.stream()
+				.map(r -> {
+					if (!r.isSuccess()) return r;
+					indexOffer(r.result(), shard);
+					return BulkResult.success(r.result().createCopy());
+				})
+				.toList()));
+	}
+
+	@Override
+	public CompletableFuture<List<BulkResult<InstantOfferExecuteResult>>> instantOffersAsync(List<InstantOfferRequest> requests) {
+		return forEachShard(requests, InstantOfferRequest::product, shard -> shard.service::instantOffersAsync);
+	}
+
+	/**
+	 * <p>
+	 * Group bulk requests by their shards, run the task on each shard and put the
+	 * results back to the original order.
+	 * </p>
+	 */
+	private <R, T> CompletableFuture<List<BulkResult<T>>> forEachShard(List<R> requests, Function<R, Product> productOf, Function<Shard, Function<List<R>, CompletableFuture<List<BulkResult<T>>>>> task) {
+		Map<Shard, List<Integer>> groups = new HashMap<>();
+		for (int i = 0; i < requests.size(); i++) groups
+			.computeIfAbsent(getShard(productOf.apply(requests.get(i))), $ -> new ArrayList<>())
+			.add(i);
+
+		var results = new ArrayList<BulkResult<T>>(Collections.nCopies(requests.size(), null));
+		var futures = groups.entrySet().stream()
+			.map(e -> e.getKey()
+				.submit(() -> task.apply(e.getKey()).apply(e.getValue().stream().map(requests::get).toList()))
+				.thenAccept(shardResults -> {
+					for (int i = 0; i < shardResults.size(); i++) results.set(e.getValue().get(i), shardResults.get(i));
+				}))
+			.toArray(CompletableFuture[]::new);
+
+		return CompletableFuture.allOf(futures).thenApply($ -> List.copyOf(results));
+	}
+
+	/**
+	 * <p>
+	 * Insert the offer to its shard. This method blocks until the offer is
+	 * inserted.
+	 * </p>
+	 * 
+	 * @param offer The offer to insert.
+	 */
+	protected void insertOffer(Offer offer) {
+		var shard = getShard(offer.getProduct());
+		shard.submit(() -> {
+			shard.service.insertOffer(offer);
+			indexOffer(offer, shard);
+			return CompletableFuture.completedFuture(null);
+		}).join();
+	}
+
+	/**
+	 * <p>
+	 * Insert many offers to their shards. Each shard inserts its offers in a
+	 * single task with {@link StonksMemoryService#insertOffers(Collection)}, and
+	 * shards insert their offers in parallel. This method blocks until all offers
+	 * are inserted.
+	 * </p>
+	 * 
+	 * @param offers The offers to insert.
+	 */
+	protected void insertOffers(Collection<Offer> offers) {
+		var groups = new HashMap<Shard, List<Offer>>();
+		for (var offer : offers) groups.computeIfAbsent(getShard(offer.getProduct()), $ -> new ArrayList<>()).add(offer);
+		var futures = new ArrayList<CompletableFuture<Void>>();
+
+		for (var group : groups.entrySet()) {
+			var shard = group.getKey();
+			futures.add(shard.submit(() -> {
+				shard.service.insertOffers(group.getValue());
+				for (var offer : group.getValue()) indexOffer(offer, shard);
+				return CompletableFuture.completedFuture(null);
+			}));
+		}
+
+		CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+	}
+
+	/**
+	 * <p>
+	 * Get the snapshot of all offers in this service. This method blocks until all
+	 * shards returned their offers.
+	 * </p>
+	 * 
+	 * @return An iterator of offers snapshot.
+	 */
+	public Iterator<Offer> offersIterator() {
+		var futures = new ArrayList<CompletableFuture<List<Offer>>>();
+
+		for (var shard : shards) futures.add(shard.submit(() -> {
+			var list = new ArrayList<Offer>();
+			shard.service.offersIterator().forEachRemaining(offer -> list.add(offer.createCopy()));
+			return CompletableFuture.completedFuture(list);
+		}));
+
+		return futures.stream().flatMap(future -> future.join().stream()).iterator();
+	}
+
+	@Override
+	public void saveServiceData() {
+	}
+
+	@Override
+	public void loadServiceData() {
+		// Clear all
+		var futures = new ArrayList<CompletableFuture<Void>>();
+
+		for (var shard : shards) futures.add(shard.submit(() -> {
+			shard.service.loadServiceData();
+			return CompletableFuture.completedFuture(null);
+		}));
+
+		CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+		offers.clear();
+		userOffers.clear();
+	}
+
+	@Override
+	public void subscribeToOfferFilledEvents(Consumer<Offer> consumer) {
+		offerFilledConsumers.add(consumer);
+	}
+
+	/**
+	 * <p>
+	 * Stop all shard threads. Pending tasks will be executed before the threads
+	 * are stopped.
+	 * </p>
+	 */
+	@Override
+	public void close() {
+		for (var shard : shards) shard.executor.shutdown();
+
+		try {
+			for (var shard : shards) shard.executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
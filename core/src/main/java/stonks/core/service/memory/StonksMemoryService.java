@@ -22,28 +22,46 @@
 package stonks.core.service.memory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+import stonks.core.exec.BatchAuction;
 import stonks.core.exec.InstantOfferExecuteResult;
 import stonks.core.exec.InstantOfferExecutor;
 import stonks.core.market.Offer;
 import stonks.core.market.OfferType;
-import stonks.core.market.OverviewOffer;
-import stonks.core.market.OverviewOffersList;
+import stonks.core.market.OrderBook;
+import stonks.core.market.PriceLevel;
+import stonks.core.market.PriceScale;
 import stonks.core.market.ProductMarketOverview;
 import stonks.core.product.Category;
 import stonks.core.product.Product;
 import stonks.core.service.Emittable;
 import stonks.core.service.LocalStonksService;
+import stonks.core.service.archive.ArchiveRecord;
+import stonks.core.service.archive.OfferArchive;
+import stonks.core.service.bulk.BulkResult;
+import stonks.core.service.bulk.InstantOfferRequest;
+import stonks.core.service.bulk.ListOfferRequest;
+import stonks.core.service.journal.JournalRecord;
+import stonks.core.service.journal.OfferJournal;
+import stonks.core.service.subscription.OffersPublisher;
+import stonks.core.service.subscription.OffersUpdate;
+import stonks.core.service.subscription.OverviewPublisher;
+import stonks.core.service.subscription.OverviewUpdate;
+import stonks.core.service.subscription.Subscription;
 
 /**
  * <p>
@@ -52,52 +70,206 @@ import stonks.core.service.LocalStonksService;
  * </p>
  */
 public class StonksMemoryService implements LocalStonksService {
-	private static record ProductEntry(MemoryProduct product, List<Offer> buyOffers, List<Offer> sellOffers) {
-		public ProductMarketOverview calculateOverview() {
-			var buyOffers = collectOffers(OfferType.BUY, 5, this.buyOffers.iterator());
-			var sellOffers = collectOffers(OfferType.SELL, 5, this.sellOffers.iterator());
-			return new ProductMarketOverview(product, buyOffers, sellOffers);
-		}
-
-		public OverviewOffersList collectOffers(OfferType type, int maxEntries, Iterator<Offer> offers) {
-			var list = new ArrayList<OverviewOffer>();
-			int offerers = 0;
-			int totalUnits = 0;
-			double currentPrice = 0d;
-
-			while (offers.hasNext() && list.size() < maxEntries) {
-				var e = offers.next();
-
-				if (currentPrice == 0d) {
-					offerers = 1;
-					totalUnits = e.getAvailableUnits();
-					currentPrice = e.getPricePerUnit();
-				} else if (currentPrice != e.getPricePerUnit()) {
-					list.add(new OverviewOffer(offerers, totalUnits, currentPrice));
-					offerers = 1;
-					totalUnits = e.getAvailableUnits();
-					currentPrice = e.getPricePerUnit();
-				} else {
-					offerers++;
-					totalUnits += e.getAvailableUnits();
-				}
+	public static final int PARALLEL_LOAD_THRESHOLD = 10_000;
+
+	private static class ProductEntry {
+		private final MemoryProduct product;
+		private final OrderBook buyOffers;
+		private final OrderBook sellOffers;
+		private ProductMarketOverview overview = null;
+		private BatchAuction auction = null;
+		private int auctionInterval = 0;
+		private int ticksUntilClearing = 0;
+
+		public ProductEntry(MemoryProduct product, PriceScale scale) {
+			this.product = product;
+			this.buyOffers = new OrderBook(OfferType.BUY, scale);
+			this.sellOffers = new OrderBook(OfferType.SELL, scale);
+		}
+
+		/**
+		 * <p>
+		 * Get the overview snapshot. The snapshot is only recreated when the top
+		 * levels of either book was changed.
+		 * </p>
+		 * 
+		 * @return The overview snapshot.
+		 */
+		public ProductMarketOverview getOverview() {
+			var version = buyOffers.getOverviewVersion() + sellOffers.getOverviewVersion();
+			var buyOverview = buyOffers.getOverview();
+			var sellOverview = sellOffers.getOverview();
+
+			if (overview == null
+				|| overview.getBuyOffers() != buyOverview
+				|| overview.getSellOffers() != sellOverview) {
+				overview = new ProductMarketOverview(product, buyOverview, sellOverview, version);
 			}
 
-			if (totalUnits > 0) { list.add(new OverviewOffer(offerers, totalUnits, currentPrice)); }
-			return new OverviewOffersList(type, list);
+			return overview;
+		}
+	}
+
+	/**
+	 * <p>
+	 * An entry in offers index. The book node is used for removing the offer from
+	 * its book in constant time, and it is {@code null} if the offer was already
+	 * filled when it was inserted. The position is the index of the offer in
+	 * {@link #allOffers}.
+	 * </p>
+	 */
+	private static class OfferEntry {
+		private final Offer offer;
+		private final PriceLevel.Node bookNode;
+		private int position;
+
+		public OfferEntry(Offer offer, PriceLevel.Node bookNode, int position) {
+			this.offer = offer;
+			this.bookNode = bookNode;
+			this.position = position;
+		}
+
+		public Offer offer() {
+			return offer;
+		}
+
+		public PriceLevel.Node bookNode() {
+			return bookNode;
 		}
 	}
 
+	private final PriceScale scale;
 	private List<MemoryCategory> categories = new ArrayList<>();
 	private Map<MemoryProduct, ProductEntry> entries = new HashMap<>();
-	private Map<UUID, List<Offer>> userOffers = new HashMap<>();
-	private Map<UUID, Offer> offers = new HashMap<>();
+	private Map<UUID, Map<UUID, Offer>> userOffers = new HashMap<>();
+	private Map<UUID, OfferEntry> offers = new HashMap<>();
+	// All offers in a dense array, so snapshots can be captured with a single copy
+	private Offer[] allOffers = new Offer[16];
 	private Emittable<Offer> offerFilledEvents = new Emittable<>();
+	private OfferJournal journal = OfferJournal.NONE;
+	private OfferArchive archive = OfferArchive.NONE;
+	private MemorySnapshot snapshot = null;
+	private final OverviewPublisher overviewPublisher = new OverviewPublisher();
+	private final OffersPublisher offersPublisher = new OffersPublisher();
+	// Subscribed users with changed offers since the last publish
+	private Set<UUID> changedUsers = new HashSet<>();
+	private OrderBook.Listener bookListener = new OrderBook.Listener() {
+		private int filledBefore;
+		private long improvementBefore;
+
+		@Override
+		public void beforeFill(Offer offer) {
+			beforeChange(offer);
+			filledBefore = offer.getFilledUnits();
+			improvementBefore = offer.getPriceImprovementTicks();
+		}
+
+		@Override
+		public void afterFill(Offer offer) {
+			journal.offerUpdated(offer);
+			offerChanged(offer);
+			var units = offer.getFilledUnits() - filledBefore;
+			if (units > 0) archive.offerFilled(offer, units, offer.getPriceImprovementTicks() - improvementBefore);
+		}
+	};
+
+	public StonksMemoryService(PriceScale scale) {
+		this.scale = scale;
+	}
+
+	public StonksMemoryService() {
+		this(PriceScale.DEFAULT);
+	}
+
+	@Override
+	public PriceScale getPriceScale() { return scale; }
 
 	public List<MemoryCategory> getModifiableCategories() { return categories; }
 
+	public OfferJournal getJournal() { return journal; }
+
+	/**
+	 * <p>
+	 * Set the journal that will record all changes of offers from now on. Offers
+	 * inserted with {@link #insertOffer(Offer)} are not recorded, because they are
+	 * usually loaded from saved data.
+	 * </p>
+	 * 
+	 * @param journal The journal, or {@link OfferJournal#NONE} to stop recording.
+	 */
+	public void setJournal(OfferJournal journal) { this.journal = journal; }
+
+	public OfferArchive getArchive() { return archive; }
+
+	/**
+	 * <p>
+	 * Set the archive that will record fills and removed offers from now on.
+	 * </p>
+	 * 
+	 * @param archive The archive, or {@link OfferArchive#NONE} to stop recording.
+	 */
+	public void setArchive(OfferArchive archive) { this.archive = archive; }
+
 	public Iterator<Offer> offersIterator() {
-		return offers.values().iterator();
+		return offers.values().stream().map(OfferEntry::offer).iterator();
+	}
+
+	public int getOffersCount() { return offers.size(); }
+
+	/**
+	 * <p>
+	 * Get all offers, with offers in order books first, in the order they will be
+	 * filled, followed by offers that are not in order books. Inserting offers in
+	 * this order keeps their time priority.
+	 * </p>
+	 * 
+	 * @return A list of offers. Offers are not copied.
+	 */
+	public List<Offer> getOffersInPriorityOrder() {
+		var list = new ArrayList<Offer>(offers.size());
+
+		for (var productEntry : entries.values()) {
+			for (var offer : productEntry.buyOffers) list.add(offer);
+			for (var offer : productEntry.sellOffers) list.add(offer);
+		}
+
+		for (int i = 0; i < offers.size(); i++) {
+			var entry = offers.get(allOffers[i].getOfferId());
+			if (entry.bookNode() == null || !entry.bookNode().isLinked()) list.add(entry.offer());
+		}
+
+		return list;
+	}
+
+	/**
+	 * <p>
+	 * Capture the current state of all offers. This only copies references to
+	 * offers, and offers are copied later when they are about to be changed, so
+	 * it is cheap enough to call on the server thread. The snapshot can then be
+	 * saved on another thread while this service keeps trading.
+	 * </p>
+	 * <p>
+	 * Only one snapshot can be open at a time.
+	 * </p>
+	 * 
+	 * @return The snapshot. Must be closed after use.
+	 * @throws IllegalStateException if the previous snapshot is still open.
+	 */
+	public MemorySnapshot captureSnapshot() {
+		if (snapshot != null && !snapshot.isClosed())
+			throw new IllegalStateException("StonksMemoryService: Previous snapshot is still open");
+		return snapshot = new MemorySnapshot(Arrays.copyOf(allOffers, offers.size()), scale);
+	}
+
+	private void beforeChange(Offer offer) {
+		if (snapshot == null) return;
+
+		if (snapshot.isClosed()) {
+			snapshot = null;
+			return;
+		}
+
+		snapshot.preserve(offer);
 	}
 
 	@Override
@@ -108,7 +280,7 @@ public class StonksMemoryService implements LocalStonksService {
 	@Override
 	public CompletableFuture<ProductMarketOverview> queryMarketOverviewAsync(Product product) {
 		try {
-			return CompletableFuture.completedFuture(getProductEntry(product).calculateOverview());
+			return CompletableFuture.completedFuture(getProductEntry(product).getOverview());
 		} catch (Throwable t) {
 			return CompletableFuture.failedFuture(t);
 		}
@@ -117,16 +289,54 @@ public class StonksMemoryService implements LocalStonksService {
 	protected ProductEntry getProductEntry(Product product) {
 		if (!(product instanceof MemoryProduct mock))
 			throw new IllegalArgumentException("StonksMemoryService: Must be MemoryProduct");
+		productAccessed(mock);
 		var entry = entries.get(product);
-		if (entry == null) entries.put(mock, entry = new ProductEntry(mock, new ArrayList<>(), new ArrayList<>()));
+
+		if (entry == null) {
+			entries.put(mock, entry = new ProductEntry(mock, scale));
+			entry.buyOffers.setListener(bookListener);
+			entry.sellOffers.setListener(bookListener);
+		}
+
 		return entry;
 	}
 
+	/**
+	 * <p>
+	 * Called before the order books of the product are used. Services that load
+	 * products on demand can insert offers of the product here.
+	 * </p>
+	 * 
+	 * @param product The product.
+	 */
+	protected void productAccessed(MemoryProduct product) {}
+
+	/**
+	 * <p>
+	 * Called before offers are looked up by their IDs. Services that load
+	 * products on demand can insert the offers here.
+	 * </p>
+	 * 
+	 * @param offerIds The offer IDs.
+	 */
+	protected void offersAccessed(Collection<UUID> offerIds) {}
+
+	/**
+	 * <p>
+	 * Called before offers of the user are looked up. Services that load products
+	 * on demand can insert the offers here.
+	 * </p>
+	 * 
+	 * @param offerer The user.
+	 */
+	protected void userAccessed(UUID offerer) {}
+
 	@Override
 	public CompletableFuture<List<Offer>> getOffersFromUserAsync(UUID offerer) {
+		userAccessed(offerer);
 		var userOffers = this.userOffers.get(offerer);
-		if (userOffers == null) this.userOffers.put(offerer, userOffers = new ArrayList<>());
-		return CompletableFuture.completedFuture(Collections.unmodifiableList(userOffers));
+		if (userOffers == null) return CompletableFuture.completedFuture(Collections.emptyList());
+		return CompletableFuture.completedFuture(List.copyOf(userOffers.values()));
 	}
 
 	@Override
@@ -135,99 +345,465 @@ public class StonksMemoryService implements LocalStonksService {
 	}
 
 	private Map<UUID, Offer> getOffersSync(Collection<UUID> offerIds) {
+		offersAccessed(offerIds);
 		return offerIds.stream()
 			.map(id -> offers.get(id))
 			.filter(e -> e != null)
-			.collect(Collectors.toMap(e -> e.getOfferId(), e -> e.createCopy()));
+			.collect(Collectors.toMap(e -> e.offer().getOfferId(), e -> e.offer().createCopy()));
 	}
 
 	@Override
 	public CompletableFuture<Map<UUID, Offer>> claimOffersAsync(Collection<UUID> offerIds) {
+		offersAccessed(offerIds);
 		Map<UUID, Offer> offers = new HashMap<>();
 
 		for (UUID offerId : offerIds) {
-			Offer serviceOfferData = this.offers.get(offerId);
-			if (serviceOfferData == null) continue;
+			OfferEntry entry = this.offers.get(offerId);
+			if (entry == null) continue;
+			Offer serviceOfferData = entry.offer();
 
+			beforeChange(serviceOfferData);
 			serviceOfferData.claimOffer();
-			offers.put(offerId, serviceOfferData.createCopy());
+			var claimed = serviceOfferData.createCopy();
+			offers.put(offerId, claimed);
+			serviceOfferData.setPriceImprovementTicks(0L);
+			offerChanged(serviceOfferData);
 
 			if (serviceOfferData.isFullyClaimed()) {
-				List<Offer> user = userOffers.computeIfAbsent(serviceOfferData.getOffererId(), $ -> new ArrayList<>());
-				user.removeIf(v -> v.getOfferId().equals(offerId));
-				this.offers.remove(offerId);
+				removeUserOffer(serviceOfferData);
+				removeOfferEntry(offerId);
+				journal.offerRemoved(serviceOfferData);
+				archive.offerCompleted(claimed, ArchiveRecord.Reason.CLAIMED);
+			} else {
+				journal.offerUpdated(serviceOfferData);
 			}
 		}
 
+		publishUpdates();
 		return CompletableFuture.completedFuture(offers);
 	}
 
 	@Override
 	public CompletableFuture<Map<UUID, Offer>> cancelOffersAsync(Collection<UUID> offerIds) {
+		offersAccessed(offerIds);
 		Map<UUID, Offer> offers = new HashMap<>();
 
 		for (UUID offerId : offerIds) {
-			Offer serviceOfferData = this.offers.get(offerId);
-			if (serviceOfferData == null) continue;
+			OfferEntry entry = removeOfferEntry(offerId);
+			if (entry == null) continue;
+			Offer serviceOfferData = entry.offer();
 
-			List<Offer> user = userOffers.computeIfAbsent(serviceOfferData.getOffererId(), $ -> new ArrayList<>());
-			user.removeIf(v -> v.getOfferId().equals(offerId));
-			this.offers.remove(offerId);
+			removeUserOffer(serviceOfferData);
 			offers.put(offerId, serviceOfferData.createCopy());
 
-			ProductEntry product = entries.get(serviceOfferData.getProduct());
-			(serviceOfferData.getType() == OfferType.BUY ? product.buyOffers : product.sellOffers)
-				.removeIf(v -> v.getOfferId().equals(offerId));
+			if (entry.bookNode() != null) {
+				ProductEntry product = entries.get(serviceOfferData.getProduct());
+				(serviceOfferData.getType() == OfferType.BUY ? product.buyOffers : product.sellOffers)
+					.remove(entry.bookNode());
+			}
+
+			journal.offerRemoved(serviceOfferData);
+			archive.offerCompleted(serviceOfferData, ArchiveRecord.Reason.CANCELLED);
+			offerChanged(serviceOfferData);
 		}
 
+		publishUpdates();
 		return CompletableFuture.completedFuture(offers);
 	}
 
 	@Override
 	public CompletableFuture<Offer> listOfferAsync(UUID user, Product product, OfferType type, int units, double pricePerUnit) {
-		var offer = new Offer(UUID.randomUUID(), user, product, type, units, 0, 0, pricePerUnit);
+		return listOfferRawAsync(user, product, type, units, scale.toTicks(pricePerUnit));
+	}
+
+	@Override
+	public CompletableFuture<Offer> listOfferRawAsync(UUID user, Product product, OfferType type, int units, long pricePerUnit) {
+		try {
+			var offer = new Offer(UUID.randomUUID(), user, product, type, units, 0, 0, pricePerUnit, scale);
+			var placed = placeOffer(offer);
+			publishUpdates();
+			return CompletableFuture.completedFuture(placed);
+		} catch (Throwable t) {
+			return CompletableFuture.failedFuture(t);
+		}
+	}
+
+	@Override
+	public CompletableFuture<List<BulkResult<Offer>>> listOffersAsync(List<ListOfferRequest> requests) {
+		var results = new ArrayList<BulkResult<Offer>>(requests.size());
+
+		for (var r : requests) {
+			try {
+				var offer = new Offer(UUID.randomUUID(), r.user(), r.product(), r.type(), r.units(), 0, 0,
+					r.pricePerUnit(), scale);
+				results.add(BulkResult.success(placeOffer(offer)));
+			} catch (Throwable t) {
+				results.add(BulkResult.failure(t));
+			}
+		}
+
+		publishUpdates();
+		return CompletableFuture.completedFuture(results);
+	}
+
+	/**
+	 * <p>
+	 * Place a new offer to the market. The offer will be matched against the
+	 * opposite side first (see {@link #matchOffer(Offer)}), then the remaining
+	 * units will be inserted to the book. Unlike {@link #insertOffer(Offer)},
+	 * this is meant for offers that are listed by users.
+	 * </p>
+	 * 
+	 * @param offer The new offer.
+	 * @return The placed offer, which is the same offer with the price scale of
+	 *         this service.
+	 */
+	public Offer placeOffer(Offer offer) {
+		offer = offer.withScale(scale);
+		matchOffer(offer);
 		insertOffer(offer);
-		return CompletableFuture.completedFuture(offer);
+		journal.offerListed(offer);
+		offerChanged(offer);
+		if (offer.isFilled()) offerFilledEvents.emit(offer);
+		return offer;
+	}
+
+	/**
+	 * <p>
+	 * Match the newly listed offer against the opposite side of the market. Offers
+	 * on the opposite side with price equals or better than the new offer's price
+	 * will be filled in price-time priority, just like instant buy/sell. The
+	 * trades are executed at the price of offers on the opposite side, and the
+	 * difference will be stored in new offer's price improvement (see
+	 * {@link Offer#getPriceImprovementTicks()}).
+	 * </p>
+	 * 
+	 * @param offer The newly listed offer. This offer will be filled.
+	 */
+	protected void matchOffer(Offer offer) {
+		var productEntry = getProductEntry(offer.getProduct());
+		if (productEntry.auction != null) return;
+		var units = offer.getAvailableUnits();
+		var limit = offer.getPricePerUnitTicks();
+		InstantOfferExecutor exec;
+		long improvement;
+
+		switch (offer.getType()) {
+		case BUY:
+			if (productEntry.sellOffers.isEmpty()) return;
+			exec = new InstantOfferExecutor(scale, PriceScale.multiply(limit, units), units);
+			exec.executeInstantBuy(productEntry.sellOffers, limit, offerFilledEvents::emit);
+			// Money that we escrowed for filled units, but was not spent
+			improvement = exec.getCurrentBalanceTicks() - PriceScale.multiply(limit, exec.getCurrentUnits());
+			break;
+		case SELL:
+			if (productEntry.buyOffers.isEmpty()) return;
+			exec = new InstantOfferExecutor(scale, 0L, units);
+			exec.executeInstantSell(productEntry.buyOffers, limit, offerFilledEvents::emit);
+			// Money that we received on top of our price
+			improvement = exec.getCurrentBalanceTicks() - PriceScale.multiply(limit, units - exec.getCurrentUnits());
+			break;
+		default:
+			return;
+		}
+
+		var filled = units - exec.getCurrentUnits();
+		offer.fillOffer(filled);
+		offer.setPriceImprovementTicks(offer.getPriceImprovementTicks() + improvement);
+		if (filled > 0) archive.offerFilled(offer, filled, improvement);
 	}
 
+	/**
+	 * <p>
+	 * Insert the offer to this service. If the offer's price scale is different
+	 * from this service's scale, a copy of the offer with converted price will be
+	 * inserted instead.
+	 * </p>
+	 * 
+	 * @param offer The offer to insert.
+	 */
 	protected void insertOffer(Offer offer) {
-		if (!offer.isFilled()) {
-			var productEntry = getProductEntry(offer.getProduct());
-			if (productEntry == null)
-				throw new IllegalArgumentException("StonksMemoryService: Unknown product id: "
-					+ offer.getProduct().getProductId());
+		offer = offer.withScale(scale);
+		checkNewOffer(offer);
+		indexOffer(offer, offer.isFilled() ? null : getBook(offer).insert(offer));
+	}
+
+	/**
+	 * <p>
+	 * Insert many offers to this service, usually when loading saved offers. This
+	 * is faster than inserting offers one by one, because each order book sorts
+	 * its new offers once, instead of looking up the price level for each offer.
+	 * Offers for the same product and price keep the given order.
+	 * </p>
+	 * <p>
+	 * When there are at least {@value #PARALLEL_LOAD_THRESHOLD} offers, order books
+	 * are built in parallel on the common {@link java.util.concurrent.ForkJoinPool},
+	 * then the offers are added to the indexes of this service on the calling
+	 * thread.
+	 * </p>
+	 * 
+	 * @param offers The offers to insert. Offer IDs must be unique.
+	 * @see #insertOffer(Offer)
+	 */
+	protected void insertOffers(Collection<Offer> offers) {
+		if (this.offers.isEmpty() && offers.size() > 16) this.offers = HashMap.newHashMap(offers.size());
+		var required = this.offers.size() + offers.size();
+		if (required > allOffers.length) allOffers = Arrays.copyOf(allOffers, required);
+		var books = new LinkedHashMap<OrderBook, List<Offer>>();
+
+		for (var offer : offers) {
+			var scaled = offer.withScale(scale);
+			checkNewOffer(scaled);
+			if (scaled.isFilled()) indexOffer(scaled, null);
+			else books.computeIfAbsent(getBook(scaled), $ -> new ArrayList<>()).add(scaled);
+		}
+
+		// Order books do not share anything, so they can be built in parallel. Only
+		// the indexes of this service have to be updated on this thread
+		// ArrayList splits evenly, while iterating LinkedHashMap in parallel does not
+		var entries = new ArrayList<>(books.entrySet());
+		var nodes = (offers.size() >= PARALLEL_LOAD_THRESHOLD ? entries.parallelStream() : entries.stream())
+			.map(entry -> entry.getKey().insertAll(entry.getValue()))
+			.toList();
+
+		for (var bookNodes : nodes) {
+			for (var node : bookNodes) indexOffer(node.getOffer(), node);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Check whether the product can be removed with
+	 * {@link #removeProductOffers(Product)}.
+	 * </p>
+	 * 
+	 * @param product The product.
+	 * @return {@code false} if the product is in batch auction mode.
+	 */
+	protected boolean canRemoveProductOffers(Product product) {
+		var productEntry = entries.get(product);
+		return productEntry == null || productEntry.auction == null;
+	}
 
-			var list = offer.getType() == OfferType.BUY ? productEntry.buyOffers : productEntry.sellOffers;
-			var searchResult = Collections.binarySearch(list, offer,
-				(a, b) -> offer.getType().getOfferPriceComparator().compare(a.getPricePerUnit(), b.getPricePerUnit()));
-			list.add(searchResult >= 0 ? searchResult : (-searchResult - 1), offer);
+	/**
+	 * <p>
+	 * Remove all offers of the product and its order books from this service,
+	 * without recording the removal to the journal. This is used for unloading
+	 * products that are already saved somewhere else, and the offers can be
+	 * inserted again later with {@link #insertOffers(Collection)}.
+	 * </p>
+	 * 
+	 * @param product The product.
+	 * @return Number of removed offers.
+	 * @throws IllegalStateException if the product is in batch auction mode.
+	 */
+	protected int removeProductOffers(Product product) {
+		if (!canRemoveProductOffers(product))
+			throw new IllegalStateException("StonksMemoryService: Product in batch auction can't be removed: "
+				+ product.getProductId());
+		var removed = 0;
+
+		// Going backward, so offers moved into holes by removeOfferEntry() were already
+		// checked
+		for (int i = offers.size() - 1; i >= 0; i--) {
+			var offer = allOffers[i];
+			if (offer.getProduct() != product) continue;
+			removeOfferEntry(offer.getOfferId());
+			removeUserOffer(offer);
+			removed++;
 		}
 
-		var playerOffers = this.userOffers.computeIfAbsent(offer.getOffererId(), $ -> new ArrayList<>());
-		playerOffers.add(offer);
+		entries.remove(product);
+		return removed;
+	}
+
+	private void checkNewOffer(Offer offer) {
+		if (offers.containsKey(offer.getOfferId()))
+			throw new IllegalArgumentException("StonksMemoryService: Duplicated offer id: " + offer.getOfferId());
+	}
 
-		offers.put(offer.getOfferId(), offer);
+	private OrderBook getBook(Offer offer) {
+		var productEntry = getProductEntry(offer.getProduct());
+		if (productEntry == null)
+			throw new IllegalArgumentException("StonksMemoryService: Unknown product id: "
+				+ offer.getProduct().getProductId());
+		return offer.getType() == OfferType.BUY ? productEntry.buyOffers : productEntry.sellOffers;
+	}
+
+	private void indexOffer(Offer offer, PriceLevel.Node bookNode) {
+		var playerOffers = this.userOffers.computeIfAbsent(offer.getOffererId(), $ -> new LinkedHashMap<>());
+		playerOffers.put(offer.getOfferId(), offer);
+
+		var position = offers.size();
+		if (position == allOffers.length) allOffers = Arrays.copyOf(allOffers, position * 2);
+		allOffers[position] = offer;
+		offers.put(offer.getOfferId(), new OfferEntry(offer, bookNode, position));
+	}
+
+	private OfferEntry removeOfferEntry(UUID offerId) {
+		var entry = offers.remove(offerId);
+		if (entry == null) return null;
+
+		// Move the last offer into the hole
+		var last = offers.size();
+		var moved = allOffers[last];
+		allOffers[last] = null;
+
+		if (entry.position != last) {
+			allOffers[entry.position] = moved;
+			offers.get(moved.getOfferId()).position = entry.position;
+		}
+
+		return entry;
+	}
+
+	private void removeUserOffer(Offer offer) {
+		var playerOffers = this.userOffers.get(offer.getOffererId());
+		if (playerOffers == null) return;
+		playerOffers.remove(offer.getOfferId());
+		if (playerOffers.isEmpty()) this.userOffers.remove(offer.getOffererId());
 	}
 
 	@Override
 	public CompletableFuture<InstantOfferExecuteResult> instantOfferAsync(Product product, OfferType type, int units, double balance) {
+		return instantOfferRawAsync(product, type, units, scale.toTicks(balance));
+	}
+
+	@Override
+	public CompletableFuture<InstantOfferExecuteResult> instantOfferRawAsync(Product product, OfferType type, int units, long balance) {
+		try {
+			var productEntry = getProductEntry(product);
+
+			if (productEntry.auction != null) {
+				var future = new CompletableFuture<InstantOfferExecuteResult>();
+				productEntry.auction.addInstantOffer(type, units, balance, future::complete);
+				return future;
+			}
+
+			var result = executeInstantOffer(product, type, units, balance);
+			publishUpdates();
+			return CompletableFuture.completedFuture(result);
+		} catch (Throwable t) {
+			return CompletableFuture.failedFuture(t);
+		}
+	}
+
+	private InstantOfferExecuteResult executeInstantOffer(Product product, OfferType type, int units, long balance) {
 		var productEntry = getProductEntry(product);
-		if (productEntry == null) return CompletableFuture.failedFuture(
-			new IllegalArgumentException("StonksMemoryService: Unknown product id: " + product.getProductId()));
-		var exec = new InstantOfferExecutor(balance, units);
+		if (productEntry == null)
+			throw new IllegalArgumentException("StonksMemoryService: Unknown product id: " + product.getProductId());
+		var exec = new InstantOfferExecutor(scale, balance, units);
 
 		switch (type) {
 		case BUY:
-			exec.executeInstantBuy(productEntry.sellOffers.iterator(), offerFilledEvents::emit);
+			exec.executeInstantBuy(productEntry.sellOffers, offerFilledEvents::emit);
 			break;
 		case SELL:
-			exec.executeInstantSell(productEntry.buyOffers.iterator(), offerFilledEvents::emit);
+			exec.executeInstantSell(productEntry.buyOffers, offerFilledEvents::emit);
 			break;
 		}
 
-		InstantOfferExecuteResult result = new InstantOfferExecuteResult(exec.getCurrentUnits(), exec
-			.getCurrentBalance());
-		return CompletableFuture.completedFuture(result);
+		return exec.toResult();
+	}
+
+	@Override
+	public CompletableFuture<List<BulkResult<InstantOfferExecuteResult>>> instantOffersAsync(List<InstantOfferRequest> requests) {
+		if (requests.stream().anyMatch(r -> r.product() instanceof MemoryProduct p
+			&& entries.containsKey(p) && entries.get(p).auction != null)) {
+			// Some results are only available after clearing
+			return BulkResult.collect(requests.stream()
+				.map(r -> instantOfferRawAsync(r.product(), r.type(), r.units(), r.balance()))
+				.toList());
+		}
+
+		var results = new ArrayList<BulkResult<InstantOfferExecuteResult>>(requests.size());
+
+		for (var r : requests) {
+			try {
+				results.add(BulkResult.success(executeInstantOffer(r.product(), r.type(), r.units(), r.balance())));
+			} catch (Throwable t) {
+				results.add(BulkResult.failure(t));
+			}
+		}
+
+		publishUpdates();
+		return CompletableFuture.completedFuture(results);
+	}
+
+	/**
+	 * <p>
+	 * Set the batch auction interval for the product. When the interval is
+	 * positive, new offers for the product will not be matched when they are
+	 * listed, and instant offers will wait for the next clearing. All of them are
+	 * then executed at a single price when the auction is cleared, which happens
+	 * every {@code interval} calls to {@link #tickAuctions()}. See
+	 * {@link BatchAuction} for more details.
+	 * </p>
+	 * <p>
+	 * Setting the interval to {@code 0} clears the pending auction and switches
+	 * the product back to continuous matching.
+	 * </p>
+	 * 
+	 * @param product  The product.
+	 * @param interval Number of ticks between each clearing, or {@code 0} to
+	 *                 disable batch auction.
+	 */
+	public void setAuctionInterval(Product product, int interval) {
+		var productEntry = getProductEntry(product);
+
+		if (interval <= 0) {
+			if (productEntry.auction != null) clearAuction(productEntry);
+			productEntry.auction = null;
+			productEntry.auctionInterval = 0;
+			publishUpdates();
+			return;
+		}
+
+		if (productEntry.auction == null) productEntry.auction = new BatchAuction(scale);
+		productEntry.auctionInterval = interval;
+		productEntry.ticksUntilClearing = interval;
+	}
+
+	public int getAuctionInterval(Product product) {
+		return getProductEntry(product).auctionInterval;
+	}
+
+	/**
+	 * <p>
+	 * Advance batch auctions by 1 tick, clearing the auctions that are due.
+	 * Frontends should call this method every game tick.
+	 * </p>
+	 */
+	public void tickAuctions() {
+		for (var productEntry : entries.values()) {
+			if (productEntry.auction == null || --productEntry.ticksUntilClearing > 0) continue;
+			clearAuction(productEntry);
+			productEntry.ticksUntilClearing = productEntry.auctionInterval;
+		}
+
+		publishUpdates();
+	}
+
+	/**
+	 * <p>
+	 * Clear the batch auction of the product now, without waiting for the next
+	 * scheduled clearing.
+	 * </p>
+	 * 
+	 * @param product The product.
+	 * @return The clearing result, or {@code null} if the product is not in batch
+	 *         auction mode.
+	 */
+	public BatchAuction.ClearingResult clearAuction(Product product) {
+		var productEntry = getProductEntry(product);
+		if (productEntry.auction == null) return null;
+		var result = clearAuction(productEntry);
+		publishUpdates();
+		return result;
+	}
+
+	private BatchAuction.ClearingResult clearAuction(ProductEntry productEntry) {
+		return productEntry.auction.clear(productEntry.buyOffers, productEntry.sellOffers, offerFilledEvents::emit);
 	}
 
 	@Override
@@ -238,8 +814,14 @@ public class StonksMemoryService implements LocalStonksService {
 
 	@Override
 	public void loadServiceData() {
-		// Clear all
+		clearOffers();
+		changedUsers.addAll(offersPublisher.getTopics());
+		publishUpdates();
+	}
+
+	private void clearOffers() {
 		offers.clear();
+		Arrays.fill(allOffers, null);
 		userOffers.clear();
 		entries.values().forEach(v -> {
 			v.buyOffers.clear();
@@ -247,8 +829,154 @@ public class StonksMemoryService implements LocalStonksService {
 		});
 	}
 
+	/**
+	 * <p>
+	 * Replace all offers of this service, usually with a snapshot of the service
+	 * that this service replicates. Like {@link #insertOffer(Offer)}, the offers
+	 * are not recorded to the journal. Subscribers only receive the changes
+	 * between the old and new offers. Like loading saved offers, offers of each
+	 * user may be in a different order than before.
+	 * </p>
+	 * 
+	 * @param offers The new offers, in the order from
+	 *               {@link #getOffersInPriorityOrder()}.
+	 */
+	public void replaceOffers(Collection<Offer> offers) {
+		clearOffers();
+		insertOffers(offers);
+		changedUsers.addAll(offersPublisher.getTopics());
+		publishUpdates();
+	}
+
+	/**
+	 * <p>
+	 * Apply changes recorded by the journal of another service, usually the
+	 * service that this service replicates. Changes are applied without matching
+	 * offers, and filled offers keep their position in order books until they
+	 * are fully filled. Like {@link #insertOffer(Offer)}, the changes are not
+	 * recorded to the journal of this service, and no fill events are emitted.
+	 * </p>
+	 * 
+	 * @param records The changes, in the order they were recorded.
+	 */
+	public void applyChanges(Collection<JournalRecord> records) {
+		for (var record : records) {
+			switch (record) {
+			case JournalRecord.Listed listed -> {
+				offersAccessed(List.of(listed.offerId()));
+				var entry = offers.get(listed.offerId());
+
+				if (entry == null) {
+					var offer = listed.offer().withScale(scale);
+					insertOffer(offer);
+					offerChanged(offer);
+				} else {
+					// Listed again, which happens when offers are listed during a snapshot
+					var offer = listed.offer();
+					applyChange(entry, new JournalRecord.Updated(offer.getOfferId(), offer.getFilledUnits(),
+						offer.getClaimedUnits(), offer.getPriceImprovementTicks(), offer.getScale()));
+				}
+			}
+			case JournalRecord.Updated updated -> {
+				offersAccessed(List.of(updated.offerId()));
+				var entry = offers.get(updated.offerId());
+				if (entry != null) applyChange(entry, updated);
+			}
+			case JournalRecord.Removed removed -> removeChangedOffer(removed.offerId());
+			case JournalRecord.Dropped dropped -> removeChangedOffer(dropped.offerId());
+			}
+		}
+
+		publishUpdates();
+	}
+
+	private void applyChange(OfferEntry entry, JournalRecord.Updated updated) {
+		var offer = entry.offer();
+		beforeChange(offer);
+		updated.applyTo(offer);
+		if (entry.bookNode() != null) getBook(offer).update(entry.bookNode());
+		offerChanged(offer);
+	}
+
+	private void removeChangedOffer(UUID offerId) {
+		offersAccessed(List.of(offerId));
+		var entry = removeOfferEntry(offerId);
+		if (entry == null) return;
+		var offer = entry.offer();
+		removeUserOffer(offer);
+		if (entry.bookNode() != null) getBook(offer).remove(entry.bookNode());
+		offerChanged(offer);
+	}
+
 	@Override
 	public void subscribeToOfferFilledEvents(Consumer<Offer> consumer) {
 		offerFilledEvents.listen(consumer);
 	}
+
+	@Override
+	public boolean isSubscriptionSupported() { return true; }
+
+	/**
+	 * <p>
+	 * Subscribe to the market overview of a product. Updates are sent at the end
+	 * of each call that changes the market, on the calling thread. Like other
+	 * methods of this service, this method must be called on the thread that
+	 * uses this service.
+	 * </p>
+	 */
+	@Override
+	public Subscription subscribeToOverviewUpdates(Product product, Consumer<OverviewUpdate> consumer) {
+		var overview = getProductEntry(product).getOverview();
+		var subscription = overviewPublisher.subscribe(product, consumer);
+		overviewPublisher.publish(overview);
+		return subscription;
+	}
+
+	/**
+	 * <p>
+	 * Subscribe to offers made by user. Updates are sent in the same way as
+	 * {@link #subscribeToOverviewUpdates(Product, Consumer)}.
+	 * </p>
+	 */
+	@Override
+	public Subscription subscribeToOffersUpdates(UUID user, Consumer<OffersUpdate> consumer) {
+		var offers = copyUserOffers(user);
+		var subscription = offersPublisher.subscribe(user, consumer);
+		offersPublisher.publish(user, offers);
+		return subscription;
+	}
+
+	private void offerChanged(Offer offer) {
+		if (offersPublisher.hasSubscribers(offer.getOffererId())) changedUsers.add(offer.getOffererId());
+	}
+
+	private List<Offer> copyUserOffers(UUID user) {
+		userAccessed(user);
+		var userOffers = this.userOffers.get(user);
+		if (userOffers == null) return List.of();
+		return userOffers.values().stream().map(Offer::createCopy).toList();
+	}
+
+	/**
+	 * <p>
+	 * Send updates of changed overviews and offers to subscribers. Overviews are
+	 * only compared when they were rebuilt, so this is cheap when nothing was
+	 * changed.
+	 * </p>
+	 */
+	protected void publishUpdates() {
+		if (!overviewPublisher.isEmpty()) {
+			for (var product : overviewPublisher.getTopics()) {
+				// Unloaded products are published again when they are loaded
+				var productEntry = entries.get(product);
+				if (productEntry != null) overviewPublisher.publish(productEntry.getOverview());
+			}
+		}
+
+		if (changedUsers.isEmpty()) return;
+		// Consumers may call this service again
+		var users = changedUsers;
+		changedUsers = new HashSet<>();
+		for (var user : users) offersPublisher.publish(user, copyUserOffers(user));
+	}
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * A connection that sends and receives {@link RemoteProtocol} frames. Received
+ * frames are passed to {@link Handler}, and frames to send are queued with
+ * {@link #send(byte[])} from any thread. {@link SocketConnection} uses a pair
+ * of threads for each connection, while {@link SelectorConnection} shares one
+ * {@link RemoteEventLoop} thread with other connections.
+ * </p>
+ */
+abstract class RemoteConnection implements AutoCloseable {
+	protected static final int BUFFER_SIZE = 1 << 16;
+
+	public static interface Handler {
+		/**
+		 * <p>
+		 * Called for each frame, one frame at a time. The payload is only valid until
+		 * this method returns.
+		 * </p>
+		 * 
+		 * @param correlationId The correlation ID.
+		 * @param code          The operation, status or event type.
+		 * @param payload       The payload.
+		 */
+		public void frame(int correlationId, int code, DataInputStream payload) throws IOException;
+
+		/**
+		 * <p>
+		 * Called once when the connection is closed, by either side.
+		 * </p>
+		 * 
+		 * @param cause The cause, or {@code null} if it was closed normally.
+		 */
+		public void closed(Throwable cause);
+	}
+
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	private Handler handler;
+
+	/**
+	 * <p>
+	 * Start receiving frames.
+	 * </p>
+	 * 
+	 * @param handler The handler for received frames.
+	 */
+	public void start(Handler handler) {
+		this.handler = handler;
+		open();
+	}
+
+	protected abstract void open();
+
+	public boolean isOpen() { return !closed.get(); }
+
+	/**
+	 * <p>
+	 * Queue a frame from {@link RemoteProtocol#frame(int, int, RemoteProtocol.Body)}.
+	 * </p>
+	 * 
+	 * @param frame The frame.
+	 * @return {@code false} if the connection is closed.
+	 */
+	public abstract boolean send(byte[] frame);
+
+	/**
+	 * <p>
+	 * Pass a frame to the handler.
+	 * </p>
+	 * 
+	 * @param bytes  The buffer.
+	 * @param offset Offset of the frame, after its length.
+	 * @param length Length of the frame.
+	 */
+	protected void dispatch(byte[] bytes, int offset, int length) throws IOException {
+		var payload = new DataInputStream(new ByteArrayInputStream(bytes, offset + 5, length - 5));
+		handler.frame(readInt(bytes, offset), bytes[offset + 4] & 0xFF, payload);
+	}
+
+	protected static int readInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) << 24
+			| (bytes[offset + 1] & 0xFF) << 16
+			| (bytes[offset + 2] & 0xFF) << 8
+			| (bytes[offset + 3] & 0xFF);
+	}
+
+	protected static void checkLength(int length) throws IOException {
+		if (length < 5 || length > RemoteProtocol.MAX_FRAME_LENGTH)
+			throw new IOException("RemoteConnection: Invalid frame length " + length);
+	}
+
+	/**
+	 * <p>
+	 * Release the resources of this connection. Called once when the connection
+	 * is closed.
+	 * </p>
+	 */
+	protected abstract void release();
+
+	protected void close(Throwable cause) {
+		if (!closed.compareAndSet(false, true)) return;
+		release();
+		if (handler != null) handler.closed(cause);
+	}
+
+	/**
+	 * <p>
+	 * Close the connection. Queued frames may not be sent.
+	 * </p>
+	 */
+	@Override
+	public void close() {
+		close(null);
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.remote;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>
+ * Accepts connections and reads and writes frames of all connections on a
+ * single thread, with non-blocking channels and a {@link Selector}. This uses
+ * 1 thread no matter how many clients are connected, at the cost of handling
+ * frames of all clients one at a time.
+ * </p>
+ * <p>
+ * Failures of one connection or one task are logged and only close that
+ * connection, so the loop keeps serving other clients.
+ * </p>
+ */
+class RemoteEventLoop implements Executor, AutoCloseable {
+	private static final long ACCEPT_RETRY_DELAY = 100L;
+
+	@FunctionalInterface
+	public static interface Acceptor {
+		public RemoteConnection.Handler accepted(RemoteConnection connection);
+	}
+
+	private final ServerSocketChannel server;
+	private final SelectionKey serverKey;
+	private final Selector selector;
+	private final Acceptor acceptor;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private volatile boolean closed = false;
+
+	public RemoteEventLoop(InetSocketAddress address, Acceptor acceptor) throws IOException {
+		this.acceptor = acceptor;
+		this.selector = Selector.open();
+
+		try {
+			server = ServerSocketChannel.open();
+			server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			server.bind(address);
+			server.configureBlocking(false);
+			serverKey = server.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			selector.close();
+			throw e;
+		}
+
+		Thread.ofPlatform().name("Stonks Remote Event Loop").daemon().start(this::run);
+	}
+
+	public InetSocketAddress getAddress() throws IOException {
+		return (InetSocketAddress) server.getLocalAddress();
+	}
+
+	/**
+	 * <p>
+	 * Run the task on the event loop thread.
+	 * </p>
+	 */
+	@Override
+	public void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	private void run() {
+		try {
+			while (!closed) {
+				selector.select();
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					try {
+						task.run();
+					} catch (Throwable e) {
+						e.printStackTrace();
+					}
+				}
+
+				var iterator = selector.selectedKeys().iterator();
+
+				while (iterator.hasNext()) {
+					var key = iterator.next();
+					iterator.remove();
+					if (!key.isValid()) continue;
+
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+
+					var connection = (SelectorConnection) key.attachment();
+
+					try {
+						if (key.isReadable()) connection.read();
+						if (key.isValid() && key.isWritable()) connection.write();
+					} catch (Throwable e) {
+						connection.close(e);
+					}
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			if (!closed) e.printStackTrace();
+		} finally {
+			for (var key : selector.keys()) {
+				if (key.attachment() instanceof SelectorConnection connection) connection.close();
+			}
+
+			try {
+				server.close();
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void accept() {
+		while (true) {
+			SocketChannel channel;
+
+			try {
+				channel = server.accept();
+			} catch (IOException e) {
+				// Usually too many open files. The connection stays in the backlog, so stop
+				// accepting for a while instead of failing on every select
+				e.printStackTrace();
+				serverKey.interestOps(0);
+				Thread.ofVirtual().start(() -> {
+					try {
+						Thread.sleep(ACCEPT_RETRY_DELAY);
+					} catch (InterruptedException ie) {
+						return;
+					}
+
+					execute(() -> {
+						if (serverKey.isValid()) serverKey.interestOps(SelectionKey.OP_ACCEPT);
+					});
+				});
+				return;
+			}
+
+			if (channel == null) return;
+			var connection = new SelectorConnection(this, channel);
+
+			try {
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+				connection.start(acceptor.accepted(connection));
+			} catch (IOException | RuntimeException e) {
+				// Usually the client reset the connection before it was set up
+				e.printStackTrace();
+				connection.close(e);
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Stop accepting connections and close all connections.
+	 * </p>
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		selector.wakeup();
+	}
+}
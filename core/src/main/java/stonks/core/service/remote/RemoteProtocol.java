@@ -0,0 +1,620 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+import stonks.core.dynamic.Dynamic;
+import stonks.core.dynamic.DynamicFactory;
+import stonks.core.dynamic.DynamicList;
+import stonks.core.dynamic.DynamicMap;
+import stonks.core.dynamic.DynamicPrimitive;
+import stonks.core.exec.InstantOfferExecuteResult;
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.OverviewOffer;
+import stonks.core.market.OverviewOffersList;
+import stonks.core.market.PriceScale;
+import stonks.core.market.ProductMarketOverview;
+import stonks.core.product.Category;
+import stonks.core.product.Product;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.replication.ReplicationBatch;
+import stonks.core.service.subscription.OffersUpdate;
+import stonks.core.service.subscription.OverviewUpdate;
+
+/**
+ * <p>
+ * Binary protocol between {@link RemoteStonksService} and
+ * {@link RemoteStonksServer}. Both sides send frames, all numbers are
+ * big-endian:
+ * </p>
+ * <ul>
+ * <li>{@code u32} length of the rest of the frame.</li>
+ * <li>{@code s32} correlation ID. Requests use IDs that are not {@code 0}, and
+ * the response to a request has the same ID. Events from the server have ID
+ * {@code 0}.</li>
+ * <li>{@code u8} code. For requests, this is the operation (like
+ * {@link #OP_LIST}). For responses, this is {@link #STATUS_OK} or
+ * {@link #STATUS_ERROR}. For events, this is the event type.</li>
+ * <li>Payload, depending on the code.</li>
+ * </ul>
+ * <p>
+ * Clients can send many requests without waiting for responses, and the server
+ * may respond in any order. The first request on each connection must be
+ * {@link #OP_HELLO}.
+ * </p>
+ * <p>
+ * Prices are always sent as ticks in the price scale of the server, which is
+ * sent in the response of {@link #OP_HELLO}. Products are sent as their IDs,
+ * except in {@link #OP_CATEGORIES}.
+ * </p>
+ */
+public final class RemoteProtocol {
+	public static final int MAGIC = 0x5352454D; // SREM
+	public static final int VERSION = 1;
+	public static final int DEFAULT_PORT = 25590;
+	public static final int MAX_FRAME_LENGTH = 1 << 24;
+	// 2 UUIDs, empty product ID, type, 3 unit counts and 2 prices
+	private static final int OFFER_SIZE = 16 + 16 + 2 + 1 + 3 * 4 + 2 * 8;
+
+	/**
+	 * <p>
+	 * Request: {@code s32} {@link #MAGIC}, {@code u32} {@link #VERSION}. Response:
+	 * {@code u32} version, {@code u32} price decimals.
+	 * </p>
+	 */
+	public static final int OP_HELLO = 0x01;
+	/**
+	 * <p>
+	 * Request: nothing. Response: categories, see
+	 * {@link #writeCategories(DataOutput, List)}.
+	 * </p>
+	 */
+	public static final int OP_CATEGORIES = 0x02;
+	/**
+	 * <p>
+	 * Request: product ID. Response: overview.
+	 * </p>
+	 */
+	public static final int OP_OVERVIEW = 0x03;
+	/**
+	 * <p>
+	 * Request: user ID. Response: list of offers.
+	 * </p>
+	 */
+	public static final int OP_USER_OFFERS = 0x04;
+	/**
+	 * <p>
+	 * Request: list of offer IDs. Response: list of offers.
+	 * </p>
+	 */
+	public static final int OP_GET_OFFERS = 0x05;
+	public static final int OP_CLAIM = 0x06;
+	public static final int OP_CANCEL = 0x07;
+	/**
+	 * <p>
+	 * Request: user ID, product ID, type, {@code u32} units, {@code s64} price
+	 * per unit. Response: offer.
+	 * </p>
+	 */
+	public static final int OP_LIST = 0x08;
+	/**
+	 * <p>
+	 * Request: product ID, type, {@code u32} units, {@code s64} balance.
+	 * Response: {@code u32} units, {@code s64} balance.
+	 * </p>
+	 */
+	public static final int OP_INSTANT = 0x09;
+	/**
+	 * <p>
+	 * Request: {@code u32} count, then the body of {@link #OP_LIST} for each
+	 * request. Response: {@code u32} count, then a bulk result for each request.
+	 * </p>
+	 */
+	public static final int OP_LIST_BULK = 0x0A;
+	public static final int OP_INSTANT_BULK = 0x0B;
+	/**
+	 * <p>
+	 * Request: nothing. Response: nothing. The server sends
+	 * {@link #EVENT_OFFER_FILLED} to this connection from now on.
+	 * </p>
+	 */
+	public static final int OP_SUBSCRIBE_FILLED = 0x0C;
+	/**
+	 * <p>
+	 * Request: product ID. Response: nothing. The server sends a snapshot with
+	 * {@link #EVENT_OVERVIEW_UPDATE}, then an update every time the overview is
+	 * changed. If the connection is already subscribed to the product, the server
+	 * sends a new snapshot instead.
+	 * </p>
+	 */
+	public static final int OP_SUBSCRIBE_OVERVIEW = 0x0D;
+	/**
+	 * <p>
+	 * Request: product ID. Response: nothing.
+	 * </p>
+	 */
+	public static final int OP_UNSUBSCRIBE_OVERVIEW = 0x0E;
+	/**
+	 * <p>
+	 * Request: user ID. Response: nothing. Same as {@link #OP_SUBSCRIBE_OVERVIEW},
+	 * but for {@link #EVENT_OFFERS_UPDATE}.
+	 * </p>
+	 */
+	public static final int OP_SUBSCRIBE_OFFERS = 0x0F;
+	public static final int OP_UNSUBSCRIBE_OFFERS = 0x10;
+	/**
+	 * <p>
+	 * Request: nothing. Response: nothing. Only available when the server has a
+	 * replication log. The server sends a snapshot with
+	 * {@link #EVENT_REPLICATION}, then every committed batch of changes.
+	 * Replicating again sends a new snapshot.
+	 * </p>
+	 */
+	public static final int OP_REPLICATE = 0x11;
+	/**
+	 * <p>
+	 * Request: nothing. Response: {@code s64} sequence number of the last
+	 * committed change. All batches up to this sequence number are sent to this
+	 * connection before the response.
+	 * </p>
+	 */
+	public static final int OP_REPLICATION_SEQUENCE = 0x12;
+
+	public static final int STATUS_OK = 0x00;
+	/**
+	 * <p>
+	 * Payload: error message.
+	 * </p>
+	 */
+	public static final int STATUS_ERROR = 0x01;
+
+	/**
+	 * <p>
+	 * Payload: the filled offer.
+	 * </p>
+	 */
+	public static final int EVENT_OFFER_FILLED = 0x01;
+	/**
+	 * <p>
+	 * Payload: overview update, see
+	 * {@link #writeOverviewUpdate(DataOutput, OverviewUpdate, PriceScale)}.
+	 * </p>
+	 */
+	public static final int EVENT_OVERVIEW_UPDATE = 0x02;
+	/**
+	 * <p>
+	 * Payload: offers update, see
+	 * {@link #writeOffersUpdate(DataOutput, OffersUpdate, PriceScale)}.
+	 * </p>
+	 */
+	public static final int EVENT_OFFERS_UPDATE = 0x03;
+	/**
+	 * <p>
+	 * Payload: replication batch, see
+	 * {@link #writeReplicationBatch(DataOutput, ReplicationBatch)}.
+	 * </p>
+	 */
+	public static final int EVENT_REPLICATION = 0x04;
+
+	private static final byte DYNAMIC_NULL = 0;
+	private static final byte DYNAMIC_STRING = 1;
+	private static final byte DYNAMIC_LONG = 2;
+	private static final byte DYNAMIC_DOUBLE = 3;
+	private static final byte DYNAMIC_BOOLEAN = 4;
+	private static final byte DYNAMIC_MAP = 5;
+	private static final byte DYNAMIC_LIST = 6;
+
+	private RemoteProtocol() {}
+
+	@FunctionalInterface
+	public static interface Body {
+		public void write(DataOutput out) throws IOException;
+	}
+
+	/**
+	 * <p>
+	 * Encode a frame, including the length.
+	 * </p>
+	 * 
+	 * @param correlationId The correlation ID.
+	 * @param code          The operation, status or event type.
+	 * @param body          Writes the payload.
+	 * @return The frame.
+	 */
+	public static byte[] frame(int correlationId, int code, Body body) throws IOException {
+		var bytes = new ByteArrayOutputStream(64);
+		var out = new DataOutputStream(bytes);
+		out.writeInt(0);
+		out.writeInt(correlationId);
+		out.writeByte(code);
+		body.write(out);
+		var frame = bytes.toByteArray();
+		ByteBuffer.wrap(frame).putInt(0, frame.length - 4);
+		return frame;
+	}
+
+	public static void writeUUID(DataOutput out, UUID uuid) throws IOException {
+		out.writeLong(uuid.getMostSignificantBits());
+		out.writeLong(uuid.getLeastSignificantBits());
+	}
+
+	public static UUID readUUID(DataInput in) throws IOException {
+		return new UUID(in.readLong(), in.readLong());
+	}
+
+	public static void writeUUIDs(DataOutput out, Collection<UUID> uuids) throws IOException {
+		out.writeInt(uuids.size());
+		for (var uuid : uuids) writeUUID(out, uuid);
+	}
+
+	public static List<UUID> readUUIDs(DataInput in) throws IOException {
+		var count = readCount(in, 16);
+		var uuids = new ArrayList<UUID>(count);
+		for (int i = 0; i < count; i++) uuids.add(readUUID(in));
+		return uuids;
+	}
+
+	public static void writeType(DataOutput out, OfferType type) throws IOException {
+		out.writeByte(type == OfferType.BUY ? 0 : 1);
+	}
+
+	public static OfferType readType(DataInput in) throws IOException {
+		return in.readByte() == 0 ? OfferType.BUY : OfferType.SELL;
+	}
+
+	/**
+	 * <p>
+	 * Read a count and check that the rest of the frame can hold that many
+	 * elements, so a small frame can't allocate huge lists. The rest of the frame
+	 * is only known when the input is an {@link InputStream}, like the payload
+	 * of a frame. Otherwise, the count is only checked against the maximum frame
+	 * length.
+	 * </p>
+	 * 
+	 * @param in          The input.
+	 * @param elementSize The minimum number of bytes of each element.
+	 * @return The count.
+	 */
+	public static int readCount(DataInput in, int elementSize) throws IOException {
+		var count = in.readInt();
+		var remaining = in instanceof InputStream stream ? stream.available() : MAX_FRAME_LENGTH;
+		if (count < 0 || count > remaining / elementSize)
+			throw new IOException("RemoteProtocol: Invalid count " + count);
+		return count;
+	}
+
+	/**
+	 * <p>
+	 * Write an offer. The offer is converted to the given scale.
+	 * </p>
+	 */
+	public static void writeOffer(DataOutput out, Offer offer, PriceScale scale) throws IOException {
+		writeUUID(out, offer.getOfferId());
+		writeUUID(out, offer.getOffererId());
+		out.writeUTF(offer.getProduct().getProductId());
+		writeType(out, offer.getType());
+		out.writeInt(offer.getTotalUnits());
+		out.writeInt(offer.getClaimedUnits());
+		out.writeInt(offer.getFilledUnits());
+		out.writeLong(scale.rescale(offer.getPricePerUnitTicks(), offer.getScale()));
+		out.writeLong(scale.rescale(offer.getPriceImprovementTicks(), offer.getScale()));
+	}
+
+	public static Offer readOffer(DataInput in, PriceScale scale, Function<String, Product> products) throws IOException {
+		var offerId = readUUID(in);
+		var offerer = readUUID(in);
+		var product = products.apply(in.readUTF());
+		var type = readType(in);
+		var offer = new Offer(offerId, offerer, product, type, in.readInt(), in.readInt(), in.readInt(), in.readLong(),
+			scale);
+		offer.setPriceImprovementTicks(in.readLong());
+		return offer;
+	}
+
+	public static void writeOffers(DataOutput out, Collection<Offer> offers, PriceScale scale) throws IOException {
+		out.writeInt(offers.size());
+		for (var offer : offers) writeOffer(out, offer, scale);
+	}
+
+	public static List<Offer> readOffers(DataInput in, PriceScale scale, Function<String, Product> products) throws IOException {
+		var count = readCount(in, OFFER_SIZE);
+		var offers = new ArrayList<Offer>(count);
+		for (int i = 0; i < count; i++) offers.add(readOffer(in, scale, products));
+		return offers;
+	}
+
+	public static Map<UUID, Offer> readOffersMap(DataInput in, PriceScale scale, Function<String, Product> products) throws IOException {
+		var offers = new LinkedHashMap<UUID, Offer>();
+		for (var offer : readOffers(in, scale, products)) offers.put(offer.getOfferId(), offer);
+		return offers;
+	}
+
+	public static void writeOverview(DataOutput out, ProductMarketOverview overview, PriceScale scale) throws IOException {
+		out.writeUTF(overview.getProduct().getProductId());
+		out.writeLong(overview.getVersion());
+		writeLevels(out, overview.getBuyOffers().getEntries(), scale);
+		writeLevels(out, overview.getSellOffers().getEntries(), scale);
+	}
+
+	private static void writeLevels(DataOutput out, List<OverviewOffer> entries, PriceScale scale) throws IOException {
+		out.writeInt(entries.size());
+
+		for (var entry : entries) {
+			out.writeInt(entry.offers());
+			out.writeInt(entry.totalAvailableUnits());
+			out.writeLong(scale.rescale(entry.pricePerUnitTicks(), entry.scale()));
+		}
+	}
+
+	public static ProductMarketOverview readOverview(DataInput in, PriceScale scale, Function<String, Product> products) throws IOException {
+		var product = products.apply(in.readUTF());
+		var version = in.readLong();
+		var buy = new OverviewOffersList(OfferType.BUY, readLevels(in, scale));
+		var sell = new OverviewOffersList(OfferType.SELL, readLevels(in, scale));
+		return new ProductMarketOverview(product, buy, sell, version);
+	}
+
+	private static List<OverviewOffer> readLevels(DataInput in, PriceScale scale) throws IOException {
+		var count = readCount(in, 16);
+		var entries = new ArrayList<OverviewOffer>(count);
+		for (int i = 0; i < count; i++) entries.add(new OverviewOffer(in.readInt(), in.readInt(), in.readLong(), scale));
+		return entries;
+	}
+
+	/**
+	 * <p>
+	 * Write an overview update: product ID, {@code s64} sequence, {@code s64}
+	 * version, {@code bool} snapshot, then the changed buy and sell levels in the
+	 * same way as overview.
+	 * </p>
+	 */
+	public static void writeOverviewUpdate(DataOutput out, OverviewUpdate update, PriceScale scale) throws IOException {
+		out.writeUTF(update.product().getProductId());
+		out.writeLong(update.sequence());
+		out.writeLong(update.version());
+		out.writeBoolean(update.snapshot());
+		writeLevels(out, update.buyLevels(), scale);
+		writeLevels(out, update.sellLevels(), scale);
+	}
+
+	public static OverviewUpdate readOverviewUpdate(DataInput in, PriceScale scale, Function<String, Product> products) throws IOException {
+		var product = products.apply(in.readUTF());
+		var sequence = in.readLong();
+		var version = in.readLong();
+		var snapshot = in.readBoolean();
+		var buy = readLevels(in, scale);
+		var sell = readLevels(in, scale);
+		return new OverviewUpdate(product, sequence, version, snapshot, buy, sell);
+	}
+
+	/**
+	 * <p>
+	 * Write an offers update: user ID, {@code s64} sequence, {@code bool}
+	 * snapshot, list of changed offers and list of removed offer IDs.
+	 * </p>
+	 */
+	public static void writeOffersUpdate(DataOutput out, OffersUpdate update, PriceScale scale) throws IOException {
+		writeUUID(out, update.user());
+		out.writeLong(update.sequence());
+		out.writeBoolean(update.snapshot());
+		writeOffers(out, update.offers(), scale);
+		writeUUIDs(out, update.removed());
+	}
+
+	public static OffersUpdate readOffersUpdate(DataInput in, PriceScale scale, Function<String, Product> products) throws IOException {
+		var user = readUUID(in);
+		var sequence = in.readLong();
+		var snapshot = in.readBoolean();
+		var offers = readOffers(in, scale, products);
+		return new OffersUpdate(user, sequence, snapshot, offers, readUUIDs(in));
+	}
+
+	/**
+	 * <p>
+	 * Write a replication batch: {@code s64} sequence, {@code bool} snapshot,
+	 * {@code bool} partial, {@code u32} number of records, then {@code u32}
+	 * length and the encoded records.
+	 * </p>
+	 */
+	public static void writeReplicationBatch(DataOutput out, ReplicationBatch batch) throws IOException {
+		out.writeLong(batch.sequence());
+		out.writeBoolean(batch.snapshot());
+		out.writeBoolean(batch.partial());
+		out.writeInt(batch.count());
+		out.writeInt(batch.records().length);
+		out.write(batch.records());
+	}
+
+	public static ReplicationBatch readReplicationBatch(DataInput in) throws IOException {
+		var sequence = in.readLong();
+		var snapshot = in.readBoolean();
+		var partial = in.readBoolean();
+		// Removal records are the smallest, with 25 bytes
+		var count = readCount(in, 25);
+		var records = new byte[readCount(in, 1)];
+		in.readFully(records);
+		return new ReplicationBatch(sequence, snapshot, partial, count, records);
+	}
+
+	public static void writeInstantResult(DataOutput out, InstantOfferExecuteResult result, PriceScale scale) throws IOException {
+		out.writeInt(result.units());
+		out.writeLong(scale.rescale(result.balanceTicks(), result.scale()));
+	}
+
+	public static InstantOfferExecuteResult readInstantResult(DataInput in, PriceScale scale) throws IOException {
+		return new InstantOfferExecuteResult(in.readInt(), in.readLong(), scale);
+	}
+
+	/**
+	 * <p>
+	 * Write categories: {@code u32} number of categories, then each category as
+	 * ID, name, {@code u32} number of products and each product as ID, name and
+	 * metadata.
+	 * </p>
+	 */
+	public static void writeCategories(DataOutput out, List<Category> categories) throws IOException {
+		out.writeInt(categories.size());
+
+		for (var category : categories) {
+			out.writeUTF(category.getCategoryId());
+			out.writeUTF(category.getCategoryName());
+			var products = category.getProducts();
+			out.writeInt(products.size());
+
+			for (var product : products) {
+				out.writeUTF(product.getProductId());
+				out.writeUTF(product.getProductName());
+				writeDynamic(out, product.getProductMetadata());
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Read categories as {@link MemoryCategory} and {@link MemoryProduct}.
+	 * </p>
+	 * 
+	 * @param in      The input.
+	 * @param factory The factory for product metadata.
+	 * @return The categories.
+	 */
+	public static List<Category> readCategories(DataInput in, DynamicFactory factory) throws IOException {
+		var count = readCount(in, 8);
+		var categories = new ArrayList<Category>(count);
+
+		for (int i = 0; i < count; i++) {
+			var category = new MemoryCategory(in.readUTF(), in.readUTF());
+			var products = readCount(in, 5);
+
+			for (int j = 0; j < products; j++) {
+				var id = in.readUTF();
+				var name = in.readUTF();
+				category.getModifiableMockProducts().add(new MemoryProduct(category, id, name, readDynamic(in,
+					factory)));
+			}
+
+			categories.add(category);
+		}
+
+		return categories;
+	}
+
+	public static void writeDynamic(DataOutput out, Dynamic value) throws IOException {
+		switch (value) {
+		case null -> out.writeByte(DYNAMIC_NULL);
+		case DynamicPrimitive prim when prim.isString() -> {
+			if (prim.asString() == null) {
+				out.writeByte(DYNAMIC_NULL);
+				return;
+			}
+
+			out.writeByte(DYNAMIC_STRING);
+			out.writeUTF(prim.asString());
+		}
+		case DynamicPrimitive prim when prim.isBoolean() -> {
+			out.writeByte(DYNAMIC_BOOLEAN);
+			out.writeBoolean(prim.asBoolean());
+		}
+		case DynamicPrimitive prim when prim.isNumber() -> {
+			var number = prim.asNumber();
+
+			if (number instanceof Double || number instanceof Float) {
+				out.writeByte(DYNAMIC_DOUBLE);
+				out.writeDouble(number.doubleValue());
+			} else {
+				out.writeByte(DYNAMIC_LONG);
+				out.writeLong(number.longValue());
+			}
+		}
+		case DynamicPrimitive prim -> out.writeByte(DYNAMIC_NULL);
+		case DynamicMap map -> {
+			out.writeByte(DYNAMIC_MAP);
+			var keys = map.keys();
+			out.writeInt(keys.size());
+
+			for (var key : keys) {
+				out.writeUTF(key);
+				writeDynamic(out, map.getOrNull(key));
+			}
+		}
+		case DynamicList list -> {
+			out.writeByte(DYNAMIC_LIST);
+			out.writeInt(list.size());
+			for (var element : list) writeDynamic(out, element);
+		}
+		default -> throw new IOException("RemoteProtocol: Unknown dynamic type " + value);
+		}
+	}
+
+	public static Dynamic readDynamic(DataInput in, DynamicFactory factory) throws IOException {
+		var type = in.readByte();
+
+		switch (type) {
+		case DYNAMIC_NULL:
+			return null;
+		case DYNAMIC_STRING:
+			return factory.createPrimitive(in.readUTF());
+		case DYNAMIC_LONG:
+			return factory.createPrimitive(in.readLong());
+		case DYNAMIC_DOUBLE:
+			return factory.createPrimitive(in.readDouble());
+		case DYNAMIC_BOOLEAN:
+			return factory.createPrimitive(in.readBoolean());
+		case DYNAMIC_MAP: {
+			var map = factory.createMap();
+			var count = readCount(in, 3);
+			for (int i = 0; i < count; i++) map.put(in.readUTF(), readDynamic(in, factory));
+			return map;
+		}
+		case DYNAMIC_LIST: {
+			var list = factory.createList();
+			var count = readCount(in, 1);
+			for (int i = 0; i < count; i++) list.add(readDynamic(in, factory));
+			return list;
+		}
+		default:
+			throw new IOException("RemoteProtocol: Unknown dynamic type " + type);
+		}
+	}
+
+	public static void writeError(DataOutput out, Throwable error) throws IOException {
+		var message = error.getMessage();
+		var text = error.getClass().getSimpleName() + (message != null ? ": " + message : "");
+		out.writeUTF(text.length() > 1024 ? text.substring(0, 1024) : text);
+	}
+}
@@ -0,0 +1,685 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.remote;
+
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.product.Category;
+import stonks.core.product.Product;
+import stonks.core.service.StonksService;
+import stonks.core.service.bulk.BulkResult;
+import stonks.core.service.bulk.InstantOfferRequest;
+import stonks.core.service.bulk.ListOfferRequest;
+import stonks.core.service.replication.ReplicationBatch;
+import stonks.core.service.replication.ReplicationLog;
+import stonks.core.service.subscription.OffersUpdate;
+import stonks.core.service.subscription.OverviewUpdate;
+import stonks.core.service.subscription.Subscription;
+
+/**
+ * <p>
+ * Serves a {@link StonksService} to {@link RemoteStonksService} clients.
+ * Requests are read by workers of the chosen {@link WorkerModel}, and all calls
+ * to the service are made on a single executor, so services that are not
+ * thread-safe (like {@link stonks.core.service.memory.StonksMemoryService}) can
+ * be served. Responses are encoded on that executor too, because some services
+ * return offers that are modified by later calls.
+ * </p>
+ * <p>
+ * Each connection has its own subscriptions to the service, but updates are
+ * shared by all subscribers, so each update is only encoded once.
+ * </p>
+ * <p>
+ * With a {@link ReplicationLog}, connections can replicate the service with
+ * {@link RemoteProtocol#OP_REPLICATE}. Changes are committed after each call
+ * to the service, before the response is sent, so replicas receive the
+ * changes of a request before its response.
+ * </p>
+ * <p>
+ * Bind to {@link java.net.InetAddress#getLoopbackAddress()} with port
+ * {@code 0} to serve a service on the same machine, on a random port.
+ * </p>
+ */
+public class RemoteStonksServer implements AutoCloseable {
+	public static enum WorkerModel {
+		/**
+		 * <p>
+		 * Each connection has a virtual thread for reading and another one for
+		 * writing, with blocking sockets.
+		 * </p>
+		 */
+		VIRTUAL_THREADS,
+		/**
+		 * <p>
+		 * All connections are read and written on a single event loop thread, with
+		 * non-blocking channels.
+		 * </p>
+		 */
+		EVENT_LOOP;
+	}
+
+	// Services can't tell when products are added, so unknown products refresh the
+	// index at most once per interval, and are rejected without refreshing between
+	private static final long PRODUCTS_REFRESH_INTERVAL = 1000L;
+
+	private final StonksService service;
+	private final Executor executor;
+	private final ExecutorService ownExecutor;
+	private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+	private final Set<Client> filledSubscribers = ConcurrentHashMap.newKeySet();
+	private final Set<Client> replicas = ConcurrentHashMap.newKeySet();
+	private final AtomicLong requests = new AtomicLong(0L);
+	// Kept so the same listener can be removed from the log when closing
+	private final Consumer<ReplicationBatch> replicationListener = this::replicated;
+	private WorkerModel workerModel = WorkerModel.VIRTUAL_THREADS;
+	private ReplicationLog replicationLog = null;
+	private ServerSocket serverSocket = null;
+	private RemoteEventLoop eventLoop = null;
+	private InetSocketAddress address = null;
+	private volatile boolean closed = false;
+	// Updates are shared between subscribers, so each update is only encoded once
+	private volatile Encoded lastOverviewUpdate = null;
+	private volatile Encoded lastOffersUpdate = null;
+	// Replaced when categories are queried, which may complete on other threads
+	private volatile Map<String, Product> products = Map.of();
+
+	// Only used on executor
+	private CompletableFuture<Map<String, Product>> productsRefresh = null;
+	private long productsRefreshed = 0L;
+	private boolean subscribedToService = false;
+	private boolean listeningToLog = false;
+
+	/**
+	 * <p>
+	 * Create a new server.
+	 * </p>
+	 * 
+	 * @param service  The service to serve.
+	 * @param executor The executor for calling the service. Tasks must be
+	 *                 executed one at a time, in the order they were submitted.
+	 */
+	public RemoteStonksServer(StonksService service, Executor executor) {
+		this.service = service;
+		this.executor = executor;
+		this.ownExecutor = null;
+	}
+
+	/**
+	 * <p>
+	 * Create a new server that calls the service on its own thread.
+	 * </p>
+	 * 
+	 * @param service The service to serve.
+	 */
+	public RemoteStonksServer(StonksService service) {
+		this.service = service;
+		this.ownExecutor = Executors.newSingleThreadExecutor(Thread.ofPlatform()
+			.name("Stonks Remote Service")
+			.daemon()
+			.factory());
+		this.executor = ownExecutor;
+	}
+
+	public StonksService getService() { return service; }
+
+	public Executor getExecutor() { return executor; }
+
+	public WorkerModel getWorkerModel() { return workerModel; }
+
+	/**
+	 * <p>
+	 * Set how connections are read and written. Must be called before
+	 * {@link #bind(InetSocketAddress)}.
+	 * </p>
+	 * 
+	 * @param workerModel The worker model.
+	 */
+	public void setWorkerModel(WorkerModel workerModel) { this.workerModel = workerModel; }
+
+	public ReplicationLog getReplicationLog() { return replicationLog; }
+
+	/**
+	 * <p>
+	 * Allow connections to replicate the service. The log must be the journal of
+	 * the service. Must be called before {@link #bind(InetSocketAddress)}.
+	 * </p>
+	 * 
+	 * @param replicationLog The log, or {@code null} to not allow replication.
+	 */
+	public void setReplicationLog(ReplicationLog replicationLog) { this.replicationLog = replicationLog; }
+
+	/**
+	 * <p>
+	 * Start accepting connections.
+	 * </p>
+	 * 
+	 * @param address The address to bind.
+	 */
+	public synchronized void bind(InetSocketAddress address) throws IOException {
+		if (this.address != null) throw new IllegalStateException("RemoteStonksServer: Already bound");
+		if (closed) throw new IllegalStateException("RemoteStonksServer: Server is closed");
+
+		if (workerModel == WorkerModel.EVENT_LOOP) {
+			eventLoop = new RemoteEventLoop(address, this::accepted);
+			this.address = eventLoop.getAddress();
+			return;
+		}
+
+		var socket = new ServerSocket();
+		socket.setReuseAddress(true);
+		socket.bind(address);
+		serverSocket = socket;
+		this.address = (InetSocketAddress) socket.getLocalSocketAddress();
+		Thread.ofPlatform().name("Stonks Remote Acceptor").daemon().start(() -> accept(socket));
+	}
+
+	/**
+	 * <p>
+	 * Get the bound address, which includes the port when binding to port
+	 * {@code 0}.
+	 * </p>
+	 * 
+	 * @return The address, or {@code null} if the server is not bound.
+	 */
+	public synchronized InetSocketAddress getAddress() { return address; }
+
+	public int getClientsCount() { return clients.size(); }
+
+	public long getRequestsCount() { return requests.get(); }
+
+	public int getReplicasCount() { return replicas.size(); }
+
+	private void accept(ServerSocket socket) {
+		while (!closed) {
+			try {
+				var client = socket.accept();
+				var connection = new SocketConnection(client, "Stonks Remote Client " + client.getRemoteSocketAddress());
+				connection.start(accepted(connection));
+			} catch (IOException e) {
+				if (closed) return;
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private RemoteConnection.Handler accepted(RemoteConnection connection) {
+		var client = new Client(connection);
+		clients.add(client);
+		return client;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+
+		synchronized (this) {
+			if (serverSocket != null) serverSocket.close();
+			if (eventLoop != null) eventLoop.close();
+		}
+
+		for (var client : clients) client.connection.close();
+		if (replicationLog != null) replicationLog.removeListener(replicationListener);
+		if (ownExecutor != null) ownExecutor.shutdown();
+	}
+
+	/**
+	 * <p>
+	 * Call the service with the products index. The index is refreshed without
+	 * blocking the executor when some of the products are unknown, and calls
+	 * that don't wait for a refresh are made right away, so they keep the order
+	 * of requests.
+	 * </p>
+	 */
+	private <T> CompletableFuture<T> withProducts(List<String> productIds, Function<Map<String, Product>, CompletableFuture<T>> call) {
+		var index = products(productIds);
+		if (index.isDone()) return index.thenCompose(call);
+		return index.thenComposeAsync(call, executor);
+	}
+
+	private CompletableFuture<Map<String, Product>> products(List<String> productIds) {
+		var index = products;
+		if (index.keySet().containsAll(productIds)) return CompletableFuture.completedFuture(index);
+		if (productsRefresh != null && !productsRefresh.isDone()) return productsRefresh;
+
+		// Products may be added after the last refresh
+		var now = System.currentTimeMillis();
+		if (now - productsRefreshed < PRODUCTS_REFRESH_INTERVAL) return CompletableFuture.completedFuture(index);
+		productsRefreshed = now;
+		productsRefresh = service.queryAllCategoriesAsync().thenApply(categories -> {
+			indexProducts(categories);
+			return products;
+		});
+		return productsRefresh;
+	}
+
+	private void indexProducts(List<Category> categories) {
+		var index = new HashMap<String, Product>();
+		for (var category : categories) {
+			for (var p : category.getProducts()) index.putIfAbsent(p.getProductId(), p);
+		}
+
+		products = index;
+	}
+
+	private static Product product(Map<String, Product> index, String productId) {
+		var product = index.get(productId);
+		if (product == null) throw new IllegalArgumentException("RemoteStonksServer: Unknown product " + productId);
+		return product;
+	}
+
+	/**
+	 * <p>
+	 * Make a bulk request, where requests for unknown products fail on their own
+	 * instead of failing the entire batch.
+	 * </p>
+	 */
+	private <R, Q, T> CompletableFuture<List<BulkResult<T>>> bulk(List<R> requests, Function<R, String> productId, BiFunction<R, Product, Q> resolver, Function<List<Q>, CompletableFuture<List<BulkResult<T>>>> call) {
+		return withProducts(requests.stream().map(productId).toList(),
+			index -> bulk(requests, productId, resolver, call, index));
+	}
+
+	private static <R, Q, T> CompletableFuture<List<BulkResult<T>>> bulk(List<R> requests, Function<R, String> productId, BiFunction<R, Product, Q> resolver, Function<List<Q>, CompletableFuture<List<BulkResult<T>>>> call, Map<String, Product> index) {
+		var resolved = new ArrayList<Q>(requests.size());
+		var failures = new HashMap<Integer, BulkResult<T>>();
+
+		for (int i = 0; i < requests.size(); i++) {
+			var request = requests.get(i);
+
+			try {
+				resolved.add(resolver.apply(request, product(index, productId.apply(request))));
+			} catch (IllegalArgumentException e) {
+				failures.put(i, BulkResult.failure(e));
+			}
+		}
+
+		if (failures.isEmpty()) return call.apply(resolved);
+		return call.apply(resolved).thenApply(results -> {
+			var merged = new ArrayList<BulkResult<T>>(requests.size());
+			var iterator = results.iterator();
+			for (int i = 0; i < requests.size(); i++)
+				merged.add(failures.containsKey(i) ? failures.get(i) : iterator.next());
+			return merged;
+		});
+	}
+
+	private void offerFilled(Offer offer) {
+		if (filledSubscribers.isEmpty()) return;
+		byte[] frame;
+
+		try {
+			frame = RemoteProtocol.frame(0, RemoteProtocol.EVENT_OFFER_FILLED,
+				out -> RemoteProtocol.writeOffer(out, offer, service.getPriceScale()));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		for (var client : filledSubscribers) client.connection.send(frame);
+	}
+
+	private void replicated(ReplicationBatch batch) {
+		if (replicas.isEmpty()) return;
+		byte[] frame;
+
+		try {
+			frame = encodeReplicationBatch(batch);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		for (var client : replicas) client.connection.send(frame);
+	}
+
+	private static byte[] encodeReplicationBatch(ReplicationBatch batch) throws IOException {
+		return RemoteProtocol.frame(0, RemoteProtocol.EVENT_REPLICATION,
+			out -> RemoteProtocol.writeReplicationBatch(out, batch));
+	}
+
+	private byte[] encodeOverviewUpdate(OverviewUpdate update) throws IOException {
+		var last = lastOverviewUpdate;
+		if (last != null && last.update() == update) return last.frame();
+		var frame = RemoteProtocol.frame(0, RemoteProtocol.EVENT_OVERVIEW_UPDATE,
+			out -> RemoteProtocol.writeOverviewUpdate(out, update, service.getPriceScale()));
+		lastOverviewUpdate = new Encoded(update, frame);
+		return frame;
+	}
+
+	private byte[] encodeOffersUpdate(OffersUpdate update) throws IOException {
+		var last = lastOffersUpdate;
+		if (last != null && last.update() == update) return last.frame();
+		var frame = RemoteProtocol.frame(0, RemoteProtocol.EVENT_OFFERS_UPDATE,
+			out -> RemoteProtocol.writeOffersUpdate(out, update, service.getPriceScale()));
+		lastOffersUpdate = new Encoded(update, frame);
+		return frame;
+	}
+
+	private static record Encoded(Object update, byte[] frame) {
+	}
+
+	@FunctionalInterface
+	private static interface FrameEncoder<T> {
+		public byte[] encode(T value) throws IOException;
+	}
+
+	@FunctionalInterface
+	private static interface Encoder<T> {
+		public void write(DataOutput out, T value) throws IOException;
+	}
+
+	private static record ListRequest(UUID user, String productId, OfferType type, int units, long pricePerUnit) {
+	}
+
+	private static record InstantRequest(String productId, OfferType type, int units, long balance) {
+	}
+
+	private class Client implements RemoteConnection.Handler {
+		private final RemoteConnection connection;
+		private volatile boolean greeted = false;
+
+		// Only used on executor
+		private final Map<Product, Subscription> overviewSubscriptions = new HashMap<>();
+		private final Map<UUID, Subscription> offersSubscriptions = new HashMap<>();
+
+		public Client(RemoteConnection connection) {
+			this.connection = connection;
+		}
+
+		@Override
+		public void frame(int correlationId, int code, DataInputStream in) throws IOException {
+			requests.incrementAndGet();
+			var scale = service.getPriceScale();
+
+			if (!greeted && code != RemoteProtocol.OP_HELLO) {
+				respondError(correlationId, new IllegalStateException("Expected hello"));
+				return;
+			}
+
+			// Requests are decoded on the reader thread, and products are looked up on
+			// the executor
+			switch (code) {
+			case RemoteProtocol.OP_HELLO -> {
+				var magic = in.readInt();
+				var version = in.readInt();
+
+				if (magic != RemoteProtocol.MAGIC || version != RemoteProtocol.VERSION) {
+					respondError(correlationId, new IllegalStateException("Unsupported protocol version " + version));
+					return;
+				}
+
+				greeted = true;
+				submit(correlationId, () -> CompletableFuture.completedFuture(scale), (out, s) -> {
+					out.writeInt(RemoteProtocol.VERSION);
+					out.writeInt(s.decimals());
+				});
+			}
+			case RemoteProtocol.OP_CATEGORIES -> submit(correlationId, () -> service.queryAllCategoriesAsync()
+				.thenApply(categories -> {
+					indexProducts(categories);
+					return categories;
+				}), RemoteProtocol::writeCategories);
+			case RemoteProtocol.OP_OVERVIEW -> {
+				var productId = in.readUTF();
+				submit(correlationId, () -> withProducts(List.of(productId),
+					index -> service.queryMarketOverviewAsync(product(index, productId))),
+					(out, overview) -> RemoteProtocol.writeOverview(out, overview, scale));
+			}
+			case RemoteProtocol.OP_USER_OFFERS -> {
+				var user = RemoteProtocol.readUUID(in);
+				submit(correlationId, () -> service.getOffersFromUserAsync(user),
+					(out, offers) -> RemoteProtocol.writeOffers(out, offers, scale));
+			}
+			case RemoteProtocol.OP_GET_OFFERS -> {
+				var offerIds = RemoteProtocol.readUUIDs(in);
+				submit(correlationId, () -> service.getOffersAsync(offerIds),
+					(out, offers) -> RemoteProtocol.writeOffers(out, offers.values(), scale));
+			}
+			case RemoteProtocol.OP_CLAIM -> {
+				var offerIds = RemoteProtocol.readUUIDs(in);
+				submit(correlationId, () -> service.claimOffersAsync(offerIds),
+					(out, offers) -> RemoteProtocol.writeOffers(out, offers.values(), scale));
+			}
+			case RemoteProtocol.OP_CANCEL -> {
+				var offerIds = RemoteProtocol.readUUIDs(in);
+				submit(correlationId, () -> service.cancelOffersAsync(offerIds),
+					(out, offers) -> RemoteProtocol.writeOffers(out, offers.values(), scale));
+			}
+			case RemoteProtocol.OP_LIST -> {
+				var r = readListRequest(in);
+				submit(correlationId, () -> withProducts(List.of(r.productId()),
+					index -> service.listOfferRawAsync(r.user(), product(index, r.productId()), r.type(), r.units(),
+						r.pricePerUnit())), (out, offer) -> RemoteProtocol.writeOffer(out, offer, scale));
+			}
+			case RemoteProtocol.OP_INSTANT -> {
+				var r = readInstantRequest(in);
+				submit(correlationId, () -> withProducts(List.of(r.productId()),
+					index -> service.instantOfferRawAsync(product(index, r.productId()), r.type(), r.units(),
+						r.balance())), (out, result) -> RemoteProtocol.writeInstantResult(out, result, scale));
+			}
+			case RemoteProtocol.OP_LIST_BULK -> {
+				// User, empty product ID, type, units and price
+				var count = RemoteProtocol.readCount(in, 16 + 2 + 1 + 4 + 8);
+				var list = new ArrayList<ListRequest>(count);
+				for (int i = 0; i < count; i++) list.add(readListRequest(in));
+				submit(correlationId, () -> bulk(list, ListRequest::productId,
+					(r, product) -> new ListOfferRequest(r.user(), product, r.type(), r.units(), r.pricePerUnit()),
+					service::listOffersAsync), (out, results) -> writeBulk(out, results,
+						(o, offer) -> RemoteProtocol.writeOffer(o, offer, scale)));
+			}
+			case RemoteProtocol.OP_INSTANT_BULK -> {
+				// Empty product ID, type, units and balance
+				var count = RemoteProtocol.readCount(in, 2 + 1 + 4 + 8);
+				var list = new ArrayList<InstantRequest>(count);
+				for (int i = 0; i < count; i++) list.add(readInstantRequest(in));
+				submit(correlationId, () -> bulk(list, InstantRequest::productId,
+					(r, product) -> new InstantOfferRequest(product, r.type(), r.units(), r.balance()),
+					service::instantOffersAsync), (out, results) -> writeBulk(out, results,
+						(o, result) -> RemoteProtocol.writeInstantResult(o, result, scale)));
+			}
+			case RemoteProtocol.OP_SUBSCRIBE_FILLED -> submit(correlationId, () -> {
+				if (!subscribedToService) {
+					service.subscribeToOfferFilledEvents(RemoteStonksServer.this::offerFilled);
+					subscribedToService = true;
+				}
+
+				filledSubscribers.add(this);
+				return CompletableFuture.completedFuture(null);
+			}, (out, $) -> {});
+			case RemoteProtocol.OP_SUBSCRIBE_OVERVIEW -> {
+				var productId = in.readUTF();
+				submit(correlationId, () -> withProducts(List.of(productId), index -> {
+					var product = product(index, productId);
+					var subscription = overviewSubscriptions.get(product);
+					if (subscription != null) subscription.resync();
+					else overviewSubscriptions.put(product, service.subscribeToOverviewUpdates(product,
+						update -> send(update, RemoteStonksServer.this::encodeOverviewUpdate)));
+					return CompletableFuture.completedFuture(null);
+				}), (out, $) -> {});
+			}
+			case RemoteProtocol.OP_UNSUBSCRIBE_OVERVIEW -> {
+				var productId = in.readUTF();
+				submit(correlationId, () -> withProducts(List.of(productId), index -> {
+					var subscription = overviewSubscriptions.remove(product(index, productId));
+					if (subscription != null) subscription.close();
+					return CompletableFuture.completedFuture(null);
+				}), (out, $) -> {});
+			}
+			case RemoteProtocol.OP_SUBSCRIBE_OFFERS -> {
+				var user = RemoteProtocol.readUUID(in);
+				submit(correlationId, () -> {
+					var subscription = offersSubscriptions.get(user);
+					if (subscription != null) subscription.resync();
+					else offersSubscriptions.put(user, service.subscribeToOffersUpdates(user,
+						update -> send(update, RemoteStonksServer.this::encodeOffersUpdate)));
+					return CompletableFuture.completedFuture(null);
+				}, (out, $) -> {});
+			}
+			case RemoteProtocol.OP_UNSUBSCRIBE_OFFERS -> {
+				var user = RemoteProtocol.readUUID(in);
+				submit(correlationId, () -> {
+					var subscription = offersSubscriptions.remove(user);
+					if (subscription != null) subscription.close();
+					return CompletableFuture.completedFuture(null);
+				}, (out, $) -> {});
+			}
+			case RemoteProtocol.OP_REPLICATE -> submit(correlationId, () -> {
+				var log = replicationLog();
+
+				if (!listeningToLog) {
+					log.addListener(replicationListener);
+					listeningToLog = true;
+				}
+
+				// Changes committed before the snapshot are already in the snapshot
+				replicas.remove(this);
+				log.snapshot(batch -> send(batch, RemoteStonksServer::encodeReplicationBatch));
+				replicas.add(this);
+				return CompletableFuture.completedFuture(null);
+			}, (out, $) -> {});
+			case RemoteProtocol.OP_REPLICATION_SEQUENCE -> submit(correlationId, () -> {
+				var log = replicationLog();
+				log.commit();
+				return CompletableFuture.completedFuture(log.getSequence());
+			}, DataOutput::writeLong);
+			default -> respondError(correlationId, new IllegalArgumentException("Unknown operation " + code));
+			}
+		}
+
+		private ReplicationLog replicationLog() {
+			if (replicationLog == null) throw new IllegalStateException("RemoteStonksServer: Replication is not enabled");
+			return replicationLog;
+		}
+
+		private static ListRequest readListRequest(DataInputStream in) throws IOException {
+			return new ListRequest(RemoteProtocol.readUUID(in), in.readUTF(), RemoteProtocol.readType(in), in.readInt(),
+				in.readLong());
+		}
+
+		private static InstantRequest readInstantRequest(DataInputStream in) throws IOException {
+			return new InstantRequest(in.readUTF(), RemoteProtocol.readType(in), in.readInt(), in.readLong());
+		}
+
+		private static <T> void writeBulk(DataOutput out, List<BulkResult<T>> results, Encoder<T> encoder) throws IOException {
+			out.writeInt(results.size());
+
+			for (var result : results) {
+				out.writeBoolean(result.isSuccess());
+				if (result.isSuccess()) encoder.write(out, result.result());
+				else RemoteProtocol.writeError(out, result.error());
+			}
+		}
+
+		private <T> void submit(int correlationId, Supplier<CompletableFuture<T>> call, Encoder<T> encoder) {
+			executor.execute(() -> {
+				var future = call(call);
+
+				// Most local services completes right away, so there is no need to submit
+				// another task
+				if (future.isDone()) respond(correlationId, future, encoder);
+				else future.whenCompleteAsync(($, e) -> respond(correlationId, future, encoder), executor);
+			});
+		}
+
+		private static <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> call) {
+			try {
+				return call.get();
+			} catch (Throwable e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}
+
+		private <T> void respond(int correlationId, CompletableFuture<T> future, Encoder<T> encoder) {
+			// Replicas receive the changes before the response
+			if (replicationLog != null) replicationLog.commit();
+
+			try {
+				var value = future.join();
+				connection.send(RemoteProtocol.frame(correlationId, RemoteProtocol.STATUS_OK,
+					out -> encoder.write(out, value)));
+			} catch (CompletionException | CancellationException e) {
+				respondError(correlationId, e.getCause() != null ? e.getCause() : e);
+			} catch (IOException | RuntimeException e) {
+				respondError(correlationId, e);
+			}
+		}
+
+		private <T> void send(T update, FrameEncoder<T> encoder) {
+			try {
+				connection.send(encoder.encode(update));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		private void respondError(int correlationId, Throwable error) {
+			try {
+				connection.send(RemoteProtocol.frame(correlationId, RemoteProtocol.STATUS_ERROR,
+					out -> RemoteProtocol.writeError(out, error)));
+			} catch (IOException e) {
+				connection.close();
+			}
+		}
+
+		@Override
+		public void closed(Throwable cause) {
+			clients.remove(this);
+			filledSubscribers.remove(this);
+			replicas.remove(this);
+
+			try {
+				executor.execute(() -> {
+					overviewSubscriptions.values().forEach(Subscription::close);
+					offersSubscriptions.values().forEach(Subscription::close);
+					overviewSubscriptions.clear();
+					offersSubscriptions.clear();
+				});
+			} catch (RejectedExecutionException e) {
+				// The server is closed
+			}
+		}
+	}
+}
@@ -0,0 +1,692 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.remote;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import stonks.core.dynamic.DynamicFactory;
+import stonks.core.exec.InstantOfferExecuteResult;
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.market.ProductMarketOverview;
+import stonks.core.product.Category;
+import stonks.core.product.Product;
+import stonks.core.service.StonksService;
+import stonks.core.service.bulk.BulkResult;
+import stonks.core.service.bulk.InstantOfferRequest;
+import stonks.core.service.bulk.ListOfferRequest;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.replication.ReplicationBatch;
+import stonks.core.service.subscription.OffersPublisher;
+import stonks.core.service.subscription.OffersUpdate;
+import stonks.core.service.subscription.OverviewPublisher;
+import stonks.core.service.subscription.OverviewUpdate;
+import stonks.core.service.subscription.Subscription;
+
+/**
+ * <p>
+ * Service that sends all requests to {@link RemoteStonksServer} over a single
+ * TCP connection, using {@link RemoteProtocol}. Requests are sent without
+ * waiting for responses of previous requests, and each response completes the
+ * future of the request with the same correlation ID, so any number of
+ * requests can be in flight at the same time.
+ * </p>
+ * <p>
+ * Categories are downloaded once on the first connection and cached, so
+ * products keep their identity when the connection is lost. When the
+ * connection is lost, in-flight requests fail with
+ * {@link RemoteServiceException}, and the next request connects again in
+ * background. Futures are completed on the reader thread of the connection, so
+ * callbacks should not block.
+ * </p>
+ * <p>
+ * Subscriptions to the same product or user share a single subscription on the
+ * server. When an update is missed or the connection is lost, a new snapshot is
+ * requested from the server, and local subscribers only receive the changes
+ * between the old and new snapshot, so they never have to resync.
+ * </p>
+ */
+public class RemoteStonksService implements StonksService, AutoCloseable {
+	public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+	public static final Duration RECONNECT_DELAY = Duration.ofSeconds(1);
+
+	private final InetSocketAddress address;
+	private final DynamicFactory dynamicFactory;
+	private final AtomicInteger nextCorrelationId = new AtomicInteger(1);
+	private final Map<String, Product> products = new ConcurrentHashMap<>();
+	private final List<Consumer<Offer>> filledConsumers = new CopyOnWriteArrayList<>();
+	// Sequence numbers of the last applied updates from the server. Topics
+	// without sequence number are waiting for snapshots
+	private final Map<Product, Long> overviewSequences = new ConcurrentHashMap<>();
+	private final Map<UUID, Long> offersSequences = new ConcurrentHashMap<>();
+	private final OverviewPublisher overviews = new OverviewPublisher() {
+		@Override
+		protected void topicOpened(Product product) {
+			overviewSequences.remove(product);
+			sendSubscribe(RemoteProtocol.OP_SUBSCRIBE_OVERVIEW, out -> out.writeUTF(product.getProductId()));
+		}
+
+		@Override
+		protected void topicClosed(Product product) {
+			overviewSequences.remove(product);
+			sendUnsubscribe(RemoteProtocol.OP_UNSUBSCRIBE_OVERVIEW, out -> out.writeUTF(product.getProductId()));
+		}
+	};
+	private final OffersPublisher offers = new OffersPublisher() {
+		@Override
+		protected void topicOpened(UUID user) {
+			offersSequences.remove(user);
+			sendSubscribe(RemoteProtocol.OP_SUBSCRIBE_OFFERS, out -> RemoteProtocol.writeUUID(out, user));
+		}
+
+		@Override
+		protected void topicClosed(UUID user) {
+			offersSequences.remove(user);
+			sendUnsubscribe(RemoteProtocol.OP_UNSUBSCRIBE_OFFERS, out -> RemoteProtocol.writeUUID(out, user));
+		}
+	};
+	private volatile Consumer<ReplicationBatch> replicationConsumer = null;
+	private Duration timeout = DEFAULT_TIMEOUT;
+	private volatile PriceScale scale = PriceScale.DEFAULT;
+	private volatile List<Category> categories = null;
+	private volatile Session session = null;
+	private CompletableFuture<Session> connecting = null;
+	private long lastFailure = 0L;
+	private boolean closed = false;
+
+	/**
+	 * <p>
+	 * Create a new remote service. The service connects on {@link #connect()} or
+	 * on the first request.
+	 * </p>
+	 * 
+	 * @param address        The address of {@link RemoteStonksServer}.
+	 * @param dynamicFactory The factory for product metadata.
+	 */
+	public RemoteStonksService(InetSocketAddress address, DynamicFactory dynamicFactory) {
+		this.address = address;
+		this.dynamicFactory = dynamicFactory;
+	}
+
+	public InetSocketAddress getAddress() { return address; }
+
+	public Duration getRequestTimeout() { return timeout; }
+
+	/**
+	 * <p>
+	 * Set the time to wait for connecting and for each response. Requests that
+	 * time out fail with {@link TimeoutException}.
+	 * </p>
+	 * 
+	 * @param timeout The timeout, or {@link Duration#ZERO} to wait forever.
+	 */
+	public void setRequestTimeout(Duration timeout) { this.timeout = timeout; }
+
+	public boolean isConnected() {
+		var current = session;
+		return current != null && current.connection.isOpen();
+	}
+
+	/**
+	 * <p>
+	 * Get the number of requests that are waiting for responses.
+	 * </p>
+	 * 
+	 * @return Number of requests.
+	 */
+	public int getPendingRequestsCount() {
+		var current = session;
+		return current != null ? current.pending.size() : 0;
+	}
+
+	/**
+	 * <p>
+	 * Connect to the server and wait for the handshake. Requests connect
+	 * automatically, so this is only needed to fail early if the server can't be
+	 * reached.
+	 * </p>
+	 */
+	public void connect() throws IOException {
+		try {
+			connectAsync().join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RemoteServiceException remote && remote.getCause() instanceof IOException io)
+				throw io;
+			throw new IOException("RemoteStonksService: Unable to connect to " + address, e.getCause());
+		}
+	}
+
+	private synchronized CompletableFuture<Session> connectAsync() {
+		if (closed) return CompletableFuture.failedFuture(new RemoteServiceException(
+			"RemoteStonksService: Service is closed"));
+		if (isConnected()) return CompletableFuture.completedFuture(session);
+		if (connecting != null) return connecting;
+		if (System.currentTimeMillis() - lastFailure < RECONNECT_DELAY.toMillis())
+			return CompletableFuture.failedFuture(new RemoteServiceException("RemoteStonksService: Not connected to "
+				+ address));
+
+		// Connecting may take a while, so it must not block the calling thread
+		var future = new CompletableFuture<Session>();
+		connecting = future;
+		Thread.ofVirtual().name("Stonks Remote Connector").start(() -> {
+			try {
+				future.complete(open());
+			} catch (Throwable e) {
+				synchronized (this) {
+					lastFailure = System.currentTimeMillis();
+				}
+
+				future.completeExceptionally(new RemoteServiceException("RemoteStonksService: Unable to connect to "
+					+ address, e));
+			} finally {
+				synchronized (this) {
+					connecting = null;
+				}
+			}
+		});
+		return future;
+	}
+
+	private Session open() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		var socket = new Socket();
+
+		try {
+			socket.connect(address, (int) timeout.toMillis());
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+
+		var session = new Session(socket);
+		session.connection.start(session);
+
+		try {
+			var hello = session.call(RemoteProtocol.OP_HELLO, out -> {
+				out.writeInt(RemoteProtocol.MAGIC);
+				out.writeInt(RemoteProtocol.VERSION);
+			}, in -> {
+				var version = in.readInt();
+				if (version != RemoteProtocol.VERSION)
+					throw new IOException("RemoteStonksService: Unsupported protocol version " + version);
+				return new PriceScale(in.readInt());
+			});
+			scale = await(hello);
+
+			if (categories == null) {
+				var downloaded = await(session.call(RemoteProtocol.OP_CATEGORIES, out -> {},
+					in -> RemoteProtocol.readCategories(in, dynamicFactory)));
+				for (var category : downloaded) for (var product : category.getProducts())
+					products.put(product.getProductId(), product);
+				categories = downloaded;
+			}
+		} catch (Exception e) {
+			session.connection.close();
+			throw e;
+		}
+
+		synchronized (this) {
+			if (closed) {
+				session.connection.close();
+				throw new IOException("RemoteStonksService: Service is closed");
+			}
+
+			this.session = session;
+			if (!filledConsumers.isEmpty()) session.call(RemoteProtocol.OP_SUBSCRIBE_FILLED, out -> {}, in -> null);
+
+			// Subscriptions are gone with the previous connection
+			overviewSequences.clear();
+			offersSequences.clear();
+			for (var product : overviews.getTopics()) session.call(RemoteProtocol.OP_SUBSCRIBE_OVERVIEW,
+				out -> out.writeUTF(product.getProductId()), in -> null);
+			for (var user : offers.getTopics()) session.call(RemoteProtocol.OP_SUBSCRIBE_OFFERS,
+				out -> RemoteProtocol.writeUUID(out, user), in -> null);
+			if (replicationConsumer != null) session.call(RemoteProtocol.OP_REPLICATE, out -> {}, in -> null);
+		}
+
+		return session;
+	}
+
+	private <T> T await(CompletableFuture<T> future) throws InterruptedException, ExecutionException, TimeoutException {
+		return timeout.isZero() ? future.get() : future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	private <T> CompletableFuture<T> call(int op, RemoteProtocol.Body body, Decoder<T> decoder) {
+		var current = session;
+		if (current != null && current.connection.isOpen()) return current.call(op, body, decoder);
+		return connectAsync().thenCompose(s -> s.call(op, body, decoder));
+	}
+
+	private Product product(String productId) {
+		// Only happens if the product was added to the server after downloading
+		// categories
+		return products.computeIfAbsent(productId, id -> new MemoryProduct(null, id, id, null));
+	}
+
+	/**
+	 * <p>
+	 * Get the price scale of the server. This is {@link PriceScale#DEFAULT} until
+	 * the first connection.
+	 * </p>
+	 */
+	@Override
+	public PriceScale getPriceScale() { return scale; }
+
+	@Override
+	public CompletableFuture<List<Category>> queryAllCategoriesAsync() {
+		var cached = categories;
+		if (cached != null) return CompletableFuture.completedFuture(cached);
+		return connectAsync().thenApply($ -> categories);
+	}
+
+	@Override
+	public CompletableFuture<ProductMarketOverview> queryMarketOverviewAsync(Product product) {
+		return call(RemoteProtocol.OP_OVERVIEW, out -> out.writeUTF(product.getProductId()),
+			in -> RemoteProtocol.readOverview(in, scale, this::product));
+	}
+
+	@Override
+	public CompletableFuture<List<Offer>> getOffersFromUserAsync(UUID user) {
+		return call(RemoteProtocol.OP_USER_OFFERS, out -> RemoteProtocol.writeUUID(out, user),
+			in -> RemoteProtocol.readOffers(in, scale, this::product));
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> getOffersAsync(Collection<UUID> offerIds) {
+		return call(RemoteProtocol.OP_GET_OFFERS, out -> RemoteProtocol.writeUUIDs(out, offerIds),
+			in -> RemoteProtocol.readOffersMap(in, scale, this::product));
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> claimOffersAsync(Collection<UUID> offerIds) {
+		return call(RemoteProtocol.OP_CLAIM, out -> RemoteProtocol.writeUUIDs(out, offerIds),
+			in -> RemoteProtocol.readOffersMap(in, scale, this::product));
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> cancelOffersAsync(Collection<UUID> offerIds) {
+		return call(RemoteProtocol.OP_CANCEL, out -> RemoteProtocol.writeUUIDs(out, offerIds),
+			in -> RemoteProtocol.readOffersMap(in, scale, this::product));
+	}
+
+	@Override
+	public CompletableFuture<Offer> listOfferAsync(UUID user, Product product, OfferType type, int units, double pricePerUnit) {
+		// The price is converted when the request is encoded, which is after the
+		// price scale is received from the server
+		return call(RemoteProtocol.OP_LIST, out -> {
+			RemoteProtocol.writeUUID(out, user);
+			out.writeUTF(product.getProductId());
+			RemoteProtocol.writeType(out, type);
+			out.writeInt(units);
+			out.writeLong(scale.toTicks(pricePerUnit));
+		}, in -> RemoteProtocol.readOffer(in, scale, this::product));
+	}
+
+	@Override
+	public CompletableFuture<Offer> listOfferRawAsync(UUID user, Product product, OfferType type, int units, long pricePerUnit) {
+		return call(RemoteProtocol.OP_LIST, out -> {
+			RemoteProtocol.writeUUID(out, user);
+			out.writeUTF(product.getProductId());
+			RemoteProtocol.writeType(out, type);
+			out.writeInt(units);
+			out.writeLong(pricePerUnit);
+		}, in -> RemoteProtocol.readOffer(in, scale, this::product));
+	}
+
+	@Override
+	public CompletableFuture<InstantOfferExecuteResult> instantOfferAsync(Product product, OfferType type, int units, double balance) {
+		return call(RemoteProtocol.OP_INSTANT, out -> {
+			out.writeUTF(product.getProductId());
+			RemoteProtocol.writeType(out, type);
+			out.writeInt(units);
+			out.writeLong(scale.toTicks(balance));
+		}, in -> RemoteProtocol.readInstantResult(in, scale));
+	}
+
+	@Override
+	public CompletableFuture<InstantOfferExecuteResult> instantOfferRawAsync(Product product, OfferType type, int units, long balance) {
+		return call(RemoteProtocol.OP_INSTANT, out -> {
+			out.writeUTF(product.getProductId());
+			RemoteProtocol.writeType(out, type);
+			out.writeInt(units);
+			out.writeLong(balance);
+		}, in -> RemoteProtocol.readInstantResult(in, scale));
+	}
+
+	@Override
+	public CompletableFuture<List<BulkResult<Offer>>> listOffersAsync(List<ListOfferRequest> requests) {
+		return call(RemoteProtocol.OP_LIST_BULK, out -> {
+			out.writeInt(requests.size());
+
+			for (var request : requests) {
+				RemoteProtocol.writeUUID(out, request.user());
+				out.writeUTF(request.product().getProductId());
+				RemoteProtocol.writeType(out, request.type());
+				out.writeInt(request.units());
+				out.writeLong(request.pricePerUnit());
+			}
+		}, in -> readBulk(in, d -> RemoteProtocol.readOffer(d, scale, this::product)));
+	}
+
+	@Override
+	public CompletableFuture<List<BulkResult<InstantOfferExecuteResult>>> instantOffersAsync(List<InstantOfferRequest> requests) {
+		return call(RemoteProtocol.OP_INSTANT_BULK, out -> {
+			out.writeInt(requests.size());
+
+			for (var request : requests) {
+				out.writeUTF(request.product().getProductId());
+				RemoteProtocol.writeType(out, request.type());
+				out.writeInt(request.units());
+				out.writeLong(request.balance());
+			}
+		}, in -> readBulk(in, d -> RemoteProtocol.readInstantResult(d, scale)));
+	}
+
+	private static <T> List<BulkResult<T>> readBulk(DataInput in, Decoder<T> decoder) throws IOException {
+		// Success flag and a result, or an empty error message
+		var count = RemoteProtocol.readCount(in, 1 + 2);
+		var results = new ArrayList<BulkResult<T>>(count);
+
+		for (int i = 0; i < count; i++) {
+			if (in.readBoolean()) results.add(BulkResult.success(decoder.decode(in)));
+			else results.add(BulkResult.failure(new RemoteServiceException(in.readUTF())));
+		}
+
+		return results;
+	}
+
+	/**
+	 * <p>
+	 * Subscribe to offer filled events of the server. Consumers are called on the
+	 * reader thread of the connection. Events that happens while the connection
+	 * is lost are not received.
+	 * </p>
+	 */
+	@Override
+	public synchronized void subscribeToOfferFilledEvents(Consumer<Offer> consumer) {
+		filledConsumers.add(consumer);
+		if (filledConsumers.size() > 1 || !isConnected()) return;
+		session.call(RemoteProtocol.OP_SUBSCRIBE_FILLED, out -> {}, in -> null);
+	}
+
+	@Override
+	public boolean isSubscriptionSupported() { return true; }
+
+	/**
+	 * <p>
+	 * Subscribe to the market overview of a product. If there is already a
+	 * subscription to the product, the consumer receives the snapshot right away.
+	 * Otherwise the snapshot is received from the server. Updates are received on
+	 * the reader thread of the connection.
+	 * </p>
+	 */
+	@Override
+	public Subscription subscribeToOverviewUpdates(Product product, Consumer<OverviewUpdate> consumer) {
+		return overviews.subscribe(product, consumer);
+	}
+
+	/**
+	 * <p>
+	 * Subscribe to offers made by user, in the same way as
+	 * {@link #subscribeToOverviewUpdates(Product, Consumer)}.
+	 * </p>
+	 */
+	@Override
+	public Subscription subscribeToOffersUpdates(UUID user, Consumer<OffersUpdate> consumer) {
+		return offers.subscribe(user, consumer);
+	}
+
+	private void sendSubscribe(int op, RemoteProtocol.Body body) {
+		// Topics are subscribed again when the connection is opened
+		if (!isConnected()) connectAsync();
+		else session.call(op, body, in -> null).exceptionally(e -> {
+			e.printStackTrace();
+			return null;
+		});
+	}
+
+	private void sendUnsubscribe(int op, RemoteProtocol.Body body) {
+		if (isConnected()) session.call(op, body, in -> null);
+	}
+
+	private void overviewUpdated(OverviewUpdate update) {
+		var product = update.product();
+		if (!accept(overviewSequences, product, update.sequence(), update.snapshot(),
+			() -> sendSubscribe(RemoteProtocol.OP_SUBSCRIBE_OVERVIEW, out -> out.writeUTF(product.getProductId()))))
+			return;
+
+		// Snapshots after resync are sent to local subscribers as changes
+		var previous = overviews.getState(product);
+		if (previous == null && !update.snapshot()) return;
+		overviews.publish(update.applyTo(previous));
+	}
+
+	private void offersUpdated(OffersUpdate update) {
+		var user = update.user();
+		if (!accept(offersSequences, user, update.sequence(), update.snapshot(),
+			() -> sendSubscribe(RemoteProtocol.OP_SUBSCRIBE_OFFERS, out -> RemoteProtocol.writeUUID(out, user))))
+			return;
+
+		var previous = offers.getState(user);
+		if (previous == null && !update.snapshot()) return;
+		offers.publish(user, update.applyTo(previous));
+	}
+
+	/**
+	 * <p>
+	 * Check the sequence number of an update from the server. If an update was
+	 * missed, updates are ignored until the new snapshot is received.
+	 * </p>
+	 * 
+	 * @param resync Requests a new snapshot.
+	 * @return {@code true} if the update should be applied.
+	 */
+	private static <K> boolean accept(Map<K, Long> sequences, K key, long sequence, boolean snapshot, Runnable resync) {
+		if (snapshot) {
+			sequences.put(key, sequence);
+			return true;
+		}
+
+		var last = sequences.get(key);
+		if (last == null) return false;
+
+		if (sequence != last + 1) {
+			sequences.remove(key);
+			resync.run();
+			return false;
+		}
+
+		sequences.put(key, sequence);
+		return true;
+	}
+
+	/**
+	 * <p>
+	 * Replicate the service of the server, which must have a
+	 * {@link stonks.core.service.replication.ReplicationLog}. The consumer
+	 * receives a snapshot, then every batch of changes, on the reader thread of
+	 * the connection. After reconnecting, the consumer receives a new snapshot.
+	 * </p>
+	 * 
+	 * @param consumer The consumer. Replaces the previous consumer.
+	 */
+	public synchronized void replicate(Consumer<ReplicationBatch> consumer) {
+		replicationConsumer = consumer;
+		if (!isConnected()) connectAsync();
+		else session.call(RemoteProtocol.OP_REPLICATE, out -> {}, in -> null).exceptionally(e -> {
+			// Replication is not enabled on the server, or the connection was lost
+			if (!closed) e.printStackTrace();
+			return null;
+		});
+	}
+
+	/**
+	 * <p>
+	 * Get the sequence number of the last change committed on the server. When
+	 * the future completes, all batches up to this sequence number were already
+	 * passed to the consumer of {@link #replicate(Consumer)}.
+	 * </p>
+	 * 
+	 * @return The sequence number.
+	 */
+	public CompletableFuture<Long> queryReplicationSequenceAsync() {
+		return call(RemoteProtocol.OP_REPLICATION_SEQUENCE, out -> {}, DataInput::readLong);
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		if (session != null) session.connection.close();
+	}
+
+	@FunctionalInterface
+	private static interface Decoder<T> {
+		public T decode(DataInput in) throws IOException;
+	}
+
+	private static record Pending<T>(CompletableFuture<T> future, Decoder<T> decoder) {
+		public void complete(DataInput in) {
+			try {
+				future.complete(decoder.decode(in));
+			} catch (IOException | RuntimeException e) {
+				future.completeExceptionally(new RemoteServiceException("RemoteStonksService: Invalid response", e));
+			}
+		}
+	}
+
+	private class Session implements RemoteConnection.Handler {
+		private final RemoteConnection connection;
+		private final Map<Integer, Pending<?>> pending = new ConcurrentHashMap<>();
+
+		public Session(Socket socket) throws IOException {
+			this.connection = new SocketConnection(socket, "Stonks Remote " + address);
+		}
+
+		public <T> CompletableFuture<T> call(int op, RemoteProtocol.Body body, Decoder<T> decoder) {
+			var correlationId = nextCorrelationId.getAndIncrement();
+			if (correlationId == 0) correlationId = nextCorrelationId.getAndIncrement();
+			byte[] frame;
+
+			try {
+				frame = RemoteProtocol.frame(correlationId, op, body);
+			} catch (IOException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+
+			var future = new CompletableFuture<T>();
+			var id = correlationId;
+			pending.put(id, new Pending<>(future, decoder));
+
+			if (!connection.send(frame)) {
+				pending.remove(id);
+				future.completeExceptionally(new RemoteServiceException("RemoteStonksService: Connection lost"));
+				return future;
+			}
+
+			if (!timeout.isZero()) {
+				future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+				future.whenComplete(($, e) -> {
+					if (e instanceof TimeoutException) pending.remove(id);
+				});
+			}
+
+			return future;
+		}
+
+		@Override
+		public void frame(int correlationId, int code, DataInputStream payload) throws IOException {
+			if (correlationId == 0) {
+				if (code == RemoteProtocol.EVENT_OVERVIEW_UPDATE) {
+					overviewUpdated(RemoteProtocol.readOverviewUpdate(payload, scale,
+						RemoteStonksService.this::product));
+					return;
+				}
+
+				if (code == RemoteProtocol.EVENT_OFFERS_UPDATE) {
+					offersUpdated(RemoteProtocol.readOffersUpdate(payload, scale, RemoteStonksService.this::product));
+					return;
+				}
+
+				if (code == RemoteProtocol.EVENT_REPLICATION) {
+					var batch = RemoteProtocol.readReplicationBatch(payload);
+					var consumer = replicationConsumer;
+					if (consumer == null) return;
+
+					try {
+						consumer.accept(batch);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+
+					return;
+				}
+
+				if (code != RemoteProtocol.EVENT_OFFER_FILLED) return;
+				var offer = RemoteProtocol.readOffer(payload, scale, RemoteStonksService.this::product);
+
+				for (var consumer : filledConsumers) {
+					try {
+						consumer.accept(offer);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+
+				return;
+			}
+
+			var request = pending.remove(correlationId);
+			if (request == null) return; // Timed out
+
+			if (code == RemoteProtocol.STATUS_OK) request.complete(payload);
+			else request.future().completeExceptionally(new RemoteServiceException(payload.readUTF()));
+		}
+
+		@Override
+		public void closed(Throwable cause) {
+			for (var id : pending.keySet()) {
+				var request = pending.remove(id);
+				if (request != null) request.future().completeExceptionally(new RemoteServiceException(
+					"RemoteStonksService: Connection lost", cause));
+			}
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.remote;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Connection over a non-blocking channel of {@link RemoteEventLoop}. Frames are
+ * read and written on the event loop thread. Queued frames are copied into the
+ * write buffer until it is full, so many small frames are sent in one write.
+ * </p>
+ */
+class SelectorConnection extends RemoteConnection {
+	private final RemoteEventLoop loop;
+	private final SocketChannel channel;
+	private final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+	private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private SelectionKey key;
+
+	// Frame that is partially copied to write buffer
+	private byte[] writing = null;
+	private int writingOffset = 0;
+
+	public SelectorConnection(RemoteEventLoop loop, SocketChannel channel) {
+		this.loop = loop;
+		this.channel = channel;
+		writeBuffer.flip();
+	}
+
+	void setKey(SelectionKey key) { this.key = key; }
+
+	@Override
+	protected void open() {
+		// Already registered to the event loop
+	}
+
+	@Override
+	public boolean send(byte[] frame) {
+		if (!isOpen()) return false;
+		queue.add(frame);
+		if (writeScheduled.compareAndSet(false, true)) loop.execute(this::enableWrite);
+		return true;
+	}
+
+	private void enableWrite() {
+		if (key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * <p>
+	 * Read available bytes and dispatch all complete frames.
+	 * </p>
+	 */
+	void read() throws IOException {
+		if (channel.read(readBuffer) < 0) throw new EOFException();
+		readBuffer.flip();
+		var bytes = readBuffer.array();
+
+		while (readBuffer.remaining() >= 4) {
+			var position = readBuffer.position();
+			var length = readInt(bytes, position);
+			checkLength(length);
+
+			if (readBuffer.remaining() < 4 + length) {
+				if (readBuffer.capacity() < 4 + length) {
+					// Only large frames need a larger buffer
+					var larger = ByteBuffer.allocate(4 + length);
+					larger.put(readBuffer);
+					readBuffer = larger;
+					return;
+				}
+
+				break;
+			}
+
+			dispatch(bytes, position + 4, length);
+			readBuffer.position(position + 4 + length);
+		}
+
+		readBuffer.compact();
+		if (readBuffer.capacity() > BUFFER_SIZE && readBuffer.position() == 0)
+			readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+	}
+
+	/**
+	 * <p>
+	 * Write queued frames until the socket buffer is full or there are no more
+	 * frames.
+	 * </p>
+	 */
+	void write() throws IOException {
+		while (true) {
+			if (!writeBuffer.hasRemaining()) {
+				writeBuffer.clear();
+				fill();
+				writeBuffer.flip();
+				if (!writeBuffer.hasRemaining()) break;
+			}
+
+			channel.write(writeBuffer);
+			if (writeBuffer.hasRemaining()) return; // Wait until writable again
+		}
+
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+		writeScheduled.set(false);
+
+		// Frames queued after the last fill() but before clearing the flag
+		if (!queue.isEmpty() && writeScheduled.compareAndSet(false, true)) enableWrite();
+	}
+
+	private void fill() {
+		while (writeBuffer.hasRemaining()) {
+			if (writing == null) {
+				writing = queue.poll();
+				writingOffset = 0;
+				if (writing == null) return;
+			}
+
+			var count = Math.min(writeBuffer.remaining(), writing.length - writingOffset);
+			writeBuffer.put(writing, writingOffset, count);
+			writingOffset += count;
+			if (writingOffset == writing.length) writing = null;
+		}
+	}
+
+	@Override
+	protected void release() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Already closed
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * <p>
+ * Connection over a blocking socket. Frames are read on a virtual thread, and
+ * written by another virtual thread, which writes all queued frames before
+ * flushing, so many small frames are sent in a few packets.
+ * </p>
+ */
+class SocketConnection extends RemoteConnection {
+	private static final byte[] CLOSE = new byte[0];
+
+	private final Socket socket;
+	private final String name;
+	private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+
+	public SocketConnection(Socket socket, String name) throws IOException {
+		this.socket = socket;
+		this.name = name;
+		// Frames are already batched by the writer thread
+		socket.setTcpNoDelay(true);
+	}
+
+	@Override
+	protected void open() {
+		Thread.ofVirtual().name(name + " Reader").start(this::readLoop);
+		Thread.ofVirtual().name(name + " Writer").start(this::writeLoop);
+	}
+
+	@Override
+	public boolean send(byte[] frame) {
+		if (!isOpen()) return false;
+		queue.add(frame);
+		return true;
+	}
+
+	private void readLoop() {
+		try (var in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE))) {
+			while (isOpen()) {
+				int length;
+
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					close(null);
+					return;
+				}
+
+				checkLength(length);
+				var frame = new byte[length];
+				in.readFully(frame);
+				dispatch(frame, 0, length);
+			}
+		} catch (Throwable e) {
+			close(e);
+		}
+	}
+
+	private void writeLoop() {
+		try {
+			var out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+
+			while (true) {
+				var frame = queue.take();
+
+				do {
+					if (frame == CLOSE) return;
+					out.write(frame);
+				} while ((frame = queue.poll()) != null);
+
+				out.flush();
+			}
+		} catch (Throwable e) {
+			close(e);
+		}
+	}
+
+	@Override
+	protected void release() {
+		queue.add(CLOSE);
+
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Already closed
+		}
+	}
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.replication;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import stonks.core.exec.InstantOfferExecuteResult;
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.market.ProductMarketOverview;
+import stonks.core.product.Category;
+import stonks.core.product.Product;
+import stonks.core.service.StonksService;
+import stonks.core.service.bulk.BulkResult;
+import stonks.core.service.bulk.InstantOfferRequest;
+import stonks.core.service.bulk.ListOfferRequest;
+import stonks.core.service.journal.JournalRecord;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.StonksMemoryService;
+import stonks.core.service.remote.RemoteStonksServer;
+import stonks.core.service.remote.RemoteStonksService;
+import stonks.core.service.subscription.OffersUpdate;
+import stonks.core.service.subscription.OverviewUpdate;
+import stonks.core.service.subscription.Subscription;
+
+/**
+ * <p>
+ * Read replica of a service that is served by {@link RemoteStonksServer} with
+ * a {@link ReplicationLog}. Changes of the primary service are applied in
+ * order to a local {@link StonksMemoryService}, which serves market overviews,
+ * offers of users, offers by IDs and subscriptions, as long as the replica is
+ * not lagging more than {@link #getMaxLag()}. Other calls, and reads while
+ * lagging, are sent to the primary service.
+ * </p>
+ * <p>
+ * Lag is measured by asking the primary service for the sequence number of
+ * its last change every {@link #getProbeInterval()}. Changes are received on
+ * the same connection before the response, so when the response is received,
+ * the replica has all changes that were made before the request was sent. For
+ * the same reason, reads after a call that changed the market always see that
+ * change.
+ * </p>
+ * <p>
+ * When the primary service is lost, the replica can take over with
+ * {@link #promote()}. Changes that were not replicated yet are lost.
+ * </p>
+ */
+public class ReplicaStonksService implements StonksService, AutoCloseable {
+	public static final Duration DEFAULT_MAX_LAG = Duration.ofSeconds(1);
+	public static final Duration DEFAULT_PROBE_INTERVAL = Duration.ofMillis(100);
+
+	private final RemoteStonksService primary;
+	private final List<Consumer<Offer>> filledConsumers = new CopyOnWriteArrayList<>();
+	private final AtomicLong localReads = new AtomicLong(0L);
+	private final AtomicLong forwardedReads = new AtomicLong(0L);
+	private Duration maxLag = DEFAULT_MAX_LAG;
+	private Duration probeInterval = DEFAULT_PROBE_INTERVAL;
+	// The local service is used while holding its lock
+	private volatile StonksMemoryService local = null;
+	private Map<String, Product> products = null;
+	private Thread prober = null;
+	private volatile long appliedSequence = -1L;
+	private volatile long primarySequence = -1L;
+	private volatile boolean synced = false;
+	private volatile long lastSyncTime = 0L;
+	private volatile boolean promoted = false;
+	private volatile boolean closed = false;
+
+	// Only used on the reader thread of the connection
+	private List<Offer> pendingSnapshot = null;
+
+	/**
+	 * <p>
+	 * Create a new replica. The replica starts replicating on
+	 * {@link #connect()}.
+	 * </p>
+	 * 
+	 * @param primary The connection to the primary service.
+	 */
+	public ReplicaStonksService(RemoteStonksService primary) {
+		this.primary = primary;
+	}
+
+	public RemoteStonksService getPrimary() { return primary; }
+
+	/**
+	 * <p>
+	 * Get the local service that replicates the primary service. Calls to the
+	 * local service must be made while holding its lock.
+	 * </p>
+	 * 
+	 * @return The local service, or {@code null} if not connected yet.
+	 */
+	public StonksMemoryService getLocalService() { return local; }
+
+	public Duration getMaxLag() { return maxLag; }
+
+	/**
+	 * <p>
+	 * Set the maximum lag for serving reads from the local service.
+	 * </p>
+	 * 
+	 * @param maxLag The maximum lag.
+	 */
+	public void setMaxLag(Duration maxLag) { this.maxLag = maxLag; }
+
+	public Duration getProbeInterval() { return probeInterval; }
+
+	/**
+	 * <p>
+	 * Set the time between 2 lag measurements. Must be called before
+	 * {@link #connect()}, and should be shorter than {@link #getMaxLag()}.
+	 * </p>
+	 * 
+	 * @param probeInterval The interval.
+	 */
+	public void setProbeInterval(Duration probeInterval) { this.probeInterval = probeInterval; }
+
+	/**
+	 * <p>
+	 * Connect to the primary service, download products and start replicating.
+	 * Reads are sent to the primary service until the snapshot is received.
+	 * </p>
+	 * 
+	 * @throws IllegalStateException if the replica is closed.
+	 */
+	public synchronized void connect() throws IOException {
+		if (closed) throw new IllegalStateException("ReplicaStonksService: Service is closed");
+		if (local != null) return;
+		primary.connect();
+		var categories = primary.queryAllCategoriesAsync().join();
+		var service = new StonksMemoryService(primary.getPriceScale());
+		var index = new HashMap<String, Product>();
+
+		for (var category : categories) {
+			// Downloaded categories are always memory categories
+			service.getModifiableCategories().add((MemoryCategory) category);
+			for (var product : category.getProducts()) index.putIfAbsent(product.getProductId(), product);
+		}
+
+		service.subscribeToOfferFilledEvents(this::offerFilled);
+		products = index;
+		local = service;
+		primary.replicate(this::replicated);
+		prober = Thread.ofVirtual().name("Stonks Replica Probe").start(this::probe);
+	}
+
+	/**
+	 * <p>
+	 * Get the sequence number of the last change that was applied to the local
+	 * service.
+	 * </p>
+	 * 
+	 * @return The sequence number, or {@code -1} if no snapshot was received.
+	 */
+	public long getAppliedSequence() { return appliedSequence; }
+
+	/**
+	 * <p>
+	 * Get the sequence number of the last change of the primary service, from
+	 * the last lag measurement.
+	 * </p>
+	 * 
+	 * @return The sequence number, or {@code -1} if not measured yet.
+	 */
+	public long getPrimarySequence() { return primarySequence; }
+
+	/**
+	 * <p>
+	 * Get the current lag. The local service has all changes that were made on
+	 * the primary service until this long ago.
+	 * </p>
+	 * 
+	 * @return The lag, or {@link ChronoUnit#FOREVER} if the replica has not
+	 *         caught up yet.
+	 */
+	public Duration getReplicationLag() {
+		var time = lastSyncTime;
+		if (time == 0L) return ChronoUnit.FOREVER.getDuration();
+		return Duration.ofNanos(System.nanoTime() - time);
+	}
+
+	/**
+	 * <p>
+	 * Check whether reads are served from the local service.
+	 * </p>
+	 * 
+	 * @return {@code true} if the replica was promoted, or is not lagging more
+	 *         than {@link #getMaxLag()}.
+	 */
+	public boolean isServingLocally() {
+		if (promoted) return true;
+		return synced && getReplicationLag().compareTo(maxLag) <= 0;
+	}
+
+	public boolean isPromoted() { return promoted; }
+
+	public long getLocalReadsCount() { return localReads.get(); }
+
+	public long getForwardedReadsCount() { return forwardedReads.get(); }
+
+	private void replicated(ReplicationBatch batch) {
+		var service = local;
+		List<JournalRecord> records;
+
+		try {
+			records = batch.decode(primary.getPriceScale(), id -> Optional.ofNullable(products.get(id)));
+		} catch (IOException e) {
+			e.printStackTrace();
+			synced = false;
+			primary.replicate(this::replicated);
+			return;
+		}
+
+		synchronized (service) {
+			if (promoted) return;
+
+			if (batch.snapshot()) {
+				if (pendingSnapshot == null) pendingSnapshot = new ArrayList<>();
+				for (var record : records) if (record instanceof JournalRecord.Listed listed)
+					pendingSnapshot.add(listed.offer());
+				if (batch.partial()) return;
+				service.replaceOffers(pendingSnapshot);
+				pendingSnapshot = null;
+				appliedSequence = batch.sequence();
+				synced = true;
+				return;
+			}
+
+			// Waiting for the snapshot
+			if (!synced) return;
+
+			if (batch.getFirstSequence() != appliedSequence + 1) {
+				synced = false;
+				primary.replicate(this::replicated);
+				return;
+			}
+
+			service.applyChanges(records);
+			appliedSequence = batch.sequence();
+		}
+	}
+
+	private void probe() {
+		while (!closed && !promoted) {
+			try {
+				Thread.sleep(probeInterval);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			var sent = System.nanoTime();
+
+			try {
+				var sequence = primary.queryReplicationSequenceAsync().join();
+				primarySequence = sequence;
+				// Batches up to this sequence number were applied before the response
+				if (synced && appliedSequence >= sequence) lastSyncTime = sent;
+			} catch (CompletionException e) {
+				// The connection is lost, and the next probe connects again
+			}
+		}
+	}
+
+	private <T> CompletableFuture<T> read(Function<StonksMemoryService, CompletableFuture<T>> call, Supplier<CompletableFuture<T>> forward) {
+		if (!isServingLocally()) {
+			forwardedReads.incrementAndGet();
+			return forward.get();
+		}
+
+		localReads.incrementAndGet();
+		return callLocal(call);
+	}
+
+	private <T> CompletableFuture<T> write(Function<StonksMemoryService, CompletableFuture<T>> call, Supplier<CompletableFuture<T>> forward) {
+		if (!promoted) return forward.get();
+		return callLocal(call);
+	}
+
+	private <T> CompletableFuture<T> callLocal(Function<StonksMemoryService, CompletableFuture<T>> call) {
+		var service = local;
+
+		synchronized (service) {
+			return call.apply(service);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Stop replicating and make the local service the primary service. All calls
+	 * are made on the local service from now on, and the connection to the old
+	 * primary service is closed.
+	 * </p>
+	 * 
+	 * @return The local service, which can be served to other replicas.
+	 * @throws IllegalStateException if no snapshot was received yet.
+	 */
+	public StonksMemoryService promote() {
+		var service = local;
+		if (service == null) throw new IllegalStateException("ReplicaStonksService: Not connected");
+
+		synchronized (service) {
+			if (appliedSequence < 0L)
+				throw new IllegalStateException("ReplicaStonksService: No snapshot was received yet");
+			promoted = true;
+		}
+
+		primary.close();
+		if (prober != null) prober.interrupt();
+		return service;
+	}
+
+	@Override
+	public PriceScale getPriceScale() { return primary.getPriceScale(); }
+
+	@Override
+	public CompletableFuture<List<Category>> queryAllCategoriesAsync() {
+		return primary.queryAllCategoriesAsync();
+	}
+
+	@Override
+	public CompletableFuture<ProductMarketOverview> queryMarketOverviewAsync(Product product) {
+		return read(s -> s.queryMarketOverviewAsync(product), () -> primary.queryMarketOverviewAsync(product));
+	}
+
+	@Override
+	public CompletableFuture<List<Offer>> getOffersFromUserAsync(UUID user) {
+		// Offers of the local service are changed by later changes
+		return read(s -> s.getOffersFromUserAsync(user).thenApply(offers -> offers.stream()
+			.map(Offer::createCopy)
+			.toList()), () -> primary.getOffersFromUserAsync(user));
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> getOffersAsync(Collection<UUID> offerIds) {
+		return read(s -> s.getOffersAsync(offerIds), () -> primary.getOffersAsync(offerIds));
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> claimOffersAsync(Collection<UUID> offerIds) {
+		return write(s -> s.claimOffersAsync(offerIds), () -> primary.claimOffersAsync(offerIds));
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> cancelOffersAsync(Collection<UUID> offerIds) {
+		return write(s -> s.cancelOffersAsync(offerIds), () -> primary.cancelOffersAsync(offerIds));
+	}
+
+	@Override
+	public CompletableFuture<Offer> listOfferAsync(UUID user, Product product, OfferType type, int units, double pricePerUnit) {
+		return write(s -> s.listOfferAsync(user, product, type, units, pricePerUnit).thenApply(Offer::createCopy),
+			() -> primary.listOfferAsync(user, product, type, units, pricePerUnit));
+	}
+
+	@Override
+	public CompletableFuture<Offer> listOfferRawAsync(UUID user, Product product, OfferType type, int units, long pricePerUnit) {
+		return write(s -> s.listOfferRawAsync(user, product, type, units, pricePerUnit).thenApply(Offer::createCopy),
+			() -> primary.listOfferRawAsync(user, product, type, units, pricePerUnit));
+	}
+
+	@Override
+	public CompletableFuture<InstantOfferExecuteResult> instantOfferAsync(Product product, OfferType type, int units, double balance) {
+		return write(s -> s.instantOfferAsync(product, type, units, balance),
+			() -> primary.instantOfferAsync(product, type, units, balance));
+	}
+
+	@Override
+	public CompletableFuture<InstantOfferExecuteResult> instantOfferRawAsync(Product product, OfferType type, int units, long balance) {
+		return write(s -> s.instantOfferRawAsync(product, type, units, balance),
+			() -> primary.instantOfferRawAsync(product, type, units, balance));
+	}
+
+	@Override
+	public CompletableFuture<List<BulkResult<Offer>>> listOffersAsync(List<ListOfferRequest> requests) {
+		return write(s -> s.listOffersAsync(requests).thenApply(results -> results.stream()
+			.map(r -> r.isSuccess() ? BulkResult.success(r.result().createCopy()) : r)
+			.toList()), () -> primary.listOffersAsync(requests));
+	}
+
+	@Override
+	public CompletableFuture<List<BulkResult<InstantOfferExecuteResult>>> instantOffersAsync(List<InstantOfferRequest> requests) {
+		return write(s -> s.instantOffersAsync(requests), () -> primary.instantOffersAsync(requests));
+	}
+
+	/**
+	 * <p>
+	 * Subscribe to offer filled events of the primary service, and of the local
+	 * service after promoting.
+	 * </p>
+	 */
+	@Override
+	public void subscribeToOfferFilledEvents(Consumer<Offer> consumer) {
+		if (filledConsumers.isEmpty()) primary.subscribeToOfferFilledEvents(this::offerFilled);
+		filledConsumers.add(consumer);
+	}
+
+	private void offerFilled(Offer offer) {
+		for (var consumer : filledConsumers) {
+			try {
+				consumer.accept(offer);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	@Override
+	public boolean isSubscriptionSupported() { return true; }
+
+	/**
+	 * <p>
+	 * Subscribe to the market overview of a product on the local service. Updates
+	 * are sent on the reader thread of the connection while the replica applies
+	 * changes, so consumers must not block. Before connecting, the subscription
+	 * is made on the primary service.
+	 * </p>
+	 */
+	@Override
+	public Subscription subscribeToOverviewUpdates(Product product, Consumer<OverviewUpdate> consumer) {
+		var service = local;
+		if (service == null) return primary.subscribeToOverviewUpdates(product, consumer);
+
+		synchronized (service) {
+			return service.subscribeToOverviewUpdates(product, consumer);
+		}
+	}
+
+	@Override
+	public Subscription subscribeToOffersUpdates(UUID user, Consumer<OffersUpdate> consumer) {
+		var service = local;
+		if (service == null) return primary.subscribeToOffersUpdates(user, consumer);
+
+		synchronized (service) {
+			return service.subscribeToOffersUpdates(user, consumer);
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		primary.close();
+		if (prober != null) prober.interrupt();
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.replication;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+import stonks.core.market.PriceScale;
+import stonks.core.product.Product;
+import stonks.core.service.journal.JournalFormat;
+import stonks.core.service.journal.JournalRecord;
+
+/**
+ * <p>
+ * A batch of changes from {@link ReplicationLog}, encoded with
+ * {@link JournalFormat.RecordWriter}. Each change has a sequence number, which
+ * is the sequence number of the previous change plus 1. Replicas apply batches
+ * in order, and a batch that does not start right after the last applied
+ * change means some changes were missed.
+ * </p>
+ * <p>
+ * Snapshots contain all offers as listed records, and they are split into
+ * multiple batches when they are large. All batches of a snapshot have the
+ * sequence number of the last change before the snapshot, and all of them
+ * except the last one are partial.
+ * </p>
+ * 
+ * @param sequence The sequence number of the last change in this batch.
+ * @param snapshot Whether this batch is a part of a snapshot.
+ * @param partial  Whether more batches of the same snapshot will follow.
+ * @param count    Number of records.
+ * @param records  Encoded records.
+ */
+public record ReplicationBatch(long sequence, boolean snapshot, boolean partial, int count, byte[] records) {
+	/**
+	 * <p>
+	 * Get the sequence number of the first change in this batch.
+	 * </p>
+	 * 
+	 * @return The sequence number, or the sequence number of this batch plus 1 if
+	 *         this batch is a snapshot.
+	 */
+	public long getFirstSequence() { return snapshot ? sequence + 1 : sequence - count + 1; }
+
+	/**
+	 * <p>
+	 * Decode the records of this batch.
+	 * </p>
+	 * 
+	 * @param scale         The price scale of the primary service.
+	 * @param productGetter Function to get product from its ID. Records of
+	 *                      unknown products are decoded as
+	 *                      {@link JournalRecord.Dropped}.
+	 * @return The records.
+	 */
+	public List<JournalRecord> decode(PriceScale scale, Function<String, Optional<Product>> productGetter) throws IOException {
+		var in = new DataInputStream(new ByteArrayInputStream(records));
+		var list = new ArrayList<JournalRecord>(count);
+
+		for (int i = 0; i < count; i++) {
+			var record = JournalFormat.readRecord(in, scale, productGetter);
+			if (record == null) throw new IOException("ReplicationBatch: Expected " + count + " records, found " + i);
+			list.add(record);
+		}
+
+		return list;
+	}
+}
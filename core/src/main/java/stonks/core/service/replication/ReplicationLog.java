@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.replication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import stonks.core.market.Offer;
+import stonks.core.service.journal.JournalFormat;
+import stonks.core.service.journal.OfferJournal;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * Journal that records changes of a primary {@link StonksMemoryService} for
+ * replicas, while passing them to another journal. Changes are buffered until
+ * {@link #commit()}, then sent to listeners as one {@link ReplicationBatch}.
+ * Changes carry the full state of offers, so replicas can apply them with
+ * {@link StonksMemoryService#applyChanges(java.util.Collection)}.
+ * </p>
+ * <p>
+ * Like the service, this log must only be used on the thread that uses the
+ * service, and listeners are called on that thread.
+ * </p>
+ */
+public class ReplicationLog implements OfferJournal {
+	public static final int MAX_BATCH_SIZE = 1 << 20;
+
+	private final StonksMemoryService service;
+	private final OfferJournal next;
+	private final JournalFormat.RecordWriter writer = new JournalFormat.RecordWriter();
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private final DataOutputStream pendingData = new DataOutputStream(pending);
+	private final List<Consumer<ReplicationBatch>> listeners = new CopyOnWriteArrayList<>();
+	private int pendingCount = 0;
+	private long sequence = 0L;
+
+	/**
+	 * <p>
+	 * Create a new log. The log must then be set as the journal of the service.
+	 * </p>
+	 * 
+	 * @param service The primary service.
+	 * @param next    The journal that will also receive all changes, usually the
+	 *                current journal of the service.
+	 */
+	public ReplicationLog(StonksMemoryService service, OfferJournal next) {
+		this.service = service;
+		this.next = next;
+	}
+
+	public StonksMemoryService getService() { return service; }
+
+	public OfferJournal getNext() { return next; }
+
+	/**
+	 * <p>
+	 * Get the sequence number of the last committed change.
+	 * </p>
+	 */
+	public long getSequence() { return sequence; }
+
+	public int getPendingCount() { return pendingCount; }
+
+	/**
+	 * <p>
+	 * Add a listener for committed batches. Changes that are not committed yet
+	 * are committed first, so the listener only receives changes made after
+	 * this call.
+	 * </p>
+	 * 
+	 * @param listener The listener.
+	 */
+	public void addListener(Consumer<ReplicationBatch> listener) {
+		commit();
+		listeners.add(listener);
+	}
+
+	public void removeListener(Consumer<ReplicationBatch> listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void offerListed(Offer offer) {
+		next.offerListed(offer);
+		record(() -> writer.writeListed(pendingData, offer));
+	}
+
+	@Override
+	public void offerUpdated(Offer offer) {
+		next.offerUpdated(offer);
+		record(() -> writer.writeUpdated(pendingData, offer));
+	}
+
+	@Override
+	public void offerRemoved(Offer offer) {
+		next.offerRemoved(offer);
+		record(() -> writer.writeRemoved(pendingData, offer.getOfferId()));
+	}
+
+	private void record(RecordEncoder encoder) {
+		pendingCount++;
+		// Nobody is replicating, so only the sequence number is needed
+		if (listeners.isEmpty()) return;
+
+		try {
+			encoder.encode();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		if (pending.size() >= MAX_BATCH_SIZE) commit();
+	}
+
+	/**
+	 * <p>
+	 * Send all changes since the last commit to listeners as one batch. Nothing is
+	 * sent if nothing was changed.
+	 * </p>
+	 */
+	public void commit() {
+		if (pendingCount == 0) return;
+		sequence += pendingCount;
+		var batch = new ReplicationBatch(sequence, false, false, pendingCount, pending.toByteArray());
+		pendingCount = 0;
+		pending.reset();
+
+		for (var listener : listeners) {
+			try {
+				listener.accept(batch);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Commit pending changes, then encode all offers of the service as a snapshot.
+	 * Products that are loaded on demand are loaded first.
+	 * </p>
+	 * 
+	 * @param consumer The consumer for batches of the snapshot.
+	 */
+	public void snapshot(Consumer<ReplicationBatch> consumer) {
+		commit();
+
+		for (var category : service.getModifiableCategories()) {
+			// Loads the product if the service loads products on demand
+			for (var product : category.getProducts()) service.queryMarketOverviewAsync(product);
+		}
+
+		var out = new ByteArrayOutputStream();
+		var data = new DataOutputStream(out);
+		var snapshotWriter = new JournalFormat.RecordWriter();
+		var count = 0;
+
+		try {
+			for (var offer : service.getOffersInPriorityOrder()) {
+				snapshotWriter.writeListed(data, offer);
+				count++;
+
+				if (out.size() >= MAX_BATCH_SIZE) {
+					consumer.accept(new ReplicationBatch(sequence, true, true, count, out.toByteArray()));
+					out.reset();
+					count = 0;
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		consumer.accept(new ReplicationBatch(sequence, true, false, count, out.toByteArray()));
+	}
+
+	@Override
+	public void flush() {
+		commit();
+		next.flush();
+	}
+
+	@FunctionalInterface
+	private static interface RecordEncoder {
+		public void encode() throws IOException;
+	}
+}
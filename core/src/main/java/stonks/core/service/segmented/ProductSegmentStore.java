@@ -0,0 +1,664 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.segmented;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import stonks.core.market.Offer;
+import stonks.core.market.PriceScale;
+import stonks.core.product.Product;
+import stonks.core.service.journal.JournalFormat;
+import stonks.core.service.journal.JournalRecord;
+import stonks.core.service.journal.OfferJournal;
+import stonks.core.service.journal.OfferSnapshot;
+
+/**
+ * <p>
+ * Log-structured storage with one directory of segments per product. Changes
+ * are appended to the log of their product as {@link JournalFormat} records,
+ * and removed offers are appended as tombstones ({@code removed} records), so
+ * saving only writes the changes since the last flush.
+ * </p>
+ * <p>
+ * Each product directory holds logs ({@code <generation>.log}) and bases
+ * ({@code <generation>.base}). A base holds all live offers of the product
+ * right before the log with the same generation was started. When most records
+ * of a product are tombstones or outdated updates, the product is compacted:
+ * its live offers are copied, a new log is started, and the copies are written
+ * as a new base on the writer thread, which then deletes older logs and bases.
+ * </p>
+ * <p>
+ * Changes are recorded on the thread that owns the service, and
+ * {@link #flush()} hands them to the writer thread, which appends them and
+ * forces them to disk. Writing errors are reported by the next call to
+ * {@link #flush()} or {@link #sync()} as {@link UncheckedIOException}.
+ * </p>
+ */
+public class ProductSegmentStore implements OfferJournal, AutoCloseable {
+	public static final int LOG_MAGIC = 0x53504C47; // SPLG
+	public static final int BASE_MAGIC = 0x53504253; // SPBS
+	public static final String LOG_SUFFIX = ".log";
+	public static final String BASE_SUFFIX = ".base";
+	public static final double DEFAULT_COMPACTION_RATIO = 0.5;
+	public static final int DEFAULT_COMPACTION_MIN_RECORDS = 4096;
+
+	private final Path directory;
+	private final PriceScale scale;
+	private final JournalFormat.RecordWriter recordWriter = new JournalFormat.RecordWriter();
+	private final Map<String, ProductSegment> segments = new HashMap<>();
+	private final Set<ProductSegment> dirty = new LinkedHashSet<>();
+	private final ExecutorService writer;
+	private double compactionRatio = DEFAULT_COMPACTION_RATIO;
+	private int compactionMinRecords = DEFAULT_COMPACTION_MIN_RECORDS;
+	private CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+	private volatile IOException error = null;
+	private long compactions = 0L;
+
+	/**
+	 * <p>
+	 * State of a single product. Fields without comment are only used by the
+	 * thread that owns the service.
+	 * </p>
+	 */
+	private static class ProductSegment {
+		private final Path directory;
+		private final Map<UUID, Offer> live = new LinkedHashMap<>();
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private final DataOutputStream bufferData = new DataOutputStream(buffer);
+		private long generation;
+		private long records = 0L;
+		// Whether live offers are known. Products that are not loaded can't be compacted
+		private boolean tracked = true;
+
+		// Writer thread only
+		private FileChannel log = null;
+		private long logGeneration = -1L;
+
+		public ProductSegment(Path directory, long generation) {
+			this.directory = directory;
+			this.generation = generation;
+		}
+	}
+
+	private static record Append(ProductSegment segment, long generation, byte[] bytes) {
+	}
+
+	private static record Compact(ProductSegment segment, long generation, List<Offer> offers) {
+	}
+
+	/**
+	 * <p>
+	 * Result of recovery.
+	 * </p>
+	 * 
+	 * @param offers          Recovered offers of all products.
+	 * @param replayedRecords Number of records read from bases and logs.
+	 * @param damagedSegments Number of logs that ended with damaged or incomplete
+	 *                        record.
+	 * @param unknownProducts Number of product directories that does not match
+	 *                        any product. These directories are not changed.
+	 */
+	public static record Recovery(List<Offer> offers, long replayedRecords, int damagedSegments, int unknownProducts) {
+	}
+
+	public ProductSegmentStore(Path directory, PriceScale scale) {
+		this.directory = directory;
+		this.scale = scale;
+		this.writer = Executors.newSingleThreadExecutor(Thread.ofPlatform()
+			.name("Stonks Segment Writer")
+			.daemon()
+			.factory());
+	}
+
+	public Path getDirectory() { return directory; }
+
+	public double getCompactionRatio() { return compactionRatio; }
+
+	/**
+	 * <p>
+	 * Set the ratio of dead records (tombstones, removed offers and outdated
+	 * updates) to all records of a product that triggers compaction.
+	 * </p>
+	 * 
+	 * @param compactionRatio The ratio, from {@code 0} to {@code 1}.
+	 */
+	public void setCompactionRatio(double compactionRatio) { this.compactionRatio = compactionRatio; }
+
+	public int getCompactionMinRecords() { return compactionMinRecords; }
+
+	/**
+	 * <p>
+	 * Set the minimum number of records of a product before it can be compacted,
+	 * so small products are not rewritten for every few changes.
+	 * </p>
+	 * 
+	 * @param compactionMinRecords Number of records.
+	 */
+	public void setCompactionMinRecords(int compactionMinRecords) { this.compactionMinRecords = compactionMinRecords; }
+
+	/**
+	 * <p>
+	 * Get the number of compactions that was started since the store was
+	 * created.
+	 * </p>
+	 * 
+	 * @return Number of compactions.
+	 */
+	public long getCompactionsCount() { return compactions; }
+
+	/**
+	 * <p>
+	 * Encode product ID into directory name. Characters other than lowercase
+	 * letters, digits, {@code _}, {@code -} and {@code .} are written as
+	 * {@code %} and 2 hex digits for each UTF-8 byte, so the name is valid on all
+	 * platforms and product IDs that only differ by case never share a directory.
+	 * </p>
+	 * 
+	 * @param productId The product ID.
+	 * @return The directory name.
+	 */
+	public static String encodeProductId(String productId) {
+		var builder = new StringBuilder();
+
+		for (var b : productId.getBytes(StandardCharsets.UTF_8)) {
+			var c = (char) (b & 0xFF);
+			var plain = (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == '-'
+				|| (c == '.' && !builder.isEmpty());
+			if (plain) builder.append(c);
+			else builder.append('%').append(HexFormat.of().toHexDigits((byte) c));
+		}
+
+		return builder.toString();
+	}
+
+	public static Optional<String> decodeProductId(String name) {
+		var bytes = new ByteArrayOutputStream();
+
+		for (int i = 0; i < name.length(); i++) {
+			var c = name.charAt(i);
+
+			if (c == '%') {
+				if (i + 3 > name.length()) return Optional.empty();
+
+				try {
+					bytes.write(HexFormat.fromHexDigits(name, i + 1, i + 3));
+				} catch (NumberFormatException e) {
+					return Optional.empty();
+				}
+
+				i += 2;
+			} else {
+				bytes.write(c);
+			}
+		}
+
+		return Optional.of(bytes.toString(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * <p>
+	 * List generations of files with given suffix in a product directory, from
+	 * oldest to newest.
+	 * </p>
+	 * 
+	 * @param productDirectory The product directory.
+	 * @param suffix           {@link #LOG_SUFFIX} or {@link #BASE_SUFFIX}.
+	 * @return Sorted generations.
+	 */
+	public static long[] listGenerations(Path productDirectory, String suffix) throws IOException {
+		if (Files.notExists(productDirectory)) return new long[0];
+
+		try (Stream<Path> files = Files.list(productDirectory)) {
+			return files
+				.map(p -> p.getFileName().toString())
+				.filter(name -> name.endsWith(suffix))
+				.map(name -> name.substring(0, name.length() - suffix.length()))
+				.mapToLong(name -> parseGeneration(name).orElse(-1L))
+				.filter(gen -> gen >= 0L)
+				.sorted()
+				.toArray();
+		}
+	}
+
+	private static OptionalLong parseGeneration(String name) {
+		try {
+			return OptionalLong.of(Long.parseLong(name));
+		} catch (NumberFormatException e) {
+			return OptionalLong.empty();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Recover offers of all products and prepare the store for new changes. Must
+	 * be called before recording any change. Offers must be given to
+	 * {@link #track(Iterator)} after they are inserted to the service.
+	 * </p>
+	 * 
+	 * @param productGetter Function to get product from its ID.
+	 * @return The recovery result.
+	 */
+	public Recovery recover(Function<String, Optional<Product>> productGetter) throws IOException {
+		var offers = new ArrayList<Offer>();
+		var recovery = scan(productGetter, (product, productOffers) -> offers.addAll(productOffers));
+		for (var segment : segments.values()) segment.tracked = true;
+		return new Recovery(offers, recovery.replayedRecords(), recovery.damagedSegments(),
+			recovery.unknownProducts());
+	}
+
+	/**
+	 * <p>
+	 * Read offers of all products without keeping them, and prepare the store for
+	 * new changes. Must be called before recording any change. The products are
+	 * not loaded after scanning, so each of them must be loaded with
+	 * {@link #load(Product)} before its offers are changed.
+	 * </p>
+	 * 
+	 * @param productGetter Function to get product from its ID.
+	 * @param consumer      Consumer that receives offers of each product.
+	 * @return The recovery result, without offers.
+	 */
+	public Recovery scan(Function<String, Optional<Product>> productGetter, BiConsumer<Product, Collection<Offer>> consumer) throws IOException {
+		segments.clear();
+		dirty.clear();
+		var replayed = 0L;
+		var damaged = 0;
+		var unknown = 0;
+		if (Files.notExists(directory)) return new Recovery(List.of(), 0L, 0, 0);
+		List<Path> productDirectories;
+
+		try (Stream<Path> files = Files.list(directory)) {
+			productDirectories = files.filter(Files::isDirectory).sorted().toList();
+		}
+
+		for (var productDirectory : productDirectories) {
+			var product = decodeProductId(productDirectory.getFileName().toString()).flatMap(productGetter);
+
+			if (product.isEmpty()) {
+				unknown++;
+				continue;
+			}
+
+			var productOffers = new LinkedHashMap<UUID, Offer>();
+			var read = readProduct(productDirectory, productGetter, productOffers);
+			var segment = new ProductSegment(productDirectory, read.lastGeneration() + 1);
+			segment.records = read.records();
+			segment.tracked = false;
+			segments.put(product.get().getProductId(), segment);
+			consumer.accept(product.get(), productOffers.values());
+			replayed += read.records();
+			damaged += read.damaged();
+		}
+
+		return new Recovery(List.of(), replayed, damaged, unknown);
+	}
+
+	private static record ProductRead(long lastGeneration, long records, int damaged) {
+	}
+
+	private static ProductRead readProduct(Path productDirectory, Function<String, Optional<Product>> productGetter, Map<UUID, Offer> offers) throws IOException {
+		var bases = listGenerations(productDirectory, BASE_SUFFIX);
+		var logs = listGenerations(productDirectory, LOG_SUFFIX);
+		var baseGeneration = bases.length > 0 ? bases[bases.length - 1] : -1L;
+		var lastGeneration = baseGeneration;
+		var records = 0L;
+		var damaged = 0;
+
+		if (baseGeneration >= 0L) {
+			// Bases are moved into place after they are fully written, so they are never
+			// incomplete
+			records += readFile(productDirectory.resolve(baseGeneration + BASE_SUFFIX), BASE_MAGIC, productGetter,
+				offers);
+		}
+
+		for (var gen : logs) {
+			if (gen < baseGeneration) continue;
+			lastGeneration = gen;
+
+			try {
+				records += readFile(productDirectory.resolve(gen + LOG_SUFFIX), LOG_MAGIC, productGetter, offers);
+			} catch (JournalFormat.CorruptRecordException e) {
+				damaged++;
+			}
+		}
+
+		return new ProductRead(lastGeneration, records, damaged);
+	}
+
+	/**
+	 * <p>
+	 * Load offers of a product that was scanned or released, and start tracking
+	 * them. The returned offers use the price scale of this store, and they must
+	 * be inserted to the service as they are.
+	 * </p>
+	 * 
+	 * @param product The product.
+	 * @return Live offers of the product.
+	 */
+	public List<Offer> load(Product product) throws IOException {
+		var segment = segmentOf(product);
+		if (segment.tracked) throw new IllegalStateException("ProductSegmentStore: Product is already loaded: "
+			+ product.getProductId());
+
+		// Logs may still have changes that are not written yet
+		if (dirty.contains(segment)) flush();
+		lastWrite.join();
+		throwIfFailed();
+
+		var offers = new LinkedHashMap<UUID, Offer>();
+		readProduct(segment.directory, id -> id.equals(product.getProductId())
+			? Optional.of(product)
+			: Optional.empty(), offers);
+		for (var offer : offers.values()) segment.live.put(offer.getOfferId(), offer.withScale(scale));
+		segment.tracked = true;
+		return new ArrayList<>(segment.live.values());
+	}
+
+	/**
+	 * <p>
+	 * Stop tracking offers of the product, so the service can drop them from
+	 * memory. Pending changes of the product are submitted to the writer thread.
+	 * The product must be loaded again with {@link #load(Product)} before its
+	 * offers are changed.
+	 * </p>
+	 * 
+	 * @param product The product.
+	 */
+	public void release(Product product) {
+		var segment = segments.get(product.getProductId());
+		if (segment == null) return;
+		if (dirty.contains(segment)) flush();
+		segment.live.clear();
+		segment.tracked = false;
+	}
+
+	private static long readFile(Path path, int magic, Function<String, Optional<Product>> productGetter, Map<UUID, Offer> offers) throws IOException {
+		try (var data = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+			JournalFormat.Header header;
+
+			try {
+				header = JournalFormat.readHeader(data, magic);
+			} catch (IOException e) {
+				// Crashed right after creating the log
+				throw new JournalFormat.CorruptRecordException("ProductSegmentStore: Incomplete header in " + path);
+			}
+
+			var records = 0L;
+			JournalRecord record;
+
+			while ((record = JournalFormat.readRecord(data, header.scale(), productGetter)) != null) {
+				OfferSnapshot.apply(record, offers);
+				records++;
+			}
+
+			return records;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Start tracking live offers, after recovered offers was inserted to the
+	 * service. The store keeps references to these offers, so it can copy them
+	 * when compacting.
+	 * </p>
+	 * 
+	 * @param offers All offers in the service.
+	 */
+	public void track(Iterator<Offer> offers) {
+		while (offers.hasNext()) {
+			var offer = offers.next();
+			segmentOf(offer.getProduct()).live.put(offer.getOfferId(), offer);
+		}
+	}
+
+	private ProductSegment segmentOf(Product product) {
+		return segments.computeIfAbsent(product.getProductId(), id -> new ProductSegment(
+			directory.resolve(encodeProductId(id)), 0L));
+	}
+
+	@Override
+	public void offerListed(Offer offer) {
+		var segment = segmentOf(offer.getProduct());
+		segment.live.put(offer.getOfferId(), offer);
+
+		try {
+			recordWriter.writeListed(segment.bufferData, offer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		recorded(segment);
+	}
+
+	@Override
+	public void offerUpdated(Offer offer) {
+		var segment = segmentOf(offer.getProduct());
+
+		try {
+			recordWriter.writeUpdated(segment.bufferData, offer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		recorded(segment);
+	}
+
+	@Override
+	public void offerRemoved(Offer offer) {
+		var segment = segmentOf(offer.getProduct());
+		segment.live.remove(offer.getOfferId());
+
+		try {
+			recordWriter.writeRemoved(segment.bufferData, offer.getOfferId());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		recorded(segment);
+	}
+
+	private void recorded(ProductSegment segment) {
+		segment.records++;
+		dirty.add(segment);
+	}
+
+	private boolean shouldCompact(ProductSegment segment) {
+		if (!segment.tracked || segment.records < compactionMinRecords) return false;
+		return segment.records - segment.live.size() >= compactionRatio * segment.records;
+	}
+
+	/**
+	 * <p>
+	 * Submit changes to the writer thread, and start compacting products that
+	 * have too many dead records. This method does not wait for the changes to be
+	 * written.
+	 * </p>
+	 */
+	@Override
+	public void flush() {
+		throwIfFailed();
+		if (dirty.isEmpty()) return;
+		var appends = new ArrayList<Append>();
+		var compacts = new ArrayList<Compact>();
+
+		for (var segment : dirty) {
+			appends.add(new Append(segment, segment.generation, segment.buffer.toByteArray()));
+			segment.buffer.reset();
+
+			if (shouldCompact(segment)) {
+				// The copies hold the state after all changes that was just submitted, which
+				// is the state right before the next log
+				var copies = new ArrayList<Offer>(segment.live.size());
+				for (var offer : segment.live.values()) copies.add(offer.createCopy());
+				segment.generation++;
+				segment.records = copies.size();
+				compacts.add(new Compact(segment, segment.generation, copies));
+				compactions++;
+			}
+		}
+
+		dirty.clear();
+		lastWrite = lastWrite.thenRunAsync(() -> {
+			if (error != null) return;
+
+			try {
+				for (var append : appends) append(append.segment(), append.generation(), append.bytes());
+				for (var append : appends) append.segment().log.force(false);
+				for (var compact : compacts) compact(compact.segment(), compact.generation(), compact.offers());
+			} catch (IOException e) {
+				error = e;
+			}
+		}, writer);
+	}
+
+	private void append(ProductSegment segment, long generation, byte[] bytes) throws IOException {
+		if (segment.log == null || segment.logGeneration != generation) {
+			if (segment.log != null) segment.log.close();
+			Files.createDirectories(segment.directory);
+			segment.log = FileChannel.open(segment.directory.resolve(generation + LOG_SUFFIX),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			segment.logGeneration = generation;
+
+			if (segment.log.size() == 0L) {
+				var header = new ByteArrayOutputStream(32);
+				JournalFormat.writeHeader(new DataOutputStream(header), LOG_MAGIC, scale, generation);
+				write(segment.log, header.toByteArray());
+			}
+		}
+
+		write(segment.log, bytes);
+	}
+
+	private void compact(ProductSegment segment, long generation, List<Offer> offers) throws IOException {
+		Files.createDirectories(segment.directory);
+		var path = segment.directory.resolve(generation + BASE_SUFFIX);
+		var temp = segment.directory.resolve(generation + BASE_SUFFIX + ".tmp");
+		var bytes = new ByteArrayOutputStream();
+		var data = new DataOutputStream(bytes);
+		var baseWriter = new JournalFormat.RecordWriter();
+		JournalFormat.writeHeader(data, BASE_MAGIC, scale, generation);
+
+		try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (var offer : offers) {
+				baseWriter.writeListed(data, offer);
+
+				if (bytes.size() >= 1 << 16) {
+					write(channel, bytes.toByteArray());
+					bytes.reset();
+				}
+			}
+
+			data.writeInt(0);
+			write(channel, bytes.toByteArray());
+			channel.force(true);
+		}
+
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		if (segment.log != null) {
+			segment.log.close();
+			segment.log = null;
+		}
+
+		for (var gen : listGenerations(segment.directory, LOG_SUFFIX))
+			if (gen < generation) Files.deleteIfExists(segment.directory.resolve(gen + LOG_SUFFIX));
+		for (var gen : listGenerations(segment.directory, BASE_SUFFIX))
+			if (gen < generation) Files.deleteIfExists(segment.directory.resolve(gen + BASE_SUFFIX));
+	}
+
+	private static void write(FileChannel channel, byte[] bytes) throws IOException {
+		var buffer = ByteBuffer.wrap(bytes);
+		while (buffer.hasRemaining()) channel.write(buffer);
+	}
+
+	/**
+	 * <p>
+	 * Flush and wait until all changes and compactions are written to disk.
+	 * </p>
+	 */
+	public void sync() {
+		flush();
+		lastWrite.join();
+		throwIfFailed();
+	}
+
+	private void throwIfFailed() {
+		if (error != null) throw new UncheckedIOException("ProductSegmentStore: Unable to write segments", error);
+	}
+
+	/**
+	 * <p>
+	 * Sync all changes and close all logs.
+	 * </p>
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			sync();
+		} finally {
+			lastWrite.handle(($, e) -> null).thenRunAsync(() -> {
+				for (var segment : segments.values()) {
+					try {
+						if (segment.log != null) segment.log.close();
+					} catch (IOException e) {
+						if (error == null) error = e;
+					}
+
+					segment.log = null;
+				}
+			}, writer).join();
+			writer.shutdown();
+		}
+	}
+}
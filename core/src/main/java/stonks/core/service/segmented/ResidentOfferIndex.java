@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.segmented;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import stonks.core.market.Offer;
+import stonks.core.service.journal.OfferJournal;
+
+/**
+ * <p>
+ * Index of all offers that stays in memory while order books are unloaded. It
+ * only keeps the product ID of each offer and the products of each user, which
+ * is enough to find the products that must be loaded before offers are looked
+ * up by their IDs or by their user.
+ * </p>
+ * <p>
+ * The index is kept up to date by recording changes, and forwards all changes
+ * to the next journal.
+ * </p>
+ */
+class ResidentOfferIndex implements OfferJournal {
+	private static record Entry(UUID offerer, String productId) {
+	}
+
+	private final OfferJournal next;
+	private final Map<UUID, Entry> offers = new HashMap<>();
+	private final Map<UUID, Map<String, Integer>> users = new HashMap<>();
+
+	public ResidentOfferIndex(OfferJournal next) {
+		this.next = next;
+	}
+
+	public int size() {
+		return offers.size();
+	}
+
+	public void add(Offer offer) {
+		var productId = offer.getProduct().getProductId();
+		if (offers.putIfAbsent(offer.getOfferId(), new Entry(offer.getOffererId(), productId)) != null) return;
+		users.computeIfAbsent(offer.getOffererId(), $ -> new HashMap<>()).merge(productId, 1, Integer::sum);
+	}
+
+	public void remove(UUID offerId) {
+		var entry = offers.remove(offerId);
+		if (entry == null) return;
+		var products = users.get(entry.offerer());
+		if (products.merge(entry.productId(), -1, Integer::sum) == 0) products.remove(entry.productId());
+		if (products.isEmpty()) users.remove(entry.offerer());
+	}
+
+	/**
+	 * <p>
+	 * Get the product ID of the offer.
+	 * </p>
+	 * 
+	 * @param offerId The offer ID.
+	 * @return The product ID, or {@code null} if the offer doesn't exist.
+	 */
+	public String productOf(UUID offerId) {
+		var entry = offers.get(offerId);
+		return entry != null ? entry.productId() : null;
+	}
+
+	/**
+	 * <p>
+	 * Get the IDs of all products that the user has offers for.
+	 * </p>
+	 * 
+	 * @param offerer The user.
+	 * @return Unmodifiable view of product IDs.
+	 */
+	public Set<String> productsOf(UUID offerer) {
+		var products = users.get(offerer);
+		return products != null ? Collections.unmodifiableSet(products.keySet()) : Set.of();
+	}
+
+	@Override
+	public void offerListed(Offer offer) {
+		add(offer);
+		next.offerListed(offer);
+	}
+
+	@Override
+	public void offerUpdated(Offer offer) {
+		next.offerUpdated(offer);
+	}
+
+	@Override
+	public void offerRemoved(Offer offer) {
+		remove(offer.getOfferId());
+		next.offerRemoved(offer);
+	}
+
+	@Override
+	public void flush() {
+		next.flush();
+	}
+}
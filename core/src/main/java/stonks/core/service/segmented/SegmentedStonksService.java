@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.segmented;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import stonks.core.market.PriceScale;
+import stonks.core.product.Product;
+import stonks.core.service.journal.OfferJournal;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * Persistent service that keeps offers in memory like
+ * {@link StonksMemoryService}, and stores them in {@link ProductSegmentStore}.
+ * Unlike saving a snapshot, which rewrites all offers, saving this service only
+ * writes the changes since the last save, and products with too many dead
+ * records are compacted on the writer thread.
+ * </p>
+ * <p>
+ * Call {@link #flush()} once per batch of changes (once per server tick, for
+ * example) to hand changes to the writer thread without waiting, and
+ * {@link #saveServiceData()} to wait until all changes are on disk.
+ * </p>
+ * <p>
+ * With {@link #setLazyLoading(boolean)}, offers of each product are only
+ * inserted when the product is first used: by querying its overview, by
+ * listing or instant buying/selling it, or by looking up offers of a user or
+ * offers by their IDs. A resident index of offer IDs, users and products stays
+ * in memory, so these lookups can find the products to load. When more than
+ * {@link #getMaxResidentOffers()} offers are in memory, {@link #flush()} and
+ * {@link #saveServiceData()} unload the least recently used products. In this
+ * mode, {@link #offersIterator()} only includes offers of loaded products.
+ * </p>
+ */
+public class SegmentedStonksService extends StonksMemoryService implements AutoCloseable {
+	private final ProductSegmentStore store;
+	private Map<String, Product> productsIndex = null;
+	private ProductSegmentStore.Recovery lastRecovery = null;
+	private boolean lazyLoading = false;
+	private int maxResidentOffers = Integer.MAX_VALUE;
+	private ResidentOfferIndex index = null;
+	// Least recently used first
+	private final LinkedHashMap<String, Product> resident = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, Product> unloaded = new HashMap<>();
+	private long loads = 0L;
+	private long evictions = 0L;
+
+	public SegmentedStonksService(Path directory, PriceScale scale) {
+		super(scale);
+		this.store = new ProductSegmentStore(directory, scale);
+	}
+
+	public SegmentedStonksService(Path directory) {
+		this(directory, PriceScale.DEFAULT);
+	}
+
+	public ProductSegmentStore getStore() { return store; }
+
+	/**
+	 * <p>
+	 * Get the result of the last {@link #loadServiceData()}.
+	 * </p>
+	 * 
+	 * @return The recovery result, or {@code null} if the data was not loaded.
+	 */
+	public ProductSegmentStore.Recovery getLastRecovery() { return lastRecovery; }
+
+	public boolean isLazyLoading() { return lazyLoading; }
+
+	/**
+	 * <p>
+	 * Set whether offers of each product are loaded when the product is first
+	 * used, instead of loading all offers in {@link #loadServiceData()}. Takes
+	 * effect on the next {@link #loadServiceData()}.
+	 * </p>
+	 * 
+	 * @param lazyLoading Whether products should be loaded on demand.
+	 */
+	public void setLazyLoading(boolean lazyLoading) { this.lazyLoading = lazyLoading; }
+
+	public int getMaxResidentOffers() { return maxResidentOffers; }
+
+	/**
+	 * <p>
+	 * Set the number of offers that can stay in memory before idle products are
+	 * unloaded. Only used with lazy loading. Products that are in batch auction
+	 * mode are never unloaded, and the last used product is always kept, so the
+	 * number of offers in memory may stay above this limit.
+	 * </p>
+	 * 
+	 * @param maxResidentOffers Number of offers.
+	 */
+	public void setMaxResidentOffers(int maxResidentOffers) { this.maxResidentOffers = maxResidentOffers; }
+
+	/**
+	 * <p>
+	 * Check whether offers of the product are in memory. Always {@code true}
+	 * without lazy loading.
+	 * </p>
+	 * 
+	 * @param product The product.
+	 * @return Whether the product is loaded.
+	 */
+	public boolean isProductLoaded(Product product) {
+		return !unloaded.containsKey(product.getProductId());
+	}
+
+	/**
+	 * <p>
+	 * Get the number of products that was loaded on demand since the last
+	 * {@link #loadServiceData()}.
+	 * </p>
+	 * 
+	 * @return Number of loads.
+	 */
+	public long getLoadsCount() { return loads; }
+
+	/**
+	 * <p>
+	 * Get the number of products that was unloaded since the last
+	 * {@link #loadServiceData()}.
+	 * </p>
+	 * 
+	 * @return Number of evictions.
+	 */
+	public long getEvictionsCount() { return evictions; }
+
+	/**
+	 * <p>
+	 * Submit changes to the writer thread without waiting for them to be written.
+	 * </p>
+	 */
+	public void flush() {
+		store.flush();
+		evictIdleProducts();
+	}
+
+	@Override
+	public void saveServiceData() {
+		super.saveServiceData();
+		store.sync();
+		evictIdleProducts();
+	}
+
+	@Override
+	public void loadServiceData() {
+		super.loadServiceData();
+		setJournal(OfferJournal.NONE);
+		productsIndex = null;
+		index = null;
+		resident.clear();
+		unloaded.clear();
+		loads = 0L;
+		evictions = 0L;
+
+		try {
+			if (lazyLoading) {
+				var index = new ResidentOfferIndex(store);
+				lastRecovery = store.scan(this::productGetter, (product, offers) -> {
+					for (var offer : offers) index.add(offer);
+					unloaded.put(product.getProductId(), product);
+				});
+				this.index = index;
+				setJournal(index);
+				return;
+			}
+
+			lastRecovery = store.recover(this::productGetter);
+		} catch (IOException e) {
+			throw new UncheckedIOException("SegmentedStonksService: Unable to load segments", e);
+		}
+
+		insertOffers(lastRecovery.offers());
+		store.track(offersIterator());
+		setJournal(store);
+	}
+
+	@Override
+	protected void productAccessed(MemoryProduct product) {
+		if (index == null) return;
+		var id = product.getProductId();
+		if (resident.get(id) == null) load(id, product);
+	}
+
+	@Override
+	protected void offersAccessed(Collection<UUID> offerIds) {
+		if (index == null) return;
+
+		for (var offerId : offerIds) {
+			var productId = index.productOf(offerId);
+			if (productId != null) loadIfUnloaded(productId);
+		}
+	}
+
+	@Override
+	protected void userAccessed(UUID offerer) {
+		if (index == null) return;
+		for (var productId : List.copyOf(index.productsOf(offerer))) loadIfUnloaded(productId);
+	}
+
+	private void loadIfUnloaded(String productId) {
+		var product = unloaded.get(productId);
+		if (product != null) load(productId, product);
+		else resident.get(productId);
+	}
+
+	private void load(String productId, Product product) {
+		// Marked as resident first, because inserting offers uses the product again
+		resident.put(productId, product);
+		if (unloaded.remove(productId) == null) return;
+
+		try {
+			insertOffers(store.load(product));
+			loads++;
+		} catch (IOException e) {
+			throw new UncheckedIOException("SegmentedStonksService: Unable to load " + productId, e);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Unload the least recently used products until there are at most
+	 * {@link #getMaxResidentOffers()} offers in memory. Their changes are already
+	 * in the segment store, so unloading doesn't write anything. This is called
+	 * by {@link #flush()} and {@link #saveServiceData()}.
+	 * </p>
+	 * 
+	 * @return Number of unloaded products.
+	 */
+	public int evictIdleProducts() {
+		if (index == null || getOffersCount() <= maxResidentOffers) return 0;
+		var candidates = new ArrayList<>(resident.entrySet());
+		var evicted = 0;
+
+		// The most recently used product is kept
+		for (int i = 0; i < candidates.size() - 1 && getOffersCount() > maxResidentOffers; i++) {
+			var productId = candidates.get(i).getKey();
+			var product = candidates.get(i).getValue();
+			if (!canRemoveProductOffers(product)) continue;
+			store.release(product);
+			removeProductOffers(product);
+			resident.remove(productId);
+			unloaded.put(productId, product);
+			evicted++;
+		}
+
+		evictions += evicted;
+		return evicted;
+	}
+
+	private Optional<Product> productGetter(String id) {
+		if (productsIndex == null) {
+			// Built once per load, instead of searching all categories for each offer
+			productsIndex = new HashMap<>();
+			getModifiableCategories().stream()
+				.flatMap(v -> v.getProducts().stream())
+				.forEach(v -> productsIndex.putIfAbsent(v.getProductId(), v));
+		}
+
+		return Optional.ofNullable(productsIndex.get(id));
+	}
+
+	@Override
+	public void close() throws IOException {
+		setJournal(OfferJournal.NONE);
+		store.close();
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.sequenced;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import stonks.core.exec.InstantOfferExecuteResult;
+import stonks.core.market.OfferType;
+import stonks.core.market.Offer;
+import stonks.core.product.Product;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * A command that will be processed by the engine thread of
+ * {@link SequencedStonksService}. Mutating commands contains everything that
+ * is needed to replay them (including the offer ID for new offers), so they
+ * can be written to {@link CommandJournal} as-is.
+ * </p>
+ */
+public sealed interface Command {
+	/**
+	 * <p>
+	 * Check if this command changes the market.
+	 * </p>
+	 * 
+	 * @return {@code false} if this command is read-only.
+	 */
+	default boolean isMutating() { return true; }
+
+	public static record ListOffer(UUID offerId, UUID user, Product product, OfferType type, int units, long pricePerUnit, CompletableFuture<Offer> result) implements Command {
+	}
+
+	public static record InstantOffer(Product product, OfferType type, int units, long balance, CompletableFuture<InstantOfferExecuteResult> result) implements Command {
+	}
+
+	public static record ClaimOffers(Collection<UUID> offerIds, CompletableFuture<Map<UUID, Offer>> result) implements Command {
+	}
+
+	public static record CancelOffers(Collection<UUID> offerIds, CompletableFuture<Map<UUID, Offer>> result) implements Command {
+	}
+
+	/**
+	 * <p>
+	 * A read-only command. The query is applied on the engine thread, so it can
+	 * safely read the engine state.
+	 * </p>
+	 */
+	public static record Query<T>(Function<StonksMemoryService, CompletableFuture<T>> query, CompletableFuture<T> result) implements Command {
+		@Override
+		public boolean isMutating() { return false; }
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.sequenced;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * A bounded, lock-free ring buffer with multiple producers and a single
+ * consumer. All slots are allocated when the buffer is created, and each item
+ * is assigned a sequence number when it is published, so the consumer always
+ * receives items in the same order they were claimed by producers.
+ * </p>
+ * <p>
+ * Producers only block when the buffer is full, by spinning until the consumer
+ * catches up. The consumer thread can park itself with
+ * {@link #awaitAvailable()} when there is nothing to consume, and producers
+ * will unpark it after publishing.
+ * </p>
+ * 
+ * @param <T> Type of items.
+ */
+public class RingBuffer<T> {
+	private static final VarHandle PUBLISHED = MethodHandles.arrayElementVarHandle(long[].class);
+
+	private final Object[] entries;
+	private final long[] published;
+	private final int mask;
+	private final AtomicLong claimed = new AtomicLong(-1L);
+	private volatile long consumed = -1L;
+	private volatile Thread sleepingConsumer = null;
+
+	/**
+	 * <p>
+	 * Create a new ring buffer.
+	 * </p>
+	 * 
+	 * @param capacity The capacity, which must be a power of 2.
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("RingBuffer: "
+			+ "Capacity must be a power of 2, but " + capacity + " was given");
+		this.entries = new Object[capacity];
+		this.published = new long[capacity];
+		this.mask = capacity - 1;
+		for (int i = 0; i < capacity; i++) published[i] = -1L;
+	}
+
+	public int getCapacity() { return entries.length; }
+
+	/**
+	 * <p>
+	 * Get the sequence number of the last consumed item.
+	 * </p>
+	 * 
+	 * @return The sequence number, or {@code -1} if nothing was consumed.
+	 */
+	public long getConsumedSequence() { return consumed; }
+
+	/**
+	 * <p>
+	 * Publish the item. This method may be called from any thread.
+	 * </p>
+	 * 
+	 * @param item The item to publish.
+	 * @return The sequence number of the item.
+	 */
+	public long publish(T item) {
+		var sequence = claimed.incrementAndGet();
+		var wrapPoint = sequence - entries.length;
+
+		// Wait for the consumer to free up the slot
+		for (int spins = 0; wrapPoint > consumed; spins++) {
+			if (spins < 100) Thread.onSpinWait();
+			else LockSupport.parkNanos(1_000L);
+		}
+
+		var index = (int) sequence & mask;
+		entries[index] = item;
+		PUBLISHED.setVolatile(published, index, sequence);
+
+		var consumer = sleepingConsumer;
+		if (consumer != null) LockSupport.unpark(consumer);
+		return sequence;
+	}
+
+	private boolean isPublished(long sequence) {
+		return (long) PUBLISHED.getVolatile(published, (int) sequence & mask) == sequence;
+	}
+
+	/**
+	 * <p>
+	 * Consume up to {@code max} published items. Must only be called from the
+	 * consumer thread.
+	 * </p>
+	 * 
+	 * @param consumer The items consumer.
+	 * @param max      Maximum number of items to consume.
+	 * @return Number of consumed items.
+	 */
+	@SuppressWarnings("unchecked")
+	public int drain(Consumer<T> consumer, int max) {
+		var next = consumed + 1;
+		var count = 0;
+
+		while (count < max && isPublished(next)) {
+			var index = (int) next & mask;
+			var item = (T) entries[index];
+			entries[index] = null;
+
+			try {
+				consumer.accept(item);
+			} finally {
+				consumed = next++;
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * <p>
+	 * Park the consumer thread until there is at least 1 item to consume, or
+	 * until the thread is unparked/interrupted. Must only be called from the
+	 * consumer thread.
+	 * </p>
+	 */
+	public void awaitAvailable() {
+		var next = consumed + 1;
+
+		for (int spins = 0; spins < 100; spins++) {
+			if (isPublished(next)) return;
+			Thread.onSpinWait();
+		}
+
+		sleepingConsumer = Thread.currentThread();
+		if (!isPublished(next)) LockSupport.park(this);
+		sleepingConsumer = null;
+	}
+
+	/**
+	 * <p>
+	 * Wake up the consumer thread if it is parked.
+	 * </p>
+	 */
+	public void wakeUp() {
+		var consumer = sleepingConsumer;
+		if (consumer != null) LockSupport.unpark(consumer);
+	}
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.sequenced;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import stonks.core.exec.InstantOfferExecuteResult;
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
+import stonks.core.market.ProductMarketOverview;
+import stonks.core.product.Category;
+import stonks.core.product.Product;
+import stonks.core.service.LocalStonksService;
+import stonks.core.service.memory.StonksMemoryService;
+
+/**
+ * <p>
+ * A service that turns every call into a {@link Command} and puts it into a
+ * {@link RingBuffer}. A single engine thread consumes the commands in the
+ * order they were published and applies them to the underlying
+ * {@link StonksMemoryService}, which is never accessed from other threads.
+ * </p>
+ * <p>
+ * The engine processes commands in batches. Mutating commands in a batch are
+ * written to {@link CommandJournal} before they are applied, and the futures
+ * of the entire batch are only completed after the journal is flushed. Callers
+ * never wait for the engine, unless the ring buffer is full.
+ * </p>
+ * <p>
+ * If the journal can't be flushed, all futures of the batch fail, because the
+ * changes may not be recorded. Mutating commands are rejected from then on,
+ * since they would be applied on top of changes that the journal may not
+ * have.
+ * </p>
+ * <p>
+ * Futures and offer filled events are completed on the engine thread, so
+ * consumers must not block on results of this service.
+ * </p>
+ * <p>
+ * Products in batch auction mode are not supported, because their orders are
+ * only executed when auctions are ticked, and the engine never waits.
+ * </p>
+ * <p>
+ * The engine thread is started with {@link #start()}, after configuring
+ * categories of the underlying service and the journal.
+ * </p>
+ */
+public class SequencedStonksService implements LocalStonksService, AutoCloseable {
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	private final StonksMemoryService engine;
+	private final RingBuffer<Command> commands;
+	private final int batchSize;
+	private Thread engineThread = null;
+	private final List<Consumer<Offer>> offerFilledConsumers = new CopyOnWriteArrayList<>();
+	private final List<Completion<?>> completions = new ArrayList<>();
+	// Number of callers that saw this service running and may still publish
+	private final AtomicInteger publishing = new AtomicInteger(0);
+	private CommandJournal journal = CommandJournal.NONE;
+	// Only used on engine thread
+	private Throwable journalFailure = null;
+	private volatile boolean running = false;
+
+	public SequencedStonksService(StonksMemoryService engine, int capacity, int batchSize) {
+		this.engine = engine;
+		this.commands = new RingBuffer<>(capacity);
+		this.batchSize = batchSize;
+	}
+
+	public SequencedStonksService(StonksMemoryService engine) {
+		this(engine, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE);
+	}
+
+	public SequencedStonksService() {
+		this(new StonksMemoryService());
+	}
+
+	/**
+	 * <p>
+	 * Get the underlying memory service. This service must only be accessed from
+	 * the engine thread, which means you should only use it for configuring
+	 * categories before {@link #start()}.
+	 * </p>
+	 * 
+	 * @return The underlying memory service.
+	 */
+	public StonksMemoryService getEngine() { return engine; }
+
+	public CommandJournal getJournal() { return journal; }
+
+	/**
+	 * <p>
+	 * Set the journal. Must be called before {@link #start()}.
+	 * </p>
+	 * 
+	 * @param journal The journal.
+	 */
+	public void setJournal(CommandJournal journal) { this.journal = journal; }
+
+	/**
+	 * <p>
+	 * Start the engine thread. Commands are rejected until the engine is started.
+	 * </p>
+	 * 
+	 * @throws IllegalStateException if the engine was already started.
+	 */
+	public synchronized void start() {
+		if (engineThread != null) throw new IllegalStateException("SequencedStonksService: Already started");
+
+		engine.subscribeToOfferFilledEvents(offer -> {
+			var copy = offer.createCopy();
+
+			for (var consumer : offerFilledConsumers) {
+				try {
+					consumer.accept(copy);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		});
+
+		running = true;
+		engineThread = new Thread(this::engineLoop, "Stonks Engine");
+		engineThread.setDaemon(true);
+		engineThread.start();
+	}
+
+	@Override
+	public PriceScale getPriceScale() { return engine.getPriceScale(); }
+
+	private <T> CompletableFuture<T> submit(Command command, CompletableFuture<T> result) {
+		publishing.incrementAndGet();
+
+		try {
+			if (!running) return CompletableFuture.failedFuture(
+				new IllegalStateException("SequencedStonksService: Service is not running"));
+			commands.publish(command);
+			return result;
+		} finally {
+			publishing.decrementAndGet();
+		}
+	}
+
+	private <T> CompletableFuture<T> query(Function<StonksMemoryService, CompletableFuture<T>> query) {
+		var result = new CompletableFuture<T>();
+		return submit(new Command.Query<>(query, result), result);
+	}
+
+	private void engineLoop() {
+		while (running) if (drainBatch() == 0) commands.awaitAvailable();
+
+		// Callers that saw the service running may publish after the last drain,
+		// and callers that start publishing from now on are rejected
+		while (true) {
+			var active = publishing.get() > 0;
+			if (drainBatch() > 0) continue;
+			if (!active) return;
+			Thread.onSpinWait();
+		}
+	}
+
+	private int drainBatch() {
+		var count = commands.drain(this::process, batchSize);
+		if (count == 0) return 0;
+
+		try {
+			journal.flush();
+			for (var completion : completions) completion.complete();
+		} catch (Throwable t) {
+			t.printStackTrace();
+			journalFailure = t;
+			var error = new IllegalStateException("SequencedStonksService: Unable to flush the journal", t);
+			for (var completion : completions) completion.future().completeExceptionally(error);
+		}
+
+		completions.clear();
+		return count;
+	}
+
+	private void process(Command command) {
+		if (command.isMutating() && journalFailure != null) {
+			failCommand(command, new IllegalStateException("SequencedStonksService: Journal has failed",
+				journalFailure));
+			return;
+		}
+
+		try {
+			if (command.isMutating()) journal.append(command);
+		} catch (Throwable t) {
+			// Command is not recorded, so we must not apply it
+			failCommand(command, t);
+			return;
+		}
+
+		switch (command) {
+		case Command.ListOffer list -> complete(list.result(), () -> {
+			checkNotAuction(list.product());
+			return engine.placeOffer(new Offer(list.offerId(), list.user(), list.product(), list.type(), list.units(),
+				0, 0, list.pricePerUnit(), getPriceScale())).createCopy();
+		});
+		case Command.InstantOffer instant -> complete(instant.result(), () -> {
+			checkNotAuction(instant.product());
+			return now(engine.instantOfferRawAsync(instant.product(), instant.type(), instant.units(),
+				instant.balance()));
+		});
+		case Command.ClaimOffers claim -> complete(claim.result(), () -> now(engine.claimOffersAsync(
+			claim.offerIds())));
+		case Command.CancelOffers cancel -> complete(cancel.result(), () -> now(engine.cancelOffersAsync(
+			cancel.offerIds())));
+		case Command.Query<?> query -> processQuery(query);
+		}
+	}
+
+	private <T> void processQuery(Command.Query<T> query) {
+		complete(query.result(), () -> now(query.query().apply(engine)));
+	}
+
+	private void checkNotAuction(Product product) {
+		if (engine.getAuctionInterval(product) > 0) throw new IllegalStateException(
+			"SequencedStonksService: Products in batch auction mode are not supported: " + product.getProductId());
+	}
+
+	/**
+	 * <p>
+	 * Get the result of a call to the underlying service, which must complete
+	 * right away. The engine thread must never wait, because nothing else would
+	 * process the commands that the call may be waiting for.
+	 * </p>
+	 */
+	private static <T> T now(CompletableFuture<T> future) {
+		if (!future.isDone()) throw new IllegalStateException(
+			"SequencedStonksService: Call to the engine did not complete right away");
+		return future.join();
+	}
+
+	private void await(CompletableFuture<?> future) {
+		if (Thread.currentThread() == engineThread) throw new IllegalStateException(
+			"SequencedStonksService: Can't wait for the engine on the engine thread");
+		future.join();
+	}
+
+	private <T> void complete(CompletableFuture<T> future, Supplier<T> task) {
+		try {
+			completions.add(new Completion<>(future, task.get(), null));
+		} catch (Throwable t) {
+			completions.add(new Completion<>(future, null, t));
+		}
+	}
+
+	private void failCommand(Command command, Throwable t) {
+		CompletableFuture<?> future = switch (command) {
+		case Command.ListOffer list -> list.result();
+		case Command.InstantOffer instant -> instant.result();
+		case Command.ClaimOffers claim -> claim.result();
+		case Command.CancelOffers cancel -> cancel.result();
+		case Command.Query<?> query -> query.result();
+		};
+		completions.add(new Completion<>(future, null, t));
+	}
+
+	@Override
+	public CompletableFuture<List<Category>> queryAllCategoriesAsync() {
+		return CompletableFuture.completedFuture(Collections.unmodifiableList(engine.getModifiableCategories()));
+	}
+
+	@Override
+	public CompletableFuture<ProductMarketOverview> queryMarketOverviewAsync(Product product) {
+		return query(engine -> engine.queryMarketOverviewAsync(product));
+	}
+
+	@Override
+	public CompletableFuture<List<Offer>> getOffersFromUserAsync(UUID offerer) {
+		return query(engine -> engine.getOffersFromUserAsync(offerer)
+			.thenApply(offers -> offers.stream().map(Offer::createCopy).toList()));
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> getOffersAsync(Collection<UUID> offerIds) {
+		return query(engine -> engine.getOffersAsync(offerIds));
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> claimOffersAsync(Collection<UUID> offerIds) {
+		var result = new CompletableFuture<Map<UUID, Offer>>();
+		return submit(new Command.ClaimOffers(List.copyOf(offerIds), result), result);
+	}
+
+	@Override
+	public CompletableFuture<Map<UUID, Offer>> cancelOffersAsync(Collection<UUID> offerIds) {
+		var result = new CompletableFuture<Map<UUID, Offer>>();
+		return submit(new Command.CancelOffers(List.copyOf(offerIds), result), result);
+	}
+
+	@Override
+	public CompletableFuture<Offer> listOfferAsync(UUID user, Product product, OfferType type, int units, double pricePerUnit) {
+		return listOfferRawAsync(user, product, type, units, getPriceScale().toTicks(pricePerUnit));
+	}
+
+	@Override
+	public CompletableFuture<Offer> listOfferRawAsync(UUID user, Product product, OfferType type, int units, long pricePerUnit) {
+		var result = new CompletableFuture<Offer>();
+		return submit(new Command.ListOffer(UUID.randomUUID(), user, product, type, units, pricePerUnit, result),
+			result);
+	}
+
+	@Override
+	public CompletableFuture<InstantOfferExecuteResult> instantOfferAsync(Product product, OfferType type, int units, double balance) {
+		return instantOfferRawAsync(product, type, units, getPriceScale().toTicks(balance));
+	}
+
+	@Override
+	public CompletableFuture<InstantOfferExecuteResult> instantOfferRawAsync(Product product, OfferType type, int units, long balance) {
+		var result = new CompletableFuture<InstantOfferExecuteResult>();
+		return submit(new Command.InstantOffer(product, type, units, balance, result), result);
+	}
+
+	@Override
+	public void saveServiceData() {
+		await(query(engine -> {
+			engine.saveServiceData();
+			return CompletableFuture.completedFuture(null);
+		}));
+	}
+
+	@Override
+	public void loadServiceData() {
+		await(query(engine -> {
+			engine.loadServiceData();
+			return CompletableFuture.completedFuture(null);
+		}));
+	}
+
+	@Override
+	public void subscribeToOfferFilledEvents(Consumer<Offer> consumer) {
+		offerFilledConsumers.add(consumer);
+	}
+
+	/**
+	 * <p>
+	 * Stop the engine thread. All commands that were submitted before closing
+	 * will be processed, and new commands will be rejected.
+	 * </p>
+	 */
+	@Override
+	public synchronized void close() {
+		running = false;
+		if (engineThread == null) return;
+		// The engine may be about to park, so wakeUp() could miss it
+		LockSupport.unpark(engineThread);
+
+		try {
+			engineThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static record Completion<T>(CompletableFuture<T> future, T result, Throwable error) {
+		public void complete() {
+			if (error != null) future.completeExceptionally(error);
+			else future.complete(result);
+		}
+	}
+}
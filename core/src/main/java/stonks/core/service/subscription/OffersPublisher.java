@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.subscription;
+
+import java.util.List;
+import java.util.UUID;
+
+import stonks.core.market.Offer;
+
+/**
+ * <p>
+ * Publishes {@link OffersUpdate} for each user. The published lists must
+ * contain copies of offers, because offers of services are usually modified in
+ * place.
+ * </p>
+ */
+public class OffersPublisher extends UpdatePublisher<UUID, List<Offer>, OffersUpdate> {
+	@Override
+	protected OffersUpdate snapshot(UUID user, List<Offer> state, long sequence) {
+		return OffersUpdate.snapshot(user, state, sequence);
+	}
+
+	@Override
+	protected OffersUpdate between(UUID user, List<Offer> previous, List<Offer> next, long sequence) {
+		return OffersUpdate.between(user, previous, next, sequence);
+	}
+}
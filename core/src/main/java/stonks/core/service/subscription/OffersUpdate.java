@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.subscription;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+
+import stonks.core.market.Offer;
+
+/**
+ * <p>
+ * An update of offers made by a user. Snapshots contain all offers of the
+ * user, while other updates only contain offers that were listed or changed
+ * since the previous update, and the IDs of offers that were removed (fully
+ * claimed or cancelled). See {@link SequencedUpdate} for how to detect missed
+ * updates.
+ * </p>
+ * <p>
+ * Offers in updates may be shared between subscribers, so they must not be
+ * modified.
+ * </p>
+ * 
+ * @param user     The user.
+ * @param sequence The sequence number.
+ * @param snapshot Whether this update is a snapshot.
+ * @param offers   Changed offers, or all offers if this is a snapshot.
+ * @param removed  IDs of removed offers.
+ */
+public record OffersUpdate(UUID user, long sequence, boolean snapshot, List<Offer> offers, List<UUID> removed) implements SequencedUpdate {
+	public static OffersUpdate snapshot(UUID user, List<Offer> offers, long sequence) {
+		return new OffersUpdate(user, sequence, true, offers, List.of());
+	}
+
+	/**
+	 * <p>
+	 * Create an update with offers that are different between 2 lists of offers.
+	 * </p>
+	 * 
+	 * @param user     The user.
+	 * @param previous The previous offers.
+	 * @param next     The new offers.
+	 * @param sequence The sequence number of the update.
+	 * @return The update, or {@code null} if nothing was changed.
+	 */
+	public static OffersUpdate between(UUID user, List<Offer> previous, List<Offer> next, long sequence) {
+		var removed = new LinkedHashMap<UUID, Offer>();
+		for (var offer : previous) removed.put(offer.getOfferId(), offer);
+		var changed = new ArrayList<Offer>();
+
+		for (var offer : next) {
+			var old = removed.remove(offer.getOfferId());
+			if (old == null || !sameProgress(old, offer)) changed.add(offer);
+		}
+
+		if (changed.isEmpty() && removed.isEmpty()) return null;
+		return new OffersUpdate(user, sequence, false, changed, List.copyOf(removed.keySet()));
+	}
+
+	private static boolean sameProgress(Offer a, Offer b) {
+		return a.getFilledUnits() == b.getFilledUnits()
+			&& a.getClaimedUnits() == b.getClaimedUnits()
+			&& a.getPriceImprovementTicks() == b.getPriceImprovementTicks();
+	}
+
+	/**
+	 * <p>
+	 * Apply this update to the list of offers. Offers keep their order, and new
+	 * offers are added to the end.
+	 * </p>
+	 * 
+	 * @param previous The offers that this update was made from, or {@code null}
+	 *                 if this update is a snapshot.
+	 * @return The new list of offers.
+	 */
+	public List<Offer> applyTo(List<Offer> previous) {
+		if (snapshot) return List.copyOf(offers);
+		if (previous == null) throw new IllegalArgumentException("OffersUpdate: Previous offers are required");
+		var result = new LinkedHashMap<UUID, Offer>();
+		for (var offer : previous) result.put(offer.getOfferId(), offer);
+		for (var offer : offers) result.put(offer.getOfferId(), offer);
+		for (var offerId : removed) result.remove(offerId);
+		return List.copyOf(result.values());
+	}
+}
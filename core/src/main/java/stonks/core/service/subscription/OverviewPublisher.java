@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.subscription;
+
+import stonks.core.market.ProductMarketOverview;
+import stonks.core.product.Product;
+
+/**
+ * <p>
+ * Publishes {@link OverviewUpdate} for each product.
+ * </p>
+ */
+public class OverviewPublisher extends UpdatePublisher<Product, ProductMarketOverview, OverviewUpdate> {
+	@Override
+	protected OverviewUpdate snapshot(Product product, ProductMarketOverview state, long sequence) {
+		return OverviewUpdate.snapshot(state, sequence);
+	}
+
+	@Override
+	protected OverviewUpdate between(Product product, ProductMarketOverview previous, ProductMarketOverview next, long sequence) {
+		return OverviewUpdate.between(previous, next, sequence);
+	}
+
+	public void publish(ProductMarketOverview overview) {
+		publish(overview.getProduct(), overview);
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.subscription;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import stonks.core.market.OfferType;
+import stonks.core.market.OverviewOffer;
+import stonks.core.market.OverviewOffersList;
+import stonks.core.market.ProductMarketOverview;
+import stonks.core.product.Product;
+
+/**
+ * <p>
+ * An update of the market overview of a product. Snapshots contain all price
+ * levels of the overview, while other updates only contain the price levels
+ * that were changed since the previous update. Price levels that were removed
+ * from the overview have {@code 0} offers.
+ * </p>
+ * <p>
+ * See {@link SequencedUpdate} for how to detect missed updates.
+ * </p>
+ * 
+ * @param product    The product.
+ * @param sequence   The sequence number.
+ * @param version    The version of the overview after this update, see
+ *                   {@link ProductMarketOverview#getVersion()}.
+ * @param snapshot   Whether this update is a snapshot.
+ * @param buyLevels  Changed buy price levels.
+ * @param sellLevels Changed sell price levels.
+ */
+public record OverviewUpdate(Product product, long sequence, long version, boolean snapshot, List<OverviewOffer> buyLevels, List<OverviewOffer> sellLevels) implements SequencedUpdate {
+	/**
+	 * <p>
+	 * Create a snapshot update.
+	 * </p>
+	 * 
+	 * @param overview The overview.
+	 * @param sequence The sequence number.
+	 * @return The snapshot.
+	 */
+	public static OverviewUpdate snapshot(ProductMarketOverview overview, long sequence) {
+		return new OverviewUpdate(overview.getProduct(), sequence, overview.getVersion(), true,
+			overview.getBuyOffers().getEntries(), overview.getSellOffers().getEntries());
+	}
+
+	/**
+	 * <p>
+	 * Create an update with price levels that are different between 2 overviews.
+	 * </p>
+	 * 
+	 * @param previous The previous overview.
+	 * @param next     The new overview.
+	 * @param sequence The sequence number of the update.
+	 * @return The update, or {@code null} if both overviews have the same price
+	 *         levels.
+	 */
+	public static OverviewUpdate between(ProductMarketOverview previous, ProductMarketOverview next, long sequence) {
+		if (previous == next) return null;
+		var buy = changes(previous.getBuyOffers(), next.getBuyOffers());
+		var sell = changes(previous.getSellOffers(), next.getSellOffers());
+		if (buy.isEmpty() && sell.isEmpty()) return null;
+		return new OverviewUpdate(next.getProduct(), sequence, next.getVersion(), false, buy, sell);
+	}
+
+	private static List<OverviewOffer> changes(OverviewOffersList previous, OverviewOffersList next) {
+		if (previous == next) return List.of();
+		var removed = levels(previous.getEntries());
+		var changed = new ArrayList<OverviewOffer>();
+
+		for (var level : next.getEntries()) {
+			var old = removed.remove(level.pricePerUnitTicks());
+			if (!level.equals(old)) changed.add(level);
+		}
+
+		for (var level : removed.values())
+			changed.add(new OverviewOffer(0, 0, level.pricePerUnitTicks(), level.scale()));
+		return changed;
+	}
+
+	private static LinkedHashMap<Long, OverviewOffer> levels(List<OverviewOffer> entries) {
+		var levels = new LinkedHashMap<Long, OverviewOffer>();
+		for (var level : entries) levels.put(level.pricePerUnitTicks(), level);
+		return levels;
+	}
+
+	public int getChangedLevelsCount() { return buyLevels.size() + sellLevels.size(); }
+
+	/**
+	 * <p>
+	 * Apply this update to the overview.
+	 * </p>
+	 * 
+	 * @param previous The overview that this update was made from, or
+	 *                 {@code null} if this update is a snapshot.
+	 * @return The new overview.
+	 */
+	public ProductMarketOverview applyTo(ProductMarketOverview previous) {
+		if (!snapshot && previous == null)
+			throw new IllegalArgumentException("OverviewUpdate: Previous overview is required");
+		var buy = snapshot ? new ArrayList<>(buyLevels) : apply(previous.getBuyOffers(), buyLevels);
+		var sell = snapshot ? new ArrayList<>(sellLevels) : apply(previous.getSellOffers(), sellLevels);
+		return new ProductMarketOverview(product, new OverviewOffersList(OfferType.BUY, buy),
+			new OverviewOffersList(OfferType.SELL, sell), version);
+	}
+
+	private static List<OverviewOffer> apply(OverviewOffersList previous, List<OverviewOffer> changes) {
+		if (changes.isEmpty()) return new ArrayList<>(previous.getEntries());
+		var levels = levels(previous.getEntries());
+
+		for (var level : changes) {
+			if (level.offers() == 0) levels.remove(level.pricePerUnitTicks());
+			else levels.put(level.pricePerUnitTicks(), level);
+		}
+
+		return new ArrayList<>(levels.values());
+	}
+}
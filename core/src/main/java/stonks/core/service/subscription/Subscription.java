@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.subscription;
+
+/**
+ * <p>
+ * A subscription to market data updates, returned from methods like
+ * {@link stonks.core.service.StonksService#subscribeToOverviewUpdates(stonks.core.product.Product, java.util.function.Consumer)}.
+ * The consumer receives a snapshot first, then updates that only contain the
+ * changes since the previous update.
+ * </p>
+ */
+public interface Subscription extends AutoCloseable {
+	/**
+	 * <p>
+	 * Request a new snapshot. Consumers should call this when they missed an
+	 * update, which can be detected from the sequence numbers of updates.
+	 * </p>
+	 */
+	public void resync();
+
+	public boolean isClosed();
+
+	/**
+	 * <p>
+	 * Stop receiving updates. The consumer may still receive updates that are
+	 * being delivered on other threads.
+	 * </p>
+	 */
+	@Override
+	public void close();
+}
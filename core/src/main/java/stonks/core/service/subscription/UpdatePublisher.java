@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.subscription;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Keeps the latest published state of each topic and sends updates to
+ * subscribers of that topic. New subscribers receive a snapshot of the latest
+ * state, and each call to {@link #publish(Object, Object)} sends an update with
+ * the changes since the previous state, with the next sequence number. All
+ * subscribers of a topic share the same update objects.
+ * </p>
+ * <p>
+ * This class is thread-safe. Consumers are called while holding the lock of
+ * this publisher, so updates are always received in order, and consumers must
+ * not block.
+ * </p>
+ * 
+ * @param <K> Type of topic key.
+ * @param <S> Type of state. States must not be modified after publishing.
+ * @param <U> Type of update.
+ */
+public abstract class UpdatePublisher<K, S, U> {
+	private final Map<K, Topic> topics = new HashMap<>();
+
+	/**
+	 * <p>
+	 * Create a snapshot of the state.
+	 * </p>
+	 */
+	protected abstract U snapshot(K key, S state, long sequence);
+
+	/**
+	 * <p>
+	 * Create an update with changes between 2 states.
+	 * </p>
+	 * 
+	 * @return The update, or {@code null} if nothing was changed.
+	 */
+	protected abstract U between(K key, S previous, S next, long sequence);
+
+	/**
+	 * <p>
+	 * Called when the first subscriber subscribed to the topic.
+	 * </p>
+	 */
+	protected void topicOpened(K key) {}
+
+	/**
+	 * <p>
+	 * Called when the last subscriber of the topic closed its subscription. The
+	 * state of the topic is discarded.
+	 * </p>
+	 */
+	protected void topicClosed(K key) {}
+
+	/**
+	 * <p>
+	 * Subscribe to the topic. If the topic already has a state, the consumer
+	 * receives the snapshot right away. Otherwise the consumer receives the
+	 * snapshot when the first state is published.
+	 * </p>
+	 * 
+	 * @param key      The topic.
+	 * @param consumer The consumer.
+	 * @return The subscription.
+	 */
+	public synchronized Subscription subscribe(K key, Consumer<U> consumer) {
+		var topic = topics.get(key);
+
+		if (topic == null) {
+			topics.put(key, topic = new Topic(key));
+			topicOpened(key);
+		}
+
+		var subscriber = topic.new Subscriber(consumer);
+		topic.subscribers.add(subscriber);
+		if (topic.state != null) subscriber.send(snapshot(key, topic.state, topic.sequence));
+		return subscriber;
+	}
+
+	/**
+	 * <p>
+	 * Publish the new state of the topic. Nothing is sent if the topic does not
+	 * have any subscriber, or nothing was changed.
+	 * </p>
+	 * 
+	 * @param key   The topic.
+	 * @param state The new state.
+	 */
+	public synchronized void publish(K key, S state) {
+		var topic = topics.get(key);
+		if (topic == null) return;
+
+		if (topic.state == null) {
+			topic.state = state;
+			var snapshot = snapshot(key, state, ++topic.sequence);
+			for (var subscriber : topic.subscribers) subscriber.send(snapshot);
+			return;
+		}
+
+		var update = between(key, topic.state, state, topic.sequence + 1);
+		topic.state = state;
+		if (update == null) return;
+		topic.sequence++;
+		for (var subscriber : topic.subscribers) subscriber.send(update);
+	}
+
+	public synchronized boolean hasSubscribers(K key) {
+		return topics.containsKey(key);
+	}
+
+	public synchronized boolean isEmpty() { return topics.isEmpty(); }
+
+	/**
+	 * <p>
+	 * Get all topics that have subscribers.
+	 * </p>
+	 * 
+	 * @return A copy of topic keys.
+	 */
+	public synchronized List<K> getTopics() { return List.copyOf(topics.keySet()); }
+
+	/**
+	 * <p>
+	 * Get the latest published state of the topic.
+	 * </p>
+	 * 
+	 * @param key The topic.
+	 * @return The state, or {@code null} if nothing was published or the topic
+	 *         does not have any subscriber.
+	 */
+	public synchronized S getState(K key) {
+		var topic = topics.get(key);
+		return topic != null ? topic.state : null;
+	}
+
+	private class Topic {
+		private final K key;
+		// Consumers may close their subscriptions while receiving updates
+		private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+		private S state = null;
+		private long sequence = 0L;
+
+		public Topic(K key) {
+			this.key = key;
+		}
+
+		private class Subscriber implements Subscription {
+			private final Consumer<U> consumer;
+			private boolean closed = false;
+
+			public Subscriber(Consumer<U> consumer) {
+				this.consumer = consumer;
+			}
+
+			private void send(U update) {
+				if (closed) return;
+
+				try {
+					consumer.accept(update);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+
+			@Override
+			public void resync() {
+				synchronized (UpdatePublisher.this) {
+					if (closed || state == null) return;
+					send(snapshot(key, state, sequence));
+				}
+			}
+
+			@Override
+			public boolean isClosed() {
+				synchronized (UpdatePublisher.this) {
+					return closed;
+				}
+			}
+
+			@Override
+			public void close() {
+				synchronized (UpdatePublisher.this) {
+					if (closed) return;
+					closed = true;
+					subscribers.remove(this);
+					if (!subscribers.isEmpty() || topics.get(key) != Topic.this) return;
+					topics.remove(key);
+					topicClosed(key);
+				}
+			}
+		}
+	}
+}
@@ -33,10 +33,17 @@ import java.util.function.Consumer;
 import stonks.core.exec.InstantOfferExecuteResult;
 import stonks.core.market.Offer;
 import stonks.core.market.OfferType;
+import stonks.core.market.PriceScale;
 import stonks.core.market.ProductMarketOverview;
 import stonks.core.product.Category;
 import stonks.core.product.Product;
 import stonks.core.service.StonksService;
+import stonks.core.service.bulk.BulkResult;
+import stonks.core.service.bulk.InstantOfferRequest;
+import stonks.core.service.bulk.ListOfferRequest;
+import stonks.core.service.subscription.OffersUpdate;
+import stonks.core.service.subscription.OverviewUpdate;
+import stonks.core.service.subscription.Subscription;
 
 /**
  * <p>
@@ -57,6 +64,9 @@ public class UnstableStonksService implements StonksService {
 
 	public StonksService getUnderlying() { return underlying; }
 
+	@Override
+	public PriceScale getPriceScale() { return underlying.getPriceScale(); }
+
 	private <T> CompletableFuture<T> wrapStage(CompletionStage<T> stage) {
 		var rng = new Random();
 		var shouldFail = rng.nextDouble() < failRate;
@@ -111,13 +121,46 @@ public class UnstableStonksService implements StonksService {
 		return wrapStage(underlying.listOfferAsync(user, product, type, units, pricePerUnit));
 	}
 
+	@Override
+	public CompletableFuture<Offer> listOfferRawAsync(UUID user, Product product, OfferType type, int units, long pricePerUnit) {
+		return wrapStage(underlying.listOfferRawAsync(user, product, type, units, pricePerUnit));
+	}
+
 	@Override
 	public CompletableFuture<InstantOfferExecuteResult> instantOfferAsync(Product product, OfferType type, int units, double balance) {
 		return wrapStage(underlying.instantOfferAsync(product, type, units, balance));
 	}
 
+	@Override
+	public CompletableFuture<InstantOfferExecuteResult> instantOfferRawAsync(Product product, OfferType type, int units, long balance) {
+		return wrapStage(underlying.instantOfferRawAsync(product, type, units, balance));
+	}
+
+	@Override
+	public CompletableFuture<List<BulkResult<Offer>>> listOffersAsync(List<ListOfferRequest> requests) {
+		return wrapStage(underlying.listOffersAsync(requests));
+	}
+
+	@Override
+	public CompletableFuture<List<BulkResult<InstantOfferExecuteResult>>> instantOffersAsync(List<InstantOfferRequest> requests) {
+		return wrapStage(underlying.instantOffersAsync(requests));
+	}
+
 	@Override
 	public void subscribeToOfferFilledEvents(Consumer<Offer> consumer) {
 		underlying.subscribeToOfferFilledEvents(consumer); // TODO add delay
 	}
+
+	@Override
+	public boolean isSubscriptionSupported() { return underlying.isSubscriptionSupported(); }
+
+	@Override
+	public Subscription subscribeToOverviewUpdates(Product product, Consumer<OverviewUpdate> consumer) {
+		return underlying.subscribeToOverviewUpdates(product, consumer);
+	}
+
+	@Override
+	public Subscription subscribeToOffersUpdates(UUID user, Consumer<OffersUpdate> consumer) {
+		return underlying.subscribeToOffersUpdates(user, consumer);
+	}
 }
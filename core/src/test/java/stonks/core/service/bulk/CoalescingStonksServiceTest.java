@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.bulk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+
+public class CoalescingStonksServiceTest {
+	private StonksMemoryService underlying;
+	private CoalescingStonksService service;
+	private Offer offer;
+
+	@BeforeEach
+	public void start() {
+		underlying = new StonksMemoryService();
+		var category = new MemoryCategory("blocks", "Blocks");
+		var product = new MemoryProduct(category, "minecraft:stone", "Stone", null);
+		category.getModifiableMockProducts().add(product);
+		underlying.getModifiableCategories().add(category);
+		offer = underlying.listOfferRawAsync(new UUID(0L, 0L), product, OfferType.SELL, 10, 100L).join();
+		service = new CoalescingStonksService(underlying, Duration.ZERO);
+	}
+
+	@Test
+	public void getAfterCancelSeesCancelledOffer() {
+		var cancelled = service.cancelOfferAsync(offer.getOfferId());
+		var got = service.getOfferAsync(offer.getOfferId());
+		assertTrue(cancelled.isDone());
+		assertFalse(got.isDone());
+		service.flush();
+
+		assertTrue(cancelled.join().isPresent());
+		assertTrue(got.join().isEmpty());
+		assertEquals(2, service.getBatchesCount());
+	}
+
+	@Test
+	public void callsOfOneKindAreBatched() {
+		var first = service.getOfferAsync(offer.getOfferId());
+		var second = service.getOfferAsync(offer.getOfferId());
+		service.flush();
+
+		assertEquals(offer.getOfferId(), first.join().get().getOfferId());
+		assertEquals(offer.getOfferId(), second.join().get().getOfferId());
+		assertEquals(1, service.getBatchesCount());
+	}
+}
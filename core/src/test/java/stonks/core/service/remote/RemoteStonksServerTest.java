@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.remote;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.product.Category;
+import stonks.core.product.Product;
+import stonks.core.service.bulk.ListOfferRequest;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+import stonks.core.service.remote.RemoteStonksServer.WorkerModel;
+
+@Timeout(30)
+public class RemoteStonksServerTest {
+	private static final int USERS = 50;
+
+	private HeldExecutor executor;
+	private ExecutorCategoriesService service;
+	private MemoryCategory category;
+	private RemoteStonksServer server;
+	private RemoteStonksService client;
+	private List<Product> products;
+
+	private void start(WorkerModel model) throws IOException {
+		executor = new HeldExecutor();
+		service = new ExecutorCategoriesService(executor);
+		category = new MemoryCategory("blocks", "Blocks");
+		service.getModifiableCategories().add(category);
+
+		for (int i = 0; i < 3; i++) {
+			category.getModifiableMockProducts().add(new MemoryProduct(category, "minecraft:p" + i, "P" + i, null));
+		}
+
+		// User i has i + 1 offers, so each response tells which request it belongs to
+		for (int i = 0; i < USERS; i++) {
+			for (int j = 0; j <= i; j++) {
+				service.listOfferRawAsync(user(i), category.getProducts().get(0), OfferType.BUY, 1, 100L + j).join();
+			}
+		}
+
+		server = new RemoteStonksServer(service, executor);
+		server.setWorkerModel(model);
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		client = new RemoteStonksService(server.getAddress(), null);
+		client.connect();
+		products = client.queryAllCategoriesAsync().join().get(0).getProducts();
+	}
+
+	@AfterEach
+	public void close() throws IOException {
+		if (client != null) client.close();
+		if (server != null) server.close();
+		if (executor != null) executor.close();
+	}
+
+	@ParameterizedTest
+	@EnumSource(WorkerModel.class)
+	public void pipelinedResponsesCompleteMatchingRequests(WorkerModel model) throws Exception {
+		start(model);
+		executor.hold();
+		var futures = new ArrayList<CompletableFuture<List<Offer>>>();
+		for (int i = 0; i < USERS; i++) futures.add(client.getOffersFromUserAsync(user(i)));
+		executor.awaitHeld(USERS);
+		assertEquals(USERS, client.getPendingRequestsCount());
+
+		// Responses are sent in reverse order
+		executor.releaseReversed();
+
+		for (int i = 0; i < USERS; i++) {
+			var offers = futures.get(i).get(10, TimeUnit.SECONDS);
+			assertEquals(i + 1, offers.size());
+			for (var offer : offers) assertEquals(user(i), offer.getOffererId());
+		}
+
+		assertEquals(0, client.getPendingRequestsCount());
+	}
+
+	@ParameterizedTest
+	@EnumSource(WorkerModel.class)
+	public void bulkRequestFailsOnlyUnknownProduct(WorkerModel model) throws Exception {
+		start(model);
+		var unknown = new MemoryProduct(null, "minecraft:unknown", "Unknown", null);
+		var results = client.listOffersAsync(List.of(
+			new ListOfferRequest(user(USERS), products.get(1), OfferType.BUY, 3, 10L),
+			new ListOfferRequest(user(USERS), unknown, OfferType.BUY, 4, 10L),
+			new ListOfferRequest(user(USERS), products.get(2), OfferType.SELL, 5, 20L)))
+			.get(10, TimeUnit.SECONDS);
+
+		assertEquals(3, results.size());
+		assertTrue(results.get(0).isSuccess());
+		assertEquals(3, results.get(0).result().getTotalUnits());
+		assertFalse(results.get(1).isSuccess());
+		assertInstanceOf(RemoteServiceException.class, results.get(1).error());
+		assertTrue(results.get(1).error().getMessage().contains("minecraft:unknown"));
+		assertTrue(results.get(2).isSuccess());
+		assertEquals(5, results.get(2).result().getTotalUnits());
+		assertEquals(2, client.getOffersFromUserAsync(user(USERS)).get(10, TimeUnit.SECONDS).size());
+	}
+
+	@ParameterizedTest
+	@EnumSource(WorkerModel.class)
+	public void filledEventsArePushed(WorkerModel model) throws Exception {
+		start(model);
+		var filled = new CompletableFuture<Offer>();
+		client.subscribeToOfferFilledEvents(filled::complete);
+
+		// Events are only emitted for offers that are completely filled
+		var offer = client.listOfferRawAsync(user(USERS), products.get(1), OfferType.SELL, 4, 50L)
+			.get(10, TimeUnit.SECONDS);
+		var result = client.instantOfferRawAsync(products.get(1), OfferType.BUY, 4, 1000L)
+			.get(10, TimeUnit.SECONDS);
+		assertEquals(0, result.units());
+
+		var event = filled.get(10, TimeUnit.SECONDS);
+		assertEquals(offer.getOfferId(), event.getOfferId());
+		assertEquals(4, event.getFilledUnits());
+		assertEquals(products.get(1), event.getProduct());
+	}
+
+	@ParameterizedTest
+	@EnumSource(WorkerModel.class)
+	public void inFlightRequestsFailWhenConnectionDrops(WorkerModel model) throws Exception {
+		start(model);
+		executor.hold();
+		var futures = new ArrayList<CompletableFuture<List<Offer>>>();
+		for (int i = 0; i < 10; i++) futures.add(client.getOffersFromUserAsync(user(i)));
+		executor.awaitHeld(10);
+		assertEquals(10, client.getPendingRequestsCount());
+
+		server.close();
+
+		for (var future : futures) {
+			var e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+			assertInstanceOf(RemoteServiceException.class, e.getCause());
+		}
+
+		assertEquals(0, client.getPendingRequestsCount());
+	}
+
+	@ParameterizedTest
+	@EnumSource(WorkerModel.class)
+	public void unknownProductsRefreshWithoutBlocking(WorkerModel model) throws Exception {
+		start(model);
+		var added = new MemoryProduct(category, "minecraft:added", "Added", null);
+		category.getModifiableMockProducts().add(added);
+		var queries = service.categoriesQueries;
+
+		// The categories are resolved on the executor, which is running the request
+		var overview = client.queryMarketOverviewAsync(added).get(10, TimeUnit.SECONDS);
+		assertEquals(added.getProductId(), overview.getProduct().getProductId());
+		assertEquals(queries + 1, service.categoriesQueries);
+
+		// Unknown products are rejected without refreshing again
+		var unknown = new MemoryProduct(null, "minecraft:unknown", "Unknown", null);
+		var e = assertThrows(ExecutionException.class,
+			() -> client.queryMarketOverviewAsync(unknown).get(10, TimeUnit.SECONDS));
+		assertTrue(e.getCause().getMessage().contains("minecraft:unknown"));
+		assertEquals(queries + 1, service.categoriesQueries);
+	}
+
+	private static UUID user(int index) {
+		return new UUID(0L, index);
+	}
+
+	/**
+	 * <p>
+	 * Resolves categories on the executor of the server, like services that
+	 * complete their calls on the thread that calls them.
+	 * </p>
+	 */
+	private static class ExecutorCategoriesService extends StonksMemoryService {
+		private final Executor executor;
+		private volatile int categoriesQueries = 0;
+
+		public ExecutorCategoriesService(Executor executor) {
+			this.executor = executor;
+		}
+
+		@Override
+		public CompletableFuture<List<Category>> queryAllCategoriesAsync() {
+			categoriesQueries++;
+			var future = new CompletableFuture<List<Category>>();
+			executor.execute(() -> future.complete(super.queryAllCategoriesAsync().join()));
+			return future;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Runs tasks one at a time on its own thread, like the default executor of
+	 * the server, but can hold tasks until they are released.
+	 * </p>
+	 */
+	private static class HeldExecutor implements Executor, AutoCloseable {
+		private final ExecutorService thread = Executors.newSingleThreadExecutor();
+		private final List<Runnable> held = new ArrayList<>();
+		private boolean holding = false;
+
+		@Override
+		public synchronized void execute(Runnable task) {
+			if (holding) held.add(task);
+			else thread.execute(task);
+		}
+
+		public synchronized void hold() {
+			holding = true;
+		}
+
+		public synchronized void releaseReversed() {
+			holding = false;
+			for (int i = held.size() - 1; i >= 0; i--) thread.execute(held.get(i));
+			held.clear();
+		}
+
+		public void awaitHeld(int count) throws InterruptedException {
+			while (true) {
+				synchronized (this) {
+					if (held.size() >= count) return;
+				}
+
+				Thread.sleep(1L);
+			}
+		}
+
+		@Override
+		public void close() {
+			releaseReversed();
+			thread.shutdown();
+		}
+	}
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.core.service.replication;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import stonks.core.market.Offer;
+import stonks.core.market.OfferType;
+import stonks.core.product.Product;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.StonksMemoryService;
+import stonks.core.service.remote.RemoteProtocol;
+import stonks.core.service.remote.RemoteStonksServer;
+import stonks.core.service.remote.RemoteStonksService;
+
+@Timeout(30)
+public class ReplicaStonksServiceTest {
+	private static final int PRODUCTS = 3;
+	private static final int USERS = 5;
+	private static final Duration MAX_LAG = Duration.ofMillis(300);
+
+	private RemoteStonksServer server;
+	private ReplicationProxy proxy;
+	private RemoteStonksService direct;
+	private ReplicaStonksService replica;
+	private List<Product> directProducts;
+	private List<Product> replicaProducts;
+
+	@BeforeEach
+	public void start() throws Exception {
+		var service = new StonksMemoryService();
+		var category = new MemoryCategory("blocks", "Blocks");
+		service.getModifiableCategories().add(category);
+
+		for (int i = 0; i < PRODUCTS; i++) {
+			category.getModifiableMockProducts().add(new MemoryProduct(category, "minecraft:p" + i, "P" + i, null));
+		}
+
+		var log = new ReplicationLog(service, service.getJournal());
+		service.setJournal(log);
+
+		// Offers listed before the replica connects are only sent in the snapshot
+		for (int i = 0; i < 30; i++) {
+			var type = i % 2 == 0 ? OfferType.SELL : OfferType.BUY;
+			service.listOfferRawAsync(user(i % USERS), category.getProducts().get(i % PRODUCTS), type, 10,
+				type == OfferType.SELL ? 200L + i : 100L - i).join();
+		}
+
+		server = new RemoteStonksServer(service);
+		server.setReplicationLog(log);
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		proxy = new ReplicationProxy(server.getAddress());
+		direct = new RemoteStonksService(server.getAddress(), null);
+		direct.connect();
+		directProducts = direct.queryAllCategoriesAsync().join().get(0).getProducts();
+
+		replica = new ReplicaStonksService(new RemoteStonksService(proxy.getAddress(), null));
+		replica.setProbeInterval(Duration.ofMillis(20));
+		replica.setMaxLag(MAX_LAG);
+		replica.connect();
+		replicaProducts = replica.queryAllCategoriesAsync().join().get(0).getProducts();
+		awaitCaughtUp();
+	}
+
+	@AfterEach
+	public void close() throws IOException {
+		if (replica != null) replica.close();
+		if (direct != null) direct.close();
+		if (proxy != null) proxy.close();
+		if (server != null) server.close();
+	}
+
+	@Test
+	public void localReadsMatchPrimaryAfterTrades() throws Exception {
+		trade(new Random(1L), 300);
+		awaitCaughtUp();
+
+		var forwarded = replica.getForwardedReadsCount();
+		assertMatchesPrimary();
+		assertEquals(forwarded, replica.getForwardedReadsCount());
+		assertEquals(1, proxy.getSnapshotsCount());
+	}
+
+	@Test
+	public void readsGoToPrimaryWhenLagging() throws Exception {
+		assertTrue(replica.getReplicationLag().compareTo(MAX_LAG) <= 0);
+
+		proxy.holdBatches(true);
+		var listed = direct.listOfferRawAsync(user(0), directProducts.get(0), OfferType.SELL, 7, 500L)
+			.get(10, TimeUnit.SECONDS);
+		awaitCondition(() -> !replica.isServingLocally());
+		assertTrue(replica.getReplicationLag().compareTo(MAX_LAG) > 0);
+
+		// The change is not applied locally, so the read must be sent to the primary
+		var forwarded = replica.getForwardedReadsCount();
+		var offers = replica.getOffersFromUserAsync(user(0)).get(10, TimeUnit.SECONDS);
+		assertTrue(offers.stream().anyMatch(offer -> offer.getOfferId().equals(listed.getOfferId())));
+		assertEquals(forwarded + 1, replica.getForwardedReadsCount());
+
+		proxy.holdBatches(false);
+		awaitCaughtUp();
+		var local = replica.getLocalReadsCount();
+		assertTrue(replica.getOffersAsync(List.of(listed.getOfferId())).get(10, TimeUnit.SECONDS)
+			.containsKey(listed.getOfferId()));
+		assertEquals(local + 1, replica.getLocalReadsCount());
+		assertEquals(1, proxy.getSnapshotsCount());
+	}
+
+	@Test
+	public void sequenceGapResyncsFromSnapshot() throws Exception {
+		proxy.dropNextBatch();
+		direct.listOfferRawAsync(user(1), directProducts.get(1), OfferType.BUY, 3, 50L).get(10, TimeUnit.SECONDS);
+		trade(new Random(2L), 100);
+
+		awaitCondition(() -> proxy.getSnapshotsCount() == 2);
+		awaitCaughtUp();
+		assertMatchesPrimary();
+	}
+
+	@Test
+	public void reconnectResyncsFromSnapshot() throws Exception {
+		proxy.disconnect();
+		// Changes made while disconnected are never sent as batches
+		trade(new Random(3L), 100);
+
+		awaitCondition(() -> proxy.getSnapshotsCount() == 2);
+		awaitCaughtUp();
+		assertMatchesPrimary();
+	}
+
+	@Test
+	public void promotedReplicaAcceptsWrites() throws Exception {
+		trade(new Random(4L), 100);
+		awaitCaughtUp();
+		server.close();
+
+		var promoted = replica.promote();
+		assertTrue(replica.isPromoted());
+		assertTrue(replica.isServingLocally());
+
+		var forwarded = replica.getForwardedReadsCount();
+		var listed = replica.listOfferRawAsync(user(2), replicaProducts.get(2), OfferType.SELL, 4, 1L)
+			.get(10, TimeUnit.SECONDS);
+		var result = replica.instantOfferRawAsync(replicaProducts.get(2), OfferType.BUY, 4, 1000L)
+			.get(10, TimeUnit.SECONDS);
+		assertEquals(0, result.units());
+
+		var offer = promoted.getOffersAsync(List.of(listed.getOfferId())).join().get(listed.getOfferId());
+		assertEquals(4, offer.getFilledUnits());
+		assertEquals(forwarded, replica.getForwardedReadsCount());
+	}
+
+	@Test
+	public void promoteBeforeConnectingFails() {
+		try (var unconnected = new ReplicaStonksService(new RemoteStonksService(proxy.getAddress(), null))) {
+			assertThrows(IllegalStateException.class, unconnected::promote);
+		}
+	}
+
+	private void trade(Random random, int count) throws Exception {
+		for (int i = 0; i < count; i++) {
+			var product = directProducts.get(random.nextInt(PRODUCTS));
+			var user = user(random.nextInt(USERS));
+
+			switch (random.nextInt(4)) {
+			case 0 -> direct.listOfferRawAsync(user, product, OfferType.SELL, 1 + random.nextInt(5),
+				100L + random.nextInt(50)).get(10, TimeUnit.SECONDS);
+			case 1 -> direct.listOfferRawAsync(user, product, OfferType.BUY, 1 + random.nextInt(5),
+				60L + random.nextInt(50)).get(10, TimeUnit.SECONDS);
+			case 2 -> direct.instantOfferRawAsync(product, random.nextBoolean() ? OfferType.BUY : OfferType.SELL,
+				1 + random.nextInt(8), random.nextBoolean() ? 100_000L : 0L).get(10, TimeUnit.SECONDS);
+			default -> {
+				var offers = direct.getOffersFromUserAsync(user).get(10, TimeUnit.SECONDS);
+				if (!offers.isEmpty()) direct.claimOfferAsync(offers.get(0).getOfferId()).get(10, TimeUnit.SECONDS);
+			}
+			}
+		}
+	}
+
+	private void awaitCaughtUp() throws Exception {
+		var sequence = direct.queryReplicationSequenceAsync().get(10, TimeUnit.SECONDS);
+		awaitCondition(() -> replica.getAppliedSequence() >= sequence && replica.isServingLocally());
+	}
+
+	private void assertMatchesPrimary() throws Exception {
+		var local = replica.getLocalReadsCount();
+
+		for (int i = 0; i < PRODUCTS; i++) {
+			var expected = direct.queryMarketOverviewAsync(directProducts.get(i)).get(10, TimeUnit.SECONDS);
+			var actual = replica.queryMarketOverviewAsync(replicaProducts.get(i)).get(10, TimeUnit.SECONDS);
+			assertEquals(expected.getBuyOffers().getEntries(), actual.getBuyOffers().getEntries());
+			assertEquals(expected.getSellOffers().getEntries(), actual.getSellOffers().getEntries());
+		}
+
+		for (int i = 0; i < USERS; i++) {
+			var expected = direct.getOffersFromUserAsync(user(i)).get(10, TimeUnit.SECONDS);
+			var actual = replica.getOffersFromUserAsync(user(i)).get(10, TimeUnit.SECONDS);
+			assertEquals(describe(expected), describe(actual));
+		}
+
+		assertEquals(local + PRODUCTS + USERS, replica.getLocalReadsCount());
+	}
+
+	private static List<String> describe(List<Offer> offers) {
+		return offers.stream()
+			.sorted(Comparator.comparing(Offer::getOfferId))
+			.map(offer -> offer.getOfferId() + " " + offer.getProduct().getProductId() + " " + offer.getType()
+				+ " " + offer.getFilledUnits() + "/" + offer.getClaimedUnits() + "/" + offer.getTotalUnits()
+				+ " @ " + offer.getPricePerUnitTicks())
+			.toList();
+	}
+
+	private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+		while (!condition.getAsBoolean()) Thread.sleep(5L);
+	}
+
+	private static UUID user(int index) {
+		return new UUID(1L, index);
+	}
+
+	/**
+	 * <p>
+	 * Forwards connections to the server, and can drop or hold replication
+	 * batches that the server sends, or cut all connections.
+	 * </p>
+	 */
+	private static class ReplicationProxy implements AutoCloseable {
+		private final InetSocketAddress upstream;
+		private final ServerSocket serverSocket;
+		private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+		private final AtomicInteger snapshots = new AtomicInteger();
+		private final List<byte[]> held = new ArrayList<>();
+		private OutputStream downstream = null;
+		private boolean holding = false;
+		private boolean dropNext = false;
+
+		public ReplicationProxy(InetSocketAddress upstream) throws IOException {
+			this.upstream = upstream;
+			this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			Thread.ofPlatform().daemon().start(this::accept);
+		}
+
+		public InetSocketAddress getAddress() {
+			return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+		}
+
+		public int getSnapshotsCount() { return snapshots.get(); }
+
+		public synchronized void dropNextBatch() {
+			dropNext = true;
+		}
+
+		public synchronized void holdBatches(boolean holding) throws IOException {
+			this.holding = holding;
+			if (holding) return;
+			for (var frame : held) downstream.write(frame);
+			held.clear();
+		}
+
+		public void disconnect() throws IOException {
+			for (var socket : sockets) socket.close();
+		}
+
+		@Override
+		public void close() throws IOException {
+			serverSocket.close();
+			disconnect();
+		}
+
+		private void accept() {
+			while (!serverSocket.isClosed()) {
+				try {
+					var client = serverSocket.accept();
+					var server = new Socket(upstream.getAddress(), upstream.getPort());
+					sockets.add(client);
+					sockets.add(server);
+					Thread.ofPlatform().daemon().start(() -> pump(client, server));
+					Thread.ofPlatform().daemon().start(() -> pumpFrames(server, client));
+				} catch (IOException e) {
+					// Closed
+				}
+			}
+		}
+
+		private void pump(Socket from, Socket to) {
+			try (from; to) {
+				from.getInputStream().transferTo(to.getOutputStream());
+			} catch (IOException e) {
+				// Either side was closed
+			}
+		}
+
+		private void pumpFrames(Socket from, Socket to) {
+			try (from; to) {
+				var in = new DataInputStream(from.getInputStream());
+				var out = to.getOutputStream();
+				synchronized (this) {
+					downstream = out;
+				}
+
+				while (true) {
+					var frame = readFrame(in);
+					var header = ByteBuffer.wrap(frame, 4, 5);
+					var correlationId = header.getInt();
+					var code = header.get();
+
+					synchronized (this) {
+						if (correlationId != 0 || code != RemoteProtocol.EVENT_REPLICATION) {
+							out.write(frame);
+							continue;
+						}
+
+						var payload = new ByteArrayInputStream(frame, 9, frame.length - 9);
+						var batch = RemoteProtocol.readReplicationBatch(new DataInputStream(payload));
+
+						if (batch.snapshot()) {
+							if (!batch.partial()) snapshots.incrementAndGet();
+							out.write(frame);
+						} else if (dropNext) {
+							dropNext = false;
+						} else if (holding) {
+							held.add(frame);
+						} else {
+							out.write(frame);
+						}
+					}
+				}
+			} catch (IOException e) {
+				// Either side was closed
+			}
+		}
+
+		private static byte[] readFrame(DataInputStream in) throws IOException {
+			var length = in.readInt();
+			var frame = new byte[length + 4];
+			ByteBuffer.wrap(frame).putInt(length);
+			in.readFully(frame, 4, length);
+			return frame;
+		}
+	}
+}
@@ -44,7 +44,9 @@ import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
 import stonks.core.product.Product;
 import stonks.core.service.LocalStonksService;
+import stonks.core.service.bulk.CoalescingStonksService;
 import stonks.core.service.memory.StonksMemoryService;
+import stonks.core.service.testing.UnstableStonksService;
 import stonks.fabric.adapter.StonksFabricAdapter;
 import stonks.fabric.adapter.StonksFabricAdapterProvider;
 import stonks.fabric.adapter.provided.CommonEconomyAdapter;
@@ -54,6 +56,10 @@ import stonks.fabric.adapter.provided.ScoreboardUnitAdapter;
 import stonks.fabric.command.MarketCommand;
 import stonks.fabric.command.StonksCommand;
 import stonks.fabric.provider.StonksProvidersRegistry;
+import stonks.fabric.service.CoalescingRemoteStonksService;
+import stonks.fabric.service.FabricRemoteStonksService;
+import stonks.fabric.service.FabricReplicaStonksService;
+import stonks.fabric.service.IntegratedShardedStonksService;
 import stonks.fabric.service.IntegratedStonksService;
 import stonks.fabric.service.IntegratedUnstableStonksService;
 import stonks.fabric.service.StonksServiceProvider;
@@ -71,6 +77,10 @@ public class StonksFabric {
 		// Register configurable stuffs
 		IntegratedStonksService.register();
 		IntegratedUnstableStonksService.register();
+		IntegratedShardedStonksService.register();
+		FabricRemoteStonksService.register();
+		CoalescingRemoteStonksService.register();
+		FabricReplicaStonksService.register();
 
 		ItemsAdapter.register();
 		ScoreboardUnitAdapter.register();
@@ -122,7 +132,8 @@ public class StonksFabric {
 
 		LOGGER.info("Subscribing to service events...");
 		((StonksFabricPlatform) server).getStonksService().subscribeToOfferFilledEvents(filled -> {
-			StonksFabricHelper.sendOfferFilledMessage(server, filled);
+			// Events may be emitted from service threads
+			server.execute(() -> StonksFabricHelper.sendOfferFilledMessage(server, filled));
 		});
 
 		LOGGER.info("Platform configurations:");
@@ -139,11 +150,30 @@ public class StonksFabric {
 			LOGGER.info("Saving data for local service...");
 			local.saveServiceData();
 		}
+
+		if (getPlatform(server).getStonksService() instanceof AutoCloseable closeable) {
+			try {
+				closeable.close();
+			} catch (Exception e) {
+				e.printStackTrace();
+				LOGGER.error("Unable to close service");
+			}
+		}
 	}
 
 	private static void onServerTick(MinecraftServer server) {
 		((StonksFabricPlatform) server).getTasksHandler().tick();
 		((StonksFabricPlatform) server).getSounds().tick();
+
+		var cache = getPlatform(server).getStonksCache();
+		if (cache != null) cache.tick();
+
+		var service = getPlatform(server).getStonksService();
+		// Requests made during this tick are sent together
+		if (service instanceof CoalescingStonksService coalescing) coalescing.flush();
+		if (service instanceof UnstableStonksService unstable) service = unstable.getUnderlying();
+		if (service instanceof IntegratedStonksService integrated) integrated.tick();
+		else if (service instanceof StonksMemoryService memory) memory.tickAuctions();
 	}
 
 	public static StonksFabricPlatform getPlatform(MinecraftServer server) {
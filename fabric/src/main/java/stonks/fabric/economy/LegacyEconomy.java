@@ -28,6 +28,7 @@ import java.util.OptionalLong;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.text.Text;
 import net.minecraft.util.Identifier;
+import stonks.core.market.PriceScale;
 import stonks.fabric.PlatformConfig;
 import stonks.fabric.StonksFabric;
 import stonks.fabric.adapter.StonksFabricAdapter;
@@ -38,10 +39,12 @@ public class LegacyEconomy implements Economy {
 	private StonksFabricAdapter adapter;
 	private PlatformConfig config;
 	private DecimalFormat formatter;
+	private PriceScale scale;
 
 	public LegacyEconomy(StonksFabricAdapter adapter, PlatformConfig config) {
 		this.adapter = adapter;
 		this.config = config;
+		this.scale = new PriceScale(config.decimals);
 
 		var template = "#,##0.";
 		for (int i = 0; i < config.decimals; i++) template += '#';
@@ -51,12 +54,21 @@ public class LegacyEconomy implements Economy {
 	@Override
 	public Identifier getEconomyId() { return Identifier.of(StonksFabric.MODID, "legacy_economy_adapter"); }
 
+	/**
+	 * <p>
+	 * Get the scale of raw values, which is based on configured decimal points.
+	 * </p>
+	 * 
+	 * @return The scale.
+	 */
+	public PriceScale getScale() { return scale; }
+
 	public long doubleToRaw(double value) {
-		return (long) (value * config.decimals);
+		return scale.toTicks(value);
 	}
 
 	public double rawToDouble(long raw) {
-		return raw / (double) config.decimals;
+		return scale.toDouble(raw);
 	}
 
 	@Override
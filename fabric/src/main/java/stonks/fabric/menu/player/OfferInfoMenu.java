@@ -96,10 +96,15 @@ public class OfferInfoMenu extends StackedMenu {
 						var newUnits = newOffer.get().getClaimedUnits();
 						var delta = newUnits - previousUnits;
 
+						// Price improvement is refund for buy offers and extra earnings for sell offers
+						var improvement = newOffer.get().getPriceImprovement();
+
 						if (offer.getType() == OfferType.BUY) {
 							adapter.addUnitsTo(getPlayer(), offer.getProduct(), delta);
+							if (improvement > 0) adapter.accountDeposit(getPlayer(), improvement);
 						} else {
-							adapter.accountDeposit(getPlayer(), config.applyTax(delta * offer.getPricePerUnit()));
+							adapter.accountDeposit(getPlayer(),
+								config.applyTax(delta * offer.getPricePerUnit() + improvement));
 						}
 
 						new OfferInfoMenu(getPrevious(), getPlayer(), newOffer.get()).open();
@@ -149,11 +154,12 @@ public class OfferInfoMenu extends StackedMenu {
 
 						if (offer.getType() == OfferType.BUY) {
 							refundUnits = offer.getFilledUnits() - previousClaimedUnits;
-							refundMoney = (totalUnits - offer.getFilledUnits()) * ppu;
+							refundMoney = (totalUnits - offer.getFilledUnits()) * ppu + offer.getPriceImprovement();
 						} else {
 							refundUnits = totalUnits - offer.getFilledUnits();
 							refundMoney = StonksFabric.getPlatform(getPlayer()).getPlatformConfig()
-								.applyTax((offer.getFilledUnits() - previousClaimedUnits) * ppu);
+								.applyTax((offer.getFilledUnits() - previousClaimedUnits) * ppu
+									+ offer.getPriceImprovement());
 						}
 
 						adapter.addUnitsTo(getPlayer(), offer.getProduct(), refundUnits);
@@ -43,6 +43,7 @@ public class ViewOffersMenu extends StackedMenu {
 	private boolean isUpdating = false;
 	private boolean isInitialized = false;
 	private List<Offer> loadedOffers;
+	private long loadedRevision = -1L;
 	private int page = 0;
 	private int maxPages = 1;
 
@@ -90,7 +91,9 @@ public class ViewOffersMenu extends StackedMenu {
 	public void onTick() {
 		super.onTick();
 
-		if (!isInitialized || (isUpdating == false && offersCache.shouldFetch())) {
+		// The cache may be updated by the service without fetching
+		if (!isInitialized || (isUpdating == false && (offersCache.shouldFetch()
+			|| offersCache.getRevision() != loadedRevision))) {
 			isInitialized = true;
 			isUpdating = true;
 
@@ -98,6 +101,7 @@ public class ViewOffersMenu extends StackedMenu {
 				.thenAccept(offers -> {
 					isUpdating = false;
 					loadedOffers = offers;
+					loadedRevision = offersCache.getRevision();
 					maxPages = Math.max(offers.size() / getOffersPerPage(), 1);
 					placeOffers(offers);
 					placePagesNavigations();
@@ -105,6 +109,7 @@ public class ViewOffersMenu extends StackedMenu {
 				.exceptionally(error -> {
 					isUpdating = false;
 					loadedOffers = null;
+					loadedRevision = offersCache.getRevision();
 					setSlot((getHeight() / 2) * getWidth() + getWidth() / 2, new GuiElementBuilder(Items.BARRIER)
 						.setName(Translations.Errors.Errors)
 						.addLoreLine(Translations.Menus.ViewOffers.Retrying)
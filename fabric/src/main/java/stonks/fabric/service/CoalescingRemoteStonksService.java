@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.fabric.service;
+
+import java.time.Duration;
+
+import stonks.core.service.bulk.CoalescingStonksService;
+import stonks.fabric.provider.StonksProvidersRegistry;
+
+/**
+ * <p>
+ * {@link FabricRemoteStonksService} that combines requests to get, claim and
+ * cancel offers into batches. Batches are sent at the end of each server tick,
+ * or earlier when {@code batchWindow} is set.
+ * </p>
+ */
+public class CoalescingRemoteStonksService extends CoalescingStonksService implements AutoCloseable {
+	private FabricRemoteStonksService underlying;
+
+	public CoalescingRemoteStonksService(FabricRemoteStonksService underlying, Duration window, int maxBatchSize) {
+		super(underlying, window, maxBatchSize);
+		this.underlying = underlying;
+	}
+
+	@Override
+	public void close() {
+		flush();
+		underlying.close();
+	}
+
+	public static void register() {
+		StonksProvidersRegistry.registerService(CoalescingRemoteStonksService.class, (server, config) -> {
+			var window = config.firstChild("batchWindow").flatMap(v -> v.getValue(Long::parseLong)).orElse(0L);
+			var maxBatchSize = config.firstChild("maxBatchSize").flatMap(v -> v.getValue(Integer::parseInt))
+				.orElse(DEFAULT_MAX_BATCH_SIZE);
+			return new CoalescingRemoteStonksService(FabricRemoteStonksService.fromConfig(config),
+				Duration.ofMillis(window), maxBatchSize);
+		});
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.fabric.service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+
+import nahara.common.configurations.Config;
+import stonks.core.service.remote.RemoteProtocol;
+import stonks.core.service.remote.RemoteStonksServer;
+import stonks.core.service.remote.RemoteStonksService;
+import stonks.fabric.StonksFabric;
+import stonks.fabric.dynamic.json.JsonDynamicFactory;
+import stonks.fabric.provider.StonksProvidersRegistry;
+
+/**
+ * <p>
+ * Service that trades on a market hosted by {@link RemoteStonksServer}, which
+ * allows multiple Minecraft servers to share the same market. Products are
+ * downloaded from the market server, so they don't have to be configured here.
+ * </p>
+ */
+public class FabricRemoteStonksService extends RemoteStonksService {
+	public FabricRemoteStonksService(InetSocketAddress address) {
+		super(address, JsonDynamicFactory.FACTORY);
+	}
+
+	/**
+	 * <p>
+	 * Create the service from {@code host}, {@code port} and {@code timeout} in
+	 * service config, and try to connect.
+	 * </p>
+	 * 
+	 * @param config The {@code useService} config.
+	 * @return The service.
+	 */
+	public static FabricRemoteStonksService fromConfig(Config config) {
+		var host = config.firstChild("host").flatMap(v -> v.getValue()).orElse("127.0.0.1");
+		var port = config.firstChild("port").flatMap(v -> v.getValue(Integer::parseInt))
+			.orElse(RemoteProtocol.DEFAULT_PORT);
+		var service = new FabricRemoteStonksService(new InetSocketAddress(host, port));
+		config.firstChild("timeout").flatMap(v -> v.getValue(Integer::parseInt))
+			.ifPresent(seconds -> service.setRequestTimeout(Duration.ofSeconds(seconds)));
+
+		try {
+			service.connect();
+			StonksFabric.LOGGER.info("Connected to market server at {}:{}", host, port);
+		} catch (IOException e) {
+			// Requests will try again later
+			StonksFabric.LOGGER.warn("Unable to connect to market server at {}:{}: {}", host, port,
+				e.getMessage());
+		}
+
+		return service;
+	}
+
+	public static void register() {
+		StonksProvidersRegistry.registerService(FabricRemoteStonksService.class,
+			(server, config) -> fromConfig(config));
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.fabric.service;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import nahara.common.configurations.Config;
+import stonks.core.service.replication.ReplicaStonksService;
+import stonks.fabric.StonksFabric;
+import stonks.fabric.provider.StonksProvidersRegistry;
+
+/**
+ * <p>
+ * Read replica of a market server with replication enabled. Market overviews
+ * and offers are read from a copy of the market in this process, while trades
+ * are sent to the market server.
+ * </p>
+ */
+public class FabricReplicaStonksService extends ReplicaStonksService {
+	private static final Duration RETRY_INTERVAL = Duration.ofSeconds(5);
+
+	public FabricReplicaStonksService(FabricRemoteStonksService primary) {
+		super(primary);
+	}
+
+	/**
+	 * <p>
+	 * Create the service from {@code host}, {@code port}, {@code timeout} and
+	 * {@code maxLag} in service config, and start replicating. If the market
+	 * server is unreachable, all calls are sent to the market server until the
+	 * replica is connected.
+	 * </p>
+	 * 
+	 * @param config The {@code useService} config.
+	 * @return The service.
+	 */
+	public static FabricReplicaStonksService fromConfig(Config config) {
+		var service = new FabricReplicaStonksService(FabricRemoteStonksService.fromConfig(config));
+		config.firstChild("maxLag").flatMap(v -> v.getValue(Long::parseLong))
+			.ifPresent(millis -> service.setMaxLag(Duration.ofMillis(millis)));
+
+		try {
+			service.connect();
+		} catch (IOException e) {
+			// The market server may be started later
+			Thread.ofVirtual().name("Stonks Replica Connector").start(() -> retry(service));
+		}
+
+		return service;
+	}
+
+	private static void retry(FabricReplicaStonksService service) {
+		while (service.getLocalService() == null) {
+			try {
+				Thread.sleep(RETRY_INTERVAL);
+				service.connect();
+				StonksFabric.LOGGER.info("Replicating market from market server");
+			} catch (InterruptedException e) {
+				return;
+			} catch (IOException e) {
+				// Try again later
+			} catch (IllegalStateException e) {
+				// The service was closed
+				return;
+			}
+		}
+	}
+
+	public static void register() {
+		StonksProvidersRegistry.registerService(FabricReplicaStonksService.class,
+			(server, config) -> fromConfig(config));
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.fabric.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.WorldSavePath;
+import stonks.core.market.PriceScale;
+import stonks.core.product.Product;
+import stonks.core.service.journal.Compression;
+import stonks.core.service.journal.FileOfferJournal;
+import stonks.core.service.journal.OfferSnapshot;
+import stonks.core.service.memory.ShardedStonksMemoryService;
+import stonks.fabric.StonksFabric;
+import stonks.fabric.provider.StonksProvidersRegistry;
+
+/**
+ * <p>
+ * Integrated service that executes trades on shard threads instead of server
+ * thread. Uses the same save file as {@link IntegratedStonksService}. This
+ * service does not write the journal, but it replays journal segments left by
+ * {@link IntegratedStonksService} when loading.
+ * </p>
+ * <p>
+ * Offers are only saved when the server stops. The {@code journal},
+ * {@code saveInterval}, {@code archive} and {@code auctionInterval} options
+ * need server ticks, so they are rejected when the service is created instead
+ * of being ignored.
+ * </p>
+ */
+public class IntegratedShardedStonksService extends ShardedStonksMemoryService {
+	private Path saveFilePath;
+	private Path journalDirectory;
+	private long lastGeneration = -1L;
+	private Compression compression = Compression.NONE;
+	private Map<String, Product> productsIndex = null;
+
+	public IntegratedShardedStonksService(MinecraftServer server, PriceScale scale, int shardsCount) {
+		super(scale, shardsCount);
+		saveFilePath = server.getSavePath(WorldSavePath.ROOT).resolve("stonks.bin");
+		journalDirectory = server.getSavePath(WorldSavePath.ROOT).resolve("stonks-journal");
+	}
+
+	public Compression getCompression() { return compression; }
+
+	public void setCompression(Compression compression) { this.compression = compression; }
+
+	@Override
+	public void saveServiceData() {
+		super.saveServiceData();
+
+		try {
+			OfferSnapshot.write(saveFilePath, offersIterator(), getPriceScale(), lastGeneration, compression);
+			FileOfferJournal.deleteSegmentsUpTo(journalDirectory, lastGeneration);
+			StonksFabric.LOGGER.info("Saved data to {}", saveFilePath);
+		} catch (IOException e) {
+			e.printStackTrace();
+			StonksFabric.LOGGER.error("Unable to save data to {}", saveFilePath);
+		}
+	}
+
+	@Override
+	public void loadServiceData() {
+		super.loadServiceData();
+		productsIndex = null;
+
+		try {
+			var recovery = OfferSnapshot.recover(saveFilePath, journalDirectory, this::productGetter);
+			insertOffers(recovery.offers());
+			lastGeneration = recovery.generation();
+			StonksFabric.LOGGER.info("Loaded {} offers from {}", recovery.offers().size(), saveFilePath);
+		} catch (IOException e) {
+			e.printStackTrace();
+			StonksFabric.LOGGER.error("Unable to load data from {}", saveFilePath);
+		}
+	}
+
+	private Optional<Product> productGetter(String id) {
+		if (productsIndex == null) {
+			// Built once per load, instead of searching all categories for each offer
+			productsIndex = new HashMap<>();
+			getModifiableCategories().stream()
+				.flatMap(v -> v.getProducts().stream())
+				.forEach(v -> productsIndex.putIfAbsent(v.getProductId(), v));
+		}
+
+		return Optional.ofNullable(productsIndex.get(id));
+	}
+
+	private static IllegalArgumentException unsupportedOption(String option, String fix) {
+		return new IllegalArgumentException("IntegratedShardedStonksService: " + option
+			+ " is not supported, " + fix + ". Use IntegratedStonksService to record changes while the server runs");
+	}
+
+	public static void register() {
+		StonksProvidersRegistry.registerService(IntegratedShardedStonksService.class, (server, config) -> {
+			var priceDecimals = config.firstChild("priceDecimals").flatMap(v -> v.getValue(Integer::parseInt))
+				.orElse(PriceScale.DEFAULT_DECIMALS);
+			var shards = config.firstChild("shards").flatMap(v -> v.getValue(Integer::parseInt))
+				.orElse(Runtime.getRuntime().availableProcessors());
+			var service = new IntegratedShardedStonksService(server, new PriceScale(priceDecimals), shards);
+			service.setCompression(IntegratedStonksService.parseCompression(config));
+
+			if (config.firstChild("journal").flatMap(v -> v.getValue(Boolean::parseBoolean)).orElse(false))
+				throw unsupportedOption("journal", "set \"journal false\" or remove it");
+			if (config.firstChild("saveInterval").flatMap(v -> v.getValue(Integer::parseInt)).orElse(0) > 0)
+				throw unsupportedOption("saveInterval", "set \"saveInterval 0\" or remove it");
+			if (config.firstChild("archive").flatMap(v -> v.getValue(Boolean::parseBoolean)).orElse(false))
+				throw unsupportedOption("archive", "set \"archive false\" or remove it");
+
+			IntegratedStonksService.parseCategories(config, service.getModifiableCategories(), (product, ticks) -> {
+				throw new IllegalArgumentException("IntegratedShardedStonksService: auctionInterval of "
+					+ product.getProductId() + " is not supported, because batch auctions need server ticks");
+			});
+
+			return service;
+		});
+	}
+}
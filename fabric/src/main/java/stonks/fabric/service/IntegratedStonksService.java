@@ -22,98 +22,376 @@
 package stonks.fabric.service;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.ObjIntConsumer;
 
+import nahara.common.configurations.Config;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.WorldSavePath;
-import stonks.core.market.Offer;
+import stonks.core.market.PriceScale;
 import stonks.core.product.Product;
+import stonks.core.service.archive.FileOfferArchive;
+import stonks.core.service.archive.OfferArchive;
+import stonks.core.service.journal.Compression;
+import stonks.core.service.journal.FileOfferJournal;
+import stonks.core.service.journal.OfferJournal;
+import stonks.core.service.journal.OfferSnapshot;
 import stonks.core.service.memory.MemoryCategory;
 import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.memory.MemorySnapshot;
 import stonks.core.service.memory.StonksMemoryService;
 import stonks.fabric.StonksFabric;
 import stonks.fabric.dynamic.json.JsonDynamicFactory;
 import stonks.fabric.provider.StonksProvidersRegistry;
 
-public class IntegratedStonksService extends StonksMemoryService {
+/**
+ * <p>
+ * Integrated service that stores offers in world folder. All changes are
+ * recorded to the journal in {@code stonks-journal} and flushed once per server
+ * tick, while {@code stonks.bin} holds the snapshot of all offers. A new
+ * snapshot is written on an interval or when the journal grows too large, and
+ * old journal segments are deleted after that.
+ * </p>
+ * <p>
+ * Snapshots are captured on the server thread with
+ * {@link #captureSnapshot()}, which only copies references to offers, and then
+ * written on a virtual thread while the market keeps trading.
+ * </p>
+ */
+public class IntegratedStonksService extends StonksMemoryService implements AutoCloseable {
+	public static final long DEFAULT_SNAPSHOT_SIZE = 64L * 1024 * 1024;
+	public static final int DEFAULT_SAVE_INTERVAL = 20 * 60 * 5;
+
 	private Path saveFilePath;
+	private Path journalDirectory;
+	private Path archiveDirectory;
+	private boolean journalEnabled = true;
+	private boolean archiveEnabled = false;
+	private long snapshotSize = DEFAULT_SNAPSHOT_SIZE;
+	private Compression compression = Compression.NONE;
+	private FileOfferJournal journal = null;
+	private FileOfferArchive archive = null;
+	private long lastGeneration = -1L;
+	private Map<String, Product> productsIndex = null;
+	private int saveInterval = DEFAULT_SAVE_INTERVAL;
+	private int ticksSinceSave = 0;
+	private CompletableFuture<Void> pendingSave = CompletableFuture.completedFuture(null);
 
-	public IntegratedStonksService(MinecraftServer server) {
+	public IntegratedStonksService(MinecraftServer server, PriceScale scale) {
+		super(scale);
 		saveFilePath = server.getSavePath(WorldSavePath.ROOT).resolve("stonks.bin");
+		journalDirectory = server.getSavePath(WorldSavePath.ROOT).resolve("stonks-journal");
+		archiveDirectory = server.getSavePath(WorldSavePath.ROOT).resolve("stonks-archive");
+	}
+
+	public IntegratedStonksService(MinecraftServer server) {
+		this(server, PriceScale.DEFAULT);
+	}
+
+	public boolean isJournalEnabled() { return journalEnabled; }
+
+	/**
+	 * <p>
+	 * Enable or disable the journal. Must be called before loading the data. When
+	 * the journal is disabled, changes are only saved on save interval and when the
+	 * server stops.
+	 * </p>
+	 * 
+	 * @param journalEnabled Whether the journal is enabled.
+	 */
+	public void setJournalEnabled(boolean journalEnabled) { this.journalEnabled = journalEnabled; }
+
+	public boolean isArchiveEnabled() { return archiveEnabled; }
+
+	/**
+	 * <p>
+	 * Enable or disable the trade history archive. Must be called before loading
+	 * the data.
+	 * </p>
+	 * 
+	 * @param archiveEnabled Whether fills and removed offers should be archived.
+	 */
+	public void setArchiveEnabled(boolean archiveEnabled) { this.archiveEnabled = archiveEnabled; }
+
+	/**
+	 * <p>
+	 * Get the trade history archive.
+	 * </p>
+	 * 
+	 * @return The archive, or {@code null} if it is disabled.
+	 */
+	public FileOfferArchive getArchive() { return archive; }
+
+	public long getSnapshotSize() { return snapshotSize; }
+
+	/**
+	 * <p>
+	 * Set the size of journal segment that will trigger a new snapshot.
+	 * </p>
+	 * 
+	 * @param snapshotSize The size in bytes.
+	 */
+	public void setSnapshotSize(long snapshotSize) { this.snapshotSize = snapshotSize; }
+
+	public Compression getCompression() { return compression; }
+
+	/**
+	 * <p>
+	 * Set the compression for snapshots and journal segments. Must be called
+	 * before loading the data. Files written before are still read, whether they
+	 * are compressed or not.
+	 * </p>
+	 * 
+	 * @param compression The compression settings.
+	 */
+	public void setCompression(Compression compression) { this.compression = compression; }
+
+	public int getSaveInterval() { return saveInterval; }
+
+	/**
+	 * <p>
+	 * Set the number of ticks between 2 background saves.
+	 * </p>
+	 * 
+	 * @param saveInterval Number of ticks, or {@code 0} to only save when the
+	 *                     journal is too large or when the server stops.
+	 */
+	public void setSaveInterval(int saveInterval) { this.saveInterval = saveInterval; }
+
+	/**
+	 * <p>
+	 * Capture a snapshot of all offers and write it on a virtual thread. If the
+	 * previous save is still being written, no new save will be started.
+	 * </p>
+	 * 
+	 * @return A future that completes when the snapshot is written. Errors are
+	 *         logged instead of completing the future exceptionally.
+	 */
+	public CompletableFuture<Void> saveInBackground() {
+		if (!pendingSave.isDone()) return pendingSave;
+		ticksSinceSave = 0;
+		var startTime = System.nanoTime();
+		MemorySnapshot snapshot;
+
+		try {
+			if (journal != null) lastGeneration = journal.rotate();
+			snapshot = captureSnapshot();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			StonksFabric.LOGGER.error("Unable to capture snapshot");
+			return pendingSave;
+		}
+
+		var generation = lastGeneration;
+		var rotatedJournal = journal;
+		var captureTime = System.nanoTime() - startTime;
+
+		return pendingSave = CompletableFuture.runAsync(() -> {
+			try (snapshot) {
+				OfferSnapshot.write(saveFilePath, snapshot.iterator(), snapshot.getScale(), generation, compression);
+				// Rotation is forced by the journal writer thread, so wait for it here
+				// instead of on the server thread before deleting finished segments
+				if (rotatedJournal != null) rotatedJournal.awaitFlushed();
+				FileOfferJournal.deleteSegmentsUpTo(journalDirectory, generation);
+				StonksFabric.LOGGER.info("Saved {} offers to {} (captured in {}ms, written in {}ms, {} offers copied)",
+					snapshot.size(), saveFilePath, captureTime / 1_000_000L,
+					(System.nanoTime() - startTime - captureTime) / 1_000_000L, snapshot.getPreservedCount());
+			} catch (IOException | RuntimeException e) {
+				e.printStackTrace();
+				StonksFabric.LOGGER.error("Unable to save data to {}", saveFilePath);
+			}
+		}, task -> Thread.ofVirtual().name("Stonks Snapshot Writer").start(task));
 	}
 
 	@Override
 	public void saveServiceData() {
 		super.saveServiceData();
-		var iter = offersIterator();
+		// The pending save may not include latest changes
+		pendingSave.join();
+		saveInBackground().join();
+	}
 
-		try (var stream = Files.newOutputStream(saveFilePath)) {
-			while (iter.hasNext()) {
-				var offer = iter.next();
-				Offer.serializeV1(offer, stream);
-			}
+	@Override
+	public void loadServiceData() {
+		super.loadServiceData();
+		productsIndex = null;
+		var startTime = System.nanoTime();
 
-			Offer.serializeV1(null, stream);
-			StonksFabric.LOGGER.info("Saved data to {}", saveFilePath);
+		try {
+			var recovery = OfferSnapshot.recover(saveFilePath, journalDirectory, this::productGetter);
+			insertOffers(recovery.offers());
+			lastGeneration = recovery.generation();
+
+			StonksFabric.LOGGER.info("Loaded {} offers from {} ({} from snapshot, {} journal records replayed) in {}ms",
+				recovery.offers().size(), saveFilePath, recovery.snapshotOffers(), recovery.replayedRecords(),
+				(System.nanoTime() - startTime) / 1_000_000L);
+			if (recovery.damagedSegments() > 0) StonksFabric.LOGGER.warn(
+				"{} journal segments ended with incomplete records, which were discarded",
+				recovery.damagedSegments());
 		} catch (IOException e) {
 			e.printStackTrace();
-			StonksFabric.LOGGER.error("Unable to save data to {}", saveFilePath);
+			StonksFabric.LOGGER.error("Unable to load data from {}", saveFilePath);
+		}
+
+		if (journalEnabled) {
+			try {
+				journal = new FileOfferJournal(journalDirectory, getPriceScale(), lastGeneration + 1,
+					FileOfferJournal.DEFAULT_BUFFER_LIMIT, compression);
+				setJournal(journal);
+			} catch (IOException e) {
+				e.printStackTrace();
+				StonksFabric.LOGGER.error("Unable to open journal in {}, changes will only be saved on shutdown",
+					journalDirectory);
+			}
+		}
+
+		if (archiveEnabled && archive == null) {
+			archive = new FileOfferArchive(archiveDirectory, getPriceScale());
+			setArchive(archive);
 		}
 	}
 
-	@Override
-	public void loadServiceData() {
-		super.loadServiceData();
+	/**
+	 * <p>
+	 * Called once per server tick. Executes batch auctions, flushes the journal and
+	 * the archive, and starts a background save when the save interval is reached or the journal
+	 * is too large.
+	 * </p>
+	 */
+	public void tick() {
+		tickAuctions();
+		ticksSinceSave++;
 
-		if (Files.notExists(saveFilePath)) {
-			StonksFabric.LOGGER.warn("Saved market data not found, skipping...");
-			return;
+		if (journal != null) {
+			try {
+				journal.flush();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				StonksFabric.LOGGER.error("Unable to write journal, changes will only be saved on save interval");
+				journal = null;
+				setJournal(OfferJournal.NONE);
+			}
 		}
 
-		try (var stream = Files.newInputStream(saveFilePath)) {
-			Offer offer;
+		if (archive != null) {
+			try {
+				archive.flush();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				StonksFabric.LOGGER.error("Unable to write archive, trade history will not be recorded");
+				archive = null;
+				setArchive(OfferArchive.NONE);
+			}
+		}
 
-			do {
-				offer = Offer.deserialize(this::productGetter, stream);
-				if (offer != null) insertOffer(offer);
-			} while (offer != null);
+		var intervalReached = saveInterval > 0 && ticksSinceSave >= saveInterval;
+		var journalTooLarge = journal != null && journal.getSegmentSize() >= snapshotSize;
+		if (intervalReached || journalTooLarge) saveInBackground();
+	}
 
-			StonksFabric.LOGGER.info("Loaded data from {}", saveFilePath);
-		} catch (IOException e) {
-			e.printStackTrace();
-			StonksFabric.LOGGER.error("Unable to load data from {}", saveFilePath);
+	@Override
+	public void close() throws IOException {
+		pendingSave.join();
+		setJournal(OfferJournal.NONE);
+
+		setArchive(OfferArchive.NONE);
+
+		try {
+			if (journal != null) {
+				var closing = journal;
+				journal = null;
+				closing.close();
+			}
+		} finally {
+			if (archive != null) {
+				var closing = archive;
+				archive = null;
+				closing.close();
+			}
 		}
 	}
 
 	private Optional<Product> productGetter(String id) {
-		return getModifiableCategories().stream()
-			.flatMap(v -> v.getProducts().stream())
-			.filter(v -> v.getProductId().equals(id))
-			.findFirst();
+		if (productsIndex == null) {
+			// Built once per load, instead of searching all categories for each offer
+			productsIndex = new HashMap<>();
+			getModifiableCategories().stream()
+				.flatMap(v -> v.getProducts().stream())
+				.forEach(v -> productsIndex.putIfAbsent(v.getProductId(), v));
+		}
+
+		return Optional.ofNullable(productsIndex.get(id));
+	}
+
+	/**
+	 * <p>
+	 * Parse {@code compression} and {@code compressionLevel} from service config.
+	 * </p>
+	 * 
+	 * @param config The {@code useService} config.
+	 * @return The compression settings.
+	 */
+	public static Compression parseCompression(Config config) {
+		var enabled = config.firstChild("compression").flatMap(v -> v.getValue(Boolean::parseBoolean)).orElse(false);
+		if (!enabled) return Compression.NONE;
+		var level = config.firstChild("compressionLevel").flatMap(v -> v.getValue(Integer::parseInt))
+			.orElse(Compression.DEFAULT_LEVEL);
+		return Compression.deflate(level);
+	}
+
+	/**
+	 * <p>
+	 * Parse {@code category} and {@code product} entries from service config and
+	 * add them to the categories of the service.
+	 * </p>
+	 * 
+	 * @param config          The {@code useService} config.
+	 * @param categories      Modifiable categories of the service.
+	 * @param auctionInterval Called for each product that has
+	 *                        {@code auctionInterval}, with the interval in ticks.
+	 */
+	public static void parseCategories(Config config, List<MemoryCategory> categories, ObjIntConsumer<Product> auctionInterval) {
+		for (var child : config.getChildren()) if (child.getKey().equals("category")) {
+			var categoryId = child.getValue().get();
+			var categoryName = child.firstChild("name").flatMap(v -> v.getValue()).orElse(categoryId);
+			var category = new MemoryCategory(categoryId, categoryName);
+			categories.add(category);
+
+			for (var child1 : child.getChildren()) if (child1.getKey().equals("product")) {
+				var productId = child1.getValue().get();
+				var productName = child1.firstChild("name").flatMap(v -> v.getValue()).orElse(productId);
+				var productConstruction = child1.firstChild("construction").flatMap(v -> v.getValue()).orElse(null);
+				// TODO
+				var metadata = JsonDynamicFactory.FACTORY.createPrimitive(productConstruction);
+				var product = new MemoryProduct(category, productId, productName, metadata);
+				category.getModifiableMockProducts().add(product);
+				child1.firstChild("auctionInterval").flatMap(v -> v.getValue(Integer::parseInt))
+					.ifPresent(ticks -> auctionInterval.accept(product, ticks));
+			}
+		}
 	}
 
 	public static void register() {
 		StonksProvidersRegistry.registerService(IntegratedStonksService.class, (server, config) -> {
-			var service = new IntegratedStonksService(server);
-
-			for (var child : config.getChildren()) if (child.getKey().equals("category")) {
-				var categoryId = child.getValue().get();
-				var categoryName = child.firstChild("name").flatMap(v -> v.getValue()).orElse(categoryId);
-				var category = new MemoryCategory(categoryId, categoryName);
-				service.getModifiableCategories().add(category);
-
-				for (var child1 : child.getChildren()) if (child1.getKey().equals("product")) {
-					var productId = child1.getValue().get();
-					var productName = child1.firstChild("name").flatMap(v -> v.getValue()).orElse(productId);
-					var productConstruction = child1.firstChild("construction").flatMap(v -> v.getValue()).orElse(null);
-					// TODO
-					var metadata = JsonDynamicFactory.FACTORY.createPrimitive(productConstruction);
-					var product = new MemoryProduct(category, productId, productName, metadata);
-					category.getModifiableMockProducts().add(product);
-				}
-			}
+			var priceDecimals = config.firstChild("priceDecimals").flatMap(v -> v.getValue(Integer::parseInt))
+				.orElse(PriceScale.DEFAULT_DECIMALS);
+			var service = new IntegratedStonksService(server, new PriceScale(priceDecimals));
+			config.firstChild("journal").flatMap(v -> v.getValue(Boolean::parseBoolean))
+				.ifPresent(service::setJournalEnabled);
+			config.firstChild("journalSnapshotSize").flatMap(v -> v.getValue(Long::parseLong))
+				.ifPresent(mb -> service.setSnapshotSize(mb * 1024 * 1024));
+			config.firstChild("saveInterval").flatMap(v -> v.getValue(Integer::parseInt))
+				.ifPresent(service::setSaveInterval);
+			service.setCompression(parseCompression(config));
+			config.firstChild("archive").flatMap(v -> v.getValue(Boolean::parseBoolean))
+				.ifPresent(service::setArchiveEnabled);
+
+			parseCategories(config, service.getModifiableCategories(), service::setAuctionInterval);
 
 			return service;
 		});
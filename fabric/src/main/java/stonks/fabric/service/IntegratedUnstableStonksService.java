@@ -21,15 +21,15 @@
  */
 package stonks.fabric.service;
 
+import java.io.IOException;
+
+import stonks.core.market.PriceScale;
 import stonks.core.service.LocalStonksService;
-import stonks.core.service.memory.MemoryCategory;
-import stonks.core.service.memory.MemoryProduct;
 import stonks.core.service.testing.UnstableStonksService;
 import stonks.fabric.StonksFabric;
-import stonks.fabric.dynamic.json.JsonDynamicFactory;
 import stonks.fabric.provider.StonksProvidersRegistry;
 
-public class IntegratedUnstableStonksService extends UnstableStonksService implements LocalStonksService {
+public class IntegratedUnstableStonksService extends UnstableStonksService implements LocalStonksService, AutoCloseable {
 	private IntegratedStonksService underlying;
 
 	public IntegratedUnstableStonksService(IntegratedStonksService underlying, double failRate, long maxLag) {
@@ -47,30 +47,34 @@ public class IntegratedUnstableStonksService extends UnstableStonksService imple
 		underlying.loadServiceData();
 	}
 
+	@Override
+	public void close() throws IOException {
+		underlying.close();
+	}
+
 	public static void register() {
 		StonksProvidersRegistry.registerService(IntegratedUnstableStonksService.class, (server, config) -> {
 			for (int i = 0; i < 10; i++) StonksFabric.LOGGER.warn("Unstable service is loaded! Testing something?");
 
 			var failRate = config.firstChild("failRate").flatMap(v -> v.getValue(Double::parseDouble)).orElse(0.0);
 			var maxLag = config.firstChild("maxLag").flatMap(v -> v.getValue(Long::parseLong)).orElse(0L);
-			var service = new IntegratedUnstableStonksService(new IntegratedStonksService(server), failRate, maxLag);
-
-			for (var child : config.getChildren()) if (child.getKey().equals("category")) {
-				var categoryId = child.getValue().get();
-				var categoryName = child.firstChild("name").flatMap(v -> v.getValue()).orElse(categoryId);
-				var category = new MemoryCategory(categoryId, categoryName);
-				service.underlying.getModifiableCategories().add(category);
+			var priceDecimals = config.firstChild("priceDecimals").flatMap(v -> v.getValue(Integer::parseInt))
+				.orElse(PriceScale.DEFAULT_DECIMALS);
+			var service = new IntegratedUnstableStonksService(
+				new IntegratedStonksService(server, new PriceScale(priceDecimals)),
+				failRate, maxLag);
+			config.firstChild("journal").flatMap(v -> v.getValue(Boolean::parseBoolean))
+				.ifPresent(service.underlying::setJournalEnabled);
+			config.firstChild("journalSnapshotSize").flatMap(v -> v.getValue(Long::parseLong))
+				.ifPresent(mb -> service.underlying.setSnapshotSize(mb * 1024 * 1024));
+			config.firstChild("saveInterval").flatMap(v -> v.getValue(Integer::parseInt))
+				.ifPresent(service.underlying::setSaveInterval);
+			service.underlying.setCompression(IntegratedStonksService.parseCompression(config));
+			config.firstChild("archive").flatMap(v -> v.getValue(Boolean::parseBoolean))
+				.ifPresent(service.underlying::setArchiveEnabled);
 
-				for (var child1 : child.getChildren()) if (child1.getKey().equals("product")) {
-					var productId = child1.getValue().get();
-					var productName = child1.firstChild("name").flatMap(v -> v.getValue()).orElse(productId);
-					var productConstruction = child1.firstChild("construction").flatMap(v -> v.getValue()).orElse(null);
-					// TODO
-					var metadata = JsonDynamicFactory.FACTORY.createPrimitive(productConstruction);
-					var product = new MemoryProduct(category, productId, productName, metadata);
-					category.getModifiableMockProducts().add(product);
-				}
-			}
+			IntegratedStonksService.parseCategories(config, service.underlying.getModifiableCategories(),
+				service.underlying::setAuctionInterval);
 
 			return service;
 		});
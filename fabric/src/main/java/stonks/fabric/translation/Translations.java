@@ -102,10 +102,10 @@ public final class Translations {
 			public static final Text CancelOffer$Cancelling = translatableWithFallback("stonks.menu.offerInfo.cancelOffer.cancelling", "\u00a77Cancelling...");
 			public static final Text CancelOffer$CancelFailed = translatableWithFallback("stonks.menu.offerInfo.cancelOffer.cancelFailed", "\u00a7cCancel failed!");
 			public static final Text ClaimOffer$Units(int unitsToClaim) { return translatableWithFallback("stonks.menu.offerInfo.claimOffer.units", "\u00a77You have %s \u00a77units to claim", units(unitsToClaim)); }
-			public static final Text ClaimOffer$Money(int unitsToClaim, Offer offer) { return translatableWithFallback("stonks.menu.offerInfo.claimOffer.money", "\u00a77You have %s \u00a77to claim", currency(unitsToClaim * offer.getPricePerUnit())); }
+			public static final Text ClaimOffer$Money(int unitsToClaim, Offer offer) { return translatableWithFallback("stonks.menu.offerInfo.claimOffer.money", "\u00a77You have %s \u00a77to claim", currency(unitsToClaim * offer.getPricePerUnit() + offer.getPriceImprovement())); }
 			public static final Text ClaimOffer$MoneyWithTax(int unitsToClaim, Offer offer, PlatformConfig config) {
 				return translatableWithFallback("stonks.menu.offerInfo.claimOffer.moneyWithTax", "\u00a77You have %s \u00a77to claim (%s\u00a77 tax incl.)",
-					currency(config.applyTax(unitsToClaim * offer.getPricePerUnit())),
+					currency(config.applyTax(unitsToClaim * offer.getPricePerUnit() + offer.getPriceImprovement())),
 					StonksFabricUtils.taxText(config.tax).orElse(Text.literal("0%")));
 			}
 		}
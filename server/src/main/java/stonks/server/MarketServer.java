@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import nahara.common.configurations.Config;
+import stonks.core.market.PriceScale;
+import stonks.core.service.archive.FileOfferArchive;
+import stonks.core.service.archive.OfferArchive;
+import stonks.core.service.memory.MemoryCategory;
+import stonks.core.service.memory.MemoryProduct;
+import stonks.core.service.remote.RemoteProtocol;
+import stonks.core.service.remote.RemoteStonksServer;
+import stonks.core.service.remote.RemoteStonksServer.WorkerModel;
+import stonks.core.service.replication.ReplicationLog;
+import stonks.core.service.segmented.SegmentedStonksService;
+import stonks.server.dynamic.SimpleDynamicFactory;
+
+/**
+ * <p>
+ * Standalone market server, which hosts a {@link SegmentedStonksService} for
+ * {@link stonks.core.service.remote.RemoteStonksService} clients, like
+ * Minecraft servers using {@code FabricRemoteStonksService}. The market runs on
+ * a single thread, which executes requests of all clients in the order they
+ * are received, and ticks the market like a Minecraft server would: batch
+ * auctions are executed, changes are handed to the segment store and the trade
+ * history is flushed once per tick.
+ * </p>
+ */
+public class MarketServer implements AutoCloseable {
+	public static final int DEFAULT_TICK_INTERVAL = 50;
+	public static final int DEFAULT_SAVE_INTERVAL = 20 * 60 * 5;
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+	private final SegmentedStonksService service;
+	private final FileOfferArchive archive;
+	private final InetSocketAddress address;
+	private final ScheduledExecutorService executor;
+	private final RemoteStonksServer server;
+	private int tickInterval = DEFAULT_TICK_INTERVAL;
+	private int saveInterval = DEFAULT_SAVE_INTERVAL;
+	private int ticksSinceSave = 0;
+	private boolean replication = false;
+	private ReplicationLog replicationLog = null;
+	private boolean started = false;
+	private boolean closed = false;
+
+	/**
+	 * <p>
+	 * Create a new market server. Products must be added to the service before
+	 * starting the server.
+	 * </p>
+	 * 
+	 * @param service The service to host.
+	 * @param archive The trade history archive, or {@code null} to not record
+	 *                trade history.
+	 * @param address The address to listen on.
+	 * @param workers How connections are read and written.
+	 */
+	public MarketServer(SegmentedStonksService service, FileOfferArchive archive, InetSocketAddress address, WorkerModel workers) {
+		this.service = service;
+		this.archive = archive;
+		this.address = address;
+		this.executor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("Stonks Market").factory());
+		this.server = new RemoteStonksServer(service, executor);
+		server.setWorkerModel(workers);
+	}
+
+	public SegmentedStonksService getService() { return service; }
+
+	public FileOfferArchive getArchive() { return archive; }
+
+	public RemoteStonksServer getServer() { return server; }
+
+	public int getTickInterval() { return tickInterval; }
+
+	/**
+	 * <p>
+	 * Set the time between 2 ticks. Must be called before {@link #start()}.
+	 * </p>
+	 * 
+	 * @param tickInterval Time in milliseconds.
+	 */
+	public void setTickInterval(int tickInterval) { this.tickInterval = tickInterval; }
+
+	public int getSaveInterval() { return saveInterval; }
+
+	/**
+	 * <p>
+	 * Set the number of ticks between 2 saves. Changes are always written to the
+	 * segment store in background, and saving waits until they are on disk.
+	 * </p>
+	 * 
+	 * @param saveInterval Number of ticks, or {@code 0} to only save when the
+	 *                     server stops.
+	 */
+	public void setSaveInterval(int saveInterval) { this.saveInterval = saveInterval; }
+
+	public boolean isReplication() { return replication; }
+
+	/**
+	 * <p>
+	 * Set whether replicas can connect and receive changes of the market. Must
+	 * be called before {@link #start()}.
+	 * </p>
+	 * 
+	 * @param replication {@code true} to enable replication.
+	 */
+	public void setReplication(boolean replication) { this.replication = replication; }
+
+	/**
+	 * <p>
+	 * Get the replication log after starting.
+	 * </p>
+	 * 
+	 * @return The log, or {@code null} if replication is not enabled.
+	 */
+	public ReplicationLog getReplicationLog() { return replicationLog; }
+
+	/**
+	 * <p>
+	 * Load offers from the segment store and start accepting connections.
+	 * </p>
+	 */
+	public synchronized void start() throws IOException {
+		if (started) throw new IllegalStateException("MarketServer: Already started");
+		started = true;
+		var startTime = System.nanoTime();
+		await(() -> {
+			service.loadServiceData();
+			if (archive != null) service.setArchive(archive);
+
+			// Loading replaces the journal, so the log must wrap the new one
+			if (replication) {
+				replicationLog = new ReplicationLog(service, service.getJournal());
+				service.setJournal(replicationLog);
+			}
+		});
+
+		var recovery = service.getLastRecovery();
+		var loadTime = (System.nanoTime() - startTime) / 1_000_000L;
+		if (service.isLazyLoading()) log("INFO", "Indexed offers in {}ms, products are loaded when first used",
+			loadTime);
+		else log("INFO", "Loaded {} offers ({} log records replayed) in {}ms", recovery.offers().size(),
+			recovery.replayedRecords(), loadTime);
+		if (recovery.damagedSegments() > 0) log("WARN",
+			"{} segments ended with incomplete records, which were discarded", recovery.damagedSegments());
+		if (recovery.unknownProducts() > 0) log("WARN",
+			"Offers of {} products were skipped because the products are not in the catalog",
+			recovery.unknownProducts());
+
+		if (replicationLog != null) server.setReplicationLog(replicationLog);
+		server.bind(address);
+		executor.scheduleAtFixedRate(this::tick, tickInterval, tickInterval, TimeUnit.MILLISECONDS);
+		log("INFO", "Listening on {} with {} workers", server.getAddress(), server.getWorkerModel());
+		if (replicationLog != null) log("INFO", "Replicas can connect to this server");
+	}
+
+	private void tick() {
+		try {
+			service.tickAuctions();
+			if (replicationLog != null) replicationLog.commit();
+			service.flush();
+			if (archive != null) archive.flush();
+			if (saveInterval > 0 && ++ticksSinceSave >= saveInterval) save();
+		} catch (RuntimeException e) {
+			// Keep ticking, the next tick may succeed
+			e.printStackTrace();
+			log("ERROR", "Unable to tick the market");
+		}
+	}
+
+	private void save() {
+		ticksSinceSave = 0;
+		var startTime = System.nanoTime();
+		service.saveServiceData();
+		log("INFO", "Saved {} offers in {}ms, {} clients connected", service.getOffersCount(),
+			(System.nanoTime() - startTime) / 1_000_000L, server.getClientsCount());
+	}
+
+	private void await(Runnable task) throws IOException {
+		try {
+			executor.submit(task).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("MarketServer: Interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof UncheckedIOException io) throw io.getCause();
+			throw new IOException("MarketServer: Task failed", e.getCause());
+		}
+	}
+
+	/**
+	 * <p>
+	 * Stop accepting requests, save all changes and close the service.
+	 * </p>
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		server.close();
+
+		if (started) {
+			await(() -> {
+				try {
+					save();
+					service.setArchive(OfferArchive.NONE);
+					service.close();
+					if (archive != null) archive.close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+
+		executor.shutdownNow();
+	}
+
+	/**
+	 * <p>
+	 * Create a market server from the configuration. The {@code server} block
+	 * configures the listener, and the {@code market} block takes the same
+	 * products and options as {@code useService} in the Fabric configuration.
+	 * </p>
+	 * 
+	 * @param config    The configuration.
+	 * @param directory The directory for relative paths.
+	 * @return The market server.
+	 */
+	public static MarketServer fromConfig(Config config, Path directory) {
+		var serverConfig = config.firstChild("server");
+		var host = serverConfig.flatMap(c -> c.firstChild("host")).flatMap(v -> v.getValue()).orElse("0.0.0.0");
+		var port = serverConfig.flatMap(c -> c.firstChild("port")).flatMap(v -> v.getValue(Integer::parseInt))
+			.orElse(RemoteProtocol.DEFAULT_PORT);
+		var workers = serverConfig.flatMap(c -> c.firstChild("workers")).flatMap(v -> v.getValue(MarketServer::parseWorkers))
+			.orElse(WorkerModel.VIRTUAL_THREADS);
+
+		// "useService" is accepted so the block can be copied from Fabric configuration
+		var market = config.firstChild("market").or(() -> config.firstChild("useService"))
+			.orElseThrow(() -> new IllegalArgumentException("MarketServer: Missing market configuration"));
+		var priceDecimals = market.firstChild("priceDecimals").flatMap(v -> v.getValue(Integer::parseInt))
+			.orElse(PriceScale.DEFAULT_DECIMALS);
+		var dataDirectory = directory.resolve(market.firstChild("dataDirectory").flatMap(v -> v.getValue())
+			.orElse("market"));
+		var scale = new PriceScale(priceDecimals);
+		var service = new SegmentedStonksService(dataDirectory.resolve("segments"), scale);
+		market.firstChild("lazyLoading").flatMap(v -> v.getValue(Boolean::parseBoolean))
+			.ifPresent(service::setLazyLoading);
+		market.firstChild("maxResidentOffers").flatMap(v -> v.getValue(Integer::parseInt))
+			.ifPresent(service::setMaxResidentOffers);
+		var archive = market.firstChild("archive").flatMap(v -> v.getValue(Boolean::parseBoolean)).orElse(false)
+			? new FileOfferArchive(dataDirectory.resolve("archive"), scale)
+			: null;
+
+		for (var child : market.getChildren()) if (child.getKey().equals("category")) {
+			var categoryId = child.getValue().get();
+			var categoryName = child.firstChild("name").flatMap(v -> v.getValue()).orElse(categoryId);
+			var category = new MemoryCategory(categoryId, categoryName);
+			service.getModifiableCategories().add(category);
+
+			for (var child1 : child.getChildren()) if (child1.getKey().equals("product")) {
+				var productId = child1.getValue().get();
+				var productName = child1.firstChild("name").flatMap(v -> v.getValue()).orElse(productId);
+				var productConstruction = child1.firstChild("construction").flatMap(v -> v.getValue()).orElse(null);
+				var metadata = productConstruction != null
+					? SimpleDynamicFactory.FACTORY.createPrimitive(productConstruction)
+					: null;
+				var product = new MemoryProduct(category, productId, productName, metadata);
+				category.getModifiableMockProducts().add(product);
+				child1.firstChild("auctionInterval").flatMap(v -> v.getValue(Integer::parseInt))
+					.ifPresent(ticks -> service.setAuctionInterval(product, ticks));
+			}
+		}
+
+		var server = new MarketServer(service, archive, new InetSocketAddress(host, port), workers);
+		serverConfig.flatMap(c -> c.firstChild("tickInterval")).flatMap(v -> v.getValue(Integer::parseInt))
+			.ifPresent(server::setTickInterval);
+		serverConfig.flatMap(c -> c.firstChild("replication")).flatMap(v -> v.getValue(Boolean::parseBoolean))
+			.ifPresent(server::setReplication);
+		market.firstChild("saveInterval").flatMap(v -> v.getValue(Integer::parseInt))
+			.ifPresent(server::setSaveInterval);
+		return server;
+	}
+
+	private static WorkerModel parseWorkers(String value) {
+		return switch (value) {
+		case "virtualThreads" -> WorkerModel.VIRTUAL_THREADS;
+		case "eventLoop" -> WorkerModel.EVENT_LOOP;
+		default -> throw new IllegalArgumentException("MarketServer: Unknown workers: " + value);
+		};
+	}
+
+	static void log(String level, String message, Object... args) {
+		var out = level.equals("INFO") ? System.out : System.err;
+		var formatted = new StringBuilder();
+		int from = 0, next = 0;
+
+		for (int at; next < args.length && (at = message.indexOf("{}", from)) >= 0; from = at + 2)
+			formatted.append(message, from, at).append(args[next++]);
+
+		formatted.append(message, from, message.length());
+		out.printf(Locale.ROOT, "[%s] [%s] %s%n", LocalTime.now().format(TIME_FORMAT), level, formatted);
+	}
+
+	public static void main(String[] args) throws IOException {
+		var configFile = Path.of(args.length > 0 ? args[0] : "config").toAbsolutePath();
+
+		if (Files.notExists(configFile)) {
+			log("WARN", "Configuration file not found! Creating new configuration file at {}", configFile);
+
+			try (var in = MarketServer.class.getClassLoader().getResourceAsStream("default-config")) {
+				Files.copy(in, configFile);
+			}
+		}
+
+		var market = fromConfig(Config.parseConfig(configFile), configFile.getParent());
+		var productsCount = market.getService().getModifiableCategories().stream()
+			.mapToInt(c -> c.getProducts().size())
+			.sum();
+		log("INFO", "Starting market with {} products", productsCount);
+		market.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			log("INFO", "Stopping market...");
+
+			try {
+				market.close();
+				log("INFO", "Market stopped");
+			} catch (IOException | RuntimeException e) {
+				e.printStackTrace();
+				log("ERROR", "Unable to save the market");
+			}
+		}, "Stonks Market Shutdown"));
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2023-2024 nahkd
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package stonks.server.dynamic;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+import stonks.core.dynamic.Dynamic;
+import stonks.core.dynamic.DynamicFactory;
+import stonks.core.dynamic.DynamicList;
+import stonks.core.dynamic.DynamicMap;
+import stonks.core.dynamic.DynamicPrimitive;
+
+/**
+ * <p>
+ * Factory for product metadata that keeps values in plain Java collections.
+ * The market server only passes metadata to clients, so it doesn't need a
+ * JSON library like Fabric does.
+ * </p>
+ */
+public final class SimpleDynamicFactory implements DynamicFactory {
+	public static final SimpleDynamicFactory FACTORY = new SimpleDynamicFactory();
+
+	private SimpleDynamicFactory() {}
+
+	@Override
+	public DynamicPrimitive createPrimitive(Number value) {
+		return new SimplePrimitive(value);
+	}
+
+	@Override
+	public DynamicPrimitive createPrimitive(String value) {
+		return new SimplePrimitive(value);
+	}
+
+	@Override
+	public DynamicPrimitive createPrimitive(boolean value) {
+		return new SimplePrimitive(value);
+	}
+
+	@Override
+	public DynamicMap createMap() {
+		return new SimpleMap();
+	}
+
+	@Override
+	public DynamicList createList() {
+		return new SimpleList();
+	}
+
+	private static record SimplePrimitive(Object value) implements DynamicPrimitive {
+		@Override
+		public DynamicFactory getFactory() { return FACTORY; }
+
+		@Override
+		public String asString() { return String.valueOf(value); }
+
+		@Override
+		public boolean isString() { return value instanceof String; }
+
+		@Override
+		public Number asNumber() { return value instanceof Number n ? n : Double.parseDouble(asString()); }
+
+		@Override
+		public boolean isNumber() { return value instanceof Number; }
+
+		@Override
+		public boolean asBoolean() { return value instanceof Boolean b ? b : Boolean.parseBoolean(asString()); }
+
+		@Override
+		public boolean isBoolean() { return value instanceof Boolean; }
+	}
+
+	private static class SimpleMap implements DynamicMap {
+		private final LinkedHashMap<String, Dynamic> entries = new LinkedHashMap<>();
+
+		@Override
+		public DynamicFactory getFactory() { return FACTORY; }
+
+		@Override
+		public Set<String> keys() {
+			return entries.keySet();
+		}
+
+		@Override
+		public Dynamic getOrNull(String key) {
+			return entries.get(key);
+		}
+
+		@Override
+		public Dynamic put(String key, Dynamic value) {
+			return entries.put(key, value);
+		}
+
+		@Override
+		public boolean remove(String key) {
+			return entries.remove(key) != null;
+		}
+	}
+
+	private static class SimpleList implements DynamicList {
+		private final ArrayList<Dynamic> values = new ArrayList<>();
+
+		@Override
+		public DynamicFactory getFactory() { return FACTORY; }
+
+		@Override
+		public int size() {
+			return values.size();
+		}
+
+		@Override
+		public Dynamic get(int at) {
+			return values.get(at);
+		}
+
+		@Override
+		public void add(int insertAt, Dynamic value) {
+			values.add(insertAt, value);
+		}
+
+		@Override
+		public void remove(int at) {
+			values.remove(at);
+		}
+	}
+}